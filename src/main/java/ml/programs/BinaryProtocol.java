@@ -0,0 +1,101 @@
+package ml.programs;
+
+/*
+ * Copyright (c) 2024 by Max Lemberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The length-prefixed binary protocol spoken by {@link BinaryProtocolServer} and {@link BinaryProtocolClient}.
+ * <p>
+ * All integers are big-endian. Every frame starts with the number of bytes that follow the length field.
+ * <pre>
+ * request:  int length | int id | UTF-8 expression
+ * response: int length | int id | byte status | UTF-8 result
+ * </pre>
+ * The id is chosen by the client and copied into the response, so a client can send many requests without waiting
+ * (pipelining). The server answers the requests of one connection in the order they were sent. A request that cannot be
+ * calculated is answered with {@link #STATUS_ERROR} under its own id; id 0 is never used by a client, the server answers
+ * an invalid frame with it and closes the connection.
+ */
+public final class BinaryProtocol {
+    // Length of the length field in front of every frame
+    public static final int LENGTH_FIELD = 4;
+    // Length of the fixed part of a request: the id
+    public static final int REQUEST_HEADER = 4;
+    // Length of the fixed part of a response: the id and the status
+    public static final int RESPONSE_HEADER = 5;
+    // Frames larger than this are rejected, the connection is closed
+    public static final int MAX_FRAME_LENGTH = 64 * 1024;
+
+    // The expression has been calculated, the payload is the result of CalculatorEngine.calculate (which may be an error message)
+    public static final byte STATUS_OK = 0;
+    // The request could not be processed, the payload describes the problem
+    public static final byte STATUS_ERROR = 1;
+
+    private BinaryProtocol() {
+    }
+
+    /**
+     * Appends a request frame to the buffer.
+     *
+     * @param buffer     The buffer to write to, it must have enough space left.
+     * @param id         The id of the request.
+     * @param expression The encoded expression.
+     */
+    public static void putRequest(final ByteBuffer buffer, final int id, final byte[] expression) {
+        buffer.putInt(REQUEST_HEADER + expression.length);
+        buffer.putInt(id);
+        buffer.put(expression);
+    }
+
+    /**
+     * Appends a response frame to the buffer.
+     *
+     * @param buffer The buffer to write to, it must have enough space left.
+     * @param id     The id of the request that is answered.
+     * @param status The status of the response.
+     * @param result The encoded result.
+     */
+    public static void putResponse(final ByteBuffer buffer, final int id, final byte status, final byte[] result) {
+        buffer.putInt(RESPONSE_HEADER + result.length);
+        buffer.putInt(id);
+        buffer.put(status);
+        buffer.put(result);
+    }
+
+    public static byte[] encode(final String text) {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Decodes the payload of a frame without copying it out of the buffer first.
+     *
+     * @param buffer The buffer containing the frame.
+     * @param offset The absolute position of the payload in the buffer.
+     * @param length The length of the payload.
+     * @return The decoded text.
+     */
+    public static String decode(final ByteBuffer buffer, final int offset, final int length) {
+        if (buffer.hasArray()) {
+            return new String(buffer.array(), buffer.arrayOffset() + offset, length, StandardCharsets.UTF_8);
+        }
+        final byte[] bytes = new byte[length];
+        buffer.get(offset, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,214 @@
+package ml.programs;
+
+/*
+ * Copyright (c) 2024 by Max Lemberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Client for the {@link BinaryProtocolServer}.
+ * <p>
+ * {@link #calculateAll(List)} pipelines the requests: they are sent in chunks of up to {@link #CHUNK_SIZE} bytes without
+ * waiting for the responses in between. A client may be shared by several threads, the calls are serialized.
+ * <p>
+ * An error the server reports for a single request is the result of that expression, the other results are not affected.
+ * If the connection itself fails, the responses still on their way can no longer be assigned, so the client closes it
+ * and rejects all further calls.
+ *
+ * @author Max Lemberg
+ */
+public class BinaryProtocolClient implements Closeable {
+    // Maximum number of request bytes sent before the responses are read. It stays below the usual socket buffer sizes,
+    // so neither side blocks on a full buffer while the other one is still writing.
+    public static final int CHUNK_SIZE = 32 * 1024;
+
+    private final SocketChannel channel;
+    private final ByteBuffer out = ByteBuffer.allocate(BinaryProtocol.LENGTH_FIELD + BinaryProtocol.MAX_FRAME_LENGTH);
+    private ByteBuffer in = ByteBuffer.allocate(16 * 1024);
+    // Id 0 is left to the server for errors of the whole connection
+    private int nextId = 1;
+    private boolean broken;
+
+    private BinaryProtocolClient(final SocketChannel channel) {
+        this.channel = channel;
+    }
+
+    /**
+     * Connects to a server listening on the given Unix domain socket.
+     *
+     * @param socketPath The path of the socket.
+     * @return The connected client.
+     * @throws IOException If the connection cannot be established.
+     */
+    public static BinaryProtocolClient connect(final Path socketPath) throws IOException {
+        return connect(UnixDomainSocketAddress.of(socketPath));
+    }
+
+    /**
+     * Connects to a server listening on the given address.
+     *
+     * @param address The address of the server.
+     * @return The connected client.
+     * @throws IOException If the connection cannot be established.
+     */
+    public static BinaryProtocolClient connect(final SocketAddress address) throws IOException {
+        final SocketChannel channel = address instanceof UnixDomainSocketAddress
+                ? SocketChannel.open(StandardProtocolFamily.UNIX)
+                : SocketChannel.open();
+        try {
+            channel.connect(address);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        return new BinaryProtocolClient(channel);
+    }
+
+    /**
+     * Calculates a single expression.
+     *
+     * @param expression The expression to be calculated.
+     * @return The result as returned by {@link CalculatorEngine#calculate(String)} or the error reported by the server.
+     * @throws IOException If the connection fails, the client cannot be used any more afterwards.
+     */
+    public String calculate(final String expression) throws IOException {
+        return calculateAll(List.of(expression)).get(0);
+    }
+
+    /**
+     * Calculates all expressions, pipelining the requests.
+     *
+     * @param expressions The expressions to be calculated.
+     * @return The results in the order of the expressions, each one may also be an error reported by the server.
+     * @throws IOException If the connection fails, the client cannot be used any more afterwards.
+     */
+    public synchronized List<String> calculateAll(final List<String> expressions) throws IOException {
+        if (broken) {
+            throw new IOException("Verbindung unterbrochen");
+        }
+        final String[] results = new String[expressions.size()];
+        final int[] ids = new int[expressions.size()];
+        final List<Integer> sent = new ArrayList<>();
+
+        try {
+            int index = 0;
+            while (index < expressions.size()) {
+                // Fill one chunk with as many requests as fit, but always at least one
+                out.clear();
+                sent.clear();
+                while (index < expressions.size()) {
+                    final byte[] expression = BinaryProtocol.encode(expressions.get(index));
+                    if (BinaryProtocol.REQUEST_HEADER + expression.length > BinaryProtocol.MAX_FRAME_LENGTH) {
+                        // The server would close the connection on such a frame, so it is answered without sending it
+                        results[index++] = "Ungültige Eingabe";
+                        continue;
+                    }
+                    final int length = BinaryProtocol.LENGTH_FIELD + BinaryProtocol.REQUEST_HEADER + expression.length;
+                    if (!sent.isEmpty() && out.position() + length > CHUNK_SIZE) {
+                        break;
+                    }
+                    ids[index] = nextId;
+                    nextId = following(nextId);
+                    BinaryProtocol.putRequest(out, ids[index], expression);
+                    sent.add(index++);
+                }
+
+                out.flip();
+                while (out.hasRemaining()) {
+                    channel.write(out);
+                }
+
+                for (final int i : sent) {
+                    results[i] = readResponse(ids[i]);
+                }
+            }
+        } catch (IOException e) {
+            broken = true;
+            channel.close();
+            throw e;
+        }
+        return Arrays.asList(results);
+    }
+
+    private static int following(final int id) {
+        return id == Integer.MAX_VALUE ? 1 : id + 1;
+    }
+
+    /**
+     * Reads the next response from the connection.
+     *
+     * @param expectedId The id of the request the response has to belong to.
+     * @return The result contained in the response, for an error status the error message.
+     * @throws IOException If the connection fails or the response belongs to another request.
+     */
+    private String readResponse(final int expectedId) throws IOException {
+        fill(BinaryProtocol.LENGTH_FIELD);
+        final int length = in.getInt(0);
+        if (length < BinaryProtocol.RESPONSE_HEADER) {
+            throw new IOException("Ungültige Antwort");
+        }
+        fill(BinaryProtocol.LENGTH_FIELD + length);
+
+        final int id = in.getInt(BinaryProtocol.LENGTH_FIELD);
+        final byte status = in.get(BinaryProtocol.LENGTH_FIELD + 4);
+        final String result = BinaryProtocol.decode(in, BinaryProtocol.LENGTH_FIELD + BinaryProtocol.RESPONSE_HEADER,
+                length - BinaryProtocol.RESPONSE_HEADER);
+
+        // Drop the frame, keep whatever has already been read of the following frames
+        in.flip();
+        in.position(BinaryProtocol.LENGTH_FIELD + length);
+        in.compact();
+
+        if (id != expectedId) {
+            // An error of the whole connection, e.g. a rejected frame, is answered with id 0
+            throw new IOException(status == BinaryProtocol.STATUS_ERROR ? result : "Ungültige Antwort");
+        }
+        return result;
+    }
+
+    /**
+     * Reads from the connection until the buffer holds at least the given number of bytes, starting at index 0.
+     */
+    private void fill(final int bytes) throws IOException {
+        if (in.capacity() < bytes) {
+            final ByteBuffer larger = ByteBuffer.allocate(bytes);
+            in.flip();
+            larger.put(in);
+            in = larger;
+        }
+        while (in.position() < bytes) {
+            if (channel.read(in) < 0) {
+                throw new EOFException();
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
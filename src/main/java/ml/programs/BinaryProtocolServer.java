@@ -0,0 +1,500 @@
+package ml.programs;
+
+/*
+ * Copyright (c) 2024 by Max Lemberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Serves the {@link BinaryProtocol} over a Unix domain socket.
+ * <p>
+ * The server runs a fixed number of event loops, each with its own selector and non-blocking channels, and a separate
+ * thread that accepts new connections and assigns each one to an event loop for its whole life time. The event loops
+ * only read and write: every request is calculated on its own virtual thread, and a finished calculation is handed
+ * back to the event loop of its connection. A calculation that does not finish within the timeout is interrupted and
+ * answered with the error "Zeitüberschreitung".
+ * <p>
+ * The responses of a connection are sent in the order of its requests, all that are finished together with a single
+ * write. No further requests are read from a connection while it still has calculations running or responses waiting
+ * to be written.
+ *
+ * @author Max Lemberg
+ */
+public class BinaryProtocolServer implements Closeable {
+    public static final long DEFAULT_TIMEOUT_MILLIS = 2000;
+
+    private static final String TIMEOUT_MESSAGE = "Zeitüberschreitung";
+
+    private final Path socketPath;
+    private final Function<String, String> calculator;
+    private final long timeoutMillis;
+    private final ServerSocketChannel serverChannel;
+    private final EventLoop[] eventLoops;
+    private final Thread[] threads;
+    private final Thread acceptor;
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final ScheduledThreadPoolExecutor timeouts;
+    private volatile boolean running = true;
+
+    /**
+     * Binds a new server to the given socket path and starts its event loops. An existing socket file at the path is replaced.
+     *
+     * @param socketPath The path of the Unix domain socket.
+     * @param threads    The number of event loops.
+     * @throws IOException If the socket cannot be created.
+     */
+    public BinaryProtocolServer(final Path socketPath, final int threads) throws IOException {
+        this(socketPath, threads, DEFAULT_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * Binds a new server with the given timeout for a single calculation.
+     *
+     * @param socketPath    The path of the Unix domain socket.
+     * @param threads       The number of event loops.
+     * @param timeoutMillis The maximum time a single calculation may take, in milliseconds.
+     * @throws IOException If the socket cannot be created.
+     */
+    public BinaryProtocolServer(final Path socketPath, final int threads, final long timeoutMillis) throws IOException {
+        this(socketPath, threads, timeoutMillis, CalculatorEngine::calculate);
+    }
+
+    /**
+     * Binds a new server that calculates the requests with the given function instead of the engine.
+     *
+     * @param socketPath    The path of the Unix domain socket.
+     * @param threads       The number of event loops.
+     * @param timeoutMillis The maximum time a single calculation may take, in milliseconds.
+     * @param calculator    Calculates the result of an expression.
+     * @throws IOException If the socket cannot be created.
+     */
+    BinaryProtocolServer(final Path socketPath, final int threads, final long timeoutMillis,
+                         final Function<String, String> calculator) throws IOException {
+        this.socketPath = socketPath;
+        this.calculator = calculator;
+        this.timeoutMillis = timeoutMillis;
+        Files.deleteIfExists(socketPath);
+
+        // Accepting blocks on its own thread, so the event loops never wait for it
+        this.serverChannel = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        this.serverChannel.bind(UnixDomainSocketAddress.of(socketPath));
+
+        this.timeouts = new ScheduledThreadPoolExecutor(1, Thread.ofPlatform().name("rechenmax-uds-timeout").daemon().factory());
+        // Most calculations finish long before their timeout, their timers are removed right away
+        this.timeouts.setRemoveOnCancelPolicy(true);
+
+        this.eventLoops = new EventLoop[threads];
+        this.threads = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            eventLoops[i] = new EventLoop();
+        }
+        for (int i = 0; i < threads; i++) {
+            this.threads[i] = new Thread(eventLoops[i], "rechenmax-uds-" + i);
+            this.threads[i].start();
+        }
+        this.acceptor = new Thread(this::accept, "rechenmax-uds-accept");
+        this.acceptor.start();
+    }
+
+    /**
+     * Starts the server with the options given on the command line:
+     * {@code --socket=<path>}, {@code --threads=<event loops>}, {@code --timeout=<milliseconds>},
+     * {@code --cache=<entries>} to enable the result cache of the engine, {@code --data-dir=<path>} to let the
+     * statistics read files from that directory, {@code --metrics} to publish the engine metrics over JMX and
+     * {@code --exit-with-parent} to stop the server when the process that started it ends. File access is disabled
+     * without a data directory.
+     *
+     * @param args The command line arguments.
+     * @throws IOException If the server cannot be started.
+     */
+    public static void main(final String[] args) throws IOException {
+        Path socketPath = Path.of(System.getProperty("java.io.tmpdir"), "rechenmax.sock");
+        int threads = Runtime.getRuntime().availableProcessors();
+        long timeoutMillis = DEFAULT_TIMEOUT_MILLIS;
+        boolean exitWithParent = false;
+
+        for (final String arg : args) {
+            if (arg.startsWith("--socket=")) {
+                socketPath = Path.of(arg.substring("--socket=".length()));
+            } else if (arg.startsWith("--threads=")) {
+                threads = Integer.parseInt(arg.substring("--threads=".length()));
+            } else if (arg.startsWith("--timeout=")) {
+                timeoutMillis = Long.parseLong(arg.substring("--timeout=".length()));
+            } else if (arg.startsWith("--cache=")) {
+                CalculatorEngine.enableResultCache(Integer.parseInt(arg.substring("--cache=".length())));
+            } else if (arg.startsWith("--data-dir=")) {
+                SpecialForms.setDataDirectory(Path.of(arg.substring("--data-dir=".length())));
+            } else if (arg.equals("--metrics")) {
+                EngineMetrics.register();
+            } else if (arg.equals("--exit-with-parent")) {
+                exitWithParent = true;
+            } else {
+                System.err.println("Unbekannte Option: " + arg);
+                System.exit(1);
+            }
+        }
+
+        // The debugging output of the engine is synchronized and would serialize all requests
+        CalculatorEngine.DEBUG = false;
+
+        final BinaryProtocolServer server = new BinaryProtocolServer(socketPath, threads, timeoutMillis);
+        Runtime.getRuntime().addShutdownHook(new Thread(server::close));
+        if (exitWithParent) {
+            // Worker processes must not outlive a coordinator that crashed without stopping them
+            ProcessHandle.current().parent().ifPresent(parent -> parent.onExit().thenRun(() -> System.exit(0)));
+        }
+        System.out.println("RechenMax server listening on " + socketPath);
+    }
+
+    public Path getSocketPath() {
+        return socketPath;
+    }
+
+    /**
+     * Stops accepting, stops all event loops, cancels the running calculations, closes all connections and removes the
+     * socket file.
+     */
+    @Override
+    public void close() {
+        running = false;
+        try {
+            // Also ends the blocking accept
+            serverChannel.close();
+        } catch (IOException e) {
+            // The socket is closed either way
+        }
+        for (final EventLoop eventLoop : eventLoops) {
+            eventLoop.selector.wakeup();
+        }
+        try {
+            acceptor.join(1000);
+            for (final Thread thread : threads) {
+                thread.join(1000);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        executor.shutdownNow();
+        timeouts.shutdownNow();
+        try {
+            Files.deleteIfExists(socketPath);
+        } catch (IOException e) {
+            // Nothing left to clean up
+        }
+    }
+
+    /**
+     * Accepts connections until the server is closed and hands them to the event loops in turn.
+     */
+    private void accept() {
+        int nextEventLoop = 0;
+        while (running) {
+            final SocketChannel channel;
+            try {
+                channel = serverChannel.accept();
+                channel.configureBlocking(false);
+            } catch (ClosedChannelException e) {
+                return;
+            } catch (IOException e) {
+                e.printStackTrace();
+                continue;
+            }
+            final EventLoop eventLoop = eventLoops[nextEventLoop];
+            nextEventLoop = (nextEventLoop + 1) % eventLoops.length;
+            eventLoop.newConnections.add(channel);
+            eventLoop.selector.wakeup();
+        }
+    }
+
+    /**
+     * One selector thread serving the connections assigned to it.
+     */
+    private final class EventLoop implements Runnable {
+        private final Selector selector;
+        private final Queue<SocketChannel> newConnections = new ConcurrentLinkedQueue<>();
+        // Connections with a calculation that has finished since the last round
+        private final Queue<Connection> completed = new ConcurrentLinkedQueue<>();
+
+        EventLoop() throws IOException {
+            this.selector = Selector.open();
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (running) {
+                    selector.select();
+
+                    SocketChannel channel;
+                    while ((channel = newConnections.poll()) != null) {
+                        final SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+                        key.attach(new Connection(this, channel, key));
+                    }
+
+                    Connection connection;
+                    while ((connection = completed.poll()) != null) {
+                        connection.update();
+                    }
+
+                    final Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        final SelectionKey key = keys.next();
+                        keys.remove();
+                        handle(key);
+                    }
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            } finally {
+                for (final SelectionKey key : selector.keys()) {
+                    ((Connection) key.attachment()).close();
+                }
+                try {
+                    selector.close();
+                } catch (IOException e) {
+                    // Nothing left to clean up
+                }
+            }
+        }
+
+        private void handle(final SelectionKey key) {
+            final Connection connection = (Connection) key.attachment();
+            if (!key.isValid()) {
+                return;
+            }
+            try {
+                if (key.isWritable()) {
+                    connection.flush();
+                }
+                if (key.isValid() && key.isReadable() && !connection.read()) {
+                    connection.close();
+                    return;
+                }
+            } catch (IOException e) {
+                connection.close();
+                return;
+            }
+            connection.update();
+        }
+
+        /**
+         * Called on the thread of a finished calculation, the connection is updated on the next round of the event loop.
+         */
+        void complete(final Connection connection) {
+            completed.add(connection);
+            selector.wakeup();
+        }
+    }
+
+    /**
+     * A request being calculated. When it is finished, in whatever way, its connection is handed back to the event loop.
+     */
+    private final class Calculation extends FutureTask<String> {
+        private final Connection connection;
+        private final int id;
+        private volatile ScheduledFuture<?> timeout;
+
+        Calculation(final Connection connection, final int id, final String expression) {
+            super(() -> calculator.apply(expression));
+            this.connection = connection;
+            this.id = id;
+        }
+
+        @Override
+        protected void done() {
+            final ScheduledFuture<?> timer = timeout;
+            if (timer != null) {
+                timer.cancel(false);
+            }
+            connection.eventLoop.complete(connection);
+        }
+    }
+
+    /**
+     * The buffers and the running calculations of one connection. Only used on the thread of its event loop.
+     */
+    private final class Connection {
+        private final EventLoop eventLoop;
+        private final SocketChannel channel;
+        private final SelectionKey key;
+        // Large enough for the biggest allowed frame, so a complete frame always fits after compacting
+        private final ByteBuffer in = ByteBuffer.allocate(BinaryProtocol.LENGTH_FIELD + BinaryProtocol.MAX_FRAME_LENGTH);
+        private ByteBuffer out = ByteBuffer.allocate(8 * 1024);
+        // The calculations in the order of the requests, the first one is answered next
+        private final Deque<Calculation> pending = new ArrayDeque<>();
+        // Set after a protocol error, the connection is closed once the error has been written
+        private boolean closing;
+
+        Connection(final EventLoop eventLoop, final SocketChannel channel, final SelectionKey key) {
+            this.eventLoop = eventLoop;
+            this.channel = channel;
+            this.key = key;
+        }
+
+        /**
+         * Reads from the channel and starts a calculation for every complete request.
+         *
+         * @return False if the connection has been closed by the client.
+         */
+        boolean read() throws IOException {
+            if (channel.read(in) < 0) {
+                return false;
+            }
+
+            in.flip();
+            while (in.remaining() >= BinaryProtocol.LENGTH_FIELD) {
+                final int start = in.position();
+                final int length = in.getInt(start);
+                if (length < BinaryProtocol.REQUEST_HEADER || length > BinaryProtocol.MAX_FRAME_LENGTH) {
+                    // The stream cannot be resynchronized, the error ends the connection
+                    cancelAll();
+                    respond(0, BinaryProtocol.STATUS_ERROR, "Ungültige Anfrage");
+                    closing = true;
+                    in.clear();
+                    return true;
+                }
+                if (in.remaining() < BinaryProtocol.LENGTH_FIELD + length) {
+                    break;
+                }
+
+                final int id = in.getInt(start + BinaryProtocol.LENGTH_FIELD);
+                final String expression = BinaryProtocol.decode(in, start + BinaryProtocol.LENGTH_FIELD + BinaryProtocol.REQUEST_HEADER,
+                        length - BinaryProtocol.REQUEST_HEADER);
+                in.position(start + BinaryProtocol.LENGTH_FIELD + length);
+
+                submit(id, expression);
+            }
+            in.compact();
+            return true;
+        }
+
+        private void submit(final int id, final String expression) {
+            final Calculation calculation = new Calculation(this, id, expression);
+            pending.add(calculation);
+            executor.execute(calculation);
+            calculation.timeout = timeouts.schedule(() -> calculation.cancel(true), timeoutMillis, TimeUnit.MILLISECONDS);
+            if (calculation.isDone()) {
+                // Finished before the timer was set, done() could not cancel it
+                calculation.timeout.cancel(false);
+            }
+        }
+
+        /**
+         * Collects the responses of the calculations that are finished in order, writes them and decides what the
+         * connection waits for next.
+         */
+        void update() {
+            if (!key.isValid()) {
+                return;
+            }
+            while (!pending.isEmpty() && pending.peekFirst().isDone()) {
+                final Calculation calculation = pending.pollFirst();
+                try {
+                    respond(calculation.id, BinaryProtocol.STATUS_OK, calculation.get());
+                } catch (CancellationException e) {
+                    respond(calculation.id, BinaryProtocol.STATUS_ERROR, TIMEOUT_MESSAGE);
+                } catch (ExecutionException e) {
+                    // A calculation that fails with an exception instead of an error message, e.g. a StackOverflowError
+                    respond(calculation.id, BinaryProtocol.STATUS_ERROR, "Syntax Fehler");
+                } catch (InterruptedException e) {
+                    // Cannot happen, the calculation is done
+                    Thread.currentThread().interrupt();
+                }
+            }
+
+            try {
+                if (!flush()) {
+                    key.interestOps(SelectionKey.OP_WRITE);
+                } else if (closing) {
+                    close();
+                } else {
+                    // Only read further requests once all earlier ones have been answered
+                    key.interestOps(pending.isEmpty() ? SelectionKey.OP_READ : 0);
+                }
+            } catch (IOException e) {
+                close();
+            }
+        }
+
+        private void respond(final int id, final byte status, final String result) {
+            final byte[] bytes = BinaryProtocol.encode(result);
+            final int needed = BinaryProtocol.LENGTH_FIELD + BinaryProtocol.RESPONSE_HEADER + bytes.length;
+            if (out.remaining() < needed) {
+                final ByteBuffer larger = ByteBuffer.allocate(Math.max(out.capacity() * 2, out.position() + needed));
+                out.flip();
+                larger.put(out);
+                out = larger;
+            }
+            BinaryProtocol.putResponse(out, id, status, bytes);
+        }
+
+        /**
+         * Writes the collected responses with a single write.
+         *
+         * @return True if all responses have been written.
+         */
+        boolean flush() throws IOException {
+            out.flip();
+            if (out.hasRemaining()) {
+                channel.write(out);
+            }
+            final boolean done = !out.hasRemaining();
+            out.compact();
+            return done;
+        }
+
+        private void cancelAll() {
+            for (final Calculation calculation : pending) {
+                calculation.cancel(true);
+            }
+            pending.clear();
+        }
+
+        void close() {
+            cancelAll();
+            key.cancel();
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // The connection is closed either way
+            }
+        }
+    }
+}
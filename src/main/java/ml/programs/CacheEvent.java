@@ -0,0 +1,58 @@
+package ml.programs;
+
+/*
+ * Copyright (c) 2024 by Max Lemberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * JDK Flight Recorder event for the lookups and evictions of the caches used by the {@link CalculatorEngine}.
+ */
+@Name("ml.programs.Cache")
+@Label("Cache Activity")
+@Category({"RechenMax", "Cache"})
+@Description("Hit, miss or eviction in one of the engine caches")
+@StackTrace(false)
+public class CacheEvent extends jdk.jfr.Event {
+    public static final String HIT = "hit";
+    public static final String MISS = "miss";
+    public static final String EVICTION = "eviction";
+
+    @Label("Cache")
+    public String cache;
+
+    @Label("Action")
+    public String action;
+
+    /**
+     * Emits an event if cache events are enabled in the running recording.
+     *
+     * @param cache  The name of the cache.
+     * @param action {@link #HIT}, {@link #MISS} or {@link #EVICTION}.
+     */
+    public static void emit(final String cache, final String action) {
+        final CacheEvent event = new CacheEvent();
+        if (event.shouldCommit()) {
+            event.cache = cache;
+            event.action = action;
+            event.commit();
+        }
+    }
+}
@@ -15,6 +15,7 @@ package ml.programs;/*
  */
 
 import java.math.BigDecimal;
+import java.math.BigInteger;
 import java.math.MathContext;
 import java.math.RoundingMode;
 import java.util.ArrayList;
@@ -23,7 +24,7 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Objects;
 import java.util.Set;
-import java.util.Stack;
+import java.util.concurrent.CancellationException;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import static ml.programs.NumberHelper.PI;
@@ -40,13 +41,79 @@ import static ml.programs.ParenthesesBalancer.balanceParentheses;
 
 public class CalculatorEngine {
     // Declaration of a constant of type MathContext with a precision of 35. This is used for division to ensure a precision of 10 decimal places.
-    private static final MathContext MC = new MathContext(35, RoundingMode.HALF_UP);
+    static final MathContext MC = new MathContext(35, RoundingMode.HALF_UP);
 
     // Declaration of a constant for the root operation.
     public static final String ROOT = "√";
     public static final String THIRD_ROOT = "³√";
+
+    // Conditionals "c ? a : b" and "if(c;a;b)" are compiled to jumps in the postfix tokens, so only the branch taken is
+    // evaluated. A jump token carries the position of the token it continues at, e.g. "JZ:7".
+    static final String JUMP_IF_ZERO = "JZ:";
+    static final String JUMP = "JMP:";
     public static String MODE = "Deg";
 
+    // Prints the intermediate steps of every calculation to the console. Headless services switch this off, because the
+    // console output is synchronized and would serialize all calculations.
+    public static volatile boolean DEBUG = true;
+
+    // Evaluates expressions with the imaginary unit "i" and roots and logarithms of negative numbers as complex numbers
+    // instead of rejecting them
+    public static boolean COMPLEX = false;
+
+    // The largest exponent accepted by BigDecimal.pow
+    private static final BigDecimal MAX_INTEGER_EXPONENT = BigDecimal.valueOf(999_999_999);
+
+    // The tokens of the built-in functions, including the opening parenthesis
+    private static final Set<String> FUNCTION_TOKENS = Set.of("sin(", "cos(", "tan(", "sinh(", "cosh(", "tanh(",
+            "log(", "log₂(", "log₃(", "log₄(", "log₅(", "log₆(", "log₇(", "log₈(", "log₉(", "ln(", "sin⁻¹(", "cos⁻¹(",
+            "tan⁻¹(", "sinh⁻¹(", "cosh⁻¹(", "tanh⁻¹(", "gcd(", "lcm(", "modinv(", "powmod(", "isprime(", "if(", "min(",
+            "max(");
+
+    // Optional cache for the results of whole expressions, null while caching is disabled
+    private static volatile ConcurrentLruCache<ResultKey, String> resultCache;
+
+    /**
+     * The arithmetic of an evaluation, see {@link #calculate(String, Arithmetic)}.
+     */
+    public enum Arithmetic {
+        // BigDecimal with the precision of MC
+        BIG_DECIMAL,
+        // Double-double numbers with about 32 significant digits, much faster than BigDecimal
+        DOUBLE_DOUBLE
+    }
+
+    /**
+     * Key of the result cache. The same expression can have different results depending on the angle mode, the precision,
+     * whether complex numbers are enabled and the arithmetic.
+     */
+    public record ResultKey(String expression, String mode, int precision, boolean complex, Arithmetic arithmetic) {
+    }
+
+    // The number of compiled expressions kept in the program cache
+    private static final int PROGRAM_CACHE_SIZE = 1024;
+
+    // Compiled expressions by their normalized expression, cleared when user-defined functions change
+    private static final ConcurrentLruCache<String, CompiledExpression> programCache =
+            new ConcurrentLruCache<>("program", PROGRAM_CACHE_SIZE);
+
+    /**
+     * An expression compiled by {@link #calculateNormalized}, see {@link #getProgramCache()}. The program is null if the
+     * expression calls a user-defined function, those are evaluated from the postfix tokens.
+     */
+    public record CompiledExpression(List<String> tokens, List<String> postfixTokens, ExpressionProgram program) {
+    }
+
+    // Optional table for the results of expensive operator and function applications, shared by all evaluations, null while disabled
+    private static volatile ConcurrentLruCache<SubexpressionKey, BigDecimal> subexpressionMemo;
+
+    /**
+     * Key of the subexpression memo. The operands are stored without trailing zeros so that e.g. "30" and "30.0" share an entry.
+     * The left operand is null for operators and functions that only take one operand.
+     */
+    public record SubexpressionKey(String operator, BigDecimal left, BigDecimal right, String mode, int precision) {
+    }
+
     /**
      * This method calculates the result of a mathematical expression. The expression is passed as a string parameter.
      * <p>
@@ -60,84 +127,481 @@ public class CalculatorEngine {
      * If the result is in scientific notation, it formats it to decimal notation.
      * <p>
      * It handles various exceptions such as ArithmeticException, IllegalArgumentException, and other exceptions.
+     * <p>
+     * If the result cache is enabled (see {@link #enableResultCache(int)}), results are reused instead of being
+     * calculated again.
+     * <p>
+     * A calculation stops when its thread is interrupted, see {@link #checkInterrupted()}.
      *
      * @param calc The mathematical expression as a string to be calculated.
      * @return The result of the calculation as a string.
      * @throws ArithmeticException      If there is an arithmetic error in the calculation.
      * @throws IllegalArgumentException If there is an illegal argument in the calculation.
+     * @throws CancellationException    If the thread is interrupted during the calculation.
      */
     public static String calculate(String calc) {
+        return calculate(calc, Arithmetic.BIG_DECIMAL);
+    }
+
+    /**
+     * Calculates the result of a mathematical expression in the given arithmetic, see {@link #calculate(String)}.
+     * <p>
+     * {@link Arithmetic#DOUBLE_DOUBLE} evaluates plain expressions with double-double numbers, see
+     * {@link ExpressionProgram#evaluateDoubleDouble()}, the result has up to {@link DoubleDouble#DIGITS} significant
+     * digits. Matrices, factorizations, roots of polynomials, complex numbers and calls of user-defined functions are
+     * calculated as usual.
+     *
+     * @param calc       The mathematical expression as a string to be calculated.
+     * @param arithmetic The arithmetic of the evaluation.
+     * @return The result of the calculation as a string.
+     */
+    public static String calculate(final String calc, final Arithmetic arithmetic) {
+        // A flight recorder event that is not enabled is never committed, the JIT removes it entirely
+        final EvaluationEvent event = new EvaluationEvent();
+        final boolean recordEvent = event.isEnabled();
+        final boolean recordMetrics = EngineMetrics.INSTANCE.isEnabled();
+        if (!recordEvent && !recordMetrics) {
+            return calculate(calc, arithmetic, null, null);
+        }
+
+        event.begin();
+        final EngineMetrics.Recording recording = recordMetrics ? EngineMetrics.INSTANCE.startRecording(calc) : null;
+        final String result = calculate(calc, arithmetic, recording, recordEvent ? event : null);
+        if (recording != null) {
+            recording.finish();
+        }
+        if (recordEvent) {
+            event.end();
+            if (event.shouldCommit()) {
+                event.expressionLength = calc.length();
+                event.commit();
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Calculates the result of a mathematical expression, see {@link #calculate(String)}.
+     *
+     * @param calc       The mathematical expression as a string to be calculated.
+     * @param arithmetic The arithmetic of the evaluation.
+     * @param recording  The recording of the stage latencies, or null if metrics are disabled.
+     * @param event      The flight recorder event of the calculation, or null if it is not recorded.
+     * @return The result of the calculation as a string.
+     */
+    private static String calculate(String calc, final Arithmetic arithmetic, final EngineMetrics.Recording recording,
+                                    final EvaluationEvent event) {
+        final String trim;
         try {
-            String trim;
-            if (String.valueOf(calc.charAt(0)).equals("+")) {
-                calc = calc.substring(1);
-            } else if (String.valueOf(calc.charAt(0)).equals("-")) {
-                calc = "0" + calc;
+            if (UserFunctions.isDefinition(calc)) {
+                return finish(UserFunctions.define(calc), EngineMetrics.Stage.DEFINE, EvaluationEvent.PATH_DEFINE, recording, event);
+            }
+            // Special forms such as solve( and d/dx( are replaced by their results first
+            final String expanded = SpecialForms.expand(calc);
+            if (MatrixExpression.isMatrixExpression(expanded)) {
+                return finish(MatrixExpression.calculate(expanded), EngineMetrics.Stage.MATRIX, EvaluationEvent.PATH_MATRIX, recording, event);
             }
+            if (PrimeNumbers.isFactorization(expanded)) {
+                return finish(PrimeNumbers.calculateFactorization(expanded), EngineMetrics.Stage.FACTORIZE, EvaluationEvent.PATH_FACTORIZE,
+                        recording, event);
+            }
+            if (PolynomialRoots.isRoots(expanded)) {
+                return finish(PolynomialRoots.calculateRoots(expanded), EngineMetrics.Stage.ROOTS, EvaluationEvent.PATH_ROOTS, recording, event);
+            }
+            final String prepared = prepareExpression(expanded);
+            if (recording != null) {
+                recording.lap(EngineMetrics.Stage.NORMALIZE);
+            }
+            trim = balanceParentheses(prepared);
+            if (recording != null) {
+                recording.lap(EngineMetrics.Stage.BALANCE_PARENTHESES);
+            }
+        } catch (CancellationException e) {
+            // Not an error of the expression, so neither reported nor cached
+            throw e;
+        } catch (Exception e) {
+            return fail(e, recording, event);
+        }
 
-            // Replace all the special characters in the expression with their corresponding mathematical symbols
-            // important: "е" (German: 'Eulersche-Zahl') and "e" (used for notation) are different characters
+        if (DEBUG) {
+            System.out.println("Trim:" + trim);
+        }
 
-            calc = fixExpression(calc);
-            String commonReplacements = calc.replace('×', '*')
-                    .replace('÷', '/')
-                    .replace("=", "")
-                    .replace("E", "e")
-                    .replace("π", PI)
-                    .replaceAll("е", e)
-                    .replaceAll(" ", "")
-                    .replace("½", "0,5")
-                    .replace("⅓", "0,33333333333")
-                    .replace("¼", "0,25");
+        // Look up the result cache first, the key is the normalized expression together with the angle mode, the precision,
+        // the complex mode and the arithmetic. Every function of the engine is deterministic and special forms reading
+        // data files are expanded above, so all results can be cached. New user-defined functions clear the cache.
+        final ConcurrentLruCache<ResultKey, String> cache = resultCache;
+        if (cache == null) {
+            return calculateNormalized(trim, arithmetic, recording, event);
+        }
 
-            trim = commonReplacements.replace(".", "").replace(",", ".").trim();
-            trim = balanceParentheses(trim);
+        final ResultKey key = new ResultKey(trim, MODE, MC.getPrecision(), COMPLEX, arithmetic);
+        final String cached = cache.get(key);
+        if (cached != null) {
+            CacheEvent.emit(cache.getName(), CacheEvent.HIT);
+            if (event != null) {
+                event.path = EvaluationEvent.PATH_CACHE;
+            }
+            return cached;
+        }
+        CacheEvent.emit(cache.getName(), CacheEvent.MISS);
 
-            System.out.println("Trim:" + trim);
+        // The result is computed outside of the cache lock, two threads racing for the same key simply both compute it
+        final String result = calculateNormalized(trim, arithmetic, recording, event);
+        cache.put(key, result);
+        return result;
+    }
+
+    /**
+     * Ends the only stage of a calculation that does not run through the regular stages, e.g. a factorization.
+     *
+     * @param result    The result of the calculation.
+     * @param stage     The stage that calculated the result.
+     * @param path      The path of the calculation, see {@link EvaluationEvent#path}.
+     * @param recording The recording of the stage latencies, or null if metrics are disabled.
+     * @param event     The flight recorder event of the calculation, or null if it is not recorded.
+     * @return The result.
+     */
+    private static String finish(final String result, final EngineMetrics.Stage stage, final String path,
+                                 final EngineMetrics.Recording recording, final EvaluationEvent event) {
+        if (recording != null) {
+            recording.lap(stage);
+        }
+        if (event != null) {
+            event.path = path;
+        }
+        return result;
+    }
+
+    /**
+     * Normalizes a mathematical expression so that it can be tokenized.
+     * <p>
+     * A leading sign is resolved, implicit multiplications are inserted and all special characters are replaced
+     * with their corresponding mathematical symbols. Thousands separators are removed, the decimal comma is replaced
+     * by a dot and missing parentheses are added.
+     *
+     * @param calc The mathematical expression as entered by the user.
+     * @return The normalized expression.
+     */
+    public static String normalize(final String calc) {
+        return balanceParentheses(prepareExpression(calc));
+    }
+
+    /**
+     * Performs all steps of {@link #normalize(String)} except balancing the parentheses.
+     *
+     * @param calc The mathematical expression as entered by the user.
+     * @return The expression with all replacements applied.
+     */
+    private static String prepareExpression(String calc) {
+        // A trailing "=" asks for the result, any other "=" is a comparison
+        calc = calc.trim();
+        if (calc.endsWith("=") && !calc.endsWith("==") && calc.length() > 1) {
+            calc = calc.substring(0, calc.length() - 1);
+        }
+        if (String.valueOf(calc.charAt(0)).equals("+")) {
+            calc = calc.substring(1);
+        }
 
+        // Replace all the special characters in the expression with their corresponding mathematical symbols
+        // important: "е" (German: 'Eulersche-Zahl') and "e" (used for notation) are different characters
+
+        calc = fixExpression(calc);
+        String commonReplacements = calc.replace('×', '*')
+                .replace('÷', '/')
+                .replace("E", "e")
+                .replace("π", PI)
+                .replaceAll("е", e)
+                .replaceAll(" ", "")
+                .replace("½", "0,5")
+                .replace("⅓", "0,33333333333")
+                .replace("¼", "0,25");
+
+        return commonReplacements.replace(".", "").replace(",", ".").trim();
+    }
+
+    /**
+     * Calculates the result of an expression that has already been normalized by {@link #normalize(String)}.
+     *
+     * @param trim       The normalized expression.
+     * @param arithmetic The arithmetic of the evaluation.
+     * @param recording  The recording of the stage latencies, or null if metrics are disabled.
+     * @param event      The flight recorder event of the calculation, or null if it is not recorded.
+     * @return The result of the calculation or the error message as a string.
+     */
+    private static String calculateNormalized(final String trim, final Arithmetic arithmetic,
+                                              final EngineMetrics.Recording recording, final EvaluationEvent event) {
+        try {
+            checkInterrupted();
             // If the expression is in scientific notation, convert it to decimal notation
             if (isScientificNotation(trim)) {
+                if (event != null) {
+                    event.path = EvaluationEvent.PATH_SCIENTIFIC;
+                }
                 String result = convertScientificToDecimal(trim);
                 return removeNonNumeric(result);
             }
 
-            final List<String> tokens = tokenize(trim);
+            // The tokens and the program of an expression are the same in every mode and precision, so an expression
+            // is only compiled again when it has been evicted or the user-defined functions changed
+            CompiledExpression compiled = programCache.get(trim);
+            if (compiled != null) {
+                CacheEvent.emit(programCache.getName(), CacheEvent.HIT);
+                if (COMPLEX && compiled.tokens().contains(ComplexExpression.IMAGINARY_UNIT)) {
+                    return calculateComplex(trim, compiled.tokens(), event);
+                }
+                if (recording != null) {
+                    recording.lap(EngineMetrics.Stage.TOKENIZE);
+                    recording.lap(EngineMetrics.Stage.INFIX_TO_POSTFIX);
+                }
+            } else {
+                CacheEvent.emit(programCache.getName(), CacheEvent.MISS);
+                final CompileEvent compileEvent = new CompileEvent();
+                compileEvent.begin();
 
-            for (int i = 0; i < tokens.size() - 1; i++) {
-                try {
-                    if (tokens.get(i).equals("/") && tokens.get(i + 1).equals("-")) {
-                        // Handle negative exponent in division
-                        tokens.remove(i + 1);
-                        tokens.add(i + 1, "NEG_EXPONENT");
-                    }
-                } catch (Exception e) {
-                    // do nothing
+                final List<String> tokens = UserFunctions.resolveCalls(tokenize(trim));
+                if (COMPLEX && tokens.contains(ComplexExpression.IMAGINARY_UNIT)) {
+                    return calculateComplex(trim, tokens, event);
                 }
+
+                if (recording != null) {
+                    recording.lap(EngineMetrics.Stage.TOKENIZE);
+                }
+
+                // Parse the infix expression and convert the syntax tree to postfix
+                final ExpressionParser.Node tree = ExpressionParser.parse(tokens);
+                final List<String> postfixTokens = ExpressionParser.toPostfix(tree);
+                // Calls of user-defined functions need frames of their own, everything else runs as a compiled program
+                final ExpressionProgram program = UserFunctions.containsCall(postfixTokens) ? null : ExpressionProgram.compile(tree);
+                if (recording != null) {
+                    recording.lap(EngineMetrics.Stage.INFIX_TO_POSTFIX);
+                }
+
+                compileEvent.end();
+                if (compileEvent.shouldCommit()) {
+                    compileEvent.expressionLength = trim.length();
+                    compileEvent.tokenCount = tokens.size();
+                    compileEvent.postfixLength = postfixTokens.size();
+                    compileEvent.commit();
+                }
+                compiled = new CompiledExpression(List.copyOf(tokens), List.copyOf(postfixTokens), program);
+                programCache.put(trim, compiled);
+            }
+            final List<String> tokens = compiled.tokens();
+            final List<String> postfixTokens = compiled.postfixTokens();
+            final ExpressionProgram program = compiled.program();
+            if (DEBUG) {
+                System.out.println("Postfix Tokens: " + postfixTokens);
+            }
+            final boolean doubleDouble = arithmetic == Arithmetic.DOUBLE_DOUBLE && program != null;
+            if (event != null) {
+                event.path = doubleDouble ? EvaluationEvent.PATH_DOUBLE_DOUBLE : EvaluationEvent.PATH_BIG_DECIMAL;
+                event.tokenCount = tokens.size();
+                event.stackDepth = stackDepth(postfixTokens);
+                event.maxOperandDigits = maxOperandDigits(postfixTokens);
             }
 
             // Evaluate the expression and handle exceptions
-            final BigDecimal result = evaluate(tokens);
+            final BigDecimal result;
+            if (program == null) {
+                result = UserFunctions.evaluate(postfixTokens);
+            } else if (doubleDouble) {
+                // Results beyond the range of a double are infinite, they are reported as too large below
+                final DoubleDouble value = program.evaluateDoubleDouble();
+                result = value.isFinite() ? value.toBigDecimal() : null;
+            } else {
+                result = program.evaluate();
+            }
+            if (recording != null) {
+                recording.lap(EngineMetrics.Stage.EVALUATE_POSTFIX);
+            }
 
-            double resultDouble = result.doubleValue();
             // If the result is too large, return "Wert zu groß"
-            if (Double.isInfinite(resultDouble)) {
+            if (result == null || Double.isInfinite(result.doubleValue())) {
+                if (recording != null) {
+                    recording.fail(ArithmeticException.class);
+                }
+                if (event != null) {
+                    event.error = "Wert zu groß";
+                }
                 return "Wert zu groß";
             }
             // return the result in decimal notation
-            return result.stripTrailingZeros().toPlainString().replace('.', ',');
-        } catch (ArithmeticException e) {
+            final String formatted = result.stripTrailingZeros().toPlainString().replace('.', ',');
+            if (recording != null) {
+                recording.lap(EngineMetrics.Stage.FORMAT);
+            }
+            return formatted;
+        } catch (CancellationException e) {
+            throw e;
+        } catch (Exception e) {
+            if (COMPLEX && isOutsideRealDomain(e)) {
+                // Roots and logarithms of negative numbers and the like have complex results
+                try {
+                    return calculateComplex(trim, tokenize(trim), event);
+                } catch (Exception complexError) {
+                    // Still undefined, e.g. the logarithm of zero, so the original error is reported
+                }
+            }
+            return fail(e, recording, event);
+        }
+    }
+
+    /**
+     * Stops a calculation whose thread has been interrupted, e.g. because a server stopped waiting for the result.
+     * Long running parts of a calculation call this regularly. The interrupt flag is kept.
+     *
+     * @throws CancellationException If the current thread is interrupted.
+     */
+    static void checkInterrupted() {
+        if (Thread.currentThread().isInterrupted()) {
+            throw new CancellationException("Abgebrochen");
+        }
+    }
+
+    /**
+     * Calculates an expression with complex numbers, see {@link ComplexExpression}.
+     *
+     * @param trim   The normalized expression.
+     * @param tokens The tokens of the expression.
+     * @param event  The flight recorder event of the calculation, or null if it is not recorded.
+     * @return The result of the calculation, e.g. "3+2i".
+     */
+    private static String calculateComplex(final String trim, final List<String> tokens, final EvaluationEvent event) {
+        if (event != null) {
+            event.path = EvaluationEvent.PATH_COMPLEX;
+            event.tokenCount = tokens.size();
+        }
+        final double[] result = new double[2];
+        ComplexExpression.fromInfix(trim, tokens, List.of()).evaluate(result);
+        return ComplexExpression.format(result[0], result[1]);
+    }
+
+    /**
+     * @param e The exception thrown by the real calculation.
+     * @return True if the exception means that the result is not a real number.
+     */
+    private static boolean isOutsideRealDomain(final Exception e) {
+        if (e instanceof NumberFormatException) {
+            // A Math function returned NaN, which cannot be converted to a BigDecimal
+            return true;
+        }
+        final String message = e.getMessage();
+        return "Nur reelle Zahlen".equals(message) || "Nicht definiert".equals(message) || "Ungültiger Wert".equals(message);
+    }
+
+    /**
+     * Determines the maximum number of operands on the stack while evaluating a postfix expression.
+     *
+     * @param postfixTokens The list of tokens in postfix notation.
+     * @return The maximum stack depth.
+     */
+    private static int stackDepth(final List<String> postfixTokens) {
+        int depth = 0;
+        int maxDepth = 0;
+        for (final String token : postfixTokens) {
+            if (isNumber(token)) {
+                depth++;
+            } else if (token.startsWith(JUMP_IF_ZERO) || token.startsWith(JUMP)) {
+                // A jump if zero consumes the condition, a jump over the else branch leaves the result of the first
+                // branch, which the else branch replaces
+                depth--;
+            } else if (isOperator(token) && !token.equals("!") && !token.equals(ROOT) && !token.equals(THIRD_ROOT)) {
+                // Binary operators replace two operands with their result, unary operators and functions keep the depth
+                depth--;
+            } else if (isFunction(token)) {
+                depth -= functionArity(token) - 1;
+            }
+            maxDepth = Math.max(maxDepth, depth);
+        }
+        return maxDepth;
+    }
+
+    /**
+     * Determines the number of digits of the longest number in a postfix expression.
+     *
+     * @param postfixTokens The list of tokens in postfix notation.
+     * @return The maximum number of digits.
+     */
+    private static int maxOperandDigits(final List<String> postfixTokens) {
+        int maxDigits = 0;
+        for (final String token : postfixTokens) {
+            if (isNumber(token)) {
+                maxDigits = Math.max(maxDigits, new BigDecimal(token).precision());
+            }
+        }
+        return maxDigits;
+    }
+
+    /**
+     * Converts an exception into the message shown to the user and records the failure.
+     *
+     * @param e         The exception thrown during the calculation.
+     * @param recording The recording of the calculation, or null if metrics are disabled.
+     * @param event     The flight recorder event of the calculation, or null if it is not recorded.
+     * @return The error message.
+     */
+    private static String fail(final Exception e, final EngineMetrics.Recording recording, final EvaluationEvent event) {
+        final String message = toErrorMessage(e);
+        if (recording != null) {
+            recording.fail(e.getClass());
+        }
+        if (event != null) {
+            event.error = message;
+        }
+        return message;
+    }
+
+    /**
+     * Converts an exception thrown during a calculation into the message that is shown to the user.
+     *
+     * @param e The exception thrown during the calculation.
+     * @return The error message.
+     */
+    private static String toErrorMessage(final Exception e) {
+        if (e instanceof ArithmeticException) {
             // Handle exceptions related to arithmetic errors
             if (Objects.equals(e.getMessage(), "Wert zu groß")) {
                 return "Wert zu groß";
             } else {
                 return e.getMessage();
             }
-        } catch (IllegalArgumentException e) {
+        } else if (e instanceof IllegalArgumentException) {
             // Handle exceptions related to illegal arguments
             return e.getMessage();
-        } catch (Exception e) {
-            return "Syntax Fehler";
         }
+        return "Syntax Fehler";
+    }
+
+    /**
+     * Enables the result cache. Results are kept until they are evicted as least recently used.
+     * An already enabled cache is replaced together with its contents.
+     *
+     * @param maximumSize The maximum number of results kept in the cache.
+     */
+    public static void enableResultCache(final int maximumSize) {
+        resultCache = new ConcurrentLruCache<>("result", maximumSize);
+    }
+
+    /**
+     * Disables the result cache and drops all cached results.
+     */
+    public static void disableResultCache() {
+        resultCache = null;
+    }
+
+    /**
+     * @return The result cache or {@code null} if caching is disabled.
+     */
+    public static ConcurrentLruCache<ResultKey, String> getResultCache() {
+        return resultCache;
+    }
+
+    /**
+     * @return The cache of the compiled expressions, see {@link CompiledExpression}.
+     */
+    public static ConcurrentLruCache<String, CompiledExpression> getProgramCache() {
+        return programCache;
     }
 
     public static boolean isSymbol(final String character) {
@@ -169,6 +633,11 @@ public class CalculatorEngine {
                         continue;
                     }
 
+                    // The modulo operator is a word, e.g. "17mod5", no multiplication is inserted in front of it
+                    if (input.startsWith("mod", i + 1) && !input.startsWith("modinv", i + 1)) {
+                        continue;
+                    }
+
                     if (String.valueOf(currentChar).equals("(") && String.valueOf(nextChar).equals("³")) {
                         continue;
                     }
@@ -246,7 +715,15 @@ public class CalculatorEngine {
                 "Unbekannte Funktion",
                 "Ungültiges Argument",
                 "Ungültige Basis",
-                "Ungültige Basis oder Argument"
+                "Ungültige Basis oder Argument",
+                "Keine Lösung",
+                "Zirkelbezug",
+                "Singuläre Matrix",
+                "Datei nicht lesbar",
+                "Dateizugriff nicht erlaubt",
+                "Ungültiger Name",
+                "Rekursion zu tief",
+                "Rekursion nicht unterstützt"
         };
 
         for (String errorMessage : errorMessages) {
@@ -288,6 +765,15 @@ public class CalculatorEngine {
         validChars.add('√');
         validChars.add('^');
         validChars.add('!');
+        validChars.add('<');
+        validChars.add('>');
+        validChars.add('=');
+        validChars.add('≤');
+        validChars.add('≥');
+        validChars.add('≠');
+        validChars.add('?');
+        validChars.add(':');
+        validChars.add(';');
         // Add more valid characters here if needed
         return validChars;
     }
@@ -332,6 +818,17 @@ public class CalculatorEngine {
         mathFunctions.add("sinh⁻¹");
         mathFunctions.add("cosh⁻¹");
         mathFunctions.add("tanh⁻¹");
+        mathFunctions.add("mod");
+        mathFunctions.add("gcd");
+        mathFunctions.add("lcm");
+        mathFunctions.add("modinv");
+        mathFunctions.add("powmod");
+        mathFunctions.add("isprime");
+        mathFunctions.add("factor");
+        mathFunctions.add("roots");
+        mathFunctions.add("if");
+        mathFunctions.add("min");
+        mathFunctions.add("max");
         // Add more math functions here if needed
         return mathFunctions;
     }
@@ -425,7 +922,9 @@ public class CalculatorEngine {
         }
 
         // Return the final result as a string
-        System.out.println("sb:" + sb);
+        if (DEBUG) {
+            System.out.println("sb:" + sb);
+        }
         return sb.toString();
     }
 
@@ -449,7 +948,9 @@ public class CalculatorEngine {
      */
     public static List<String> tokenize(final String expression) {
         // Debugging: Print input expression
-        System.out.println("Input Expression: " + expression);
+        if (DEBUG) {
+            System.out.println("Input Expression: " + expression);
+        }
 
         // Remove all spaces from the expression
         String expressionWithoutSpaces = expression.replaceAll("\\s+", "");
@@ -460,11 +961,9 @@ public class CalculatorEngine {
         for (int i = 0; i < expressionWithoutSpaces.length(); i++) {
             char c = expressionWithoutSpaces.charAt(i);
 
-            // If the character is a digit, period, or minus sign (if it's at the beginning, after an opening parenthesis, or after an operator),
-            // add it to the current token
-            if (Character.isDigit(c) || c == '.' || (c == '-' && (i == 0 || expressionWithoutSpaces.charAt(i - 1) == '('
-                    || isOperator(String.valueOf(expressionWithoutSpaces.charAt(i - 1)))
-                    || expressionWithoutSpaces.charAt(i - 1) == ','))) {
+            // If the character is a digit or period, add it to the current token. A minus is always a token of its own,
+            // the parser decides whether it negates or subtracts, so "-2^2" is "-(2^2)".
+            if (Character.isDigit(c) || c == '.') {
                 currentToken.append(c);
             } else if (i + 3 < expressionWithoutSpaces.length() && expressionWithoutSpaces.startsWith("³√", i)) {
                 // If "³√(" is found, handle the cubic root operation
@@ -476,9 +975,18 @@ public class CalculatorEngine {
                     tokens.add(currentToken.toString());
                     currentToken.setLength(0);
                 }
+                if (i + 2 <= expressionWithoutSpaces.length()) {
+                    // Comparisons typed with two characters are mapped to their symbols
+                    final String comparison = expressionWithoutSpaces.substring(i, i + 2);
+                    if (comparison.equals("<=") || comparison.equals(">=") || comparison.equals("==") || comparison.equals("<>")) {
+                        tokens.add(comparison.equals("<=") ? "≤" : comparison.equals(">=") ? "≥" : comparison.equals("==") ? "=" : "≠");
+                        i += 1; // Skip the next character (already processed)
+                        continue;
+                    }
+                }
                 if (i + 3 <= expressionWithoutSpaces.length()) {
                     String function = expressionWithoutSpaces.substring(i, i + 3);
-                    if (function.equals("ln(")) {
+                    if (function.equals("ln(") || function.equals("if(")) {
                         tokens.add(function); // Add the full function name
                         i += 2; // Skip the next characters (already processed)
                         continue;
@@ -496,6 +1004,11 @@ public class CalculatorEngine {
                         i += 3; // Skip the next characters (already processed)
                         continue;
                     }
+                    if (function.equals("gcd(") || function.equals("lcm(") || function.equals("min(") || function.equals("max(")) {
+                        tokens.add(function); // Add the full function name
+                        i += 3; // Skip the next characters (already processed)
+                        continue;
+                    }
                 }
                 if (i + 5 <= expressionWithoutSpaces.length()) {
                     String function = expressionWithoutSpaces.substring(i, i + 5);
@@ -527,6 +1040,25 @@ public class CalculatorEngine {
                         i += 6; // Skip the next characters (already processed)
                         continue;
                     }
+                    if (function.equals("modinv(") || function.equals("powmod(")) {
+                        tokens.add(function); // Add the full function name
+                        i += 6; // Skip the next characters (already processed)
+                        continue;
+                    }
+                }
+                if (i + 8 <= expressionWithoutSpaces.length()) {
+                    String function = expressionWithoutSpaces.substring(i, i + 8);
+                    if (function.equals("isprime(")) {
+                        tokens.add(function); // Add the full function name
+                        i += 7; // Skip the next characters (already processed)
+                        continue;
+                    }
+                }
+                if (expressionWithoutSpaces.startsWith("mod", i)) {
+                    // The modulo operator is written as a word between its operands, e.g. "17 mod 5"
+                    tokens.add("mod");
+                    i += 2; // Skip the next characters (already processed)
+                    continue;
                 }
 
                 tokens.add(Character.toString(c));
@@ -539,25 +1071,33 @@ public class CalculatorEngine {
         }
 
         // Debugging: Print tokens
-        System.out.println("Tokens: " + tokens);
+        if (DEBUG) {
+            System.out.println("Tokens: " + tokens);
+        }
 
         return tokens;
     }
 
     /**
      * Evaluates a mathematical expression represented as a list of tokens.
-     * Converts the expression from infix notation to postfix notation, then evaluates the postfix expression.
+     * Parses the expression and evaluates it as an {@link ExpressionProgram}.
      *
      * @param tokens The mathematical expression in infix notation.
      * @return The result of the expression.
      */
     public static BigDecimal evaluate(final List<String> tokens) {
-        // Convert the infix expression to postfix
-        final List<String> postfixTokens = infixToPostfix(tokens);
-        System.out.println("Postfix Tokens: " + postfixTokens);
+        // Parse the infix expression, the postfix tokens are only needed for calls of user-defined functions
+        final ExpressionParser.Node tree = ExpressionParser.parse(tokens);
+        final List<String> postfixTokens = ExpressionParser.toPostfix(tree);
+        if (DEBUG) {
+            System.out.println("Postfix Tokens: " + postfixTokens);
+        }
 
-        // Evaluate the postfix expression and return the result
-        return evaluatePostfix(postfixTokens);
+        // Evaluate the compiled expression and return the result
+        if (UserFunctions.containsCall(postfixTokens)) {
+            return UserFunctions.evaluate(postfixTokens);
+        }
+        return ExpressionProgram.compile(tree).evaluate();
     }
 
     /**
@@ -595,7 +1135,21 @@ public class CalculatorEngine {
             case "!":
                 return factorial(operand1);
             case "^":
-                return operand1.pow(operand2.intValue(), MathContext.DECIMAL128);
+                return pow(operand1, operand2);
+            case "mod":
+                return ModularArithmetic.mod(operand1, operand2);
+            case "<":
+                return operand1.compareTo(operand2) < 0 ? BigDecimal.ONE : BigDecimal.ZERO;
+            case ">":
+                return operand1.compareTo(operand2) > 0 ? BigDecimal.ONE : BigDecimal.ZERO;
+            case "≤":
+                return operand1.compareTo(operand2) <= 0 ? BigDecimal.ONE : BigDecimal.ZERO;
+            case "≥":
+                return operand1.compareTo(operand2) >= 0 ? BigDecimal.ONE : BigDecimal.ZERO;
+            case "=":
+                return operand1.compareTo(operand2) == 0 ? BigDecimal.ONE : BigDecimal.ZERO;
+            case "≠":
+                return operand1.compareTo(operand2) != 0 ? BigDecimal.ONE : BigDecimal.ZERO;
             case "log(":
                 return BigDecimal.valueOf(Math.log(operand2.doubleValue()) / Math.log(10)).setScale(MC.getPrecision(), RoundingMode.DOWN);
             case "log₂(":
@@ -734,46 +1288,47 @@ public class CalculatorEngine {
 
     /**
      * This method calculates the power of a base number to an exponent.
-     * It first converts the base and exponent to double values, then uses the Math.pow method to calculate the power.
-     * If the result is infinite (which can happen if the base and exponent are too large), it throws an ArithmeticException.
-     * If the result is not a valid number format, it throws a NumberFormatException.
+     * Integer exponents are calculated by repeated squaring with BigDecimal at the precision of MC, so large exponents
+     * are neither truncated nor limited to the range of an int. Other exponents are calculated with Math.pow, which is
+     * only defined for bases that are not negative.
      *
      * @param base     The base number.
      * @param exponent The exponent.
      * @return The result of raising the base to the power of the exponent.
-     * @throws ArithmeticException   If the result is too large to be represented as a double.
-     * @throws NumberFormatException If the result is not a valid number format.
+     * @throws ArithmeticException      If the base is zero and the exponent negative, or the result is too large.
+     * @throws IllegalArgumentException If the base is negative and the exponent is not an integer.
      */
     public static BigDecimal pow(BigDecimal base, BigDecimal exponent) {
-        // Convert the base and exponent to double values
-        double baseDouble = base.doubleValue();
-        double exponentDouble = exponent.doubleValue();
-
         // Check if the base is zero and the exponent is negative
-        if (baseDouble == 0 && exponentDouble < 0) {
+        if (base.signum() == 0 && exponent.signum() < 0) {
             throw new ArithmeticException("Kein Teilen durch 0");
         }
 
-        // Check if the base is negative and the exponent is an integer
-        double resultDouble;
-        if (baseDouble < 0 && exponentDouble == (int) exponentDouble) {
-            baseDouble = -baseDouble;
-            resultDouble = -Math.pow(baseDouble, exponentDouble);
-        } else {
-            resultDouble = Math.pow(baseDouble, exponentDouble);
+        final BigDecimal integral = exponent.stripTrailingZeros();
+        if (integral.scale() <= 0) {
+            // BigDecimal.pow accepts exponents up to 999999999, larger ones overflow or underflow anyway
+            if (integral.abs().compareTo(MAX_INTEGER_EXPONENT) <= 0) {
+                final int n = integral.intValueExact();
+                try {
+                    return base.pow(n, MC);
+                } catch (ArithmeticException e) {
+                    // The scale of the result overflowed
+                    if ((base.abs().compareTo(BigDecimal.ONE) < 0) == (n > 0)) {
+                        return BigDecimal.ZERO;
+                    }
+                    throw new ArithmeticException("Wert zu groß");
+                }
+            }
+        } else if (base.signum() < 0) {
+            throw new IllegalArgumentException("Nur reelle Zahlen");
         }
 
+        final double resultDouble = Math.pow(base.doubleValue(), exponent.doubleValue());
         // If the result is too large to be represented as a double, throw an exception
         if (Double.isInfinite(resultDouble)) {
             throw new ArithmeticException("Wert zu groß");
         }
-
-        // Convert the result back to a BigDecimal and return it
-        try {
-            return new BigDecimal(resultDouble, MC).stripTrailingZeros();
-        } catch (NumberFormatException e) {
-            throw new NumberFormatException("Ungültiges Zahlenformat");
-        }
+        return BigDecimal.valueOf(resultDouble);
     }
 
     /**
@@ -784,41 +1339,171 @@ public class CalculatorEngine {
      * @throws IllegalArgumentException If there is a syntax error in the expression or the stack size is not 1 at the end.
      */
     public static BigDecimal evaluatePostfix(final List<String> postfixTokens) {
+        // Calls of user-defined functions need frames of their own
+        if (UserFunctions.containsCall(postfixTokens)) {
+            return UserFunctions.evaluate(postfixTokens);
+        }
+
         // Create a stack to store numbers
         final List<BigDecimal> stack = new ArrayList<>();
 
-        // Iterate through each token in the postfix list
-        for (final String token : postfixTokens) {
-            // Debugging: Print current token
+        // Iterate through each token in the postfix list, jumps of conditionals skip the branch not taken
+        int position = 0;
+        while (position < postfixTokens.size()) {
+            position = applyToken(postfixTokens.get(position), position, stack);
+        }
+
+        // If there is more than one number in the stack at the end, throw an exception
+        if (stack.size() != 1) {
+            if (DEBUG) {
+                System.out.println("Stacksize != 1");
+            }
+            throw new IllegalArgumentException("Syntax Fehler");
+        }
+
+        // Return the result
+        return stack.get(0);
+    }
+
+    /**
+     * Applies one token of a postfix expression to the stack.
+     *
+     * @param token    The token.
+     * @param position The position of the token in the postfix expression.
+     * @param stack    The stack containing numbers.
+     * @return The position of the next token, which differs from the following one after a jump.
+     * @throws IllegalArgumentException If the token is neither a number, operator, function nor jump.
+     */
+    static int applyToken(final String token, final int position, final List<BigDecimal> stack) {
+        // Debugging: Print current token
+        if (DEBUG) {
             System.out.println("Token: " + token);
+        }
 
-            // If the token is a number, add it to the stack
-            if (isNumber(token)) {
-                stack.add(new BigDecimal(token));
-            } else if (isOperator(token)) {
-                // If the token is an operator, apply the operator to the numbers in the stack
-                applyOperatorToStack(token, stack);
-            } else if (isFunction(token)) {
-                // If the token is a function, evaluate the function and add the result to the stack
-                evaluateFunction(token, stack);
-            } else {
-                // If the token is neither a number, operator, nor function, throw an exception
-                System.out.println("Token is neither a number nor an operator");
+        int next = position + 1;
+        // If the token is a number, add it to the stack
+        if (isNumber(token)) {
+            stack.add(new BigDecimal(token));
+        } else if (token.startsWith(JUMP_IF_ZERO)) {
+            if (stack.isEmpty()) {
                 throw new IllegalArgumentException("Syntax Fehler");
             }
+            if (stack.remove(stack.size() - 1).signum() == 0) {
+                next = jumpTarget(token);
+            }
+        } else if (token.startsWith(JUMP)) {
+            next = jumpTarget(token);
+        } else if (isMemoized(token)) {
+            // If the token is an expensive operator or function, reuse the result of an earlier application if possible
+            applyMemoized(token, stack);
+        } else if (isOperator(token)) {
+            // If the token is an operator, apply the operator to the numbers in the stack
+            applyOperatorToStack(token, stack);
+        } else if (isFunction(token) && !UserFunctions.isCall(token)) {
+            // If the token is a function, evaluate the function and add the result to the stack
+            evaluateFunction(token, stack);
+        } else {
+            // If the token is neither a number, operator, nor function, throw an exception
+            if (DEBUG) {
+                System.out.println("Token is neither a number nor an operator");
+            }
+            throw new IllegalArgumentException("Syntax Fehler");
+        }
 
-            // Debugging: Print current stack
+        // Debugging: Print current stack
+        if (DEBUG) {
             System.out.println("Stack: " + stack);
         }
+        return next;
+    }
 
-        // If there is more than one number in the stack at the end, throw an exception
-        if (stack.size() != 1) {
-            System.out.println("Stacksize != 1");
-            throw new IllegalArgumentException("Syntax Fehler");
+    /**
+     * Enables the subexpression memo. Results of pure function applications and expensive operators (roots, powers
+     * and factorials) are kept in a bounded table shared by all evaluations, so common subterms like "sin(37)" or "25!"
+     * are only computed once across different expressions.
+     * An already enabled memo is replaced together with its contents.
+     *
+     * @param maximumSize The maximum number of results kept in the memo.
+     */
+    public static void enableSubexpressionMemo(final int maximumSize) {
+        subexpressionMemo = new ConcurrentLruCache<>("subexpression", maximumSize);
+    }
+
+    /**
+     * Disables the subexpression memo and drops all memoized results.
+     */
+    public static void disableSubexpressionMemo() {
+        subexpressionMemo = null;
+    }
+
+    /**
+     * @return The subexpression memo or {@code null} if memoization is disabled.
+     */
+    public static ConcurrentLruCache<SubexpressionKey, BigDecimal> getSubexpressionMemo() {
+        return subexpressionMemo;
+    }
+
+    /**
+     * Checks if the result of the given token should be looked up in the subexpression memo.
+     * Cheap operators like addition are not memoized, because the lookup would cost more than the calculation.
+     *
+     * @param token The token to be checked.
+     * @return True if the memo is enabled and the token is a function, a root, a power or a factorial.
+     */
+    private static boolean isMemoized(final String token) {
+        return subexpressionMemo != null && ((isFunction(token) && functionArity(token) == 1 && !UserFunctions.isCall(token)) || token.equals("^") || token.equals("!")
+                || token.equals(ROOT) || token.equals(THIRD_ROOT));
+    }
+
+    /**
+     * Applies an operator or function to the numbers in the stack, reusing the memoized result if the same
+     * operator has already been applied to the same operands in the same angle mode and precision.
+     *
+     * @param token The operator or function to be applied.
+     * @param stack The stack containing numbers.
+     */
+    private static void applyMemoized(final String token, final List<BigDecimal> stack) {
+        final ConcurrentLruCache<SubexpressionKey, BigDecimal> memo = subexpressionMemo;
+        final boolean binary = token.equals("^");
+        final int size = stack.size();
+
+        // Leave malformed expressions to the regular evaluation, which reports the syntax error
+        if (memo == null || size < (binary ? 2 : 1)) {
+            applyDirectly(token, stack);
+            return;
         }
 
-        // Return the result
-        return stack.get(0);
+        final BigDecimal right = stack.get(size - 1).stripTrailingZeros();
+        final BigDecimal left = binary ? stack.get(size - 2).stripTrailingZeros() : null;
+        final SubexpressionKey key = new SubexpressionKey(token, left, right, MODE, MC.getPrecision());
+
+        final BigDecimal cached = memo.get(key);
+        CacheEvent.emit(memo.getName(), cached != null ? CacheEvent.HIT : CacheEvent.MISS);
+        if (cached != null) {
+            stack.remove(size - 1);
+            if (binary) {
+                stack.remove(size - 2);
+            }
+            stack.add(cached);
+            return;
+        }
+
+        applyDirectly(token, stack);
+        memo.put(key, stack.get(stack.size() - 1));
+    }
+
+    /**
+     * Applies an operator or function to the numbers in the stack without consulting the subexpression memo.
+     *
+     * @param token The operator or function to be applied.
+     * @param stack The stack containing numbers.
+     */
+    private static void applyDirectly(final String token, final List<BigDecimal> stack) {
+        if (isFunction(token)) {
+            evaluateFunction(token, stack);
+        } else {
+            applyOperatorToStack(token, stack);
+        }
     }
 
     /**
@@ -845,145 +1530,160 @@ public class CalculatorEngine {
             }
             // If the operator is ROOT, apply the operator to only one number
             else {
-                BigDecimal result;
-                switch (operator) {
-                    case ROOT:
-                        if (operand2.compareTo(BigDecimal.ZERO) < 0) {
-                            // If the operand is negative, throw an exception or handle it as needed
-                            throw new IllegalArgumentException("Nur reelle Zahlen");
-                        } else {
-                            result = BigDecimal.valueOf(Math.sqrt(operand2.doubleValue()));
-                        }
-                        break;
-                    case THIRD_ROOT:
-                        result = BigDecimal.valueOf(Math.pow(operand2.doubleValue(), 1.0 / 3.0));
-                        break;
-                    default:
-                        // Handle other operators if needed
-                        throw new IllegalArgumentException("Syntax Fehler");
-                }
-                stack.add(result);
+                stack.add(applyRoot(operator, operand2));
             }
         }
     }
 
+    /**
+     * Applies the square root or the cube root to a number.
+     *
+     * @param operator The operator {@link #ROOT} or {@link #THIRD_ROOT}.
+     * @param operand  The operand.
+     * @return The root.
+     * @throws IllegalArgumentException If the operand of the square root is negative.
+     */
+    static BigDecimal applyRoot(final String operator, final BigDecimal operand) {
+        switch (operator) {
+            case ROOT:
+                if (operand.compareTo(BigDecimal.ZERO) < 0) {
+                    // If the operand is negative, throw an exception or handle it as needed
+                    throw new IllegalArgumentException("Nur reelle Zahlen");
+                }
+                return BigDecimal.valueOf(Math.sqrt(operand.doubleValue()));
+            case THIRD_ROOT:
+                return BigDecimal.valueOf(Math.pow(operand.doubleValue(), 1.0 / 3.0));
+            default:
+                // Handle other operators if needed
+                throw new IllegalArgumentException("Syntax Fehler");
+        }
+    }
+
     /**
      * Evaluates a mathematical function and adds the result to the stack.
      *
      * @param function The function to be evaluated.
      * @param stack    The stack containing numbers.
      */
-    private static void evaluateFunction(String function, List<BigDecimal> stack) {
+    private static void evaluateFunction(final String function, final List<BigDecimal> stack) {
+        final int arity = functionArity(function);
+        if (stack.size() < arity) {
+            throw new IllegalArgumentException("Syntax Fehler");
+        }
+        final BigDecimal[] arguments = new BigDecimal[arity];
+        for (int i = arity - 1; i >= 0; i--) {
+            arguments[i] = stack.remove(stack.size() - 1);
+        }
+        stack.add(applyFunction(function, arguments, 0));
+    }
+
+    /**
+     * Evaluates a mathematical function.
+     *
+     * @param function  The function to be evaluated.
+     * @param arguments The array holding the arguments, e.g. an operand stack.
+     * @param first     The index of the first argument, the others follow it.
+     * @return The result of the function.
+     * @throws IllegalArgumentException If the function is not known.
+     */
+    static BigDecimal applyFunction(final String function, final BigDecimal[] arguments, final int first) {
         // Implement the evaluation of functions like sin, cos, tan.
         // You can use BigDecimalMath library or Java Math class for standard functions
-        // Add the result of the function evaluation to the stack
         BigDecimal operand;
 
         switch (function) {
             case "log(": {
-                operand = stack.remove(stack.size() - 1);
+                operand = arguments[first];
                 if (operand.compareTo(BigDecimal.ZERO) <= 0) {
                     throw new IllegalArgumentException("Nicht definiert");
                 }
-                stack.add(BigDecimal.valueOf(Math.log10(operand.doubleValue())).setScale(MC.getPrecision(), RoundingMode.DOWN));
-                break;
+                return BigDecimal.valueOf(Math.log10(operand.doubleValue())).setScale(MC.getPrecision(), RoundingMode.DOWN);
             }
             case "log₂(": {
-                operand = stack.remove(stack.size() - 1);
+                operand = arguments[first];
                 if (operand.compareTo(BigDecimal.ZERO) <= 0) {
                     throw new IllegalArgumentException("Nicht definiert");
                 }
-                stack.add(BigDecimal.valueOf(Math.log(operand.doubleValue()) / Math.log(2)).setScale(MC.getPrecision(), RoundingMode.DOWN));
-                break;
+                return BigDecimal.valueOf(Math.log(operand.doubleValue()) / Math.log(2)).setScale(MC.getPrecision(), RoundingMode.DOWN);
             }
             case "log₃(": {
-                operand = stack.remove(stack.size() - 1);
+                operand = arguments[first];
                 if (operand.compareTo(BigDecimal.ZERO) <= 0) {
                     throw new IllegalArgumentException("Nicht definiert");
                 }
-                stack.add(BigDecimal.valueOf(Math.log(operand.doubleValue()) / Math.log(3)).setScale(MC.getPrecision(), RoundingMode.DOWN));
-                break;
+                return BigDecimal.valueOf(Math.log(operand.doubleValue()) / Math.log(3)).setScale(MC.getPrecision(), RoundingMode.DOWN);
             }
             case "log₄(": {
-                operand = stack.remove(stack.size() - 1);
+                operand = arguments[first];
                 if (operand.compareTo(BigDecimal.ZERO) <= 0) {
                     throw new IllegalArgumentException("Nicht definiert");
                 }
-                stack.add(BigDecimal.valueOf(Math.log(operand.doubleValue()) / Math.log(4)).setScale(MC.getPrecision(), RoundingMode.DOWN));
-                break;
+                return BigDecimal.valueOf(Math.log(operand.doubleValue()) / Math.log(4)).setScale(MC.getPrecision(), RoundingMode.DOWN);
             }
             case "log₅(": {
-                operand = stack.remove(stack.size() - 1);
+                operand = arguments[first];
                 if (operand.compareTo(BigDecimal.ZERO) <= 0) {
                     throw new IllegalArgumentException("Nicht definiert");
                 }
-                stack.add(BigDecimal.valueOf(Math.log(operand.doubleValue()) / Math.log(5)).setScale(MC.getPrecision(), RoundingMode.DOWN));
-                break;
+                return BigDecimal.valueOf(Math.log(operand.doubleValue()) / Math.log(5)).setScale(MC.getPrecision(), RoundingMode.DOWN);
             }
             case "log₆(": {
-                operand = stack.remove(stack.size() - 1);
+                operand = arguments[first];
                 if (operand.compareTo(BigDecimal.ZERO) <= 0) {
                     throw new IllegalArgumentException("Nicht definiert");
                 }
-                stack.add(BigDecimal.valueOf(Math.log(operand.doubleValue()) / Math.log(6)).setScale(MC.getPrecision(), RoundingMode.DOWN));
-                break;
+                return BigDecimal.valueOf(Math.log(operand.doubleValue()) / Math.log(6)).setScale(MC.getPrecision(), RoundingMode.DOWN);
             }
             case "log₇(": {
-                operand = stack.remove(stack.size() - 1);
+                operand = arguments[first];
                 if (operand.compareTo(BigDecimal.ZERO) <= 0) {
                     throw new IllegalArgumentException("Nicht definiert");
                 }
-                stack.add(BigDecimal.valueOf(Math.log(operand.doubleValue()) / Math.log(7)).setScale(MC.getPrecision(), RoundingMode.DOWN));
-                break;
+                return BigDecimal.valueOf(Math.log(operand.doubleValue()) / Math.log(7)).setScale(MC.getPrecision(), RoundingMode.DOWN);
             }
             case "log₈(": {
-                operand = stack.remove(stack.size() - 1);
+                operand = arguments[first];
                 if (operand.compareTo(BigDecimal.ZERO) <= 0) {
                     throw new IllegalArgumentException("Nicht definiert");
                 }
-                stack.add(BigDecimal.valueOf(Math.log(operand.doubleValue()) / Math.log(8)).setScale(MC.getPrecision(), RoundingMode.DOWN));
-                break;
+                return BigDecimal.valueOf(Math.log(operand.doubleValue()) / Math.log(8)).setScale(MC.getPrecision(), RoundingMode.DOWN);
             }
             case "log₉(": {
-                operand = stack.remove(stack.size() - 1);
+                operand = arguments[first];
                 if (operand.compareTo(BigDecimal.ZERO) <= 0) {
                     throw new IllegalArgumentException("Nicht definiert");
                 }
-                stack.add(BigDecimal.valueOf(Math.log(operand.doubleValue()) / Math.log(9)).setScale(MC.getPrecision(), RoundingMode.DOWN));
-                break;
+                return BigDecimal.valueOf(Math.log(operand.doubleValue()) / Math.log(9)).setScale(MC.getPrecision(), RoundingMode.DOWN);
             }
             case "ln(": {
-                operand = stack.remove(stack.size() - 1);
+                operand = arguments[first];
                 if (operand.compareTo(BigDecimal.ZERO) <= 0) {
                     throw new IllegalArgumentException("Nicht definiert");
                 }
-                stack.add(BigDecimal.valueOf(Math.log(operand.doubleValue())).setScale(MC.getPrecision(), RoundingMode.DOWN));
-                break;
+                return BigDecimal.valueOf(Math.log(operand.doubleValue())).setScale(MC.getPrecision(), RoundingMode.DOWN);
             }
             case "sin(": {
-                operand = stack.remove(stack.size() - 1);
+                operand = arguments[first];
                 BigDecimal result;
                 if (MODE.equals("Rad")) {
                     result = BigDecimal.valueOf(Math.sin(operand.doubleValue())).setScale(MC.getPrecision(), RoundingMode.DOWN);
                 } else { // if mode equals 'Deg'
                     result = BigDecimal.valueOf(Math.sin(Math.toRadians(operand.doubleValue()))).setScale(MC.getPrecision(), RoundingMode.DOWN);
                 }
-                stack.add(result);
-                break;
+                return result;
             }
             case "sinh(": {
-                operand = stack.remove(stack.size() - 1);
+                operand = arguments[first];
                 BigDecimal result;
                 if (MODE.equals("Rad")) {
                     result = BigDecimal.valueOf(Math.sinh(operand.doubleValue())).setScale(MC.getPrecision(), RoundingMode.DOWN);
                 } else { // if mode equals 'Deg'
                     result = BigDecimal.valueOf(Math.sinh(Math.toRadians(operand.doubleValue()))).setScale(MC.getPrecision(), RoundingMode.DOWN);
                 }
-                stack.add(result);
-                break;
+                return result;
             }
             case "sin⁻¹(": {
-                operand = stack.remove(stack.size() - 1);
+                operand = arguments[first];
                 BigDecimal result;
                 if (operand.doubleValue() < -1 || operand.doubleValue() > 1) {
                     throw new ArithmeticException("Ungültiger Wert");
@@ -993,37 +1693,33 @@ public class CalculatorEngine {
                 } else { // if mode equals 'Deg'
                     result = BigDecimal.valueOf(Math.toDegrees(Math.asin(operand.doubleValue()))).setScale(MC.getPrecision(), RoundingMode.DOWN);
                 }
-                stack.add(result);
-                break;
+                return result;
             }
             case "sinh⁻¹(":
-                operand = stack.remove(stack.size() - 1);
-                stack.add(asinh(operand));
-                break;
+                operand = arguments[first];
+                return asinh(operand);
             case "cos(": {
-                operand = stack.remove(stack.size() - 1);
+                operand = arguments[first];
                 BigDecimal result;
                 if (MODE.equals("Rad")) {
                     result = BigDecimal.valueOf(Math.cos(operand.doubleValue())).setScale(MC.getPrecision(), RoundingMode.DOWN);
                 } else { // if mode equals 'Deg'
                     result = BigDecimal.valueOf(Math.cos(Math.toRadians(operand.doubleValue()))).setScale(MC.getPrecision(), RoundingMode.DOWN);
                 }
-                stack.add(result);
-                break;
+                return result;
             }
             case "cosh(": {
-                operand = stack.remove(stack.size() - 1);
+                operand = arguments[first];
                 BigDecimal result;
                 if (MODE.equals("Rad")) {
                     result = BigDecimal.valueOf(Math.cosh(operand.doubleValue())).setScale(MC.getPrecision(), RoundingMode.DOWN);
                 } else { // if mode equals 'Deg'
                     result = BigDecimal.valueOf(Math.cosh(Math.toRadians(operand.doubleValue()))).setScale(MC.getPrecision(), RoundingMode.DOWN);
                 }
-                stack.add(result);
-                break;
+                return result;
             }
             case "cos⁻¹(": {
-                operand = stack.remove(stack.size() - 1);
+                operand = arguments[first];
                 BigDecimal result;
                 if (operand.doubleValue() < -1 || operand.doubleValue() > 1) {
                     throw new ArithmeticException("Ungültiger Wert");
@@ -1033,15 +1729,13 @@ public class CalculatorEngine {
                 } else { // if mode equals 'Deg'
                     result = BigDecimal.valueOf(Math.toDegrees(Math.acos(operand.doubleValue()))).setScale(MC.getPrecision(), RoundingMode.DOWN);
                 }
-                stack.add(result);
-                break;
+                return result;
             }
             case "cosh⁻¹(":
-                operand = stack.remove(stack.size() - 1);
-                stack.add(acosh(operand));
-                break;
+                operand = arguments[first];
+                return acosh(operand);
             case "tan(": {
-                operand = stack.remove(stack.size() - 1);
+                operand = arguments[first];
                 BigDecimal result;
                 if (MODE.equals("Rad")) {
                     result = BigDecimal.valueOf(Math.tan(operand.doubleValue())).setScale(MC.getPrecision(), RoundingMode.DOWN);
@@ -1053,11 +1747,10 @@ public class CalculatorEngine {
                     }
                     result = BigDecimal.valueOf(Math.tan(Math.toRadians(degrees))).setScale(MC.getPrecision(), RoundingMode.DOWN);
                 }
-                stack.add(result);
-                break;
+                return result;
             }
             case "tanh(": {
-                operand = stack.remove(stack.size() - 1);
+                operand = arguments[first];
                 BigDecimal result;
                 if (MODE.equals("Rad")) {
                     result = BigDecimal.valueOf(Math.tanh(operand.doubleValue())).setScale(MC.getPrecision(), RoundingMode.DOWN);
@@ -1065,24 +1758,48 @@ public class CalculatorEngine {
                     double degrees = operand.doubleValue();
                     result = BigDecimal.valueOf(Math.tanh(Math.toRadians(degrees))).setScale(MC.getPrecision(), RoundingMode.DOWN);
                 }
-                stack.add(result);
-                break;
+                return result;
             }
             case "tan⁻¹(": {
-                operand = stack.remove(stack.size() - 1);
+                operand = arguments[first];
                 BigDecimal result;
                 if (MODE.equals("Rad")) {
                     result = BigDecimal.valueOf(Math.atan(operand.doubleValue())).setScale(MC.getPrecision(), RoundingMode.DOWN);
                 } else { // if mode equals 'Deg'
                     result = BigDecimal.valueOf(Math.toDegrees(Math.atan(operand.doubleValue()))).setScale(MC.getPrecision(), RoundingMode.DOWN);
                 }
-                stack.add(result);
-                break;
+                return result;
             }
             case "tanh⁻¹(":
-                operand = stack.remove(stack.size() - 1);
-                stack.add(atanh(operand));
-                break;
+                operand = arguments[first];
+                return atanh(operand);
+            case "gcd(":
+            case "lcm(":
+            case "modinv(": {
+                final BigInteger a = ModularArithmetic.toInteger(arguments[first]);
+                final BigInteger b = ModularArithmetic.toInteger(arguments[first + 1]);
+                final BigInteger result = function.equals("gcd(") ? ModularArithmetic.gcd(a, b)
+                        : function.equals("lcm(") ? ModularArithmetic.lcm(a, b) : ModularArithmetic.modInverse(a, b);
+                return new BigDecimal(result);
+            }
+            case "min(":
+            case "max(": {
+                final BigDecimal a = arguments[first];
+                final BigDecimal b = arguments[first + 1];
+                return function.equals("min(") ? a.min(b) : a.max(b);
+            }
+            case "isprime(": {
+                operand = arguments[first];
+                return PrimeNumbers.isPrime(ModularArithmetic.toInteger(operand)) ? BigDecimal.ONE : BigDecimal.ZERO;
+            }
+            case "powmod(": {
+                final BigInteger a = ModularArithmetic.toInteger(arguments[first]);
+                final BigInteger b = ModularArithmetic.toInteger(arguments[first + 1]);
+                final BigInteger m = ModularArithmetic.toInteger(arguments[first + 2]);
+                return new BigDecimal(ModularArithmetic.powMod(a, b, m));
+            }
+            default:
+                throw new IllegalArgumentException("Syntax Fehler");
         }
     }
 
@@ -1098,64 +1815,30 @@ public class CalculatorEngine {
     }
 
     /**
-     * Converts a mathematical expression from infix notation to postfix notation.
+     * Converts a mathematical expression from infix notation to postfix notation, see {@link ExpressionParser}.
      *
      * @param infixTokens The list of tokens in infix notation.
      * @return The list of tokens in postfix notation.
+     * @throws IllegalArgumentException If the tokens are not a valid expression.
      */
     public static List<String> infixToPostfix(final List<String> infixTokens) {
-        final List<String> postfixTokens = new ArrayList<>();
-        final Stack<String> stack = new Stack<>();
-
-        for (int i = 0; i < infixTokens.size(); i++) {
-            final String token = infixTokens.get(i);
-            // Debugging: Print current token and stack
-            System.out.println("Current Token: " + token);
-            System.out.println("Stack: " + stack);
-
-            if (isNumber(token)) {
-                postfixTokens.add(token);
-            } else if (isFunction(token)) {
-                stack.push(token);
-            } else if (isOperator(token) && token.equals("-")) {
-                while (!stack.isEmpty() && precedence(stack.peek()) >= precedence(token) && !isFunction(stack.peek())) {
-                    postfixTokens.add(stack.pop());
-                }
-                stack.push(token);
-            } else if (isOperator(token)) {
-                while (!stack.isEmpty() && precedence(stack.peek()) >= precedence(token) && !isFunction(stack.peek())) {
-                    postfixTokens.add(stack.pop());
-                }
-                stack.push(token);
-            } else if (token.equals("(")) {
-                stack.push(token);
-            } else if (token.equals(")")) {
-                while (!stack.isEmpty() && !stack.peek().equals("(")) {
-                    postfixTokens.add(stack.pop());
-                }
-                if (!stack.isEmpty() && stack.peek().equals("(")) {
-                    stack.pop(); // Remove the opening parenthesis
-                    if (!stack.isEmpty() && isFunction(stack.peek())) {
-                        postfixTokens.add(stack.pop());
-                    }
-                }
-            }
-
-            // Debugging: Print postfixTokens and stack after processing current token
-            System.out.println("Postfix Tokens: " + postfixTokens);
-            System.out.println("Stack after Token Processing: " + stack);
-        }
-
-        while (!stack.isEmpty()) {
-            postfixTokens.add(stack.pop());
-        }
+        final List<String> postfixTokens = ExpressionParser.toPostfix(ExpressionParser.parse(infixTokens));
 
         // Debugging: Print final postfixTokens
-        System.out.println("Final Postfix Tokens: " + postfixTokens);
+        if (DEBUG) {
+            System.out.println("Final Postfix Tokens: " + postfixTokens);
+        }
 
         return postfixTokens;
     }
 
+    /**
+     * @return The position of the postfix token a jump continues at.
+     */
+    private static int jumpTarget(final String jump) {
+        return Integer.parseInt(jump.substring(jump.indexOf(':') + 1));
+    }
+
     /**
      * Checks if the given token represents a recognized trigonometric function.
      *
@@ -1163,15 +1846,31 @@ public class CalculatorEngine {
      * @return true if the token represents a trigonometric function, false otherwise.
      */
     public static boolean isFunction(final String token) {
-        // Check if the token is one of the recognized trigonometric functions
-        return token.equals("sin(") || token.equals("cos(") || token.equals("tan(") ||
-                token.equals("sinh(") || token.equals("cosh(") || token.equals("tanh(") ||
-                token.equals("log(") || token.equals("log₂(") || token.equals("log₃(") ||
-                token.equals("log₄(") || token.equals("log₅(") || token.equals("log₆(") ||
-                token.equals("log₇(") || token.equals("log₈(") || token.equals("log₉(") ||
-                token.equals("ln(") || token.equals("sin⁻¹(") || token.equals("cos⁻¹(") ||
-                token.equals("tan⁻¹(") || token.equals("sinh⁻¹(") || token.equals("cosh⁻¹(") ||
-                token.equals("tanh⁻¹(");
+        // Check if the token is one of the recognized functions
+        return FUNCTION_TOKENS.contains(token) || UserFunctions.isCall(token);
+    }
+
+    /**
+     * Determines the number of arguments of a function. The arguments of functions with several arguments are
+     * separated by semicolons, e.g. "powmod(2;10;1000)".
+     *
+     * @param function The function token.
+     * @return The number of arguments.
+     */
+    public static int functionArity(final String function) {
+        switch (function) {
+            case "gcd(":
+            case "lcm(":
+            case "modinv(":
+            case "min(":
+            case "max(":
+                return 2;
+            case "powmod(":
+            case "if(":
+                return 3;
+            default:
+                return UserFunctions.isCall(function) ? UserFunctions.arity(function) : 1;
+        }
     }
 
     // Inverse hyperbolic sine
@@ -1204,23 +1903,64 @@ public class CalculatorEngine {
     }
 
     /**
-     * Checks if a token is a number.
-     * It attempts to create a BigDecimal from the token. If successful, the token is considered a number; otherwise, it is not.
+     * Checks if a token is a number, in the syntax accepted by {@link BigDecimal#BigDecimal(String)}: an optional sign,
+     * digits with at most one decimal point and an optional exponent, e.g. "2.5", "-3" or "1E+5".
+     * The characters are checked directly, most tokens are operators and parsing them would throw an exception.
      *
      * @param token The token to be checked.
      * @return True if the token is a number, false otherwise.
      */
     public static boolean isNumber(final String token) {
-        // Try to create a new BigDecimal from the token
-        try {
-            new BigDecimal(token);
-            // If successful, the token is a number
-            return true;
+        final int length = token.length();
+        int i = 0;
+        if (i < length && (token.charAt(i) == '+' || token.charAt(i) == '-')) {
+            i++;
         }
-        // If a NumberFormatException is thrown, the token is not a number
-        catch (final NumberFormatException e) {
+        boolean digits = false;
+        boolean point = false;
+        for (; i < length; i++) {
+            final char c = token.charAt(i);
+            if (c >= '0' && c <= '9') {
+                digits = true;
+            } else if (c == '.' && !point) {
+                point = true;
+            } else {
+                break;
+            }
+        }
+        if (!digits) {
             return false;
         }
+        if (i < length && (token.charAt(i) == 'e' || token.charAt(i) == 'E')) {
+            i++;
+            if (i < length && (token.charAt(i) == '+' || token.charAt(i) == '-')) {
+                i++;
+            }
+            final int exponentStart = i;
+            while (i < length && token.charAt(i) >= '0' && token.charAt(i) <= '9') {
+                i++;
+            }
+            // BigDecimal only accepts exponents that fit into an int
+            if (i == exponentStart || i - exponentStart > 9) {
+                return false;
+            }
+        }
+        return i == length;
+    }
+
+    /**
+     * Checks if a token is a variable. Variables are single lower case letters, except "e" which is used for the
+     * scientific notation. They are only defined for evaluations that bind them, like {@link DoubleExpression}.
+     *
+     * @param token The token to be checked.
+     * @return True if the token is a variable, false otherwise.
+     */
+    public static boolean isVariable(final String token) {
+        if (token.length() != 1) {
+            return false;
+        }
+        final char c = token.charAt(0);
+        return c >= 'a' && c <= 'z' && c != 'e';
     }
 
     /**
@@ -1233,7 +1973,19 @@ public class CalculatorEngine {
         // Check if the token is one of the recognized non-functional operators
         return token.contains("+") || token.contains("-") || token.contains("*") || token.contains("/") ||
                 token.contains("×") || token.contains("÷") ||
-                token.contains("^") || token.contains("√") || token.contains("!") || token.contains("³√");
+                token.contains("^") || token.contains("√") || token.contains("!") || token.contains("³√") ||
+                token.equals("mod") || isComparison(token);
+    }
+
+    /**
+     * Checks if the given token is a comparison. A comparison results in 1 if it holds and 0 otherwise.
+     *
+     * @param token The token to be checked.
+     * @return true if the token is one of <, >, ≤, ≥, = and ≠, false otherwise.
+     */
+    public static boolean isComparison(final String token) {
+        return token.equals("<") || token.equals(">") || token.equals("≤") || token.equals("≥")
+                || token.equals("=") || token.equals("≠");
     }
 
     public static boolean isStandardOperator(final String token) {
@@ -1256,30 +2008,40 @@ public class CalculatorEngine {
             case "(":
                 return 0;
 
-            // If the operator is addition or subtraction, return 1
+            // If the operator is a comparison, return 1
+            case "<":
+            case ">":
+            case "≤":
+            case "≥":
+            case "=":
+            case "≠":
+                return 1;
+
+            // If the operator is addition or subtraction, return 2
             case "+":
             case "-":
-                return 1;
+                return 2;
 
-            // If the operator is multiplication or division, return 2
+            // If the operator is multiplication or division, return 3
             case "*":
             case "/":
-                return 2;
+            case "mod":
+                return 3;
 
-            // If the operator is exponentiation, return 3
+            // If the operator is exponentiation, return 4
             case "^":
-                return 3;
+                return 4;
 
-            // If the operator is root, return 4
+            // If the operator is root, return 5
             case "√":
             case "³√":
-                return 4;
+                return 5;
 
-            // If the operator is factorial, return 5
+            // If the operator is factorial, return 6
             case "!":
-                return 5;
+                return 6;
 
-            // If the operator is sine, cosine, or tangent ..., return 6
+            // If the operator is sine, cosine, or tangent ..., return 7
             case "log(":
             case "log₂(":
             case "log₃(":
@@ -1302,10 +2064,21 @@ public class CalculatorEngine {
             case "sin⁻¹(":
             case "cos⁻¹(":
             case "tan⁻¹(":
-                return 6;
+            case "gcd(":
+            case "lcm(":
+            case "modinv(":
+            case "powmod(":
+            case "isprime(":
+            case "if(":
+            case "min(":
+            case "max(":
+                return 7;
 
             // If the operator is not recognized, throw an exception
             default:
+                if (UserFunctions.isCall(operator)) {
+                    return 7;
+                }
                 throw new IllegalArgumentException("Syntax Fehler");
         }
     }
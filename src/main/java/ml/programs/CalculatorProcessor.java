@@ -0,0 +1,275 @@
+package ml.programs;
+
+/*
+ * Copyright (c) 2024 by Max Lemberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Streams expressions through the {@link CalculatorEngine} with back-pressure.
+ * <p>
+ * The processor subscribes to a publisher of expressions and publishes one {@link Result} per expression to a single
+ * subscriber. At most {@code parallelism} expressions are requested from the publisher that have not yet been delivered
+ * to the subscriber. A new expression is only requested after a result has been delivered, so a slow subscriber slows
+ * down the publisher instead of results piling up, and a fast publisher never runs more calculations than configured.
+ * <p>
+ * Results are either delivered in the order of the expressions or as soon as they are calculated.
+ *
+ * @author Max Lemberg
+ */
+public class CalculatorProcessor implements Flow.Processor<String, CalculatorProcessor.Result> {
+    private final int parallelism;
+    private final boolean ordered;
+    private final Executor executor;
+
+    private volatile Flow.Subscription upstream;
+    private volatile Flow.Subscriber<? super Result> downstream;
+    private final AtomicBoolean started = new AtomicBoolean();
+
+    // Requested by the subscriber, but not yet delivered
+    private final AtomicLong demand = new AtomicLong();
+    // Serializes the signals to the subscriber, only the thread that increments it from 0 delivers results
+    private final AtomicInteger wip = new AtomicInteger();
+
+    // Calculated results waiting to be delivered, by index in ordered mode, by completion otherwise
+    private final Map<Long, Result> orderedResults = new ConcurrentHashMap<>();
+    private final Queue<Result> unorderedResults = new ConcurrentLinkedQueue<>();
+
+    // Number of expressions received from the publisher, only written by onNext which is never called concurrently
+    private volatile long received;
+    // Number of results delivered to the subscriber, only accessed by the draining thread
+    private long emitted;
+
+    private volatile boolean upstreamDone;
+    private volatile Throwable error;
+    private volatile boolean cancelled;
+
+    /**
+     * Creates a processor that delivers the results in the order of the expressions and calculates them on the common pool.
+     *
+     * @param parallelism The maximum number of expressions in flight.
+     */
+    public CalculatorProcessor(final int parallelism) {
+        this(parallelism, true, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Creates a new processor.
+     *
+     * @param parallelism The maximum number of expressions requested from the publisher but not yet delivered to the subscriber.
+     * @param ordered     True to deliver the results in the order of the expressions, false to deliver them as soon as they are calculated.
+     * @param executor    The executor the calculations run on.
+     */
+    public CalculatorProcessor(final int parallelism, final boolean ordered, final Executor executor) {
+        if (parallelism <= 0) {
+            throw new IllegalArgumentException("Ungültiger Wert");
+        }
+        this.parallelism = parallelism;
+        this.ordered = ordered;
+        this.executor = Objects.requireNonNull(executor);
+    }
+
+    /**
+     * The result of one expression.
+     *
+     * @param index      The position of the expression in the stream, starting at 0.
+     * @param expression The expression as received from the publisher.
+     * @param value      The result as returned by {@link CalculatorEngine#calculate(String)}.
+     */
+    public record Result(long index, String expression, String value) {
+    }
+
+    @Override
+    public void subscribe(final Flow.Subscriber<? super Result> subscriber) {
+        Objects.requireNonNull(subscriber);
+        synchronized (this) {
+            if (downstream != null) {
+                subscriber.onSubscribe(new Flow.Subscription() {
+                    @Override
+                    public void request(final long n) {
+                    }
+
+                    @Override
+                    public void cancel() {
+                    }
+                });
+                subscriber.onError(new IllegalStateException("Only one subscriber is supported"));
+                return;
+            }
+            downstream = subscriber;
+        }
+
+        subscriber.onSubscribe(new Flow.Subscription() {
+            @Override
+            public void request(final long n) {
+                if (n <= 0) {
+                    // Rule 3.9 of the Reactive Streams specification: signal the violation and stop the stream
+                    final Flow.Subscription subscription = upstream;
+                    if (subscription != null) {
+                        subscription.cancel();
+                    }
+                    onError(new IllegalArgumentException("Non-positive request: " + n));
+                    return;
+                }
+                // Add the demand, capped at Long.MAX_VALUE which means unbounded
+                demand.accumulateAndGet(n, (current, added) -> current + added < 0 ? Long.MAX_VALUE : current + added);
+                drain();
+            }
+
+            @Override
+            public void cancel() {
+                cancelled = true;
+                final Flow.Subscription subscription = upstream;
+                if (subscription != null) {
+                    subscription.cancel();
+                }
+            }
+        });
+        start();
+    }
+
+    @Override
+    public void onSubscribe(final Flow.Subscription subscription) {
+        if (upstream != null) {
+            subscription.cancel();
+            return;
+        }
+        upstream = subscription;
+        if (cancelled) {
+            subscription.cancel();
+            return;
+        }
+        start();
+    }
+
+    @Override
+    public void onNext(final String expression) {
+        final long index = received;
+        received = index + 1;
+
+        try {
+            executor.execute(() -> {
+                final Result result = new Result(index, expression, calculate(expression));
+                if (ordered) {
+                    orderedResults.put(index, result);
+                } else {
+                    unorderedResults.add(result);
+                }
+                drain();
+            });
+        } catch (RuntimeException e) {
+            upstream.cancel();
+            onError(e);
+        }
+    }
+
+    /**
+     * Calculates one expression. A calculation that fails with an exception instead of an error message still gets a
+     * result, otherwise its slot would never be filled and the stream would wait for it forever.
+     *
+     * @param expression The expression to be calculated.
+     * @return The result of the calculation or "Syntax Fehler" if it failed.
+     */
+    private static String calculate(final String expression) {
+        try {
+            return CalculatorEngine.calculate(expression);
+        } catch (Throwable e) {
+            return "Syntax Fehler";
+        }
+    }
+
+    @Override
+    public void onError(final Throwable throwable) {
+        error = throwable;
+        drain();
+    }
+
+    @Override
+    public void onComplete() {
+        upstreamDone = true;
+        drain();
+    }
+
+    /**
+     * Requests the first expressions as soon as both the publisher and the subscriber are known.
+     */
+    private void start() {
+        if (upstream != null && downstream != null && started.compareAndSet(false, true)) {
+            upstream.request(parallelism);
+        }
+    }
+
+    /**
+     * Delivers as many results as the subscriber has requested and requests one new expression per delivered result.
+     * Only one thread delivers at a time, other threads calling this method meanwhile make it loop once more.
+     */
+    private void drain() {
+        if (wip.getAndIncrement() != 0) {
+            return;
+        }
+
+        int missed = 1;
+        do {
+            final Flow.Subscriber<? super Result> subscriber = downstream;
+            if (subscriber != null && !cancelled) {
+                if (error != null) {
+                    cancelled = true;
+                    subscriber.onError(error);
+                    return;
+                }
+
+                final long requested = demand.get();
+                long delivered = 0;
+                while (delivered != requested) {
+                    final Result result = ordered ? orderedResults.remove(emitted) : unorderedResults.poll();
+                    if (result == null) {
+                        break;
+                    }
+                    subscriber.onNext(result);
+                    emitted++;
+                    delivered++;
+                }
+
+                if (delivered > 0) {
+                    if (requested != Long.MAX_VALUE) {
+                        demand.addAndGet(-delivered);
+                    }
+                    // Every delivered result frees a slot for the next expression
+                    if (!upstreamDone && !cancelled) {
+                        upstream.request(delivered);
+                    }
+                }
+
+                if (upstreamDone && emitted == received && !cancelled) {
+                    cancelled = true;
+                    subscriber.onComplete();
+                    return;
+                }
+            }
+            missed = wip.addAndGet(-missed);
+        } while (missed != 0);
+    }
+}
@@ -0,0 +1,373 @@
+package ml.programs;
+
+/*
+ * Copyright (c) 2024 by Max Lemberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
+
+/**
+ * Headless HTTP service in front of the {@link CalculatorEngine}.
+ * <p>
+ * Every request is handled on its own virtual thread. The service offers two endpoints:
+ * <ul>
+ *     <li>{@code /calculate} calculates a single expression, passed either as the {@code expression} query parameter
+ *     or as the request body.</li>
+ *     <li>{@code /batch} calculates one expression per line of the request body and answers with one result per line in
+ *     the same order. The lines are pipelined: calculations start while the rest of the body is still being read and
+ *     results are streamed back as soon as they and all results before them are finished.</li>
+ * </ul>
+ * A calculation that does not finish within the timeout is answered with "Zeitüberschreitung". The number of
+ * calculations running at the same time is limited. Single requests that exceed the limit are rejected with
+ * 503 (Service Unavailable), batches stop reading their body until a calculation finishes.
+ *
+ * @author Max Lemberg
+ */
+public class CalculatorServer {
+    public static final int DEFAULT_PORT = 8080;
+    public static final long DEFAULT_TIMEOUT_MILLIS = 2000;
+    public static final int DEFAULT_MAX_IN_FLIGHT = 10_000;
+
+    private static final String TIMEOUT_MESSAGE = "Zeitüberschreitung";
+    private static final String OVERLOADED_MESSAGE = "Überlastet";
+
+    private final HttpServer server;
+    private final Function<String, String> calculator;
+    private final ExecutorService executor;
+    private final Semaphore inFlight;
+    private final long timeoutMillis;
+
+    /**
+     * Creates a new server. The server does not accept connections before {@link #start()} is called.
+     *
+     * @param address       The address the server listens on.
+     * @param timeoutMillis The maximum time a single calculation may take, in milliseconds.
+     * @param maxInFlight   The maximum number of calculations running at the same time.
+     * @throws IOException If the server cannot be bound to the address.
+     */
+    public CalculatorServer(final InetSocketAddress address, final long timeoutMillis, final int maxInFlight) throws IOException {
+        this(address, timeoutMillis, maxInFlight, CalculatorEngine::calculate);
+    }
+
+    /**
+     * Creates a new server that calculates the requests with the given function instead of the engine.
+     *
+     * @param address       The address the server listens on.
+     * @param timeoutMillis The maximum time a single calculation may take, in milliseconds.
+     * @param maxInFlight   The maximum number of calculations running at the same time.
+     * @param calculator    Calculates the result of an expression.
+     * @throws IOException If the server cannot be bound to the address.
+     */
+    CalculatorServer(final InetSocketAddress address, final long timeoutMillis, final int maxInFlight,
+                     final Function<String, String> calculator) throws IOException {
+        this.calculator = calculator;
+        this.timeoutMillis = timeoutMillis;
+        this.inFlight = new Semaphore(maxInFlight);
+        this.executor = Executors.newVirtualThreadPerTaskExecutor();
+
+        this.server = HttpServer.create(address, 0);
+        this.server.setExecutor(executor);
+        this.server.createContext("/calculate", this::handleCalculate);
+        this.server.createContext("/batch", this::handleBatch);
+    }
+
+    /**
+     * Starts the server with the options given on the command line:
+     * {@code --port=<port>}, {@code --timeout=<milliseconds>}, {@code --max-in-flight=<calculations>} and
+     * {@code --cache=<entries>} to enable the result cache of the engine, {@code --data-dir=<path>} to let the
+     * statistics read files from that directory and {@code --metrics} to publish the engine metrics over JMX. File
+     * access is disabled without a data directory.
+     *
+     * @param args The command line arguments.
+     * @throws IOException If the server cannot be started.
+     */
+    public static void main(final String[] args) throws IOException {
+        int port = DEFAULT_PORT;
+        long timeoutMillis = DEFAULT_TIMEOUT_MILLIS;
+        int maxInFlight = DEFAULT_MAX_IN_FLIGHT;
+
+        for (final String arg : args) {
+            if (arg.startsWith("--port=")) {
+                port = Integer.parseInt(arg.substring("--port=".length()));
+            } else if (arg.startsWith("--timeout=")) {
+                timeoutMillis = Long.parseLong(arg.substring("--timeout=".length()));
+            } else if (arg.startsWith("--max-in-flight=")) {
+                maxInFlight = Integer.parseInt(arg.substring("--max-in-flight=".length()));
+            } else if (arg.startsWith("--cache=")) {
+                CalculatorEngine.enableResultCache(Integer.parseInt(arg.substring("--cache=".length())));
+            } else if (arg.startsWith("--data-dir=")) {
+                SpecialForms.setDataDirectory(Path.of(arg.substring("--data-dir=".length())));
+            } else if (arg.equals("--metrics")) {
+                EngineMetrics.register();
+            } else {
+                System.err.println("Unbekannte Option: " + arg);
+                System.exit(1);
+            }
+        }
+
+        // The debugging output of the engine is synchronized and would serialize all requests
+        CalculatorEngine.DEBUG = false;
+
+        final CalculatorServer calculatorServer = new CalculatorServer(
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), port), timeoutMillis, maxInFlight);
+        calculatorServer.start();
+        System.out.println("RechenMax server listening on " + calculatorServer.getAddress());
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    /**
+     * Stops the server. Requests that are currently being handled get up to the given delay to finish.
+     *
+     * @param delaySeconds The maximum time to wait for running requests, in seconds.
+     */
+    public void stop(final int delaySeconds) {
+        server.stop(delaySeconds);
+        executor.shutdownNow();
+    }
+
+    public InetSocketAddress getAddress() {
+        return server.getAddress();
+    }
+
+    /**
+     * Handles {@code /calculate}. The expression is taken from the query parameter {@code expression} or, if there is
+     * none, from the request body.
+     *
+     * @param exchange The HTTP exchange.
+     * @throws IOException If the request cannot be read or the response cannot be written.
+     */
+    private void handleCalculate(final HttpExchange exchange) throws IOException {
+        try (exchange) {
+            String expression = queryParameter(exchange.getRequestURI().getRawQuery(), "expression");
+            if (expression == null) {
+                try (InputStream body = exchange.getRequestBody()) {
+                    expression = new String(body.readAllBytes(), StandardCharsets.UTF_8).trim();
+                }
+            }
+            if (expression.isEmpty()) {
+                respond(exchange, 400, "Ungültige Eingabe");
+                return;
+            }
+
+            // Reject the request right away instead of queueing it if too many calculations are running
+            if (!inFlight.tryAcquire()) {
+                exchange.getResponseHeaders().set("Retry-After", "1");
+                respond(exchange, 503, OVERLOADED_MESSAGE);
+                return;
+            }
+
+            final Pending result;
+            try {
+                result = submit(expression);
+            } catch (RuntimeException e) {
+                inFlight.release();
+                throw e;
+            }
+
+            final String value = await(result);
+            respond(exchange, TIMEOUT_MESSAGE.equals(value) ? 504 : 200, value);
+        }
+    }
+
+    /**
+     * Handles {@code /batch}. Every line of the request body is submitted as soon as it has been read. The results are
+     * written in the order of the lines, each one as soon as it and all results before it are finished.
+     *
+     * @param exchange The HTTP exchange.
+     * @throws IOException If the request cannot be read or the response cannot be written.
+     */
+    private void handleBatch(final HttpExchange exchange) throws IOException {
+        try (exchange) {
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+            // A response length of 0 selects chunked encoding, so results can be sent before the whole body has been read
+            exchange.sendResponseHeaders(200, 0);
+
+            final Deque<Pending> pending = new ArrayDeque<>();
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(exchange.getRequestBody(), StandardCharsets.UTF_8));
+                 Writer writer = new OutputStreamWriter(exchange.getResponseBody(), StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    final String expression = line.trim();
+                    if (expression.isEmpty()) {
+                        continue;
+                    }
+
+                    // Write all results that are already finished, so the client sees them while it is still sending
+                    if (!pending.isEmpty() && pending.peekFirst().result.isDone()) {
+                        while (!pending.isEmpty() && pending.peekFirst().result.isDone()) {
+                            writeLine(writer, await(pending.pollFirst()));
+                        }
+                        writer.flush();
+                    }
+
+                    // Wait for a free slot instead of rejecting, this slows down reading the body and thereby the client
+                    if (!inFlight.tryAcquire()) {
+                        writer.flush();
+                        acquireBlocking(pending, writer);
+                    }
+                    try {
+                        pending.addLast(submit(expression));
+                    } catch (RuntimeException e) {
+                        inFlight.release();
+                        throw e;
+                    }
+                }
+
+                while (!pending.isEmpty()) {
+                    writeLine(writer, await(pending.pollFirst()));
+                }
+            }
+        }
+    }
+
+    /**
+     * Waits until another calculation can be started. While waiting, the oldest pending results of the batch are written,
+     * because they are the calculations that will free a slot first.
+     *
+     * @param pending The pending results of the batch, in the order of the lines.
+     * @param writer  The writer of the response.
+     * @throws IOException If the response cannot be written.
+     */
+    private void acquireBlocking(final Deque<Pending> pending, final Writer writer) throws IOException {
+        try {
+            while (!inFlight.tryAcquire(timeoutMillis, TimeUnit.MILLISECONDS)) {
+                if (!pending.isEmpty()) {
+                    writeLine(writer, await(pending.pollFirst()));
+                    writer.flush();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Starts the calculation of an expression on its own virtual thread. The caller must already hold a slot of
+     * {@link #inFlight}, it is released when the calculation is finished. A cancelled calculation is interrupted and
+     * stops at its next check, see {@link CalculatorEngine#checkInterrupted()}, a calculation cancelled before
+     * it started releases its slot without running.
+     *
+     * @param expression The expression to be calculated.
+     * @return The pending result, its deadline counts from now.
+     */
+    private Pending submit(final String expression) {
+        final FutureTask<String> task = new FutureTask<>(() -> calculator.apply(expression)) {
+            @Override
+            public void run() {
+                // Also runs if the task has been cancelled before, then it returns right away
+                try {
+                    super.run();
+                } finally {
+                    inFlight.release();
+                }
+            }
+        };
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        executor.execute(task);
+        return new Pending(task, deadline);
+    }
+
+    /**
+     * Waits for a result until its deadline. A batch waits for its results one after the other, so each one only gets
+     * the time left since it was submitted, not another full timeout.
+     *
+     * @param pending The pending result.
+     * @return The result or "Zeitüberschreitung" if the calculation did not finish in time.
+     */
+    private String await(final Pending pending) {
+        final Future<String> result = pending.result;
+        try {
+            // A result that is already finished is returned even after the deadline
+            return result.get(pending.deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            result.cancel(true);
+            return TIMEOUT_MESSAGE;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            result.cancel(true);
+            return TIMEOUT_MESSAGE;
+        } catch (ExecutionException e) {
+            return "Syntax Fehler";
+        }
+    }
+
+    /**
+     * A calculation that has been started and the {@link System#nanoTime()} by which it has to be finished.
+     */
+    private record Pending(Future<String> result, long deadline) {
+    }
+
+    private static void writeLine(final Writer writer, final String value) throws IOException {
+        writer.write(value);
+        writer.write('\n');
+    }
+
+    private static void respond(final HttpExchange exchange, final int status, final String body) throws IOException {
+        final byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    /**
+     * Extracts a parameter from a raw query string.
+     *
+     * @param rawQuery The raw (still URL encoded) query string, may be null.
+     * @param name     The name of the parameter.
+     * @return The decoded value of the parameter or null if it is not present.
+     */
+    private static String queryParameter(final String rawQuery, final String name) {
+        if (rawQuery == null) {
+            return null;
+        }
+        for (final String pair : rawQuery.split("&")) {
+            final int separator = pair.indexOf('=');
+            if (separator > 0 && pair.substring(0, separator).equals(name)) {
+                return URLDecoder.decode(pair.substring(separator + 1), StandardCharsets.UTF_8).trim();
+            }
+        }
+        return null;
+    }
+}
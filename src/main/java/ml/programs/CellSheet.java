@@ -0,0 +1,294 @@
+package ml.programs;
+
+/*
+ * Copyright (c) 2024 by Max Lemberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A sheet of named cells holding expressions that can reference other cells, e.g. "C1" = "A1 × B1 + 2".
+ * <p>
+ * Every cell is calculated by the {@link CalculatorEngine} after its references have been replaced by their values.
+ * The sheet keeps the dependencies between the cells, so changing a cell only recalculates the cells that depend on
+ * it directly or indirectly, each of them once and after all of its references. Cells that do not depend on each other
+ * are calculated in parallel. A cell that would depend on itself is rejected.
+ * <p>
+ * If a referenced cell has no valid value, the error is passed on to the cells referencing it. Referencing a cell that
+ * has not been set gives "Nicht definiert" until the cell is set.
+ *
+ * @author Max Lemberg
+ */
+public class CellSheet {
+    // A cell name is not preceded by a letter, digit or decimal separator, so "1E5" contains no reference
+    private static final Pattern REFERENCE = Pattern.compile("(?<![0-9A-Za-z,.])[A-Z]+[0-9]+");
+    private static final Pattern NAME = Pattern.compile("[A-Z]+[0-9]+");
+    private static final Pattern NUMBER = Pattern.compile("-?[0-9]+(,[0-9]+)?");
+
+    private final Executor executor;
+
+    private final Map<String, String> expressions = new HashMap<>();
+    private final Map<String, Set<String>> references = new HashMap<>();
+    // The cells referencing a cell, also for cells that have not been set yet
+    private final Map<String, Set<String>> dependents = new HashMap<>();
+    // Written by the threads calculating the cells
+    private final Map<String, String> values = new ConcurrentHashMap<>();
+
+    /**
+     * Creates a sheet that calculates the cells on the common pool.
+     */
+    public CellSheet() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Creates a sheet.
+     *
+     * @param executor The executor the cells are calculated on.
+     */
+    public CellSheet(final Executor executor) {
+        this.executor = Objects.requireNonNull(executor);
+    }
+
+    /**
+     * @param name A possible name of a cell.
+     * @return True if it consists of capital letters followed by digits, e.g. "A1" or "AB12".
+     */
+    public static boolean isCellName(final String name) {
+        return NAME.matcher(name).matches();
+    }
+
+    /**
+     * Sets the expression of a cell and recalculates the cell and all cells depending on it.
+     *
+     * @param name       The name of the cell.
+     * @param expression The expression, which may reference other cells.
+     * @return The new values of all recalculated cells, in the order they depend on each other.
+     * @throws IllegalArgumentException If the name is invalid or the cell would depend on itself. The sheet is not
+     *                                  changed in this case.
+     */
+    public synchronized Map<String, String> set(final String name, final String expression) {
+        if (!isCellName(name)) {
+            throw new IllegalArgumentException("Ungültiges Argument");
+        }
+        final Set<String> newReferences = findReferences(expression);
+        if (dependsOn(newReferences, name)) {
+            throw new IllegalArgumentException("Zirkelbezug");
+        }
+
+        removeReferences(name);
+        expressions.put(name, expression);
+        references.put(name, newReferences);
+        for (final String reference : newReferences) {
+            dependents.computeIfAbsent(reference, key -> new HashSet<>()).add(name);
+        }
+        return recalculate(name);
+    }
+
+    /**
+     * Removes a cell and recalculates the cells depending on it, which become undefined.
+     *
+     * @param name The name of the cell.
+     * @return The new values of all recalculated cells, in the order they depend on each other.
+     */
+    public synchronized Map<String, String> remove(final String name) {
+        if (!expressions.containsKey(name)) {
+            return Map.of();
+        }
+        removeReferences(name);
+        expressions.remove(name);
+        values.remove(name);
+        return recalculate(name);
+    }
+
+    /**
+     * @param name The name of the cell.
+     * @return The value of the cell, which is a number or an error message, or null if the cell has not been set.
+     */
+    public synchronized String get(final String name) {
+        return values.get(name);
+    }
+
+    /**
+     * @param name The name of the cell.
+     * @return The expression of the cell, or null if the cell has not been set.
+     */
+    public synchronized String getExpression(final String name) {
+        return expressions.get(name);
+    }
+
+    /**
+     * @return The names of all cells that have been set.
+     */
+    public synchronized Set<String> getNames() {
+        return Set.copyOf(expressions.keySet());
+    }
+
+    private void removeReferences(final String name) {
+        for (final String reference : references.getOrDefault(name, Set.of())) {
+            final Set<String> referencing = dependents.get(reference);
+            referencing.remove(name);
+            if (referencing.isEmpty()) {
+                dependents.remove(reference);
+            }
+        }
+        references.remove(name);
+    }
+
+    /**
+     * @return True if one of the cells is the given cell or references it directly or indirectly.
+     */
+    private boolean dependsOn(final Set<String> cells, final String name) {
+        final Deque<String> pending = new ArrayDeque<>(cells);
+        final Set<String> visited = new HashSet<>();
+        while (!pending.isEmpty()) {
+            final String cell = pending.pop();
+            if (cell.equals(name)) {
+                return true;
+            }
+            if (visited.add(cell)) {
+                pending.addAll(references.getOrDefault(cell, Set.of()));
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Recalculates a cell and all cells depending on it. Every cell is calculated as soon as all of its references
+     * that are recalculated as well are done.
+     */
+    private Map<String, String> recalculate(final String name) {
+        final List<String> order = sortDependents(name);
+
+        final Map<String, CompletableFuture<String>> futures = new HashMap<>();
+        for (final String cell : order) {
+            final List<CompletableFuture<?>> inputs = new ArrayList<>();
+            for (final String reference : references.getOrDefault(cell, Set.of())) {
+                final CompletableFuture<String> input = futures.get(reference);
+                if (input != null) {
+                    inputs.add(input);
+                }
+            }
+            final String expression = expressions.get(cell);
+            final CompletableFuture<String> future = CompletableFuture.allOf(inputs.toArray(new CompletableFuture<?>[0]))
+                    .thenApplyAsync(ignored -> {
+                        final String value = evaluate(expression);
+                        values.put(cell, value);
+                        return value;
+                    }, executor);
+            futures.put(cell, future);
+        }
+
+        final Map<String, String> result = new LinkedHashMap<>();
+        for (final String cell : order) {
+            result.put(cell, futures.get(cell).join());
+        }
+        return result;
+    }
+
+    /**
+     * @return The cell and all set cells depending on it, every cell after the cells it references.
+     */
+    private List<String> sortDependents(final String name) {
+        final Set<String> visited = new HashSet<>();
+        final List<String> postOrder = new ArrayList<>();
+        // Depth-first search along the dependents, a cell is finished after all cells depending on it
+        final Deque<Visit> stack = new ArrayDeque<>();
+        visited.add(name);
+        stack.push(new Visit(name, dependents.getOrDefault(name, Set.of())));
+        while (!stack.isEmpty()) {
+            final Visit top = stack.peek();
+            if (top.remaining.hasNext()) {
+                final String dependent = top.remaining.next();
+                if (visited.add(dependent)) {
+                    stack.push(new Visit(dependent, dependents.getOrDefault(dependent, Set.of())));
+                }
+            } else {
+                stack.pop();
+                if (expressions.containsKey(top.cell)) {
+                    postOrder.add(top.cell);
+                }
+            }
+        }
+
+        final List<String> order = new ArrayList<>(postOrder.size());
+        for (int i = postOrder.size() - 1; i >= 0; i--) {
+            order.add(postOrder.get(i));
+        }
+        return order;
+    }
+
+    /**
+     * Calculates an expression after replacing its references by the values of the cells.
+     */
+    private String evaluate(final String expression) {
+        final Matcher matcher = REFERENCE.matcher(expression);
+        final StringBuilder sb = new StringBuilder();
+        while (matcher.find()) {
+            final String value = values.get(matcher.group());
+            if (value == null) {
+                return "Nicht definiert";
+            }
+            if (!NUMBER.matcher(value).matches()) {
+                // Pass on the error of the referenced cell
+                return value;
+            }
+            matcher.appendReplacement(sb, Matcher.quoteReplacement("(" + value + ")"));
+        }
+        matcher.appendTail(sb);
+        if (sb.length() == 0) {
+            return "Syntax Fehler";
+        }
+        return CalculatorEngine.calculate(sb.toString());
+    }
+
+    private static Set<String> findReferences(final String expression) {
+        final Set<String> result = new HashSet<>();
+        final Matcher matcher = REFERENCE.matcher(expression);
+        while (matcher.find()) {
+            result.add(matcher.group());
+        }
+        return result;
+    }
+
+    /**
+     * A cell together with the dependents that have not been visited yet.
+     */
+    private static final class Visit {
+        private final String cell;
+        private final Iterator<String> remaining;
+
+        Visit(final String cell, final Set<String> dependents) {
+            this.cell = cell;
+            this.remaining = dependents.iterator();
+        }
+    }
+}
@@ -0,0 +1,248 @@
+package ml.programs;
+
+/*
+ * Copyright (c) 2024 by Max Lemberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.Arrays;
+
+/**
+ * Evaluates a {@link DoubleExpression} for whole columns of values at once.
+ * <p>
+ * Instead of running the program once per row, every operation is applied to a block of rows before the next operation
+ * starts. The blocks are small enough to stay in the cache and the loops over them are simple enough to be run with SIMD
+ * instructions. Constants are not expanded into columns, operations with a constant operand use the constant directly.
+ * <p>
+ * If the JVM is started with {@code --add-modules jdk.incubator.vector}, addition, subtraction, multiplication, division,
+ * square roots and integer powers are computed with the Vector API in the widest lanes the processor supports. All other
+ * operations, and all operations if the module is not available, use plain loops with the same results as
+ * {@link DoubleExpression#evaluate(double...)}.
+ *
+ * @author Max Lemberg
+ */
+public class ColumnEvaluator {
+    // Number of rows processed by one operation before the next operation starts
+    static final int BLOCK_SIZE = 1024;
+
+    private static final Kernels KERNELS = loadKernels();
+
+    /**
+     * @return True if the Vector API is used.
+     */
+    public static boolean isVectorized() {
+        return KERNELS.getClass() != ScalarKernels.class;
+    }
+
+    /**
+     * Evaluates an expression for every row of the columns.
+     *
+     * @param expression The compiled expression.
+     * @param columns    One column per variable of the expression, in the order of {@link DoubleExpression#getVariables()}.
+     *                   All columns must have the same length.
+     * @return The result of every row.
+     * @throws IllegalArgumentException If the number or the lengths of the columns do not match.
+     */
+    public static double[] evaluate(final DoubleExpression expression, final double[]... columns) {
+        final int rows = columns.length == 0 ? 1 : columns[0].length;
+        final double[] result = new double[rows];
+        evaluate(expression, columns, result, 0, rows);
+        return result;
+    }
+
+    /**
+     * Evaluates an expression for a range of rows of the columns. Distinct ranges can be evaluated from several threads.
+     *
+     * @param expression The compiled expression.
+     * @param columns    One column per variable of the expression.
+     * @param result     The array receiving the result of every row.
+     * @param from       The first row, inclusive.
+     * @param to         The last row, exclusive.
+     * @throws IllegalArgumentException If the number or the lengths of the columns do not match.
+     */
+    public static void evaluate(final DoubleExpression expression, final double[][] columns, final double[] result,
+                                final int from, final int to) {
+        if (columns.length != expression.getVariables().size()) {
+            throw new IllegalArgumentException("Ungültiges Argument");
+        }
+        for (final double[] column : columns) {
+            if (column.length < to) {
+                throw new IllegalArgumentException("Ungültiges Argument");
+            }
+        }
+
+        final Block block = new Block(expression.maxStackDepth, Math.min(BLOCK_SIZE, Math.max(0, to - from)));
+        for (int start = from; start < to; start += BLOCK_SIZE) {
+            final int length = Math.min(BLOCK_SIZE, to - start);
+            block.run(expression, columns, start, length);
+
+            if (block.constant[0]) {
+                Arrays.fill(result, start, start + length, block.values[0]);
+            } else {
+                System.arraycopy(block.arrays[0], block.offsets[0], result, start, length);
+            }
+        }
+    }
+
+    /**
+     * Uses the Vector API if its module has been added to the JVM. The kernels using it are loaded by name, so this
+     * class does not depend on the module.
+     */
+    private static Kernels loadKernels() {
+        if (ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()) {
+            try {
+                return (Kernels) Class.forName("ml.programs.VectorKernels").getDeclaredConstructor().newInstance();
+            } catch (ReflectiveOperationException | LinkageError e) {
+                // Fall back to the plain loops
+            }
+        }
+        return new ScalarKernels();
+    }
+
+    /**
+     * The evaluation stack of one block. Every entry is either a constant or a column, which is a range of a variable
+     * column or the buffer of the entry.
+     */
+    private static final class Block {
+        final double[][] buffers;
+        final double[][] arrays;
+        final int[] offsets;
+        final boolean[] constant;
+        final double[] values;
+
+        Block(final int depth, final int size) {
+            buffers = new double[depth][size];
+            arrays = new double[depth][];
+            offsets = new int[depth];
+            constant = new boolean[depth];
+            values = new double[depth];
+        }
+
+        void run(final DoubleExpression expression, final double[][] columns, final int start, final int length) {
+            final int[] operations = expression.operations;
+            final double[] operands = expression.operands;
+            int top = -1;
+
+            for (int pc = 0; pc < operations.length; pc++) {
+                final int operation = operations[pc];
+                switch (operation) {
+                    case DoubleExpression.CONST:
+                        top++;
+                        constant[top] = true;
+                        values[top] = operands[pc];
+                        break;
+                    case DoubleExpression.VAR:
+                        // Variables are read from their column directly, without copying
+                        top++;
+                        constant[top] = false;
+                        arrays[top] = columns[(int) operands[pc]];
+                        offsets[top] = start;
+                        break;
+                    case DoubleExpression.ADD:
+                    case DoubleExpression.SUB:
+                    case DoubleExpression.MUL:
+                    case DoubleExpression.DIV:
+                    case DoubleExpression.POW:
+                        top--;
+                        binary(operation, top, length);
+                        break;
+                    default:
+                        if (constant[top]) {
+                            values[top] = DoubleExpression.applyUnary(operation, operands[pc], expression.angleFactor, values[top]);
+                        } else {
+                            KERNELS.unary(operation, operands[pc], expression.angleFactor,
+                                    arrays[top], offsets[top], buffers[top], length);
+                            setBuffer(top);
+                        }
+                        break;
+                }
+            }
+        }
+
+        /**
+         * Combines the entry {@code left} with the entry above it, the result replaces {@code left}.
+         */
+        private void binary(final int operation, final int left, final int length) {
+            final int right = left + 1;
+            if (constant[left] && constant[right]) {
+                values[left] = DoubleExpression.applyBinary(operation, values[left], values[right]);
+            } else if (constant[right]) {
+                KERNELS.binaryScalar(operation, arrays[left], offsets[left], values[right], buffers[left], length);
+                setBuffer(left);
+            } else if (constant[left]) {
+                KERNELS.scalarBinary(operation, values[left], arrays[right], offsets[right], buffers[left], length);
+                setBuffer(left);
+            } else {
+                KERNELS.binary(operation, arrays[left], offsets[left], arrays[right], offsets[right], buffers[left], length);
+                setBuffer(left);
+            }
+        }
+
+        private void setBuffer(final int index) {
+            constant[index] = false;
+            arrays[index] = buffers[index];
+            offsets[index] = 0;
+        }
+    }
+
+    /**
+     * Loops applying one operation to a range of values. The destination may be the same array as an argument.
+     */
+    interface Kernels {
+        void binary(int operation, double[] a, int aOffset, double[] b, int bOffset, double[] destination, int length);
+
+        void binaryScalar(int operation, double[] a, int aOffset, double b, double[] destination, int length);
+
+        void scalarBinary(int operation, double a, double[] b, int bOffset, double[] destination, int length);
+
+        void unary(int operation, double operand, double angleFactor, double[] a, int aOffset, double[] destination, int length);
+    }
+
+    /**
+     * Plain loops, also the fallback of the vectorized kernels for the operations they do not support.
+     */
+    static class ScalarKernels implements Kernels {
+        @Override
+        public void binary(final int operation, final double[] a, final int aOffset, final double[] b, final int bOffset,
+                           final double[] destination, final int length) {
+            for (int i = 0; i < length; i++) {
+                destination[i] = DoubleExpression.applyBinary(operation, a[aOffset + i], b[bOffset + i]);
+            }
+        }
+
+        @Override
+        public void binaryScalar(final int operation, final double[] a, final int aOffset, final double b,
+                                 final double[] destination, final int length) {
+            for (int i = 0; i < length; i++) {
+                destination[i] = DoubleExpression.applyBinary(operation, a[aOffset + i], b);
+            }
+        }
+
+        @Override
+        public void scalarBinary(final int operation, final double a, final double[] b, final int bOffset,
+                                 final double[] destination, final int length) {
+            for (int i = 0; i < length; i++) {
+                destination[i] = DoubleExpression.applyBinary(operation, a, b[bOffset + i]);
+            }
+        }
+
+        @Override
+        public void unary(final int operation, final double operand, final double angleFactor, final double[] a,
+                          final int aOffset, final double[] destination, final int length) {
+            for (int i = 0; i < length; i++) {
+                destination[i] = DoubleExpression.applyUnary(operation, operand, angleFactor, a[aOffset + i]);
+            }
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package ml.programs;
+
+/*
+ * Copyright (c) 2024 by Max Lemberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * JDK Flight Recorder event for turning a normalized expression into its postfix form,
+ * i.e. {@link CalculatorEngine#tokenize(String)} followed by {@link CalculatorEngine#infixToPostfix(java.util.List)}.
+ */
+@Name("ml.programs.Compile")
+@Label("Compile")
+@Category({"RechenMax", "Engine"})
+@Description("Tokenization and conversion of an expression to postfix notation")
+@StackTrace(false)
+public class CompileEvent extends jdk.jfr.Event {
+    @Label("Expression Length")
+    public int expressionLength;
+
+    @Label("Token Count")
+    public int tokenCount;
+
+    @Label("Postfix Length")
+    public int postfixLength;
+}
@@ -0,0 +1,567 @@
+package ml.programs;
+
+/*
+ * Copyright (c) 2024 by Max Lemberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * An expression over complex numbers compiled into a program of double operations, e.g. "(3+4i)×(1-2i)" or "√(-4)".
+ * <p>
+ * The expression is compiled like a {@link DoubleExpression} and uses the same operations, but every value has a real
+ * and an imaginary part. "i" is the imaginary unit, the other single lower case letters are real variables. Roots,
+ * powers, logarithms and the trigonometric and hyperbolic functions and their inverses return their principal values,
+ * so the square root of a negative number and the logarithm of a negative number are defined.
+ * <p>
+ * The evaluation stack keeps the real and the imaginary parts in two parallel arrays of doubles instead of one object
+ * per value, and every thread reuses its own stack. Evaluating an expression therefore allocates nothing and costs
+ * about as much as evaluating a real one, which matters for formulas evaluated at many points, e.g. the impedance of a
+ * circuit over a range of frequencies. Like {@link DoubleExpression}, undefined results are NaN instead of exceptions.
+ * <p>
+ * Instances are immutable and can be evaluated from several threads at once.
+ *
+ * @author Max Lemberg
+ */
+public final class ComplexExpression {
+    // The imaginary unit, which cannot be used as a variable in complex expressions
+    public static final String IMAGINARY_UNIT = "i";
+
+    // A part smaller than this fraction of the other part is a rounding error and not shown, e.g. in e^(iπ)
+    static final double NEGLIGIBLE = 1e-14;
+    // Slots above the stack that the inverse functions use for intermediate results
+    private static final int SCRATCH_SLOTS = 2;
+    // Stacks of the real and the imaginary parts of every thread, grown when an expression needs more
+    private static final ThreadLocal<double[][]> STACKS = ThreadLocal.withInitial(() -> new double[2][16]);
+
+    private final String expression;
+    private final List<String> variables;
+    private final int[] operations;
+    // Real part of a constant, the index of a variable, the exponent of POWI or the base of LOG
+    private final double[] operands;
+    // Imaginary part of a constant
+    private final double[] imaginaryOperands;
+    private final int maxStackDepth;
+    // Factor that converts the angles of the trigonometric functions to radians
+    private final double angleFactor;
+
+    private ComplexExpression(final String expression, final List<String> variables, final int[] operations, final double[] operands,
+                              final double[] imaginaryOperands, final int maxStackDepth, final double angleFactor) {
+        this.expression = expression;
+        this.variables = variables;
+        this.operations = operations;
+        this.operands = operands;
+        this.imaginaryOperands = imaginaryOperands;
+        this.maxStackDepth = maxStackDepth;
+        this.angleFactor = angleFactor;
+    }
+
+    /**
+     * Compiles an expression. The values of the variables are later passed in the order given here.
+     *
+     * @param expression The mathematical expression as entered by the user, e.g. "1÷(1+iωc)".
+     * @param variables  The names of the real variables used in the expression, "i" is not allowed.
+     * @return The compiled expression.
+     * @throws IllegalArgumentException If the expression is invalid or uses a variable that is not listed.
+     */
+    public static ComplexExpression compile(final String expression, final String... variables) {
+        return fromInfix(expression, CalculatorEngine.tokenize(CalculatorEngine.normalize(expression)), List.of(variables));
+    }
+
+    /**
+     * Compiles a tokenized expression.
+     *
+     * @param expression  The original expression, only used for {@link #toString()}.
+     * @param infixTokens The tokens of the normalized expression, as returned by {@link CalculatorEngine#tokenize(String)}.
+     * @param variables   The names of the real variables used in the expression.
+     * @return The compiled expression.
+     * @throws IllegalArgumentException If the expression is invalid or uses a variable that is not listed.
+     */
+    static ComplexExpression fromInfix(final String expression, final List<String> infixTokens, final List<String> variables) {
+        if (variables.contains(IMAGINARY_UNIT)) {
+            throw new IllegalArgumentException("Ungültiges Argument");
+        }
+        final List<String> postfixTokens = CalculatorEngine.infixToPostfix(insertMultiplications(infixTokens));
+        final double angleFactor = CalculatorEngine.MODE.equals("Rad") ? 1 : Math.PI / 180;
+        int[] operations = new int[postfixTokens.size()];
+        double[] operands = new double[postfixTokens.size()];
+        double[] imaginaryOperands = new double[postfixTokens.size()];
+        // Constant folding works on the same stacks as the evaluation, the folded values are copied into the program
+        final double[] re = new double[SCRATCH_SLOTS + 2];
+        final double[] im = new double[SCRATCH_SLOTS + 2];
+        int count = 0;
+        int depth = 0;
+        int maxDepth = 0;
+
+        for (final String token : postfixTokens) {
+            if (CalculatorEngine.isNumber(token) || token.equals(IMAGINARY_UNIT)) {
+                operations[count] = DoubleExpression.CONST;
+                final boolean imaginary = token.equals(IMAGINARY_UNIT);
+                operands[count] = imaginary ? 0 : Double.parseDouble(token);
+                imaginaryOperands[count++] = imaginary ? 1 : 0;
+                maxDepth = Math.max(maxDepth, ++depth);
+                continue;
+            }
+            if (CalculatorEngine.isVariable(token)) {
+                final int index = variables.indexOf(token);
+                if (index < 0) {
+                    throw new IllegalArgumentException("Nicht definiert");
+                }
+                operations[count] = DoubleExpression.VAR;
+                operands[count++] = index;
+                maxDepth = Math.max(maxDepth, ++depth);
+                continue;
+            }
+
+            final int operation = DoubleExpression.toOperation(token);
+            double operand = 0;
+            if (operation == DoubleExpression.LOG) {
+                // "log(" is the common logarithm, "log₂(" to "log₉(" carry their base as subscript
+                operand = token.equals("log(") ? 10 : Character.getNumericValue(token.charAt(3));
+            }
+
+            if (DoubleExpression.isBinary(operation)) {
+                if (depth < 2) {
+                    throw new IllegalArgumentException("Syntax Fehler");
+                }
+                depth--;
+                if (operations[count - 1] == DoubleExpression.CONST && operations[count - 2] == DoubleExpression.CONST) {
+                    // Both operands are constant, fold the operation
+                    re[0] = operands[count - 2];
+                    im[0] = imaginaryOperands[count - 2];
+                    re[1] = operands[count - 1];
+                    im[1] = imaginaryOperands[count - 1];
+                    applyBinary(operation, re, im, 0);
+                    operands[count - 2] = re[0];
+                    imaginaryOperands[count - 2] = im[0];
+                    count--;
+                } else if (operation == DoubleExpression.POW && operations[count - 1] == DoubleExpression.CONST
+                        && imaginaryOperands[count - 1] == 0 && DoubleExpression.isSmallInteger(operands[count - 1])) {
+                    // Turn the constant exponent of polynomial terms into the operand of the power
+                    operations[count - 1] = DoubleExpression.POWI;
+                } else {
+                    operations[count++] = operation;
+                }
+            } else {
+                if (depth < 1) {
+                    throw new IllegalArgumentException("Syntax Fehler");
+                }
+                if (operations[count - 1] == DoubleExpression.CONST) {
+                    re[0] = operands[count - 1];
+                    im[0] = imaginaryOperands[count - 1];
+                    applyUnary(operation, operand, angleFactor, re, im, 0);
+                    operands[count - 1] = re[0];
+                    imaginaryOperands[count - 1] = im[0];
+                } else {
+                    operations[count] = operation;
+                    operands[count++] = operand;
+                }
+            }
+        }
+
+        if (depth != 1) {
+            throw new IllegalArgumentException("Syntax Fehler");
+        }
+        operations = Arrays.copyOf(operations, count);
+        operands = Arrays.copyOf(operands, count);
+        imaginaryOperands = Arrays.copyOf(imaginaryOperands, count);
+        return new ComplexExpression(expression, List.copyOf(variables), operations, operands, imaginaryOperands, maxDepth, angleFactor);
+    }
+
+    /**
+     * The normalization only inserts multiplications after numbers, so "iπ" or "(1+i)(1-i)" is made explicit here.
+     */
+    private static List<String> insertMultiplications(final List<String> tokens) {
+        final List<String> result = new ArrayList<>(tokens.size());
+        for (final String token : tokens) {
+            if (!result.isEmpty() && endsOperand(result.get(result.size() - 1)) && startsOperand(token)) {
+                result.add("*");
+            }
+            result.add(token);
+        }
+        return result;
+    }
+
+    private static boolean endsOperand(final String token) {
+        return token.equals(")") || CalculatorEngine.isNumber(token) || CalculatorEngine.isVariable(token);
+    }
+
+    private static boolean startsOperand(final String token) {
+        return token.equals("(") || CalculatorEngine.isNumber(token) || CalculatorEngine.isVariable(token)
+                || CalculatorEngine.isFunction(token);
+    }
+
+    /**
+     * Evaluates the expression.
+     *
+     * @param result The array that receives the real part at index 0 and the imaginary part at index 1.
+     * @param values The values of the variables, in the order they were given when compiling.
+     */
+    public void evaluate(final double[] result, final double... values) {
+        double[][] stacks = STACKS.get();
+        if (stacks[0].length < maxStackDepth + SCRATCH_SLOTS) {
+            stacks = new double[2][maxStackDepth + SCRATCH_SLOTS];
+            STACKS.set(stacks);
+        }
+        final double[] re = stacks[0];
+        final double[] im = stacks[1];
+        int top = -1;
+
+        for (int pc = 0; pc < operations.length; pc++) {
+            final int operation = operations[pc];
+            switch (operation) {
+                case DoubleExpression.CONST:
+                    top++;
+                    re[top] = operands[pc];
+                    im[top] = imaginaryOperands[pc];
+                    break;
+                case DoubleExpression.VAR:
+                    top++;
+                    re[top] = values[(int) operands[pc]];
+                    im[top] = 0;
+                    break;
+                case DoubleExpression.ADD:
+                case DoubleExpression.SUB:
+                case DoubleExpression.MUL:
+                case DoubleExpression.DIV:
+                case DoubleExpression.POW:
+                    top--;
+                    applyBinary(operation, re, im, top);
+                    break;
+                default:
+                    applyUnary(operation, operands[pc], angleFactor, re, im, top);
+                    break;
+            }
+        }
+        result[0] = re[0];
+        result[1] = im[0];
+    }
+
+    public List<String> getVariables() {
+        return variables;
+    }
+
+    @Override
+    public String toString() {
+        return expression;
+    }
+
+    /**
+     * Formats a complex number like "3+2i", "-1,5i" or "2" with decimal commas. Parts that are negligible compared to
+     * the other part are left out.
+     *
+     * @param re The real part.
+     * @param im The imaginary part.
+     * @return The formatted number.
+     * @throws ArithmeticException If a part is NaN or infinite.
+     */
+    public static String format(double re, double im) {
+        if (Double.isNaN(re) || Double.isNaN(im)) {
+            throw new ArithmeticException("Nicht definiert");
+        }
+        if (Double.isInfinite(re) || Double.isInfinite(im)) {
+            throw new ArithmeticException("Wert zu groß");
+        }
+        if (Math.abs(im) <= NEGLIGIBLE * Math.abs(re)) {
+            im = 0;
+        } else if (Math.abs(re) <= NEGLIGIBLE * Math.abs(im)) {
+            re = 0;
+        }
+        if (im == 0) {
+            return SpecialForms.format(re);
+        }
+
+        final StringBuilder sb = new StringBuilder();
+        if (re != 0) {
+            sb.append(SpecialForms.format(re)).append(im < 0 ? "-" : "+");
+        } else if (im < 0) {
+            sb.append('-');
+        }
+        final String magnitude = SpecialForms.format(Math.abs(im));
+        if (!magnitude.equals("1")) {
+            sb.append(magnitude);
+        }
+        return sb.append(IMAGINARY_UNIT).toString();
+    }
+
+    /**
+     * Applies a binary operation to the values at index k and k + 1 and stores the result at index k.
+     *
+     * @param operation The operation.
+     * @param re        The real parts.
+     * @param im        The imaginary parts.
+     * @param k         The index of the left operand.
+     */
+    static void applyBinary(final int operation, final double[] re, final double[] im, final int k) {
+        final double a = re[k];
+        final double b = im[k];
+        final double c = re[k + 1];
+        final double d = im[k + 1];
+        switch (operation) {
+            case DoubleExpression.ADD:
+                re[k] = a + c;
+                im[k] = b + d;
+                break;
+            case DoubleExpression.SUB:
+                re[k] = a - c;
+                im[k] = b - d;
+                break;
+            case DoubleExpression.MUL:
+                re[k] = a * c - b * d;
+                im[k] = a * d + b * c;
+                break;
+            case DoubleExpression.DIV:
+                // Smith's algorithm, which does not overflow for large divisors
+                if (Math.abs(c) >= Math.abs(d)) {
+                    final double ratio = d / c;
+                    final double denominator = c + d * ratio;
+                    re[k] = (a + b * ratio) / denominator;
+                    im[k] = (b - a * ratio) / denominator;
+                } else {
+                    final double ratio = c / d;
+                    final double denominator = c * ratio + d;
+                    re[k] = (a * ratio + b) / denominator;
+                    im[k] = (b * ratio - a) / denominator;
+                }
+                break;
+            case DoubleExpression.POW:
+                if (d == 0 && DoubleExpression.isSmallInteger(c)) {
+                    powi(re, im, k, a, b, (int) c);
+                } else if (a == 0 && b == 0) {
+                    re[k] = c > 0 ? 0 : Double.NaN;
+                    im[k] = c > 0 ? 0 : Double.NaN;
+                } else {
+                    // z^w = e^(w ln z)
+                    final double logAbs = Math.log(Math.hypot(a, b));
+                    final double arg = Math.atan2(b, a);
+                    exp(re, im, k, c * logAbs - d * arg, d * logAbs + c * arg);
+                }
+                break;
+            default:
+                throw new IllegalArgumentException("Unbekannter Operator");
+        }
+    }
+
+    /**
+     * Applies an operation with a single argument to the value at index k. The two slots above k may be overwritten.
+     *
+     * @param operation   The operation.
+     * @param operand     The operand of the operation, the exponent of POWI or the base of LOG.
+     * @param angleFactor The factor that converts angles to radians.
+     * @param re          The real parts.
+     * @param im          The imaginary parts.
+     * @param k           The index of the argument.
+     */
+    static void applyUnary(final int operation, final double operand, final double angleFactor, final double[] re, final double[] im, final int k) {
+        final double a = re[k];
+        final double b = im[k];
+        switch (operation) {
+            case DoubleExpression.POWI:
+                powi(re, im, k, a, b, (int) operand);
+                break;
+            case DoubleExpression.SQRT:
+                sqrt(re, im, k, a, b);
+                break;
+            case DoubleExpression.CBRT:
+                if (b == 0) {
+                    // The real cube root of a negative number, not the principal one
+                    re[k] = Math.cbrt(a);
+                } else {
+                    log(re, im, k, a, b);
+                    exp(re, im, k, re[k] / 3, im[k] / 3);
+                }
+                break;
+            case DoubleExpression.FACTORIAL:
+                re[k] = b == 0 ? DoubleExpression.factorial(a) : Double.NaN;
+                break;
+            case DoubleExpression.SIN: {
+                final double x = a * angleFactor;
+                final double y = b * angleFactor;
+                re[k] = Math.sin(x) * Math.cosh(y);
+                im[k] = Math.cos(x) * Math.sinh(y);
+                break;
+            }
+            case DoubleExpression.COS: {
+                final double x = a * angleFactor;
+                final double y = b * angleFactor;
+                re[k] = Math.cos(x) * Math.cosh(y);
+                im[k] = -Math.sin(x) * Math.sinh(y);
+                break;
+            }
+            case DoubleExpression.TAN: {
+                final double x = 2 * a * angleFactor;
+                final double y = 2 * b * angleFactor;
+                final double denominator = Math.cos(x) + Math.cosh(y);
+                re[k] = Math.sin(x) / denominator;
+                im[k] = Math.sinh(y) / denominator;
+                break;
+            }
+            case DoubleExpression.SINH: {
+                final double x = a * angleFactor;
+                final double y = b * angleFactor;
+                re[k] = Math.sinh(x) * Math.cos(y);
+                im[k] = Math.cosh(x) * Math.sin(y);
+                break;
+            }
+            case DoubleExpression.COSH: {
+                final double x = a * angleFactor;
+                final double y = b * angleFactor;
+                re[k] = Math.cosh(x) * Math.cos(y);
+                im[k] = Math.sinh(x) * Math.sin(y);
+                break;
+            }
+            case DoubleExpression.TANH: {
+                final double x = 2 * a * angleFactor;
+                final double y = 2 * b * angleFactor;
+                final double denominator = Math.cosh(x) + Math.cos(y);
+                re[k] = Math.sinh(x) / denominator;
+                im[k] = Math.sin(y) / denominator;
+                break;
+            }
+            case DoubleExpression.ASIN:
+                asin(re, im, k, a, b);
+                re[k] /= angleFactor;
+                im[k] /= angleFactor;
+                break;
+            case DoubleExpression.ACOS:
+                // acos(z) = π/2 - asin(z)
+                asin(re, im, k, a, b);
+                re[k] = (Math.PI / 2 - re[k]) / angleFactor;
+                im[k] = -im[k] / angleFactor;
+                break;
+            case DoubleExpression.ATAN:
+                // atan(z) = i/2 (ln(1 - iz) - ln(1 + iz))
+                log(re, im, k + 1, 1 + b, -a);
+                log(re, im, k + 2, 1 - b, a);
+                re[k] = -(im[k + 1] - im[k + 2]) / 2 / angleFactor;
+                im[k] = (re[k + 1] - re[k + 2]) / 2 / angleFactor;
+                break;
+            case DoubleExpression.ASINH:
+                // asinh(z) = ln(z + √(z² + 1)), the zero is added to avoid a negative zero on the branch cut
+                sqrt(re, im, k + 1, a * a - b * b + 1, 2 * a * b + 0.0);
+                log(re, im, k, a + re[k + 1], b + im[k + 1]);
+                break;
+            case DoubleExpression.ACOSH: {
+                // acosh(z) = ln(z + √(z + 1) √(z - 1))
+                sqrt(re, im, k + 1, a + 1, b);
+                sqrt(re, im, k + 2, a - 1, b);
+                final double c = re[k + 1] * re[k + 2] - im[k + 1] * im[k + 2];
+                final double d = re[k + 1] * im[k + 2] + im[k + 1] * re[k + 2];
+                log(re, im, k, a + c, b + d);
+                break;
+            }
+            case DoubleExpression.ATANH:
+                // atanh(z) = (ln(1 + z) - ln(1 - z)) / 2
+                log(re, im, k + 1, 1 + a, b);
+                log(re, im, k + 2, 1 - a, -b);
+                re[k] = (re[k + 1] - re[k + 2]) / 2;
+                im[k] = (im[k + 1] - im[k + 2]) / 2;
+                break;
+            case DoubleExpression.LN:
+                log(re, im, k, a, b);
+                break;
+            case DoubleExpression.LOG: {
+                log(re, im, k, a, b);
+                final double logBase = Math.log(operand);
+                re[k] /= logBase;
+                im[k] /= logBase;
+                break;
+            }
+            default:
+                throw new IllegalArgumentException("Unbekannter Operator");
+        }
+    }
+
+    /**
+     * asin(z) = -i ln(iz + √(1 - z²)), stored at index k. Uses the slot above k.
+     */
+    private static void asin(final double[] re, final double[] im, final int k, final double a, final double b) {
+        // The zero is added to avoid a negative zero, which would put real arguments above 1 on the wrong branch
+        sqrt(re, im, k + 1, 1 - a * a + b * b, -2 * a * b + 0.0);
+        log(re, im, k, re[k + 1] - b, im[k + 1] + a);
+        final double logRe = re[k];
+        re[k] = im[k];
+        im[k] = -logRe;
+    }
+
+    /**
+     * Raises a + bi to an integer power by repeated squaring and stores the result at index k.
+     */
+    private static void powi(final double[] re, final double[] im, final int k, final double a, final double b, final int exponent) {
+        double baseRe = a;
+        double baseIm = b;
+        double resultRe = 1;
+        double resultIm = 0;
+        for (int n = Math.abs(exponent); n > 0; n >>= 1) {
+            if ((n & 1) != 0) {
+                final double t = resultRe * baseRe - resultIm * baseIm;
+                resultIm = resultRe * baseIm + resultIm * baseRe;
+                resultRe = t;
+            }
+            final double t = baseRe * baseRe - baseIm * baseIm;
+            baseIm = 2 * baseRe * baseIm;
+            baseRe = t;
+        }
+        re[k] = resultRe;
+        im[k] = resultIm;
+        if (exponent < 0) {
+            re[k] = 1;
+            im[k] = 0;
+            re[k + 1] = resultRe;
+            im[k + 1] = resultIm;
+            applyBinary(DoubleExpression.DIV, re, im, k);
+        }
+    }
+
+    /**
+     * Stores the principal square root of a + bi at index k.
+     */
+    private static void sqrt(final double[] re, final double[] im, final int k, final double a, final double b) {
+        if (a == 0 && b == 0) {
+            re[k] = 0;
+            im[k] = b;
+            return;
+        }
+        final double abs = Math.hypot(a, b);
+        if (a >= 0) {
+            final double t = Math.sqrt((abs + a) / 2);
+            re[k] = t;
+            im[k] = b / (2 * t);
+        } else {
+            final double t = Math.sqrt((abs - a) / 2);
+            re[k] = Math.abs(b) / (2 * t);
+            im[k] = Math.copySign(t, b);
+        }
+    }
+
+    /**
+     * Stores the principal natural logarithm of a + bi at index k.
+     */
+    private static void log(final double[] re, final double[] im, final int k, final double a, final double b) {
+        re[k] = Math.log(Math.hypot(a, b));
+        im[k] = Math.atan2(b, a);
+    }
+
+    /**
+     * Stores e^(a + bi) at index k.
+     */
+    private static void exp(final double[] re, final double[] im, final int k, final double a, final double b) {
+        final double abs = Math.exp(a);
+        re[k] = abs * Math.cos(b);
+        im[k] = abs * Math.sin(b);
+    }
+}
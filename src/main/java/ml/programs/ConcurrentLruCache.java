@@ -0,0 +1,226 @@
+package ml.programs;
+
+/*
+ * Copyright (c) 2024 by Max Lemberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A bounded, thread-safe least-recently-used cache.
+ * <p>
+ * The cache is split into independent segments, each guarded by its own lock, so threads working on
+ * different keys do not contend on a single global lock. Every segment evicts its least recently used
+ * entry once it holds more than its share of the maximum size.
+ * <p>
+ * Hits, misses and evictions are counted with {@link LongAdder}s so that recording them stays cheap
+ * under contention. Evictions are also reported as {@link CacheEvent}s.
+ *
+ * @param <K> The type of the keys.
+ * @param <V> The type of the cached values.
+ */
+public class ConcurrentLruCache<K, V> {
+    // Upper bound for the number of segments, more segments than this do not reduce contention any further
+    private static final int MAX_SEGMENTS = 64;
+
+    private final String name;
+    private final List<Segment<K, V>> segments;
+    private final int segmentMask;
+    private final int maximumSize;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * Creates a new cache that holds at most {@code maximumSize} entries.
+     *
+     * @param maximumSize The maximum number of entries kept in the cache.
+     * @throws IllegalArgumentException If the maximum size is not positive.
+     */
+    public ConcurrentLruCache(final int maximumSize) {
+        this("cache", maximumSize);
+    }
+
+    /**
+     * Creates a new cache that holds at most {@code maximumSize} entries.
+     *
+     * @param name        The name of the cache used in {@link CacheEvent}s.
+     * @param maximumSize The maximum number of entries kept in the cache.
+     * @throws IllegalArgumentException If the maximum size is not positive.
+     */
+    public ConcurrentLruCache(final String name, final int maximumSize) {
+        if (maximumSize <= 0) {
+            throw new IllegalArgumentException("Ungültiger Wert");
+        }
+        this.name = name;
+        this.maximumSize = maximumSize;
+
+        // Use a power of two so that the segment can be selected with a bit mask,
+        // but never more segments than entries
+        int segmentCount = 1;
+        final int wanted = Math.min(MAX_SEGMENTS, Runtime.getRuntime().availableProcessors() * 4);
+        while (segmentCount < wanted && segmentCount * 2 <= maximumSize) {
+            segmentCount <<= 1;
+        }
+
+        this.segmentMask = segmentCount - 1;
+
+        // Distribute the capacity over the segments, the first segments receive the remainder
+        final List<Segment<K, V>> segments = new ArrayList<>(segmentCount);
+        for (int i = 0; i < segmentCount; i++) {
+            final int capacity = maximumSize / segmentCount + (i < maximumSize % segmentCount ? 1 : 0);
+            segments.add(new Segment<>(name, capacity, evictions));
+        }
+        this.segments = List.copyOf(segments);
+    }
+
+    /**
+     * Returns the value cached for the given key and marks it as recently used.
+     *
+     * @param key The key to look up.
+     * @return The cached value or {@code null} if the key is not cached.
+     */
+    public V get(final K key) {
+        final Segment<K, V> segment = segmentFor(key);
+        final V value;
+        segment.lock.lock();
+        try {
+            value = segment.get(key);
+        } finally {
+            segment.lock.unlock();
+        }
+
+        if (value == null) {
+            misses.increment();
+        } else {
+            hits.increment();
+        }
+        return value;
+    }
+
+    /**
+     * Stores a value in the cache, evicting the least recently used entry of the segment if it is full.
+     *
+     * @param key   The key of the entry.
+     * @param value The value of the entry.
+     */
+    public void put(final K key, final V value) {
+        final Segment<K, V> segment = segmentFor(key);
+        segment.lock.lock();
+        try {
+            segment.put(key, value);
+        } finally {
+            segment.lock.unlock();
+        }
+    }
+
+    /**
+     * Removes all entries from the cache. The counters are not reset.
+     */
+    public void clear() {
+        for (final Segment<K, V> segment : segments) {
+            segment.lock.lock();
+            try {
+                segment.clear();
+            } finally {
+                segment.lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * @return The number of entries currently held by the cache.
+     */
+    public int size() {
+        int size = 0;
+        for (final Segment<K, V> segment : segments) {
+            segment.lock.lock();
+            try {
+                size += segment.size();
+            } finally {
+                segment.lock.unlock();
+            }
+        }
+        return size;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getMaximumSize() {
+        return maximumSize;
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "ConcurrentLruCache[name=" + name + ", size=" + size() + "/" + maximumSize + ", hits=" + getHitCount()
+                + ", misses=" + getMissCount() + ", evictions=" + getEvictionCount() + "]";
+    }
+
+    private Segment<K, V> segmentFor(final K key) {
+        // Spread the higher bits of the hash code so that keys with similar hash codes end up in different segments
+        final int hash = key.hashCode();
+        return segments.get((hash ^ (hash >>> 16)) & segmentMask);
+    }
+
+    /**
+     * One independently locked part of the cache. The access ordered {@link LinkedHashMap} keeps the
+     * least recently used entry at its head.
+     */
+    private static final class Segment<K, V> extends LinkedHashMap<K, V> {
+        private static final long serialVersionUID = 1L;
+
+        private final transient ReentrantLock lock = new ReentrantLock();
+        private final String name;
+        private final int capacity;
+        private final transient LongAdder evictions;
+
+        Segment(final String name, final int capacity, final LongAdder evictions) {
+            super(16, 0.75f, true);
+            this.name = name;
+            this.capacity = capacity;
+            this.evictions = evictions;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<K, V> eldest) {
+            if (size() > capacity) {
+                evictions.increment();
+                CacheEvent.emit(name, CacheEvent.EVICTION);
+                return true;
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,503 @@
+package ml.programs;
+
+/*
+ * Copyright (c) 2024 by Max Lemberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.MathContext;
+import java.math.RoundingMode;
+
+/**
+ * A double-double number: the unevaluated sum of two doubles, where the low part is the rounding error of the high
+ * part, |lo| &lt;= ulp(hi) / 2. Together they carry 106 bits of mantissa, about 32 significant digits, with the
+ * exponent range of a double.
+ * <p>
+ * The arithmetic uses error-free transformations: the rounding error of a sum is recovered with a few additions and
+ * that of a product with {@link Math#fma(double, double, double)}. An operation therefore costs a small multiple of the
+ * same operation on doubles, far less than BigDecimal at a similar precision. Square roots and logarithms are one
+ * Newton step from the double result, the exponential function and the trigonometric functions are Taylor series
+ * after reducing the argument.
+ * <p>
+ * Like {@link Math}, undefined results are NaN and results beyond the range of a double are infinite, no exceptions
+ * are thrown.
+ *
+ * @param hi The high part, the double nearest to the number.
+ * @param lo The low part, the rest.
+ * @author Max Lemberg
+ */
+public record DoubleDouble(double hi, double lo) implements Comparable<DoubleDouble> {
+    // Significant digits of the decimal representation. A double-double has about 32, the last one is left out so that
+    // rounding errors of the last bits do not show, e.g. "1/3×3" is 1
+    public static final int DIGITS = 31;
+    private static final MathContext CONTEXT = new MathContext(DIGITS, RoundingMode.HALF_EVEN);
+    // Relative precision, series are summed until their terms fall below it
+    private static final double EPSILON = 0x1p-106;
+
+    public static final DoubleDouble ZERO = new DoubleDouble(0, 0);
+    public static final DoubleDouble ONE = new DoubleDouble(1, 0);
+    public static final DoubleDouble PI = valueOf(new BigDecimal("3.14159265358979323846264338327950288419716939937511"));
+    private static final DoubleDouble HALF_PI = valueOf(new BigDecimal("1.57079632679489661923132169163975144209858469968755"));
+    // The part of π/2 below the double-double, for the reduction of large arguments
+    private static final double HALF_PI_TAIL = new BigDecimal("1.57079632679489661923132169163975144209858469968755")
+            .subtract(new BigDecimal(HALF_PI.hi)).subtract(new BigDecimal(HALF_PI.lo)).doubleValue();
+    private static final DoubleDouble RADIANS_PER_DEGREE = PI.divide(new DoubleDouble(180, 0));
+    private static final double LOG10_2 = Math.log10(2);
+    private static final DoubleDouble LN2 = valueOf(new BigDecimal("0.69314718055994530941723212145817656807550013436026"));
+    // 1/k! for the Taylor series, enough terms for arguments up to π/4
+    private static final DoubleDouble[] INVERSE_FACTORIALS = new DoubleDouble[32];
+
+    static {
+        BigDecimal factorial = BigDecimal.ONE;
+        for (int k = 0; k < INVERSE_FACTORIALS.length; k++) {
+            if (k > 1) {
+                factorial = factorial.multiply(BigDecimal.valueOf(k));
+            }
+            INVERSE_FACTORIALS[k] = valueOf(BigDecimal.ONE.divide(factorial, MathContext.DECIMAL128));
+        }
+    }
+
+    /**
+     * Converts a BigDecimal to the nearest double-double.
+     *
+     * @param value The number.
+     * @return The double-double, infinite if the number is beyond the range of a double.
+     */
+    public static DoubleDouble valueOf(final BigDecimal value) {
+        final double hi = value.doubleValue();
+        if (Double.isInfinite(hi)) {
+            return new DoubleDouble(hi, 0);
+        }
+        return new DoubleDouble(hi, value.subtract(new BigDecimal(hi)).doubleValue());
+    }
+
+    /**
+     * Converts this number to a BigDecimal rounded to {@link #DIGITS} significant digits.
+     *
+     * @return The BigDecimal.
+     * @throws NumberFormatException If this number is infinite or NaN.
+     */
+    public BigDecimal toBigDecimal() {
+        if (Math.abs(hi) < Double.MIN_NORMAL) {
+            // A subnormal number has fewer bits than a double and no low part, only its shortest decimal is meaningful
+            return new BigDecimal(Double.toString(hi));
+        }
+        if (Math.abs(hi) < 0x1p-969) {
+            // The low part is partly subnormal, only the bits above the smallest double are digits of the number
+            final int bits = Math.getExponent(hi) + 1075;
+            return new BigDecimal(hi).add(new BigDecimal(lo)).round(new MathContext((int) (bits * LOG10_2), RoundingMode.HALF_EVEN));
+        }
+        return new BigDecimal(hi).add(new BigDecimal(lo)).round(CONTEXT);
+    }
+
+    /**
+     * @return The high part, the double nearest to this number.
+     */
+    public double doubleValue() {
+        return hi;
+    }
+
+    /**
+     * @return True if this number is neither infinite nor NaN.
+     */
+    public boolean isFinite() {
+        return Double.isFinite(hi);
+    }
+
+    /**
+     * @return -1, 0 or 1 as this number is negative, zero or positive.
+     */
+    public int signum() {
+        return (int) Math.signum(hi);
+    }
+
+    @Override
+    public int compareTo(final DoubleDouble other) {
+        final int result = Double.compare(hi, other.hi);
+        return result != 0 ? result : Double.compare(lo, other.lo);
+    }
+
+    public DoubleDouble negate() {
+        return new DoubleDouble(-hi, -lo);
+    }
+
+    public DoubleDouble add(final DoubleDouble other) {
+        final double s = hi + other.hi;
+        if (!Double.isFinite(s)) {
+            return new DoubleDouble(s, 0);
+        }
+        // Sums of the high and of the low parts with their rounding errors
+        final double v = s - hi;
+        double e = (hi - (s - v)) + (other.hi - v);
+        final double t = lo + other.lo;
+        final double w = t - lo;
+        final double f = (lo - (t - w)) + (other.lo - w);
+        e += t;
+        final double s2 = s + e;
+        e = e - (s2 - s) + f;
+        return normalize(s2, e);
+    }
+
+    public DoubleDouble add(final double other) {
+        final double s = hi + other;
+        if (!Double.isFinite(s)) {
+            return new DoubleDouble(s, 0);
+        }
+        final double v = s - hi;
+        final double e = (hi - (s - v)) + (other - v) + lo;
+        return normalize(s, e);
+    }
+
+    public DoubleDouble subtract(final DoubleDouble other) {
+        return add(other.negate());
+    }
+
+    public DoubleDouble multiply(final DoubleDouble other) {
+        final double p = hi * other.hi;
+        if (!Double.isFinite(p)) {
+            return new DoubleDouble(p, 0);
+        }
+        return normalize(p, Math.fma(hi, other.hi, -p) + (hi * other.lo + lo * other.hi));
+    }
+
+    public DoubleDouble multiply(final double other) {
+        final double p = hi * other;
+        if (!Double.isFinite(p)) {
+            return new DoubleDouble(p, 0);
+        }
+        return normalize(p, Math.fma(hi, other, -p) + lo * other);
+    }
+
+    /**
+     * Divides this number by another one, by long division with three quotient digits of double precision.
+     *
+     * @param other The divisor.
+     * @return The quotient, infinite or NaN if the divisor is zero, zero if only the divisor is infinite.
+     */
+    public DoubleDouble divide(final DoubleDouble other) {
+        final double q1 = hi / other.hi;
+        if (!Double.isFinite(q1) || Double.isInfinite(other.hi)) {
+            // The remainder of a division by infinity would be infinity times zero
+            return new DoubleDouble(q1, 0);
+        }
+        DoubleDouble remainder = subtract(other.multiply(q1));
+        final double q2 = remainder.hi / other.hi;
+        remainder = remainder.subtract(other.multiply(q2));
+        final double q3 = remainder.hi / other.hi;
+        return normalize(q1, q2).add(q3);
+    }
+
+    /**
+     * @return The square root, NaN for negative numbers.
+     */
+    public DoubleDouble sqrt() {
+        if (hi <= 0 || Double.isInfinite(hi)) {
+            return hi == 0 ? ZERO : new DoubleDouble(Math.sqrt(hi), 0);
+        }
+        // One Newton step from the square root in double precision doubles the number of correct digits
+        final double x = 1 / Math.sqrt(hi);
+        final double root = hi * x;
+        final double square = root * root;
+        final double correction = subtract(new DoubleDouble(square, Math.fma(root, root, -square))).hi * (x * 0.5);
+        final double s = root + correction;
+        final double v = s - root;
+        return normalize(s, (root - (s - v)) + (correction - v));
+    }
+
+    /**
+     * Raises this number to an integer power by repeated squaring. A negative exponent divides 1 by the power, unless
+     * the power overflows, then the inverse is raised to the power and the result underflows gradually like a double.
+     *
+     * @param exponent The exponent.
+     * @return The power, 1 if the exponent is 0.
+     */
+    public DoubleDouble pow(final long exponent) {
+        final DoubleDouble power = positivePow(this, Math.abs(exponent));
+        if (exponent >= 0) {
+            return power;
+        }
+        return power.isFinite() || !isFinite() ? ONE.divide(power) : positivePow(ONE.divide(this), Math.abs(exponent));
+    }
+
+    private static DoubleDouble positivePow(final DoubleDouble x, final long exponent) {
+        DoubleDouble result = ONE;
+        DoubleDouble base = x;
+        long n = exponent;
+        while (n > 0) {
+            if ((n & 1) != 0) {
+                result = result.multiply(base);
+            }
+            n >>= 1;
+            if (n > 0) {
+                base = base.multiply(base);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return e raised to this number.
+     */
+    public DoubleDouble exp() {
+        if (hi > 709.79) {
+            return new DoubleDouble(Double.POSITIVE_INFINITY, 0);
+        }
+        if (hi < -745.2) {
+            return ZERO;
+        }
+        if (Double.isNaN(hi)) {
+            return this;
+        }
+
+        // e^x = 2^m × e^r with |r| <= ln(2)/2, e^r is the 512th power of e^(r/512), whose series converges fast
+        final double m = Math.rint(hi / LN2.hi);
+        final DoubleDouble r = subtract(LN2.multiply(m)).multiply(1.0 / 512);
+        // The series of e^r - 1, the squaring keeps the small difference to 1 instead of rounding it away
+        DoubleDouble sum = r;
+        DoubleDouble power = r;
+        for (int k = 2; k < INVERSE_FACTORIALS.length; k++) {
+            power = power.multiply(r);
+            final DoubleDouble term = power.multiply(INVERSE_FACTORIALS[k]);
+            sum = sum.add(term);
+            if (Math.abs(term.hi) <= EPSILON * Math.abs(sum.hi)) {
+                break;
+            }
+        }
+        // (1 + s)^2 - 1 = 2s + s^2
+        for (int i = 0; i < 9; i++) {
+            sum = sum.multiply(2).add(sum.multiply(sum));
+        }
+        sum = sum.add(1);
+        return new DoubleDouble(Math.scalb(sum.hi, (int) m), Math.scalb(sum.lo, (int) m));
+    }
+
+    /**
+     * @return The natural logarithm, NaN for negative numbers and negative infinity for zero.
+     */
+    public DoubleDouble log() {
+        if (hi <= 0 || !Double.isFinite(hi)) {
+            return new DoubleDouble(Math.log(hi), 0);
+        }
+        // One Newton step x + a×e^(-x) - 1 from the logarithm in double precision
+        final DoubleDouble x = new DoubleDouble(Math.log(hi), 0);
+        return x.add(multiply(x.negate().exp())).add(-1);
+    }
+
+    /**
+     * @return The sine of this angle in radians.
+     */
+    public DoubleDouble sin() {
+        return sinCos(false)[0];
+    }
+
+    /**
+     * @return The cosine of this angle in radians.
+     */
+    public DoubleDouble cos() {
+        return sinCos(false)[1];
+    }
+
+    /**
+     * @return The tangent of this angle in radians.
+     */
+    public DoubleDouble tan() {
+        final DoubleDouble[] sinCos = sinCos(false);
+        return sinCos[0].divide(sinCos[1]);
+    }
+
+    /**
+     * @return The sine of this angle in degrees, exactly 0 at multiples of 180°.
+     */
+    public DoubleDouble sinDegrees() {
+        return sinCos(true)[0];
+    }
+
+    /**
+     * @return The cosine of this angle in degrees, exactly 0 at odd multiples of 90°.
+     */
+    public DoubleDouble cosDegrees() {
+        return sinCos(true)[1];
+    }
+
+    /**
+     * @return The tangent of this angle in degrees, infinite at odd multiples of 90°.
+     */
+    public DoubleDouble tanDegrees() {
+        final DoubleDouble[] sinCos = sinCos(true);
+        return sinCos[0].divide(sinCos[1]);
+    }
+
+    /**
+     * @return This angle converted from degrees to radians.
+     */
+    public DoubleDouble toRadians() {
+        return multiply(RADIANS_PER_DEGREE);
+    }
+
+    public DoubleDouble sinh() {
+        if (Math.abs(hi) < 0.5) {
+            // e^x - e^(-x) cancels for small x, the series does not
+            final DoubleDouble square = multiply(this);
+            DoubleDouble sum = this;
+            DoubleDouble power = this;
+            for (int k = 3; k < INVERSE_FACTORIALS.length; k += 2) {
+                power = power.multiply(square);
+                final DoubleDouble term = power.multiply(INVERSE_FACTORIALS[k]);
+                sum = sum.add(term);
+                if (Math.abs(term.hi) <= EPSILON * Math.abs(sum.hi)) {
+                    break;
+                }
+            }
+            return sum;
+        }
+        final DoubleDouble e = exp();
+        return e.subtract(ONE.divide(e)).multiply(0.5);
+    }
+
+    public DoubleDouble cosh() {
+        final DoubleDouble e = exp();
+        return e.add(ONE.divide(e)).multiply(0.5);
+    }
+
+    public DoubleDouble tanh() {
+        if (Math.abs(hi) > 40) {
+            // 1 - tanh(40) is below the precision
+            return new DoubleDouble(Math.signum(hi), 0);
+        }
+        return sinh().divide(cosh());
+    }
+
+    @Override
+    public String toString() {
+        return isFinite() ? toBigDecimal().toString() : Double.toString(hi);
+    }
+
+    /**
+     * Computes the sine and the cosine together. The angle is reduced to |r| &lt;= π/4 by the nearest multiple k of
+     * π/2, the sine of r is its Taylor series and the cosine its complement, k mod 4 selects and signs them. Angles in
+     * degrees are reduced by multiples of 360° and 90° exactly. In radians k×π/2 is subtracted as exact products of k
+     * and the parts of π/2, angles too large for an exact k are reduced with π/2 as a BigDecimal, see
+     * {@link #reduceLargeAngle()}.
+     *
+     * @param degrees True if the angle is in degrees.
+     * @return The sine and the cosine.
+     */
+    private DoubleDouble[] sinCos(final boolean degrees) {
+        if (!isFinite()) {
+            final DoubleDouble nan = new DoubleDouble(Double.NaN, 0);
+            return new DoubleDouble[]{nan, nan};
+        }
+        final long k;
+        final DoubleDouble r;
+        if (degrees) {
+            // The remainders of both parts are exact
+            final DoubleDouble angle = Math.abs(hi) < 360 ? this : new DoubleDouble(hi % 360, 0).add(lo % 360);
+            final double multiple = Math.rint(angle.hi / 90);
+            k = (long) multiple;
+            r = angle.add(-90 * multiple).toRadians();
+        } else if (Math.abs(hi) < 0x1p52) {
+            final double multiple = Math.rint(hi / HALF_PI.hi);
+            k = (long) multiple;
+            // The products with the parts of π/2 and their rounding errors, every one of them is exact
+            final double high = HALF_PI.hi * multiple;
+            final double low = HALF_PI.lo * multiple;
+            r = add(-high).add(-Math.fma(HALF_PI.hi, multiple, -high)).add(-low)
+                    .add(-Math.fma(HALF_PI.lo, multiple, -low)).add(-HALF_PI_TAIL * multiple);
+        } else {
+            final BigDecimal[] reduced = reduceLargeAngle();
+            k = reduced[0].longValue();
+            r = valueOf(reduced[1]);
+        }
+
+        DoubleDouble sin = ZERO;
+        if (r.hi != 0) {
+            final DoubleDouble square = r.multiply(r).negate();
+            sin = r;
+            DoubleDouble power = r;
+            for (int n = 3; n < INVERSE_FACTORIALS.length; n += 2) {
+                power = power.multiply(square);
+                final DoubleDouble term = power.multiply(INVERSE_FACTORIALS[n]);
+                sin = sin.add(term);
+                if (Math.abs(term.hi) <= EPSILON * Math.abs(sin.hi)) {
+                    break;
+                }
+            }
+        }
+        final DoubleDouble cos = ONE.subtract(sin.multiply(sin)).sqrt();
+
+        switch ((int) Math.floorMod(k, 4L)) {
+            case 0:
+                return new DoubleDouble[]{sin, cos};
+            case 1:
+                return new DoubleDouble[]{cos, sin.negate()};
+            case 2:
+                return new DoubleDouble[]{sin.negate(), cos.negate()};
+            default:
+                return new DoubleDouble[]{cos.negate(), sin};
+        }
+    }
+
+    /**
+     * Reduces an angle in radians too large for a multiple of π/2 in a double. The angle is exact as a BigDecimal, the
+     * nearest multiple of π/2 is subtracted with as many digits of π/2 as the angle has integer digits and the digits
+     * of the double-double.
+     *
+     * @return The multiple k of π/2 modulo 4 and the reduced angle.
+     */
+    private BigDecimal[] reduceLargeAngle() {
+        final BigDecimal angle = new BigDecimal(hi).add(new BigDecimal(lo));
+        final int integerDigits = angle.precision() - angle.scale();
+        final BigDecimal halfPi = LargeAngles.HALF_PI.round(new MathContext(integerDigits + 2 * DIGITS));
+        final BigDecimal k = angle.divide(halfPi, new MathContext(integerDigits + 2)).setScale(0, RoundingMode.HALF_EVEN);
+        final BigDecimal r = angle.subtract(k.multiply(halfPi));
+        return new BigDecimal[]{new BigDecimal(k.toBigInteger().mod(BigInteger.valueOf(4))), r};
+    }
+
+    /**
+     * π/2 with enough digits to reduce the largest doubles, calculated on first use by Machin's formula
+     * π/4 = 4×arctan(1/5) - arctan(1/239).
+     */
+    private static final class LargeAngles {
+        // The largest double has 309 integer digits
+        private static final MathContext CONTEXT = new MathContext(309 + 2 * DIGITS + 10);
+        private static final BigDecimal HALF_PI = arctanOfInverse(5).multiply(BigDecimal.valueOf(8))
+                .subtract(arctanOfInverse(239).multiply(BigDecimal.valueOf(2)), CONTEXT);
+
+        /**
+         * @return arctan(1/n) = 1/n - 1/(3n^3) + 1/(5n^5) - …
+         */
+        private static BigDecimal arctanOfInverse(final int n) {
+            final BigDecimal square = BigDecimal.valueOf((long) n * n);
+            final BigDecimal limit = BigDecimal.ONE.movePointLeft(CONTEXT.getPrecision() + 2);
+            BigDecimal power = BigDecimal.ONE.divide(BigDecimal.valueOf(n), CONTEXT);
+            BigDecimal sum = power;
+            for (int k = 3; power.compareTo(limit) > 0; k += 2) {
+                power = power.divide(square, CONTEXT);
+                final BigDecimal term = power.divide(BigDecimal.valueOf(k), CONTEXT);
+                sum = k % 4 == 3 ? sum.subtract(term, CONTEXT) : sum.add(term, CONTEXT);
+            }
+            return sum;
+        }
+    }
+
+    /**
+     * Adds two doubles whose sum is dominated by the first one, the rounding error becomes the low part.
+     */
+    private static DoubleDouble normalize(final double hi, final double lo) {
+        final double s = hi + lo;
+        return new DoubleDouble(s, lo - (s - hi));
+    }
+}
@@ -0,0 +1,547 @@
+package ml.programs;
+
+/*
+ * Copyright (c) 2024 by Max Lemberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * An expression compiled into a program of double operations, for evaluating the same formula for many values of its
+ * variables.
+ * <p>
+ * The expression is parsed with the tokenizer and the shunting-yard conversion of the {@link CalculatorEngine}, so it
+ * supports the same operators and functions. Variables are single lower case letters, see
+ * {@link CalculatorEngine#isVariable(String)}. Constant subexpressions are folded when the expression is compiled and
+ * the angle mode is fixed at that time.
+ * <p>
+ * Unlike the engine, the evaluation works with doubles and does not throw for undefined results. Divisions by zero and
+ * functions outside of their domain result in infinity or NaN, just like the {@link Math} functions.
+ * <p>
+ * Instances are immutable and can be evaluated from several threads at once.
+ *
+ * @author Max Lemberg
+ */
+public final class DoubleExpression {
+    // Operations of the program, the operand of an operation is stored at the same index
+    static final int CONST = 0;
+    static final int VAR = 1;
+    static final int ADD = 2;
+    static final int SUB = 3;
+    static final int MUL = 4;
+    static final int DIV = 5;
+    static final int POW = 6;
+    // Power with a constant integer exponent, evaluated by repeated squaring
+    static final int POWI = 7;
+    static final int SQRT = 8;
+    static final int CBRT = 9;
+    static final int FACTORIAL = 10;
+    static final int SIN = 11;
+    static final int COS = 12;
+    static final int TAN = 13;
+    static final int SINH = 14;
+    static final int COSH = 15;
+    static final int TANH = 16;
+    static final int ASIN = 17;
+    static final int ACOS = 18;
+    static final int ATAN = 19;
+    static final int ASINH = 20;
+    static final int ACOSH = 21;
+    static final int ATANH = 22;
+    static final int LN = 23;
+    // Logarithm to the base stored as operand
+    static final int LOG = 24;
+
+    // Exponents up to this size are evaluated by repeated squaring, larger ones with Math.pow
+    private static final int MAX_POWI_EXPONENT = 64;
+
+    private final String expression;
+    private final List<String> variables;
+    final int[] operations;
+    final double[] operands;
+    final int maxStackDepth;
+    // Factor that converts the angles of the trigonometric functions to radians
+    final double angleFactor;
+
+    private DoubleExpression(final String expression, final List<String> variables, final int[] operations,
+                             final double[] operands, final int maxStackDepth, final double angleFactor) {
+        this.expression = expression;
+        this.variables = variables;
+        this.operations = operations;
+        this.operands = operands;
+        this.maxStackDepth = maxStackDepth;
+        this.angleFactor = angleFactor;
+    }
+
+    /**
+     * Compiles an expression. The values of the variables are later passed in the order given here.
+     *
+     * @param expression The mathematical expression as entered by the user, e.g. "3x^2+2x+1".
+     * @param variables  The names of the variables used in the expression.
+     * @return The compiled expression.
+     * @throws IllegalArgumentException If the expression is invalid or uses a variable that is not listed.
+     */
+    public static DoubleExpression compile(final String expression, final String... variables) {
+        return fromPostfix(expression, toPostfix(expression), List.of(variables));
+    }
+
+    /**
+     * Normalizes and tokenizes an expression and converts it to postfix notation. Calls of user-defined functions are
+     * inlined, see {@link UserFunctions#inline(List)}.
+     *
+     * @param expression The expression as entered by the user.
+     * @return The list of tokens in postfix notation.
+     */
+    static List<String> toPostfix(final String expression) {
+        final String normalized = CalculatorEngine.normalize(expression);
+        return CalculatorEngine.infixToPostfix(UserFunctions.inline(UserFunctions.resolveCalls(CalculatorEngine.tokenize(normalized))));
+    }
+
+    /**
+     * Compiles an expression in postfix notation, as produced by {@link CalculatorEngine#infixToPostfix(List)}.
+     *
+     * @param expression    The original expression, only used for {@link #toString()}.
+     * @param postfixTokens The list of tokens in postfix notation.
+     * @param variables     The names of the variables used in the expression.
+     * @return The compiled expression.
+     * @throws IllegalArgumentException If the expression is invalid or uses a variable that is not listed.
+     */
+    public static DoubleExpression fromPostfix(final String expression, final List<String> postfixTokens, final List<String> variables) {
+        final double angleFactor = CalculatorEngine.MODE.equals("Rad") ? 1 : Math.PI / 180;
+        int[] operations = new int[postfixTokens.size()];
+        double[] operands = new double[postfixTokens.size()];
+        int count = 0;
+        int depth = 0;
+        int maxDepth = 0;
+
+        for (final String token : postfixTokens) {
+            if (CalculatorEngine.isNumber(token)) {
+                operations[count] = CONST;
+                operands[count++] = Double.parseDouble(token);
+                maxDepth = Math.max(maxDepth, ++depth);
+                continue;
+            }
+            if (CalculatorEngine.isVariable(token)) {
+                final int index = variables.indexOf(token);
+                if (index < 0) {
+                    throw new IllegalArgumentException("Nicht definiert");
+                }
+                operations[count] = VAR;
+                operands[count++] = index;
+                maxDepth = Math.max(maxDepth, ++depth);
+                continue;
+            }
+
+            final int operation = toOperation(token);
+            double operand = 0;
+            if (operation == LOG) {
+                // "log(" is the common logarithm, "log₂(" to "log₉(" carry their base as subscript
+                operand = token.equals("log(") ? 10 : Character.getNumericValue(token.charAt(3));
+            }
+
+            if (isBinary(operation)) {
+                if (depth < 2) {
+                    throw new IllegalArgumentException("Syntax Fehler");
+                }
+                depth--;
+                if (operations[count - 1] == CONST && operations[count - 2] == CONST) {
+                    // Both operands are constant, fold the operation
+                    operands[count - 2] = applyBinary(operation, operands[count - 2], operands[count - 1]);
+                    count--;
+                } else if (operation == POW && operations[count - 1] == CONST && isSmallInteger(operands[count - 1])) {
+                    // Turn the constant exponent of polynomial terms into the operand of the power
+                    operations[count - 1] = POWI;
+                } else {
+                    operations[count++] = operation;
+                }
+            } else {
+                if (depth < 1) {
+                    throw new IllegalArgumentException("Syntax Fehler");
+                }
+                if (operations[count - 1] == CONST) {
+                    operands[count - 1] = applyUnary(operation, operand, angleFactor, operands[count - 1]);
+                } else {
+                    operations[count] = operation;
+                    operands[count++] = operand;
+                }
+            }
+        }
+
+        if (depth != 1) {
+            throw new IllegalArgumentException("Syntax Fehler");
+        }
+        operations = Arrays.copyOf(operations, count);
+        operands = Arrays.copyOf(operands, count);
+        return new DoubleExpression(expression, List.copyOf(variables), operations, operands, maxDepth, angleFactor);
+    }
+
+    /**
+     * Evaluates the expression.
+     *
+     * @param values The values of the variables, in the order they were given when compiling.
+     * @return The result of the expression.
+     */
+    public double evaluate(final double... values) {
+        final double[] stack = new double[maxStackDepth];
+        int top = -1;
+
+        for (int pc = 0; pc < operations.length; pc++) {
+            final int operation = operations[pc];
+            switch (operation) {
+                case CONST:
+                    stack[++top] = operands[pc];
+                    break;
+                case VAR:
+                    stack[++top] = values[(int) operands[pc]];
+                    break;
+                case ADD:
+                case SUB:
+                case MUL:
+                case DIV:
+                case POW:
+                    top--;
+                    stack[top] = applyBinary(operation, stack[top], stack[top + 1]);
+                    break;
+                default:
+                    stack[top] = applyUnary(operation, operands[pc], angleFactor, stack[top]);
+                    break;
+            }
+        }
+        return stack[0];
+    }
+
+    /**
+     * Evaluates the expression together with its derivative with respect to one variable.
+     * <p>
+     * The derivative is computed by forward-mode automatic differentiation: every value on the stack carries its
+     * derivative, which every operation updates by the rules of differentiation. The derivative is therefore exact up to
+     * rounding and costs about as much as a second evaluation, unlike a difference quotient.
+     *
+     * @param variable The index of the variable to differentiate by.
+     * @param values   The values of the variables, in the order they were given when compiling.
+     * @return The value of the expression at index 0 and its derivative at index 1.
+     */
+    public double[] evaluateWithDerivative(final int variable, final double... values) {
+        final double[] stack = new double[maxStackDepth];
+        final double[] derivatives = new double[maxStackDepth];
+        int top = -1;
+
+        for (int pc = 0; pc < operations.length; pc++) {
+            final int operation = operations[pc];
+            switch (operation) {
+                case CONST:
+                    top++;
+                    stack[top] = operands[pc];
+                    derivatives[top] = 0;
+                    break;
+                case VAR:
+                    top++;
+                    stack[top] = values[(int) operands[pc]];
+                    derivatives[top] = (int) operands[pc] == variable ? 1 : 0;
+                    break;
+                case ADD:
+                case SUB:
+                case MUL:
+                case DIV:
+                case POW:
+                    top--;
+                    derivatives[top] = differentiateBinary(operation, stack[top], derivatives[top], stack[top + 1], derivatives[top + 1]);
+                    stack[top] = applyBinary(operation, stack[top], stack[top + 1]);
+                    break;
+                default:
+                    derivatives[top] = differentiateUnary(operation, operands[pc], angleFactor, stack[top], derivatives[top]);
+                    stack[top] = applyUnary(operation, operands[pc], angleFactor, stack[top]);
+                    break;
+            }
+        }
+        return new double[]{stack[0], derivatives[0]};
+    }
+
+    public List<String> getVariables() {
+        return variables;
+    }
+
+    @Override
+    public String toString() {
+        return expression;
+    }
+
+    /**
+     * Applies a binary operation.
+     *
+     * @param operation The operation.
+     * @param left      The left operand.
+     * @param right     The right operand.
+     * @return The result of the operation.
+     */
+    static double applyBinary(final int operation, final double left, final double right) {
+        switch (operation) {
+            case ADD:
+                return left + right;
+            case SUB:
+                return left - right;
+            case MUL:
+                return left * right;
+            case DIV:
+                return left / right;
+            case POW:
+                return Math.pow(left, right);
+            default:
+                throw new IllegalArgumentException("Unbekannter Operator");
+        }
+    }
+
+    /**
+     * Applies an operation with a single argument.
+     *
+     * @param operation   The operation.
+     * @param operand     The operand of the operation, the exponent of {@link #POWI} or the base of {@link #LOG}.
+     * @param angleFactor The factor that converts angles to radians.
+     * @param x           The argument.
+     * @return The result of the operation.
+     */
+    static double applyUnary(final int operation, final double operand, final double angleFactor, final double x) {
+        switch (operation) {
+            case POWI:
+                return powi(x, (int) operand);
+            case SQRT:
+                return Math.sqrt(x);
+            case CBRT:
+                return Math.cbrt(x);
+            case FACTORIAL:
+                return factorial(x);
+            case SIN:
+                return Math.sin(x * angleFactor);
+            case COS:
+                return Math.cos(x * angleFactor);
+            case TAN:
+                return Math.tan(x * angleFactor);
+            case SINH:
+                return Math.sinh(x * angleFactor);
+            case COSH:
+                return Math.cosh(x * angleFactor);
+            case TANH:
+                return Math.tanh(x * angleFactor);
+            case ASIN:
+                return Math.asin(x) / angleFactor;
+            case ACOS:
+                return Math.acos(x) / angleFactor;
+            case ATAN:
+                return Math.atan(x) / angleFactor;
+            case ASINH:
+                return Math.log(x + Math.sqrt(x * x + 1));
+            case ACOSH:
+                return Math.log(x + Math.sqrt(x * x - 1));
+            case ATANH:
+                return 0.5 * Math.log((1 + x) / (1 - x));
+            case LN:
+                return Math.log(x);
+            case LOG:
+                return operand == 10 ? Math.log10(x) : Math.log(x) / Math.log(operand);
+            default:
+                throw new IllegalArgumentException("Unbekannter Operator");
+        }
+    }
+
+    /**
+     * Applies the chain rule to a binary operation.
+     *
+     * @param operation The operation.
+     * @param left      The left operand.
+     * @param dLeft     The derivative of the left operand.
+     * @param right     The right operand.
+     * @param dRight    The derivative of the right operand.
+     * @return The derivative of the result.
+     */
+    static double differentiateBinary(final int operation, final double left, final double dLeft, final double right, final double dRight) {
+        switch (operation) {
+            case ADD:
+                return dLeft + dRight;
+            case SUB:
+                return dLeft - dRight;
+            case MUL:
+                return dLeft * right + left * dRight;
+            case DIV:
+                return (dLeft * right - left * dRight) / (right * right);
+            case POW:
+                if (dRight == 0) {
+                    // Constant exponent, also valid for negative bases
+                    return dLeft == 0 ? 0 : right * Math.pow(left, right - 1) * dLeft;
+                }
+                return Math.pow(left, right) * (dRight * Math.log(left) + (dLeft == 0 ? 0 : right * dLeft / left));
+            default:
+                throw new IllegalArgumentException("Unbekannter Operator");
+        }
+    }
+
+    /**
+     * Applies the chain rule to an operation with a single argument.
+     *
+     * @param operation   The operation.
+     * @param operand     The operand of the operation, the exponent of {@link #POWI} or the base of {@link #LOG}.
+     * @param angleFactor The factor that converts angles to radians.
+     * @param x           The argument.
+     * @param dx          The derivative of the argument.
+     * @return The derivative of the result.
+     */
+    static double differentiateUnary(final int operation, final double operand, final double angleFactor, final double x, final double dx) {
+        if (dx == 0) {
+            return 0;
+        }
+        switch (operation) {
+            case POWI:
+                return operand == 0 ? 0 : operand * powi(x, (int) operand - 1) * dx;
+            case SQRT:
+                return dx / (2 * Math.sqrt(x));
+            case CBRT: {
+                final double root = Math.cbrt(x);
+                return dx / (3 * root * root);
+            }
+            case FACTORIAL:
+                // Only defined for integers
+                return Double.NaN;
+            case SIN:
+                return Math.cos(x * angleFactor) * angleFactor * dx;
+            case COS:
+                return -Math.sin(x * angleFactor) * angleFactor * dx;
+            case TAN: {
+                final double cos = Math.cos(x * angleFactor);
+                return angleFactor * dx / (cos * cos);
+            }
+            case SINH:
+                return Math.cosh(x * angleFactor) * angleFactor * dx;
+            case COSH:
+                return Math.sinh(x * angleFactor) * angleFactor * dx;
+            case TANH: {
+                final double tanh = Math.tanh(x * angleFactor);
+                return (1 - tanh * tanh) * angleFactor * dx;
+            }
+            case ASIN:
+                return dx / Math.sqrt(1 - x * x) / angleFactor;
+            case ACOS:
+                return -dx / Math.sqrt(1 - x * x) / angleFactor;
+            case ATAN:
+                return dx / (1 + x * x) / angleFactor;
+            case ASINH:
+                return dx / Math.sqrt(x * x + 1);
+            case ACOSH:
+                return dx / Math.sqrt(x * x - 1);
+            case ATANH:
+                return dx / (1 - x * x);
+            case LN:
+                return dx / x;
+            case LOG:
+                return dx / (x * Math.log(operand));
+            default:
+                throw new IllegalArgumentException("Unbekannter Operator");
+        }
+    }
+
+    /**
+     * Raises a number to an integer power by repeated squaring. The vectorized evaluation multiplies in the same order,
+     * so both give identical results.
+     */
+    static double powi(final double x, final int exponent) {
+        double base = x;
+        double result = 1;
+        for (int n = Math.abs(exponent); n > 0; n >>= 1) {
+            if ((n & 1) != 0) {
+                result *= base;
+            }
+            base *= base;
+        }
+        return exponent < 0 ? 1 / result : result;
+    }
+
+    static boolean isBinary(final int operation) {
+        return operation >= ADD && operation <= POW;
+    }
+
+    static boolean isSmallInteger(final double value) {
+        return value == Math.rint(value) && Math.abs(value) <= MAX_POWI_EXPONENT;
+    }
+
+    static double factorial(final double x) {
+        if (x != Math.rint(x) || Math.abs(x) > 170) {
+            return Double.NaN;
+        }
+        double result = 1;
+        for (int i = 2; i <= Math.abs(x); i++) {
+            result *= i;
+        }
+        // Like the engine, the factorial of a negative number is the negated factorial of its absolute value
+        return x < 0 ? -result : result;
+    }
+
+    static int toOperation(final String token) {
+        switch (token) {
+            case "+":
+                return ADD;
+            case "-":
+                return SUB;
+            case "*":
+                return MUL;
+            case "/":
+                return DIV;
+            case "^":
+                return POW;
+            case "√":
+                return SQRT;
+            case "³√":
+                return CBRT;
+            case "!":
+                return FACTORIAL;
+            case "sin(":
+                return SIN;
+            case "cos(":
+                return COS;
+            case "tan(":
+                return TAN;
+            case "sinh(":
+                return SINH;
+            case "cosh(":
+                return COSH;
+            case "tanh(":
+                return TANH;
+            case "sin⁻¹(":
+                return ASIN;
+            case "cos⁻¹(":
+                return ACOS;
+            case "tan⁻¹(":
+                return ATAN;
+            case "sinh⁻¹(":
+                return ASINH;
+            case "cosh⁻¹(":
+                return ACOSH;
+            case "tanh⁻¹(":
+                return ATANH;
+            case "ln(":
+                return LN;
+            case "log(":
+            case "log₂(":
+            case "log₃(":
+            case "log₄(":
+            case "log₅(":
+            case "log₆(":
+            case "log₇(":
+            case "log₈(":
+            case "log₉(":
+                return LOG;
+            default:
+                throw new IllegalArgumentException("Syntax Fehler");
+        }
+    }
+}
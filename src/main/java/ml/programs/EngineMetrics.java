@@ -0,0 +1,366 @@
+package ml.programs;
+
+/*
+ * Copyright (c) 2024 by Max Lemberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Records how long the stages of {@link CalculatorEngine#calculate(String)} take and how often calculations fail.
+ * <p>
+ * Recording is lock-free: all counters are {@link LongAdder}s, which spread concurrent updates over several cells.
+ * Latencies are kept in log-linear histograms with eight buckets per power of two, so percentiles are accurate to
+ * about 12 percent. Calculations slower than a threshold are additionally kept in a small ring buffer together with
+ * the time spent in every stage.
+ * <p>
+ * Recording is disabled by default, {@link #register()} enables it and publishes the metrics over JMX.
+ *
+ * @author Max Lemberg
+ */
+public class EngineMetrics implements EngineMetricsMXBean {
+    public static final String OBJECT_NAME = "ml.programs:type=CalculatorEngine";
+    public static final EngineMetrics INSTANCE = new EngineMetrics();
+
+    // Number of calculations kept in the slow expression log
+    private static final int SLOW_LOG_CAPACITY = 64;
+
+    /**
+     * The stages of a calculation, in the order they are run. Definitions of functions, matrix expressions,
+     * factorizations and roots of polynomials are calculated in a single stage of their own, the special forms they
+     * contain are expanded as part of it.
+     */
+    public enum Stage {
+        DEFINE("define"),
+        MATRIX("matrix"),
+        FACTORIZE("factorize"),
+        ROOTS("roots"),
+        NORMALIZE("normalize"),
+        BALANCE_PARENTHESES("balanceParentheses"),
+        TOKENIZE("tokenize"),
+        INFIX_TO_POSTFIX("infixToPostfix"),
+        EVALUATE_POSTFIX("evaluatePostfix"),
+        FORMAT("format");
+
+        private final String displayName;
+
+        Stage(final String displayName) {
+            this.displayName = displayName;
+        }
+
+        public String getDisplayName() {
+            return displayName;
+        }
+    }
+
+    private volatile boolean enabled;
+    private volatile long slowThresholdNanos = 10_000_000L;
+
+    private final LongAdder calls = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    // Keyed by the exception type, a fixed set, because messages may contain parts of the input and would grow the map without bound
+    private final Map<Class<?>, LongAdder> errorsByType = new ConcurrentHashMap<>();
+
+    private final LatencyHistogram total = new LatencyHistogram();
+    private final LatencyHistogram[] stages = new LatencyHistogram[Stage.values().length];
+
+    private final AtomicReferenceArray<String> slowLog = new AtomicReferenceArray<>(SLOW_LOG_CAPACITY);
+    private final AtomicLong slowLogNext = new AtomicLong();
+
+    private EngineMetrics() {
+        for (int i = 0; i < stages.length; i++) {
+            stages[i] = new LatencyHistogram();
+        }
+    }
+
+    /**
+     * Enables recording and registers the metrics with the platform MBean server. Calling it again has no further effect.
+     */
+    public static synchronized void register() {
+        INSTANCE.setEnabled(true);
+        try {
+            final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            final ObjectName name = new ObjectName(OBJECT_NAME);
+            if (!server.isRegistered(name)) {
+                server.registerMBean(INSTANCE, name);
+            }
+        } catch (JMException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Starts recording a calculation.
+     *
+     * @param expression The expression as passed to the engine.
+     * @return The recording, which has to be finished once the calculation is done.
+     */
+    public Recording startRecording(final String expression) {
+        return new Recording(expression);
+    }
+
+    /**
+     * Adds a finished calculation to the counters, histograms and, if it was slow, to the slow expression log.
+     */
+    private void record(final Recording recording) {
+        final long totalNanos = System.nanoTime() - recording.start;
+        final long[] stageNanos = recording.stageNanos;
+
+        calls.increment();
+        if (recording.error != null) {
+            errors.increment();
+            errorsByType.computeIfAbsent(recording.error, type -> new LongAdder()).increment();
+        }
+
+        total.record(totalNanos);
+        for (int i = 0; i < stages.length; i++) {
+            if (stageNanos[i] > 0) {
+                stages[i].record(stageNanos[i]);
+            }
+        }
+
+        if (totalNanos >= slowThresholdNanos) {
+            final StringBuilder entry = new StringBuilder()
+                    .append(totalNanos / 1000).append(" µs ").append(recording.expression).append(" [");
+            for (final Stage stage : Stage.values()) {
+                if (stage.ordinal() > 0) {
+                    entry.append(", ");
+                }
+                entry.append(stage.getDisplayName()).append('=').append(stageNanos[stage.ordinal()] / 1000).append(" µs");
+            }
+            entry.append(']');
+            final long slot = slowLogNext.getAndIncrement();
+            slowLog.set((int) (slot % SLOW_LOG_CAPACITY), entry.toString());
+        }
+    }
+
+    /**
+     * The measurements of one calculation. A recording is used by a single thread only.
+     */
+    public final class Recording {
+        private final String expression;
+        private final long start;
+        private final long[] stageNanos = new long[Stage.values().length];
+        private long last;
+        private Class<? extends Exception> error;
+
+        private Recording(final String expression) {
+            this.expression = expression;
+            this.start = System.nanoTime();
+            this.last = start;
+        }
+
+        /**
+         * Ends the given stage. Its duration is the time since the previous stage ended or the recording started.
+         *
+         * @param stage The stage that has just been completed.
+         */
+        public void lap(final Stage stage) {
+            final long now = System.nanoTime();
+            stageNanos[stage.ordinal()] += now - last;
+            last = now;
+        }
+
+        /**
+         * Marks the calculation as failed.
+         *
+         * @param type The type of the exception the calculation failed with.
+         */
+        public void fail(final Class<? extends Exception> type) {
+            this.error = type;
+        }
+
+        /**
+         * Ends the recording and adds it to the metrics.
+         */
+        public void finish() {
+            record(this);
+        }
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    @Override
+    public void setEnabled(final boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    @Override
+    public long getCallCount() {
+        return calls.sum();
+    }
+
+    @Override
+    public long getErrorCount() {
+        return errors.sum();
+    }
+
+    @Override
+    public Map<String, Long> getErrorCounts() {
+        final Map<String, Long> counts = new TreeMap<>();
+        errorsByType.forEach((type, count) -> counts.merge(type.getSimpleName(), count.sum(), Long::sum));
+        return counts;
+    }
+
+    @Override
+    public Map<String, Long> getLatencyP50Nanos() {
+        return percentiles(0.5);
+    }
+
+    @Override
+    public Map<String, Long> getLatencyP99Nanos() {
+        return percentiles(0.99);
+    }
+
+    @Override
+    public Map<String, Long> getLatencyP999Nanos() {
+        return percentiles(0.999);
+    }
+
+    @Override
+    public long getSlowThresholdMillis() {
+        return slowThresholdNanos / 1_000_000L;
+    }
+
+    @Override
+    public void setSlowThresholdMillis(final long slowThresholdMillis) {
+        this.slowThresholdNanos = slowThresholdMillis * 1_000_000L;
+    }
+
+    @Override
+    public List<String> getSlowExpressions() {
+        final List<String> entries = new ArrayList<>(SLOW_LOG_CAPACITY);
+        final long next = slowLogNext.get();
+        for (long slot = Math.max(0, next - SLOW_LOG_CAPACITY); slot < next; slot++) {
+            final String entry = slowLog.get((int) (slot % SLOW_LOG_CAPACITY));
+            if (entry != null) {
+                entries.add(entry);
+            }
+        }
+        return entries;
+    }
+
+    @Override
+    public void reset() {
+        calls.reset();
+        errors.reset();
+        errorsByType.clear();
+        total.reset();
+        for (final LatencyHistogram stage : stages) {
+            stage.reset();
+        }
+        slowLogNext.set(0);
+        for (int i = 0; i < SLOW_LOG_CAPACITY; i++) {
+            slowLog.set(i, null);
+        }
+    }
+
+    private Map<String, Long> percentiles(final double quantile) {
+        final Map<String, Long> values = new LinkedHashMap<>();
+        values.put("total", total.percentile(quantile));
+        for (final Stage stage : Stage.values()) {
+            values.put(stage.getDisplayName(), stages[stage.ordinal()].percentile(quantile));
+        }
+        return values;
+    }
+
+    /**
+     * A histogram of nanosecond latencies. Values below 8 get a bucket of their own, every power of two above is split
+     * into eight equally wide buckets.
+     */
+    static final class LatencyHistogram {
+        private static final int SUB_BUCKET_BITS = 3;
+        private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+        private static final int BUCKETS = (63 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+        private final LongAdder[] buckets = new LongAdder[BUCKETS];
+
+        LatencyHistogram() {
+            for (int i = 0; i < BUCKETS; i++) {
+                buckets[i] = new LongAdder();
+            }
+        }
+
+        void record(final long nanos) {
+            buckets[index(Math.max(0, nanos))].increment();
+        }
+
+        void reset() {
+            for (final LongAdder bucket : buckets) {
+                bucket.reset();
+            }
+        }
+
+        /**
+         * @param quantile The quantile between 0 and 1.
+         * @return The middle of the bucket containing the quantile, or 0 if nothing has been recorded.
+         */
+        long percentile(final double quantile) {
+            final long[] counts = new long[BUCKETS];
+            long count = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                counts[i] = buckets[i].sum();
+                count += counts[i];
+            }
+            if (count == 0) {
+                return 0;
+            }
+
+            final long rank = Math.max(1, (long) Math.ceil(quantile * count));
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return middle(i);
+                }
+            }
+            return middle(BUCKETS - 1);
+        }
+
+        static int index(final long value) {
+            if (value < SUB_BUCKETS) {
+                return (int) value;
+            }
+            // The highest set bit selects the power of two, the bits right below it select the sub bucket
+            final int exponent = 63 - Long.numberOfLeadingZeros(value);
+            final int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) - SUB_BUCKETS;
+            return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+        }
+
+        static long middle(final int index) {
+            if (index < SUB_BUCKETS) {
+                return index;
+            }
+            final int shift = index / SUB_BUCKETS - 1;
+            final long lower = (long) (SUB_BUCKETS + index % SUB_BUCKETS) << shift;
+            return lower + ((1L << shift) >>> 1);
+        }
+    }
+}
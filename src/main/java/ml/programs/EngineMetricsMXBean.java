@@ -0,0 +1,59 @@
+package ml.programs;
+
+/*
+ * Copyright (c) 2024 by Max Lemberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Management interface of {@link EngineMetrics}, registered as {@value EngineMetrics#OBJECT_NAME}.
+ * The latency maps are keyed by the name of the stage, "total" covers the whole calculation.
+ */
+public interface EngineMetricsMXBean {
+    boolean isEnabled();
+
+    void setEnabled(boolean enabled);
+
+    long getCallCount();
+
+    long getErrorCount();
+
+    /**
+     * @return The number of failed calculations by the simple name of the exception type, e.g. "ArithmeticException".
+     */
+    Map<String, Long> getErrorCounts();
+
+    Map<String, Long> getLatencyP50Nanos();
+
+    Map<String, Long> getLatencyP99Nanos();
+
+    Map<String, Long> getLatencyP999Nanos();
+
+    long getSlowThresholdMillis();
+
+    void setSlowThresholdMillis(long slowThresholdMillis);
+
+    /**
+     * @return The most recent calculations that took longer than the threshold, with the time spent in each stage, oldest first.
+     */
+    List<String> getSlowExpressions();
+
+    /**
+     * Resets all counters, histograms and the slow expression log.
+     */
+    void reset();
+}
@@ -0,0 +1,219 @@
+package ml.programs;
+
+/*
+ * Copyright (c) 2024 by Max Lemberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * Finds roots of functions of one variable and computes derivatives.
+ * <p>
+ * The solver starts with Newton's method, using the exact derivative from
+ * {@link DoubleExpression#evaluateWithDerivative(int, double...)}. Near a simple root it doubles the number of correct
+ * digits with every step. If Newton's method leaves the domain of the function, runs into a flat spot or does not
+ * converge, the solver searches outwards from the start value for a sign change and finishes with Brent's method,
+ * which cannot fail once a root is bracketed.
+ *
+ * @author Max Lemberg
+ */
+public class EquationSolver {
+    private static final int MAX_NEWTON_ITERATIONS = 50;
+    private static final int MAX_BRACKET_STEPS = 100;
+    private static final int MAX_BRENT_ITERATIONS = 200;
+    private static final double EPSILON = Math.ulp(1.0);
+
+    /**
+     * Computes the derivative of a function at a point.
+     *
+     * @param function The function of one variable.
+     * @param x        The point.
+     * @return The derivative.
+     */
+    public static double derivative(final DoubleExpression function, final double x) {
+        return function.evaluateWithDerivative(0, x)[1];
+    }
+
+    /**
+     * Finds a root of a function of one variable near the start value.
+     *
+     * @param function The function of one variable.
+     * @param start    The start value.
+     * @return A value at which the function is zero.
+     * @throws ArithmeticException If no root has been found.
+     */
+    public static double solve(final DoubleExpression function, final double start) {
+        final double newton = newton(function, start);
+        if (!Double.isNaN(newton)) {
+            return newton;
+        }
+        return brent(function, start);
+    }
+
+    /**
+     * Newton's method.
+     *
+     * @return The root, or NaN if the method did not converge.
+     */
+    private static double newton(final DoubleExpression function, final double start) {
+        double x = start;
+        for (int i = 0; i < MAX_NEWTON_ITERATIONS; i++) {
+            final double[] valueAndDerivative = function.evaluateWithDerivative(0, x);
+            final double value = valueAndDerivative[0];
+            final double derivative = valueAndDerivative[1];
+            if (value == 0) {
+                return x;
+            }
+            if (!Double.isFinite(value) || !Double.isFinite(derivative) || derivative == 0) {
+                return Double.NaN;
+            }
+
+            final double step = value / derivative;
+            x -= step;
+            if (!Double.isFinite(x)) {
+                return Double.NaN;
+            }
+            if (Math.abs(step) <= 4 * EPSILON * Math.max(1, Math.abs(x))) {
+                // Converged, but a flat spot also gives small steps, so make sure the value is really zero
+                final double residual = function.evaluate(x);
+                return Math.abs(residual) <= 1e-9 * Math.max(1, Math.abs(derivative * x)) ? x : Double.NaN;
+            }
+        }
+        return Double.NaN;
+    }
+
+    /**
+     * Searches for a sign change around the start value and narrows it down with Brent's method.
+     */
+    private static double brent(final DoubleExpression function, final double start) {
+        final double fStart = function.evaluate(start);
+        if (fStart == 0) {
+            return start;
+        }
+
+        double step = 0.1 * Math.max(1, Math.abs(start));
+        double left = start;
+        double fLeft = fStart;
+        double right = start;
+        double fRight = fStart;
+        for (int i = 0; i < MAX_BRACKET_STEPS; i++) {
+            final double nextRight = start + step;
+            final double fNextRight = function.evaluate(nextRight);
+            if (Double.isFinite(fNextRight)) {
+                if (Double.isFinite(fRight) && Math.signum(fRight) != Math.signum(fNextRight)) {
+                    return brent(function, right, fRight, nextRight, fNextRight);
+                }
+                right = nextRight;
+                fRight = fNextRight;
+            }
+
+            final double nextLeft = start - step;
+            final double fNextLeft = function.evaluate(nextLeft);
+            if (Double.isFinite(fNextLeft)) {
+                if (Double.isFinite(fLeft) && Math.signum(fLeft) != Math.signum(fNextLeft)) {
+                    return brent(function, nextLeft, fNextLeft, left, fLeft);
+                }
+                left = nextLeft;
+                fLeft = fNextLeft;
+            }
+            step *= 1.6;
+        }
+        throw new ArithmeticException("Keine Lösung");
+    }
+
+    /**
+     * Brent's method on an interval at whose ends the function has different signs. It combines inverse quadratic
+     * interpolation and secant steps with bisection, so it converges fast for smooth functions and at least as fast as
+     * bisection otherwise.
+     */
+    private static double brent(final DoubleExpression function, double a, double fa, double b, double fb) {
+        if (fa == 0) {
+            return a;
+        }
+        if (fb == 0) {
+            return b;
+        }
+
+        double c = a;
+        double fc = fa;
+        double d = b - a;
+        double e = d;
+
+        for (int i = 0; i < MAX_BRENT_ITERATIONS; i++) {
+            if (Math.signum(fb) == Math.signum(fc)) {
+                c = a;
+                fc = fa;
+                d = b - a;
+                e = d;
+            }
+            if (Math.abs(fc) < Math.abs(fb)) {
+                // Keep b as the best approximation
+                a = b;
+                b = c;
+                c = a;
+                fa = fb;
+                fb = fc;
+                fc = fa;
+            }
+
+            final double tolerance = 2 * EPSILON * Math.abs(b) + Double.MIN_NORMAL;
+            final double middle = (c - b) / 2;
+            if (Math.abs(middle) <= tolerance || fb == 0) {
+                return b;
+            }
+
+            if (Math.abs(e) >= tolerance && Math.abs(fa) > Math.abs(fb)) {
+                // Try interpolation
+                double p;
+                double q;
+                final double s = fb / fa;
+                if (a == c) {
+                    // Secant step
+                    p = 2 * middle * s;
+                    q = 1 - s;
+                } else {
+                    // Inverse quadratic interpolation
+                    final double r = fb / fc;
+                    final double t = fa / fc;
+                    p = s * (2 * middle * t * (t - r) - (b - a) * (r - 1));
+                    q = (t - 1) * (r - 1) * (s - 1);
+                }
+                if (p > 0) {
+                    q = -q;
+                } else {
+                    p = -p;
+                }
+                if (2 * p < Math.min(3 * middle * q - Math.abs(tolerance * q), Math.abs(e * q))) {
+                    e = d;
+                    d = p / q;
+                } else {
+                    d = middle;
+                    e = d;
+                }
+            } else {
+                // Bisection
+                d = middle;
+                e = d;
+            }
+
+            a = b;
+            fa = fb;
+            b += Math.abs(d) > tolerance ? d : Math.copySign(tolerance, middle);
+            fb = function.evaluate(b);
+            if (Double.isNaN(fb)) {
+                throw new ArithmeticException("Keine Lösung");
+            }
+        }
+        return b;
+    }
+}
@@ -0,0 +1,77 @@
+package ml.programs;
+
+/*
+ * Copyright (c) 2024 by Max Lemberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * JDK Flight Recorder event for one call of {@link CalculatorEngine#calculate(String)}.
+ * The duration of the event is the duration of the calculation.
+ */
+@Name("ml.programs.Evaluation")
+@Label("Evaluation")
+@Category({"RechenMax", "Engine"})
+@Description("Calculation of one expression by the CalculatorEngine")
+@StackTrace(false)
+public class EvaluationEvent extends jdk.jfr.Event {
+    // Path of a calculation answered from the result cache
+    public static final String PATH_CACHE = "cache";
+    // Path of an expression that was only a number in scientific notation
+    public static final String PATH_SCIENTIFIC = "scientific";
+    // Path of a calculation evaluated with BigDecimal arithmetic
+    public static final String PATH_BIG_DECIMAL = "BigDecimal";
+    // Path of a calculation evaluated with double-double arithmetic
+    public static final String PATH_DOUBLE_DOUBLE = "double-double";
+    // Path of a calculation evaluated with complex numbers
+    public static final String PATH_COMPLEX = "complex";
+    // Path of the definition of a user-defined function
+    public static final String PATH_DEFINE = "define";
+    // Path of a calculation with matrices
+    public static final String PATH_MATRIX = "matrix";
+    // Path of a prime factorization
+    public static final String PATH_FACTORIZE = "factorize";
+    // Path of the roots of a polynomial
+    public static final String PATH_ROOTS = "roots";
+
+    @Label("Expression Length")
+    @DataAmount(DataAmount.BYTES)
+    public int expressionLength;
+
+    @Label("Token Count")
+    public int tokenCount;
+
+    @Label("Stack Depth")
+    @Description("Maximum number of operands on the evaluation stack")
+    public int stackDepth;
+
+    @Label("Max Operand Digits")
+    @Description("Number of digits of the longest number in the expression")
+    public int maxOperandDigits;
+
+    @Label("Path")
+    @Description("How the result was obtained: cache, scientific, BigDecimal, double-double, complex, define, matrix, factorize or roots")
+    public String path;
+
+    @Label("Error")
+    @Description("Error message returned instead of a result, if any")
+    public String error;
+}
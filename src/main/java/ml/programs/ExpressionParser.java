@@ -0,0 +1,381 @@
+package ml.programs;
+
+/*
+ * Copyright (c) 2024 by Max Lemberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Parses the tokens of {@link CalculatorEngine#tokenize(String)} into an immutable syntax tree by precedence climbing
+ * (a Pratt parser), in one pass over the tokens.
+ * <p>
+ * Every operator has a binding power, its {@link CalculatorEngine#precedence(String)}. An operand is parsed first, then
+ * the operators following it are applied as long as they bind more strongly than the operator the operand belongs to.
+ * This covers the prefix operators "-", "√" and "³√", the postfix operator "!", the right-associative "^", calls with
+ * several arguments separated by semicolons and the conditionals "c ? a : b" and "if(c;a;b)".
+ * <p>
+ * Every node keeps the position of its token in the infix tokens, a syntax error reports the position of the token
+ * that could not be parsed. The tree is converted to postfix tokens with jumps for the conditionals, see
+ * {@link #toPostfix(Node)}.
+ * <p>
+ * Parentheses, prefix operators, powers and the operands of weaker operators are parsed recursively, so their nesting
+ * is limited to {@link #MAX_NESTING} levels to keep the parser and the walks over the tree within the thread's stack.
+ * Chains of operators of the same binding power, e.g. "1+2+3+…", are parsed in a loop and have no limit.
+ *
+ * @author Max Lemberg
+ */
+public class ExpressionParser {
+    // Binding power below all operators, an expression parsed with it extends to the next closing parenthesis,
+    // semicolon or colon
+    private static final int LOWEST = -1;
+    // Binding power of "c ? a : b", the condition takes all operators
+    private static final int CONDITIONAL = 0;
+    // The operand of a prefix minus takes powers and factorials, e.g. "-x^2" is "-(x^2)" and "2^-x^2" is "2^-(x^2)"
+    private static final int NEGATION = CalculatorEngine.precedence("*");
+    // Deeper nesting is a syntax error instead of a StackOverflowError
+    static final int MAX_NESTING = 1000;
+
+    private final List<String> tokens;
+    private int position;
+    private int nesting;
+
+    private ExpressionParser(final List<String> tokens) {
+        this.tokens = tokens;
+    }
+
+    /**
+     * A node of the syntax tree.
+     */
+    public sealed interface Node permits Number, Variable, Unary, Binary, Call, Conditional {
+        /**
+         * @return The position of the token of this node in the infix tokens.
+         */
+        int position();
+
+        /**
+         * Appends the postfix tokens of this node, see {@link #toPostfix(Node)}.
+         */
+        void appendPostfix(List<String> postfix);
+    }
+
+    /**
+     * A number as written in the expression, e.g. "2.5". A minus in front of it is a {@link Unary} node.
+     */
+    public record Number(String value, int position) implements Node {
+        @Override
+        public void appendPostfix(final List<String> postfix) {
+            postfix.add(value);
+        }
+    }
+
+    /**
+     * A variable, bound by the evaluations that support variables.
+     */
+    public record Variable(String name, int position) implements Node {
+        @Override
+        public void appendPostfix(final List<String> postfix) {
+            postfix.add(name);
+        }
+    }
+
+    /**
+     * A prefix operator "-", "√" or "³√" or the postfix operator "!".
+     */
+    public record Unary(String operator, Node operand, int position) implements Node {
+        @Override
+        public void appendPostfix(final List<String> postfix) {
+            appendChain(this, postfix);
+        }
+    }
+
+    /**
+     * A binary operator, e.g. "+", "mod" or "≤".
+     */
+    public record Binary(String operator, Node left, Node right, int position) implements Node {
+        @Override
+        public void appendPostfix(final List<String> postfix) {
+            appendChain(this, postfix);
+        }
+    }
+
+    /**
+     * A call of a function with its arguments, the function token includes the opening parenthesis, e.g. "sin(".
+     */
+    public record Call(String function, List<Node> arguments, int position) implements Node {
+        public Call {
+            arguments = List.copyOf(arguments);
+        }
+
+        @Override
+        public void appendPostfix(final List<String> postfix) {
+            for (final Node argument : arguments) {
+                argument.appendPostfix(postfix);
+            }
+            postfix.add(function);
+        }
+    }
+
+    /**
+     * A conditional "c ? a : b" or "if(c;a;b)", only the branch taken is evaluated.
+     */
+    public record Conditional(Node condition, Node then, Node otherwise, int position) implements Node {
+        @Override
+        public void appendPostfix(final List<String> postfix) {
+            condition.appendPostfix(postfix);
+            // The first branch is skipped if the condition is 0, it ends with a jump over the else branch
+            final int jumpIfZero = postfix.size();
+            postfix.add(CalculatorEngine.JUMP_IF_ZERO);
+            then.appendPostfix(postfix);
+            final int jump = postfix.size();
+            postfix.add(CalculatorEngine.JUMP);
+            postfix.set(jumpIfZero, CalculatorEngine.JUMP_IF_ZERO + postfix.size());
+            otherwise.appendPostfix(postfix);
+            postfix.set(jump, CalculatorEngine.JUMP + postfix.size());
+        }
+    }
+
+    /**
+     * A syntax error at a position of the infix tokens. The message is the one shown to the user.
+     */
+    public static final class SyntaxException extends IllegalArgumentException {
+        private static final long serialVersionUID = 1L;
+
+        private final int position;
+
+        SyntaxException(final int position) {
+            super("Syntax Fehler");
+            this.position = position;
+        }
+
+        /**
+         * @return The position of the token that could not be parsed, the number of tokens if the expression ended
+         * too early.
+         */
+        public int getPosition() {
+            return position;
+        }
+    }
+
+    /**
+     * Parses an expression.
+     *
+     * @param tokens The tokens of the expression, as returned by {@link CalculatorEngine#tokenize(String)}.
+     * @return The root of the syntax tree.
+     * @throws SyntaxException If the tokens are not a valid expression.
+     */
+    public static Node parse(final List<String> tokens) {
+        final ExpressionParser parser = new ExpressionParser(tokens);
+        final Node root = parser.expression(LOWEST);
+        if (parser.position < tokens.size()) {
+            throw new SyntaxException(parser.position);
+        }
+        return root;
+    }
+
+    /**
+     * Converts a syntax tree to postfix notation. A conditional becomes its condition, a jump if zero to the else
+     * branch, the first branch, a jump behind the else branch and the else branch, e.g. "1 JZ:4 2 JMP:5 3" for
+     * "1 ? 2 : 3".
+     *
+     * @param root The root of the syntax tree.
+     * @return The list of tokens in postfix notation.
+     */
+    public static List<String> toPostfix(final Node root) {
+        final List<String> postfix = new ArrayList<>();
+        root.appendPostfix(postfix);
+        return postfix;
+    }
+
+    /**
+     * Appends the postfix tokens of a unary or binary node. The first operands are followed in a loop, because chains
+     * like "1+2+3+…" or "3!!!" are nested as deeply as they are long.
+     */
+    private static void appendChain(final Node node, final List<String> postfix) {
+        final Deque<Node> chain = new ArrayDeque<>();
+        Node first = node;
+        while (first instanceof Unary || first instanceof Binary) {
+            chain.push(first);
+            if (first instanceof Unary unary) {
+                if (unary.operator().equals("-")) {
+                    // The evaluations have no negation, "-x" is "0 - x"
+                    postfix.add("0");
+                }
+                first = unary.operand();
+            } else {
+                first = ((Binary) first).left();
+            }
+        }
+        first.appendPostfix(postfix);
+        while (!chain.isEmpty()) {
+            final Node operator = chain.pop();
+            if (operator instanceof Unary unary) {
+                postfix.add(unary.operator());
+            } else {
+                final Binary binary = (Binary) operator;
+                binary.right().appendPostfix(postfix);
+                postfix.add(binary.operator());
+            }
+        }
+    }
+
+    /**
+     * Parses an operand followed by all operators binding more strongly than the given binding power.
+     *
+     * @param minimum The binding power of the operator the expression belongs to.
+     * @return The node of the expression.
+     * @throws SyntaxException If the expression is nested too deeply.
+     */
+    private Node expression(final int minimum) {
+        if (++nesting > MAX_NESTING) {
+            throw new SyntaxException(position);
+        }
+        final Node result = operators(operand(), minimum);
+        nesting--;
+        return result;
+    }
+
+    /**
+     * Applies all operators binding more strongly than the given binding power to an operand.
+     */
+    private Node operators(Node left, final int minimum) {
+        while (position < tokens.size()) {
+            final String token = tokens.get(position);
+            final int start = position;
+            if (token.equals("!")) {
+                if (CalculatorEngine.precedence(token) <= minimum) {
+                    break;
+                }
+                position++;
+                left = new Unary(token, left, start);
+            } else if (token.equals("?")) {
+                if (CONDITIONAL <= minimum) {
+                    break;
+                }
+                position++;
+                final Node then = expression(LOWEST);
+                expect(":");
+                // "a ? b : c ? d : e" is "a ? b : (c ? d : e)"
+                final Node otherwise = expression(LOWEST);
+                left = new Conditional(left, then, otherwise, start);
+            } else if (isBinaryOperator(token)) {
+                final int power = CalculatorEngine.precedence(token);
+                if (power <= minimum) {
+                    break;
+                }
+                position++;
+                // "^" is right-associative, its right operand takes further powers, e.g. "2^3^2" is "2^(3^2)"
+                final Node right = expression(token.equals("^") ? power - 1 : power);
+                left = new Binary(token, left, right, start);
+            } else {
+                break;
+            }
+        }
+        return left;
+    }
+
+    /**
+     * Parses a number, a variable, a parenthesized expression, a prefix operator with its operand or a call.
+     */
+    private Node operand() {
+        if (position >= tokens.size()) {
+            throw new SyntaxException(position);
+        }
+        final String token = tokens.get(position);
+        final int start = position++;
+
+        switch (token) {
+            case "(": {
+                final Node inner = expression(LOWEST);
+                close();
+                return inner;
+            }
+            case "-":
+                return new Unary(token, expression(NEGATION), start);
+            case "+":
+                return expression(NEGATION);
+            case CalculatorEngine.ROOT:
+            case CalculatorEngine.THIRD_ROOT:
+                return new Unary(token, expression(CalculatorEngine.precedence(token)), start);
+            case "if(": {
+                final Node condition = expression(LOWEST);
+                expect(";");
+                final Node then = expression(LOWEST);
+                expect(";");
+                final Node otherwise = expression(LOWEST);
+                close();
+                return new Conditional(condition, then, otherwise, start);
+            }
+            default:
+                break;
+        }
+        if (CalculatorEngine.isNumber(token)) {
+            return new Number(token, start);
+        }
+        if (CalculatorEngine.isVariable(token)) {
+            return new Variable(token, start);
+        }
+        if (!CalculatorEngine.isFunction(token)) {
+            throw new SyntaxException(start);
+        }
+
+        // The function token includes the opening parenthesis, the arguments are separated by semicolons
+        final List<Node> arguments = new ArrayList<>();
+        arguments.add(expression(LOWEST));
+        while (position < tokens.size() && tokens.get(position).equals(";")) {
+            position++;
+            arguments.add(expression(LOWEST));
+        }
+        close();
+        // The parameters of a user-defined function are only known once it is defined, it may call itself
+        if (!UserFunctions.isCall(token) && arguments.size() != CalculatorEngine.functionArity(token)) {
+            throw new SyntaxException(start);
+        }
+        return new Call(token, arguments, start);
+    }
+
+    /**
+     * Skips a closing parenthesis. Parentheses still open at the end of the expression are closed implicitly.
+     */
+    private void close() {
+        if (position < tokens.size()) {
+            expect(")");
+        }
+    }
+
+    private void expect(final String token) {
+        if (position >= tokens.size() || !tokens.get(position).equals(token)) {
+            throw new SyntaxException(position);
+        }
+        position++;
+    }
+
+    private static boolean isBinaryOperator(final String token) {
+        switch (token) {
+            case "+":
+            case "-":
+            case "*":
+            case "/":
+            case "mod":
+            case "^":
+                return true;
+            default:
+                return CalculatorEngine.isComparison(token);
+        }
+    }
+}
@@ -0,0 +1,641 @@
+package ml.programs;
+
+/*
+ * Copyright (c) 2024 by Max Lemberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.math.BigDecimal;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+
+import static ml.programs.CalculatorEngine.MC;
+
+/**
+ * An expression compiled from its syntax tree into a program of BigDecimal operations, e.g. "2^10+sin(30)".
+ * <p>
+ * Every instruction is one int, the operation in the lowest {@link #OPERATION_BITS} bits and its argument above them:
+ * the index of a number in the constant pool, the index of a function in the function pool or the target of a jump.
+ * The evaluation is one switch over the operations, the tokens are neither parsed nor classified again.
+ * <p>
+ * The operands are kept in an array instead of a list, and every thread reuses its own array, which only grows to the
+ * deepest stack of the expressions evaluated on the thread. Apart from the numbers themselves the evaluation allocates
+ * nothing. The results are the same as those of {@link CalculatorEngine#evaluatePostfix(List)}, including the use of
+ * the subexpression memo.
+ * <p>
+ * The same program can also be evaluated in {@link DoubleDouble} arithmetic, with about 32 significant digits at a
+ * fraction of the cost of BigDecimal, see {@link #evaluateDoubleDouble()}.
+ * <p>
+ * Instances are immutable and can be evaluated from several threads at once.
+ *
+ * @author Max Lemberg
+ */
+public final class ExpressionProgram {
+    static final int CONST = 0;
+    static final int ADD = 1;
+    static final int SUB = 2;
+    static final int MUL = 3;
+    static final int DIV = 4;
+    static final int MOD = 5;
+    static final int POW = 6;
+    static final int LESS = 7;
+    static final int GREATER = 8;
+    static final int LESS_EQUAL = 9;
+    static final int GREATER_EQUAL = 10;
+    static final int EQUAL = 11;
+    static final int NOT_EQUAL = 12;
+    // Subtraction from zero, "-x" is "0 - x"
+    static final int NEGATE = 13;
+    static final int FACTORIAL = 14;
+    static final int ROOT = 15;
+    static final int THIRD_ROOT = 16;
+    // Function of the function pool
+    static final int FUNCTION = 17;
+    // Removes the condition and jumps to the else branch if it is zero
+    static final int JUMP_IF_ZERO = 18;
+    static final int JUMP = 19;
+
+    static final int OPERATION_BITS = 8;
+    private static final int OPERATION_MASK = (1 << OPERATION_BITS) - 1;
+
+    // The operators of the operations, indexed by operation, as passed to CalculatorEngine.applyOperator
+    private static final String[] SYMBOLS = {null, "+", "-", "*", "/", "mod", "^", "<", ">", "≤", "≥", "=", "≠", "-",
+            "!", CalculatorEngine.ROOT, CalculatorEngine.THIRD_ROOT, null, null, null};
+
+    // The natural logarithm of 10 for the common logarithm
+    private static final DoubleDouble LN10 = new DoubleDouble(10, 0).log();
+    // Relative difference below which double-doubles are compared as equal
+    private static final double COMPARISON_TOLERANCE = Math.pow(10, -DoubleDouble.DIGITS);
+
+    private static final ThreadLocal<BigDecimal[]> STACKS = ThreadLocal.withInitial(() -> new BigDecimal[16]);
+    // The high and the low parts of the double-double stack
+    private static final ThreadLocal<double[][]> DOUBLE_DOUBLE_STACKS = ThreadLocal.withInitial(() -> new double[2][16]);
+
+    private final int[] code;
+    private final BigDecimal[] constants;
+    private final double[] constantsHi;
+    private final double[] constantsLo;
+    private final String[] functions;
+    private final int[] arities;
+    final int maxStackDepth;
+
+    private ExpressionProgram(final int[] code, final BigDecimal[] constants, final String[] functions,
+                              final int[] arities, final int maxStackDepth) {
+        this.code = code;
+        this.constants = constants;
+        this.constantsHi = new double[constants.length];
+        this.constantsLo = new double[constants.length];
+        for (int i = 0; i < constants.length; i++) {
+            final DoubleDouble constant = DoubleDouble.valueOf(constants[i]);
+            constantsHi[i] = constant.hi();
+            constantsLo[i] = constant.lo();
+        }
+        this.functions = functions;
+        this.arities = arities;
+        this.maxStackDepth = maxStackDepth;
+    }
+
+    /**
+     * Compiles a syntax tree.
+     *
+     * @param root The root of the syntax tree, as returned by {@link ExpressionParser#parse(List)}.
+     * @return The compiled expression.
+     * @throws IllegalArgumentException If the expression contains a variable or calls a user-defined function, those
+     *                                  are evaluated by {@link UserFunctions}.
+     */
+    public static ExpressionProgram compile(final ExpressionParser.Node root) {
+        final Compiler compiler = new Compiler();
+        compiler.compile(root);
+        return new ExpressionProgram(Arrays.copyOf(compiler.code, compiler.count),
+                compiler.constants.toArray(new BigDecimal[0]), compiler.functions.toArray(new String[0]),
+                compiler.arities.stream().mapToInt(Integer::intValue).toArray(), compiler.maxDepth);
+    }
+
+    /**
+     * Evaluates the expression in the current angle mode and precision of {@link CalculatorEngine}.
+     *
+     * @return The result of the expression.
+     * @throws ArithmeticException      If the expression divides by zero.
+     * @throws IllegalArgumentException If an operation is not defined for its operands, e.g. the square root of a
+     *                                  negative number.
+     */
+    public BigDecimal evaluate() {
+        BigDecimal[] stack = STACKS.get();
+        if (stack.length < maxStackDepth) {
+            stack = new BigDecimal[Math.max(maxStackDepth, 2 * stack.length)];
+            STACKS.set(stack);
+        }
+
+        int top = -1;
+        try {
+            int pc = 0;
+            while (pc < code.length) {
+                final int instruction = code[pc++];
+                final int operation = instruction & OPERATION_MASK;
+                switch (operation) {
+                    case CONST:
+                        stack[++top] = constants[instruction >>> OPERATION_BITS];
+                        break;
+                    case ADD:
+                        top--;
+                        stack[top] = stack[top].add(stack[top + 1], MC);
+                        break;
+                    case SUB:
+                        top--;
+                        stack[top] = stack[top].subtract(stack[top + 1], MC);
+                        break;
+                    case MUL:
+                        top--;
+                        stack[top] = stack[top].multiply(stack[top + 1], MC);
+                        break;
+                    case DIV:
+                        top--;
+                        if (stack[top + 1].signum() == 0) {
+                            throw new ArithmeticException("Kein Teilen durch 0");
+                        }
+                        stack[top] = stack[top].divide(stack[top + 1], MC);
+                        break;
+                    case NEGATE:
+                        stack[top] = BigDecimal.ZERO.subtract(stack[top], MC);
+                        break;
+                    case POW:
+                        top--;
+                        stack[top] = applyMemoized(operation, SYMBOLS[operation], 2, stack, top);
+                        break;
+                    case FACTORIAL:
+                    case ROOT:
+                    case THIRD_ROOT:
+                        stack[top] = applyMemoized(operation, SYMBOLS[operation], 1, stack, top);
+                        break;
+                    case FUNCTION: {
+                        final int function = instruction >>> OPERATION_BITS;
+                        top -= arities[function] - 1;
+                        stack[top] = applyMemoized(operation, functions[function], arities[function], stack, top);
+                        break;
+                    }
+                    case JUMP_IF_ZERO:
+                        if (stack[top--].signum() == 0) {
+                            pc = instruction >>> OPERATION_BITS;
+                        }
+                        break;
+                    case JUMP:
+                        pc = instruction >>> OPERATION_BITS;
+                        break;
+                    default:
+                        // "mod" and the comparisons
+                        top--;
+                        stack[top] = CalculatorEngine.applyOperator(stack[top], stack[top + 1], SYMBOLS[operation]);
+                        break;
+                }
+            }
+            return stack[0];
+        } finally {
+            // Do not keep the numbers of this evaluation reachable from the thread
+            Arrays.fill(stack, 0, maxStackDepth, null);
+        }
+    }
+
+    /**
+     * Evaluates the expression in double-double arithmetic in the current angle mode of {@link CalculatorEngine}.
+     * <p>
+     * The basic arithmetic, the comparisons, square roots, powers, logarithms and the trigonometric and hyperbolic
+     * functions are computed as double-doubles and are more precise than their BigDecimal counterparts, which use
+     * doubles for everything but the basic arithmetic. The other operations, e.g. factorials or gcd(a;b), convert their
+     * operands to BigDecimal and back. The errors are the same as those of {@link #evaluate()}.
+     *
+     * @return The result of the expression, infinite if it is beyond the range of a double.
+     * @throws ArithmeticException      If the expression divides by zero.
+     * @throws IllegalArgumentException If an operation is not defined for its operands, e.g. the square root of a
+     *                                  negative number.
+     */
+    public DoubleDouble evaluateDoubleDouble() {
+        double[][] stacks = DOUBLE_DOUBLE_STACKS.get();
+        if (stacks[0].length < maxStackDepth) {
+            stacks = new double[2][Math.max(maxStackDepth, 2 * stacks[0].length)];
+            DOUBLE_DOUBLE_STACKS.set(stacks);
+        }
+        final double[] hi = stacks[0];
+        final double[] lo = stacks[1];
+
+        int top = -1;
+        int pc = 0;
+        while (pc < code.length) {
+            final int instruction = code[pc++];
+            final int operation = instruction & OPERATION_MASK;
+            final DoubleDouble result;
+            switch (operation) {
+                case CONST:
+                    top++;
+                    hi[top] = constantsHi[instruction >>> OPERATION_BITS];
+                    lo[top] = constantsLo[instruction >>> OPERATION_BITS];
+                    continue;
+                case NEGATE:
+                    hi[top] = -hi[top];
+                    lo[top] = -lo[top];
+                    continue;
+                case JUMP_IF_ZERO:
+                    if (hi[top--] == 0) {
+                        pc = instruction >>> OPERATION_BITS;
+                    }
+                    continue;
+                case JUMP:
+                    pc = instruction >>> OPERATION_BITS;
+                    continue;
+                case ADD:
+                    top--;
+                    result = new DoubleDouble(hi[top], lo[top]).add(new DoubleDouble(hi[top + 1], lo[top + 1]));
+                    break;
+                case SUB:
+                    top--;
+                    result = new DoubleDouble(hi[top], lo[top]).subtract(new DoubleDouble(hi[top + 1], lo[top + 1]));
+                    break;
+                case MUL:
+                    top--;
+                    result = new DoubleDouble(hi[top], lo[top]).multiply(new DoubleDouble(hi[top + 1], lo[top + 1]));
+                    break;
+                case DIV:
+                    top--;
+                    if (hi[top + 1] == 0) {
+                        throw new ArithmeticException("Kein Teilen durch 0");
+                    }
+                    result = new DoubleDouble(hi[top], lo[top]).divide(new DoubleDouble(hi[top + 1], lo[top + 1]));
+                    break;
+                case FACTORIAL:
+                case ROOT:
+                case THIRD_ROOT:
+                    result = applyDoubleDouble(operation, 0, 1, hi, lo, top);
+                    break;
+                case FUNCTION: {
+                    final int function = instruction >>> OPERATION_BITS;
+                    top -= arities[function] - 1;
+                    result = applyDoubleDouble(operation, function, arities[function], hi, lo, top);
+                    break;
+                }
+                default:
+                    // Powers, "mod" and the comparisons
+                    top--;
+                    result = applyDoubleDouble(operation, 0, 2, hi, lo, top);
+                    break;
+            }
+            hi[top] = result.hi();
+            lo[top] = result.lo();
+        }
+        return new DoubleDouble(hi[0], lo[0]);
+    }
+
+    /**
+     * Applies an operation other than the basic arithmetic in double-double arithmetic.
+     *
+     * @param operation The operation.
+     * @param function  The index of the function in the function pool, if the operation is a function.
+     * @param arity     The number of operands.
+     * @param hi        The high parts of the stack.
+     * @param lo        The low parts of the stack.
+     * @param first     The index of the first operand in the stack.
+     * @return The result.
+     */
+    private DoubleDouble applyDoubleDouble(final int operation, final int function, final int arity,
+                                           final double[] hi, final double[] lo, final int first) {
+        final DoubleDouble x = new DoubleDouble(hi[first], lo[first]);
+        final boolean radians = CalculatorEngine.MODE.equals("Rad");
+        switch (operation) {
+            case ROOT:
+                if (x.signum() < 0) {
+                    throw new IllegalArgumentException("Nur reelle Zahlen");
+                }
+                return x.sqrt();
+            case POW:
+                return power(x, new DoubleDouble(hi[first + 1], lo[first + 1]), hi, lo, first);
+            case LESS:
+                return compare(x, new DoubleDouble(hi[first + 1], lo[first + 1])) < 0 ? DoubleDouble.ONE : DoubleDouble.ZERO;
+            case GREATER:
+                return compare(x, new DoubleDouble(hi[first + 1], lo[first + 1])) > 0 ? DoubleDouble.ONE : DoubleDouble.ZERO;
+            case LESS_EQUAL:
+                return compare(x, new DoubleDouble(hi[first + 1], lo[first + 1])) <= 0 ? DoubleDouble.ONE : DoubleDouble.ZERO;
+            case GREATER_EQUAL:
+                return compare(x, new DoubleDouble(hi[first + 1], lo[first + 1])) >= 0 ? DoubleDouble.ONE : DoubleDouble.ZERO;
+            case EQUAL:
+                return compare(x, new DoubleDouble(hi[first + 1], lo[first + 1])) == 0 ? DoubleDouble.ONE : DoubleDouble.ZERO;
+            case NOT_EQUAL:
+                return compare(x, new DoubleDouble(hi[first + 1], lo[first + 1])) != 0 ? DoubleDouble.ONE : DoubleDouble.ZERO;
+            case FUNCTION:
+                break;
+            default:
+                // Factorials, cube roots and "mod"
+                return applyBigDecimal(operation, SYMBOLS[operation], arity, hi, lo, first);
+        }
+
+        final String symbol = functions[function];
+        switch (symbol) {
+            case "sin(":
+                return radians ? x.sin() : x.sinDegrees();
+            case "cos(":
+                return radians ? x.cos() : x.cosDegrees();
+            case "tan(": {
+                final DoubleDouble result = radians ? x.tan() : x.tanDegrees();
+                if (!result.isFinite()) {
+                    throw new ArithmeticException("Nicht definiert");
+                }
+                return result;
+            }
+            // Like their BigDecimal counterparts, the hyperbolic functions take their argument in the angle mode
+            case "sinh(":
+                return (radians ? x : x.toRadians()).sinh();
+            case "cosh(":
+                return (radians ? x : x.toRadians()).cosh();
+            case "tanh(":
+                return (radians ? x : x.toRadians()).tanh();
+            case "ln(":
+                return logarithm(x, null);
+            case "log(":
+                return logarithm(x, LN10);
+            case "log₂(":
+            case "log₃(":
+            case "log₄(":
+            case "log₅(":
+            case "log₆(":
+            case "log₇(":
+            case "log₈(":
+            case "log₉(":
+                // The base is the subscript digit
+                return logarithm(x, new DoubleDouble(Character.getNumericValue(symbol.charAt(3)), 0).log());
+            default:
+                return applyBigDecimal(operation, symbol, arity, hi, lo, first);
+        }
+    }
+
+    /**
+     * Compares two double-doubles in the digits of the result. The last bits are rounding errors, e.g. "0.1+0.2" and
+     * "0.3" differ in them, so numbers that only differ below {@link DoubleDouble#DIGITS} digits are equal.
+     *
+     * @return -1, 0 or 1 as the first number is less than, equal to or greater than the second.
+     */
+    private static int compare(final DoubleDouble x, final DoubleDouble y) {
+        final double difference = x.subtract(y).hi();
+        if (Math.abs(difference) <= COMPARISON_TOLERANCE * Math.max(Math.abs(x.hi()), Math.abs(y.hi()))) {
+            return 0;
+        }
+        return difference < 0 ? -1 : 1;
+    }
+
+    /**
+     * Raises a double-double to a power like {@link CalculatorEngine#pow(BigDecimal, BigDecimal)}, integer exponents
+     * by repeated squaring and the others as e^(y×ln(x)).
+     */
+    private DoubleDouble power(final DoubleDouble base, final DoubleDouble exponent, final double[] hi,
+                               final double[] lo, final int first) {
+        if (base.signum() == 0 && exponent.signum() < 0) {
+            throw new ArithmeticException("Kein Teilen durch 0");
+        }
+        final double n = exponent.hi();
+        if (n == Math.rint(n) && exponent.lo() == 0) {
+            if (Math.abs(n) <= Integer.MAX_VALUE) {
+                return base.pow((long) n);
+            }
+            // Exponents too large for repeated squaring overflow or underflow like in BigDecimal
+            return applyBigDecimal(POW, SYMBOLS[POW], 2, hi, lo, first);
+        }
+        if (base.signum() < 0) {
+            throw new IllegalArgumentException("Nur reelle Zahlen");
+        }
+        return base.signum() == 0 ? DoubleDouble.ZERO : exponent.multiply(base.log()).exp();
+    }
+
+    /**
+     * Computes a logarithm.
+     *
+     * @param x    The argument.
+     * @param base The natural logarithm of the base, or null for the natural logarithm.
+     * @return The logarithm.
+     * @throws IllegalArgumentException If the argument is not positive.
+     */
+    private static DoubleDouble logarithm(final DoubleDouble x, final DoubleDouble base) {
+        if (x.signum() <= 0) {
+            throw new IllegalArgumentException("Nicht definiert");
+        }
+        return base == null ? x.log() : x.log().divide(base);
+    }
+
+    /**
+     * Applies an operation that has no double-double implementation to the operands converted to BigDecimal.
+     */
+    private static DoubleDouble applyBigDecimal(final int operation, final String symbol, final int arity,
+                                                final double[] hi, final double[] lo, final int first) {
+        final BigDecimal[] arguments = new BigDecimal[arity];
+        for (int i = 0; i < arity; i++) {
+            final DoubleDouble argument = new DoubleDouble(hi[first + i], lo[first + i]);
+            if (!argument.isFinite()) {
+                throw new ArithmeticException("Wert zu groß");
+            }
+            // Rounded to the precise digits, so that e.g. the factorial of 4.99...9 is that of 5
+            arguments[i] = argument.toBigDecimal();
+        }
+        // "mod" is cheap and not memoized, like in the BigDecimal evaluation
+        return DoubleDouble.valueOf(operation == MOD ? apply(operation, symbol, arguments, 0)
+                : applyMemoized(operation, symbol, arity, arguments, 0));
+    }
+
+    /**
+     * Applies a power, a factorial, a root or a function, reusing the memoized result if the memo is enabled and the
+     * same operation has already been applied to the same operand, like {@link CalculatorEngine#evaluatePostfix(List)}.
+     *
+     * @param operation The operation.
+     * @param symbol    The operator or function token.
+     * @param arity     The number of operands.
+     * @param stack     The stack holding the operands.
+     * @param first     The index of the first operand in the stack.
+     * @return The result.
+     */
+    private static BigDecimal applyMemoized(final int operation, final String symbol, final int arity,
+                                            final BigDecimal[] stack, final int first) {
+        final ConcurrentLruCache<CalculatorEngine.SubexpressionKey, BigDecimal> memo = CalculatorEngine.getSubexpressionMemo();
+        // Functions of several arguments are not memoized
+        if (memo == null || (operation == FUNCTION && arity != 1)) {
+            return apply(operation, symbol, stack, first);
+        }
+
+        final boolean binary = operation == POW;
+        final BigDecimal right = stack[first + arity - 1].stripTrailingZeros();
+        final BigDecimal left = binary ? stack[first].stripTrailingZeros() : null;
+        final CalculatorEngine.SubexpressionKey key = new CalculatorEngine.SubexpressionKey(symbol, left, right,
+                CalculatorEngine.MODE, MC.getPrecision());
+
+        final BigDecimal cached = memo.get(key);
+        CacheEvent.emit(memo.getName(), cached != null ? CacheEvent.HIT : CacheEvent.MISS);
+        if (cached != null) {
+            return cached;
+        }
+        final BigDecimal result = apply(operation, symbol, stack, first);
+        memo.put(key, result);
+        return result;
+    }
+
+    private static BigDecimal apply(final int operation, final String symbol, final BigDecimal[] stack, final int first) {
+        switch (operation) {
+            case FUNCTION:
+                return CalculatorEngine.applyFunction(symbol, stack, first);
+            case FACTORIAL:
+                return CalculatorEngine.factorial(stack[first]);
+            case ROOT:
+            case THIRD_ROOT:
+                return CalculatorEngine.applyRoot(symbol, stack[first]);
+            default:
+                return CalculatorEngine.applyOperator(stack[first], stack[first + 1], symbol);
+        }
+    }
+
+    /**
+     * Emits the instructions of the nodes in postfix order and keeps track of the depth of the stack.
+     */
+    private static final class Compiler {
+        private int[] code = new int[16];
+        private int count;
+        private final List<BigDecimal> constants = new ArrayList<>();
+        private final List<String> functions = new ArrayList<>();
+        private final List<Integer> arities = new ArrayList<>();
+        private int depth;
+        private int maxDepth;
+
+        private void compile(final ExpressionParser.Node node) {
+            if (node instanceof ExpressionParser.Number number) {
+                constants.add(new BigDecimal(number.value()));
+                emit(CONST, constants.size() - 1);
+                push(1);
+            } else if (node instanceof ExpressionParser.Unary || node instanceof ExpressionParser.Binary) {
+                compileChain(node);
+            } else if (node instanceof ExpressionParser.Call call) {
+                compileCall(call);
+            } else if (node instanceof ExpressionParser.Conditional conditional) {
+                compile(conditional.condition());
+                final int jumpIfZero = emit(JUMP_IF_ZERO, 0);
+                depth--;
+                compile(conditional.then());
+                final int jump = emit(JUMP, 0);
+                // Only one branch is evaluated, the else branch starts from the same depth
+                depth--;
+                code[jumpIfZero] = JUMP_IF_ZERO | count << OPERATION_BITS;
+                compile(conditional.otherwise());
+                code[jump] = JUMP | count << OPERATION_BITS;
+            } else {
+                // Variables are only bound by the parameters of user-defined functions
+                throw new IllegalArgumentException("Syntax Fehler");
+            }
+        }
+
+        /**
+         * Compiles a unary or binary node. The first operands are followed in a loop, because chains like "1+2+3+…"
+         * are nested as deeply as they are long.
+         */
+        private void compileChain(final ExpressionParser.Node node) {
+            final Deque<ExpressionParser.Node> chain = new ArrayDeque<>();
+            ExpressionParser.Node first = node;
+            while (first instanceof ExpressionParser.Unary || first instanceof ExpressionParser.Binary) {
+                chain.push(first);
+                first = first instanceof ExpressionParser.Unary unary ? unary.operand()
+                        : ((ExpressionParser.Binary) first).left();
+            }
+            compile(first);
+            while (!chain.isEmpty()) {
+                final ExpressionParser.Node operator = chain.pop();
+                if (operator instanceof ExpressionParser.Binary binary) {
+                    compile(binary.right());
+                    emit(toOperation(binary.operator()), 0);
+                    depth--;
+                } else {
+                    emit(toOperation((ExpressionParser.Unary) operator), 0);
+                }
+            }
+        }
+
+        private void compileCall(final ExpressionParser.Call call) {
+            if (UserFunctions.isCall(call.function())) {
+                throw new IllegalArgumentException("Syntax Fehler");
+            }
+            for (final ExpressionParser.Node argument : call.arguments()) {
+                compile(argument);
+            }
+            int index = functions.indexOf(call.function());
+            if (index < 0) {
+                functions.add(call.function());
+                arities.add(call.arguments().size());
+                index = functions.size() - 1;
+            }
+            emit(FUNCTION, index);
+            depth -= call.arguments().size();
+            push(1);
+        }
+
+        private int emit(final int operation, final int argument) {
+            if (count == code.length) {
+                code = Arrays.copyOf(code, 2 * count);
+            }
+            code[count] = operation | argument << OPERATION_BITS;
+            return count++;
+        }
+
+        private void push(final int values) {
+            depth += values;
+            maxDepth = Math.max(maxDepth, depth);
+        }
+
+        private static int toOperation(final ExpressionParser.Unary unary) {
+            switch (unary.operator()) {
+                case "-":
+                    return NEGATE;
+                case "!":
+                    return FACTORIAL;
+                case CalculatorEngine.ROOT:
+                    return ROOT;
+                case CalculatorEngine.THIRD_ROOT:
+                    return THIRD_ROOT;
+                default:
+                    throw new IllegalArgumentException("Syntax Fehler");
+            }
+        }
+
+        private static int toOperation(final String operator) {
+            switch (operator) {
+                case "+":
+                    return ADD;
+                case "-":
+                    return SUB;
+                case "*":
+                    return MUL;
+                case "/":
+                    return DIV;
+                case "mod":
+                    return MOD;
+                case "^":
+                    return POW;
+                case "<":
+                    return LESS;
+                case ">":
+                    return GREATER;
+                case "≤":
+                    return LESS_EQUAL;
+                case "≥":
+                    return GREATER_EQUAL;
+                case "=":
+                    return EQUAL;
+                case "≠":
+                    return NOT_EQUAL;
+                default:
+                    throw new IllegalArgumentException("Syntax Fehler");
+            }
+        }
+    }
+}
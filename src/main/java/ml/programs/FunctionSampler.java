@@ -0,0 +1,248 @@
+package ml.programs;
+
+/*
+ * Copyright (c) 2024 by Max Lemberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Samples a function of x for plotting.
+ * <p>
+ * The visible range is first sampled on a coarse grid, every interval of which is subdivided as long as the curve
+ * deviates from a straight line by more than half a pixel. Smooth parts therefore only need a few samples, while
+ * sharp bends, poles and domain boundaries are sampled down to a fraction of a pixel. If the curve still jumps at that
+ * resolution, the line is interrupted instead of connecting both sides of a discontinuity, e.g. at the poles of tan.
+ * <p>
+ * All samples lie on a grid of powers of two that only depends on the pixel size. Moving the visible range keeps the
+ * grid and zooming by up to a factor of two keeps it as well, so the samples of the previous frames are reused from a
+ * cache and only the newly visible parts are evaluated. The coarse intervals are sampled in parallel.
+ *
+ * @author Max Lemberg
+ */
+public class FunctionSampler {
+    // The coarse grid is this many subdivisions above the pixel size, i.e. 8 pixels
+    private static final int COARSE_LEVELS = 3;
+    // Discontinuities and domain boundaries are searched for down to 1/16 of a pixel
+    private static final int EXTRA_LEVELS = 4;
+    private static final int CACHE_SIZE = 1 << 16;
+
+    private final DoubleExpression function;
+    private final ConcurrentLruCache<Double, Double> cache = new ConcurrentLruCache<>("plot", CACHE_SIZE);
+
+    /**
+     * Creates a sampler for a function of x.
+     *
+     * @param function The compiled function, with "x" as its only variable.
+     * @throws IllegalArgumentException If the function has other variables.
+     */
+    public FunctionSampler(final DoubleExpression function) {
+        if (!function.getVariables().equals(List.of("x"))) {
+            throw new IllegalArgumentException("Ungültiges Argument");
+        }
+        this.function = function;
+    }
+
+    /**
+     * Creates a sampler for an expression in x.
+     *
+     * @param expression The expression, e.g. "tan(x)".
+     * @return The sampler.
+     * @throws IllegalArgumentException If the expression is invalid.
+     */
+    public static FunctionSampler of(final String expression) {
+        return new FunctionSampler(DoubleExpression.compile(expression, "x"));
+    }
+
+    public DoubleExpression getFunction() {
+        return function;
+    }
+
+    /**
+     * Samples the function for the visible range.
+     *
+     * @param xMin   The left edge of the visible range.
+     * @param xMax   The right edge of the visible range.
+     * @param yMin   The lower edge of the visible range.
+     * @param yMax   The upper edge of the visible range.
+     * @param width  The width of the plot in pixels.
+     * @param height The height of the plot in pixels.
+     * @return The connected parts of the curve from left to right, each with the x and y coordinates of its points
+     * alternating.
+     */
+    public List<double[]> sample(final double xMin, final double xMax, final double yMin, final double yMax,
+                                 final int width, final int height) {
+        if (width <= 0 || height <= 0 || !(xMax > xMin) || !(yMax > yMin)) {
+            return List.of();
+        }
+
+        // Largest power of two not above the width of a pixel, all samples are multiples of it
+        final double pixelStep = Math.scalb(1.0, Math.getExponent((xMax - xMin) / width));
+        final double coarseStep = Math.scalb(pixelStep, COARSE_LEVELS);
+        final long first = (long) Math.floor(xMin / coarseStep);
+        final long last = (long) Math.ceil(xMax / coarseStep);
+        final int intervals = (int) (last - first);
+
+        final double tolerance = 0.5 * (yMax - yMin) / height;
+        final Refinement refinement = new Refinement(tolerance, yMin, yMax);
+
+        // Every chunk of coarse intervals produces its own parts, which are joined afterwards
+        final int chunks = Math.min(intervals, Runtime.getRuntime().availableProcessors() * 4);
+        final List<List<double[]>> chunkParts = IntStream.range(0, chunks).parallel()
+                .mapToObj(chunk -> {
+                    final long from = first + (long) intervals * chunk / chunks;
+                    final long to = first + (long) intervals * (chunk + 1) / chunks;
+                    return sampleChunk(from, to, coarseStep, refinement);
+                })
+                .collect(Collectors.toList());
+
+        final List<double[]> parts = new ArrayList<>();
+        for (final List<double[]> chunk : chunkParts) {
+            for (final double[] part : chunk) {
+                // Join parts that continue across the border of two chunks
+                final double[] previous = parts.isEmpty() ? null : parts.get(parts.size() - 1);
+                if (previous != null && previous[previous.length - 2] == part[0] && previous[previous.length - 1] == part[1]) {
+                    final double[] joined = Arrays.copyOf(previous, previous.length + part.length - 2);
+                    System.arraycopy(part, 2, joined, previous.length, part.length - 2);
+                    parts.set(parts.size() - 1, joined);
+                } else {
+                    parts.add(part);
+                }
+            }
+        }
+        return parts;
+    }
+
+    /**
+     * @return The cache of the function values, for its statistics.
+     */
+    public ConcurrentLruCache<Double, Double> getCache() {
+        return cache;
+    }
+
+    private List<double[]> sampleChunk(final long from, final long to, final double coarseStep, final Refinement refinement) {
+        final Polyline polyline = new Polyline();
+        double a = from * coarseStep;
+        double fa = evaluate(a);
+        polyline.start(a, fa);
+
+        for (long k = from + 1; k <= to; k++) {
+            final double b = k * coarseStep;
+            final double fb = evaluate(b);
+            refine(a, fa, b, fb, 0, refinement, polyline);
+            a = b;
+            fa = fb;
+        }
+        return polyline.finish();
+    }
+
+    /**
+     * Adds the curve between a and b to the polyline, subdividing the interval where the curve is not straight.
+     * The point at a has already been added.
+     */
+    private void refine(final double a, final double fa, final double b, final double fb, final int depth,
+                        final Refinement refinement, final Polyline polyline) {
+        final double m = (a + b) / 2;
+        final double fm = evaluate(m);
+
+        final boolean finite = Double.isFinite(fa) && Double.isFinite(fm) && Double.isFinite(fb);
+        final boolean anyFinite = Double.isFinite(fa) || Double.isFinite(fm) || Double.isFinite(fb);
+        final boolean bent = finite && Math.abs(fm - (fa + fb) / 2) > refinement.tolerance;
+
+        if (refinement.isHidden(fa, fm, fb) || !anyFinite) {
+            // Nothing to see, the line is clipped or undefined anyway
+            polyline.add(m, fm);
+            polyline.add(b, fb);
+            return;
+        }
+
+        final boolean subdivide = (bent && depth < COARSE_LEVELS + EXTRA_LEVELS) || (!finite && depth < COARSE_LEVELS + EXTRA_LEVELS);
+        if (subdivide) {
+            refine(a, fa, m, fm, depth + 1, refinement, polyline);
+            refine(m, fm, b, fb, depth + 1, refinement, polyline);
+        } else if (bent && depth >= COARSE_LEVELS + EXTRA_LEVELS) {
+            // Still not straight at a fraction of a pixel, assume a jump and interrupt the line
+            polyline.start(b, fb);
+        } else {
+            polyline.add(m, fm);
+            polyline.add(b, fb);
+        }
+    }
+
+    private double evaluate(final double x) {
+        final Double cached = cache.get(x);
+        if (cached != null) {
+            return cached;
+        }
+        final double y = function.evaluate(x);
+        cache.put(x, y);
+        return y;
+    }
+
+    /**
+     * The tolerance and the visible range of the values.
+     */
+    private record Refinement(double tolerance, double yMin, double yMax) {
+        /**
+         * @return True if all three values lie on the same side outside of the visible range.
+         */
+        boolean isHidden(final double fa, final double fm, final double fb) {
+            return (fa > yMax && fm > yMax && fb > yMax) || (fa < yMin && fm < yMin && fb < yMin);
+        }
+    }
+
+    /**
+     * Collects the connected parts of the curve. Undefined values interrupt the line.
+     */
+    private static final class Polyline {
+        private final List<double[]> parts = new ArrayList<>();
+        private double[] points = new double[64];
+        private int size;
+
+        void start(final double x, final double y) {
+            flush();
+            add(x, y);
+        }
+
+        void add(final double x, final double y) {
+            if (!Double.isFinite(y)) {
+                flush();
+                return;
+            }
+            if (size + 2 > points.length) {
+                points = Arrays.copyOf(points, points.length * 2);
+            }
+            points[size++] = x;
+            points[size++] = y;
+        }
+
+        List<double[]> finish() {
+            flush();
+            return parts;
+        }
+
+        private void flush() {
+            // A single point is no line
+            if (size >= 4) {
+                parts.add(Arrays.copyOf(points, size));
+            }
+            size = 0;
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package ml.programs;
+
+/*
+ * Copyright (c) 2024 by Max Lemberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.concurrent.RecursiveTask;
+import java.util.function.DoubleUnaryOperator;
+
+/**
+ * Integrates functions of one variable numerically with adaptive Gauss–Kronrod quadrature.
+ * <p>
+ * Every interval is integrated with the 15 point Kronrod rule, whose nodes include those of the 7 point Gauss rule.
+ * The difference of both results estimates the error without evaluating the function again. Intervals whose error is
+ * too large are halved and both halves are integrated independently on the common fork/join pool, so the work is
+ * concentrated where the function is hard to integrate, e.g. at peaks and near singularities, and spread over all
+ * threads. The compiled function is shared by all tasks, the expression is parsed only once.
+ * <p>
+ * The interval is mapped onto [0, 1] with x = a + (b - a)(3t² - 2t³) first. Its derivative vanishes at both ends, which
+ * removes singularities like 1/√x there, so such integrals converge, too. The errors of all intervals are added up, an
+ * integral whose error stays above the tolerance, e.g. of 1/x over [0, 1], is not defined.
+ *
+ * @author Max Lemberg
+ */
+public class Integrator {
+    private static final double RELATIVE_TOLERANCE = 1e-12;
+    private static final double ABSOLUTE_TOLERANCE = 1e-14;
+    private static final double ROUNDING_ERROR = 50 * Math.ulp(1.0);
+    // Limits the halving near singularities
+    private static final int MAX_DEPTH = 50;
+
+    /**
+     * An integral and the estimated error.
+     *
+     * @param value The integral.
+     * @param error The estimated absolute error.
+     */
+    public record Result(double value, double error) {
+    }
+
+    // Nodes of the Kronrod rule on [-1, 1], the odd ones are the nodes of the Gauss rule
+    private static final double[] NODES = {
+            0.991455371120812639206854697526329,
+            0.949107912342758524526189684047851,
+            0.864864423359769072789712788640926,
+            0.741531185599394439863864773280788,
+            0.586087235467691130294144845693013,
+            0.405845151377397166906606412076961,
+            0.207784955007898467600689403773245,
+            0.000000000000000000000000000000000
+    };
+    private static final double[] KRONROD_WEIGHTS = {
+            0.022935322010529224963732008058970,
+            0.063092092629978553290700663189204,
+            0.104790010322250183839876322541518,
+            0.140653259715525918745189590510238,
+            0.169004726639267902826583426598550,
+            0.190350578064785409913256402421014,
+            0.204432940075298892414161999234649,
+            0.209482141084727828012999174891714
+    };
+    private static final double[] GAUSS_WEIGHTS = {
+            0.129484966168869693270611432679082,
+            0.279705391489276667901467771423780,
+            0.381830050505118944950369775488975,
+            0.417959183673469387755102040816327
+    };
+
+    /**
+     * Integrates a function over an interval.
+     *
+     * @param function The function of one variable.
+     * @param a        The lower bound.
+     * @param b        The upper bound, the integral is negative if it is below the lower bound.
+     * @return The integral and its estimated error.
+     * @throws IllegalArgumentException If a bound is not finite.
+     * @throws ArithmeticException      If the integral does not converge.
+     */
+    public static Result integrate(final DoubleExpression function, final double a, final double b) {
+        if (!Double.isFinite(a) || !Double.isFinite(b)) {
+            throw new IllegalArgumentException("Ungültiges Argument");
+        }
+        if (a == b) {
+            return new Result(0, 0);
+        }
+
+        final double length = b - a;
+        final DoubleUnaryOperator integrand = t -> {
+            final double x = a + length * t * t * (3 - 2 * t);
+            return function.evaluate(x) * 6 * t * (1 - t) * length;
+        };
+
+        // The tolerance is relative to a first estimate of the integral
+        final double[] estimate = kronrod(integrand, 0, 1);
+        final double tolerance = Math.max(ABSOLUTE_TOLERANCE, RELATIVE_TOLERANCE * Math.abs(estimate[0]));
+        final double[] result = new IntegrationTask(integrand, 0, 1, estimate, tolerance, 0).invoke();
+        if (!Double.isFinite(result[0]) || !(result[1] <= tolerance)) {
+            throw new ArithmeticException("Nicht definiert");
+        }
+        // The rounding errors of the sums limit the precision, too, e.g. if positive and negative parts cancel out
+        return new Result(result[0], Math.max(result[1], ROUNDING_ERROR * result[2]));
+    }
+
+    /**
+     * Applies the Gauss–Kronrod rule to an interval.
+     *
+     * @return The Kronrod result, the estimated error and the Kronrod result for the absolute value of the function.
+     */
+    static double[] kronrod(final DoubleUnaryOperator function, final double a, final double b) {
+        final double center = (a + b) / 2;
+        final double halfLength = (b - a) / 2;
+
+        final double fCenter = function.applyAsDouble(center);
+        double kronrod = fCenter * KRONROD_WEIGHTS[7];
+        double gauss = fCenter * GAUSS_WEIGHTS[3];
+        double absolute = Math.abs(fCenter) * KRONROD_WEIGHTS[7];
+        for (int i = 0; i < 7; i++) {
+            final double dx = halfLength * NODES[i];
+            final double left = function.applyAsDouble(center - dx);
+            final double right = function.applyAsDouble(center + dx);
+            kronrod += KRONROD_WEIGHTS[i] * (left + right);
+            absolute += KRONROD_WEIGHTS[i] * (Math.abs(left) + Math.abs(right));
+            if (i % 2 == 1) {
+                gauss += GAUSS_WEIGHTS[i / 2] * (left + right);
+            }
+        }
+        return new double[]{kronrod * halfLength, Math.abs((kronrod - gauss) * halfLength),
+                Math.abs(absolute * halfLength)};
+    }
+
+    /**
+     * Integrates an interval whose Gauss–Kronrod result is known, halving it until the error is small enough.
+     * Returns the integral, the sum of the errors of all intervals and the integral of the absolute value.
+     */
+    private static final class IntegrationTask extends RecursiveTask<double[]> {
+        private static final long serialVersionUID = 1L;
+
+        private final transient DoubleUnaryOperator function;
+        private final double a;
+        private final double b;
+        private final double[] estimate;
+        private final double tolerance;
+        private final int depth;
+
+        IntegrationTask(final DoubleUnaryOperator function, final double a, final double b, final double[] estimate,
+                        final double tolerance, final int depth) {
+            this.function = function;
+            this.a = a;
+            this.b = b;
+            this.estimate = estimate;
+            this.tolerance = tolerance;
+            this.depth = depth;
+        }
+
+        @Override
+        protected double[] compute() {
+            final double middle = (a + b) / 2;
+            // Intervals that cannot be halved any more keep their error, so the integral fails if it is too large
+            if (estimate[1] <= tolerance || !Double.isFinite(estimate[0]) || depth >= MAX_DEPTH
+                    || middle == a || middle == b) {
+                return estimate;
+            }
+
+            // Each half gets half of the tolerance, so the errors still add up to the tolerance
+            final IntegrationTask left = new IntegrationTask(function, a, middle, kronrod(function, a, middle),
+                    tolerance / 2, depth + 1);
+            final IntegrationTask right = new IntegrationTask(function, middle, b, kronrod(function, middle, b),
+                    tolerance / 2, depth + 1);
+            left.fork();
+            final double[] rightResult = right.compute();
+            final double[] leftResult = left.join();
+            return new double[]{leftResult[0] + rightResult[0], leftResult[1] + rightResult[1],
+                    leftResult[2] + rightResult[2]};
+        }
+    }
+}
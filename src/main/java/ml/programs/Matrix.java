@@ -0,0 +1,413 @@
+package ml.programs;
+
+/*
+ * Copyright (c) 2024 by Max Lemberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * An immutable matrix of doubles, stored row by row in one flat array. Vectors are matrices with one column.
+ * <p>
+ * Multiplication works on square blocks that fit into the CPU cache together, so every element loaded from memory is
+ * used for a whole block instead of once. Large products are computed in parallel, one block row per task.
+ * Determinants, inverses and linear systems use the LU decomposition with partial pivoting.
+ *
+ * @author Max Lemberg
+ */
+public final class Matrix {
+    // 3 blocks of 64 × 64 doubles take 96 KB, which fits into the L2 cache
+    private static final int BLOCK_SIZE = 64;
+    // Products with fewer multiplications are not worth distributing across threads
+    private static final long PARALLEL_THRESHOLD = 1L << 18;
+
+    private final int rows;
+    private final int columns;
+    private final double[] values;
+
+    /**
+     * Creates a matrix.
+     *
+     * @param rows    The number of rows.
+     * @param columns The number of columns.
+     * @param values  The elements row by row, not copied.
+     * @throws IllegalArgumentException If the number of elements does not match.
+     */
+    public Matrix(final int rows, final int columns, final double[] values) {
+        if (rows <= 0 || columns <= 0 || values.length != (long) rows * columns) {
+            throw new IllegalArgumentException("Ungültiges Argument");
+        }
+        this.rows = rows;
+        this.columns = columns;
+        this.values = values;
+    }
+
+    /**
+     * Creates the identity matrix.
+     *
+     * @param size The number of rows and columns.
+     * @return The identity matrix.
+     */
+    public static Matrix identity(final int size) {
+        final double[] values = new double[size * size];
+        for (int i = 0; i < size; i++) {
+            values[i * size + i] = 1;
+        }
+        return new Matrix(size, size, values);
+    }
+
+    public int getRows() {
+        return rows;
+    }
+
+    public int getColumns() {
+        return columns;
+    }
+
+    public double get(final int row, final int column) {
+        return values[row * columns + column];
+    }
+
+    public boolean isSquare() {
+        return rows == columns;
+    }
+
+    /**
+     * @param other The matrix to be added, with the same dimensions.
+     * @return The sum.
+     * @throws IllegalArgumentException If the dimensions do not match.
+     */
+    public Matrix add(final Matrix other) {
+        checkSameDimensions(other);
+        final double[] result = new double[values.length];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = values[i] + other.values[i];
+        }
+        return new Matrix(rows, columns, result);
+    }
+
+    /**
+     * @param other The matrix to be subtracted, with the same dimensions.
+     * @return The difference.
+     * @throws IllegalArgumentException If the dimensions do not match.
+     */
+    public Matrix subtract(final Matrix other) {
+        checkSameDimensions(other);
+        final double[] result = new double[values.length];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = values[i] - other.values[i];
+        }
+        return new Matrix(rows, columns, result);
+    }
+
+    /**
+     * @param factor The scalar.
+     * @return The matrix with every element multiplied by the scalar.
+     */
+    public Matrix multiply(final double factor) {
+        final double[] result = new double[values.length];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = values[i] * factor;
+        }
+        return new Matrix(rows, columns, result);
+    }
+
+    /**
+     * Multiplies two matrices block by block.
+     *
+     * @param other The right factor, with as many rows as this matrix has columns.
+     * @return The product.
+     * @throws IllegalArgumentException If the dimensions do not match.
+     */
+    public Matrix multiply(final Matrix other) {
+        if (columns != other.rows) {
+            throw new IllegalArgumentException("Ungültiges Argument");
+        }
+        final double[] result = new double[rows * other.columns];
+        final int blockRows = (rows + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        final IntStream blocks = IntStream.range(0, blockRows);
+        // Every task writes its own rows of the result
+        if ((long) rows * columns * other.columns >= PARALLEL_THRESHOLD) {
+            blocks.parallel().forEach(block -> multiplyBlockRow(other, result, block * BLOCK_SIZE));
+        } else {
+            blocks.forEach(block -> multiplyBlockRow(other, result, block * BLOCK_SIZE));
+        }
+        return new Matrix(rows, other.columns, result);
+    }
+
+    /**
+     * Computes one block row of the product. Within a block the loops run in the order i, k, j, so the innermost loop
+     * walks along rows of the right factor and the result, which are contiguous in memory.
+     */
+    private void multiplyBlockRow(final Matrix other, final double[] result, final int rowStart) {
+        final int rowEnd = Math.min(rowStart + BLOCK_SIZE, rows);
+        final int n = other.columns;
+        for (int kStart = 0; kStart < columns; kStart += BLOCK_SIZE) {
+            final int kEnd = Math.min(kStart + BLOCK_SIZE, columns);
+            for (int jStart = 0; jStart < n; jStart += BLOCK_SIZE) {
+                final int jEnd = Math.min(jStart + BLOCK_SIZE, n);
+                for (int i = rowStart; i < rowEnd; i++) {
+                    for (int k = kStart; k < kEnd; k++) {
+                        final double a = values[i * columns + k];
+                        final int otherRow = k * n;
+                        final int resultRow = i * n;
+                        for (int j = jStart; j < jEnd; j++) {
+                            result[resultRow + j] += a * other.values[otherRow + j];
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @return The transposed matrix.
+     */
+    public Matrix transpose() {
+        final double[] result = new double[values.length];
+        // Blocked as well, otherwise every write would touch a different cache line
+        for (int iStart = 0; iStart < rows; iStart += BLOCK_SIZE) {
+            for (int jStart = 0; jStart < columns; jStart += BLOCK_SIZE) {
+                for (int i = iStart; i < Math.min(iStart + BLOCK_SIZE, rows); i++) {
+                    for (int j = jStart; j < Math.min(jStart + BLOCK_SIZE, columns); j++) {
+                        result[j * rows + i] = values[i * columns + j];
+                    }
+                }
+            }
+        }
+        return new Matrix(columns, rows, result);
+    }
+
+    /**
+     * @return The determinant.
+     * @throws IllegalArgumentException If the matrix is not square.
+     */
+    public double determinant() {
+        return new Decomposition(this).determinant();
+    }
+
+    /**
+     * @return The inverse.
+     * @throws IllegalArgumentException If the matrix is not square.
+     * @throws ArithmeticException      If the matrix is singular.
+     */
+    public Matrix inverse() {
+        return new Decomposition(this).solve(identity(rows));
+    }
+
+    /**
+     * Solves the linear system {@code this × x = b}.
+     *
+     * @param b The right-hand side, one column per system.
+     * @return The solution x.
+     * @throws IllegalArgumentException If the matrix is not square or the dimensions do not match.
+     * @throws ArithmeticException      If the matrix is singular.
+     */
+    public Matrix solve(final Matrix b) {
+        if (b.rows != rows) {
+            throw new IllegalArgumentException("Ungültiges Argument");
+        }
+        return new Decomposition(this).solve(b);
+    }
+
+    /**
+     * Raises a square matrix to an integer power by repeated squaring. Negative powers are powers of the inverse.
+     *
+     * @param exponent The exponent.
+     * @return The power.
+     * @throws IllegalArgumentException If the matrix is not square.
+     * @throws ArithmeticException      If the exponent is negative and the matrix is singular.
+     */
+    public Matrix pow(final int exponent) {
+        if (!isSquare()) {
+            throw new IllegalArgumentException("Ungültiges Argument");
+        }
+        Matrix base = exponent < 0 ? inverse() : this;
+        Matrix result = identity(rows);
+        for (long n = Math.abs((long) exponent); n > 0; n >>= 1) {
+            if ((n & 1) != 0) {
+                result = result.multiply(base);
+            }
+            if (n > 1) {
+                base = base.multiply(base);
+            }
+        }
+        return result;
+    }
+
+    private void checkSameDimensions(final Matrix other) {
+        if (rows != other.rows || columns != other.columns) {
+            throw new IllegalArgumentException("Ungültiges Argument");
+        }
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof Matrix)) {
+            return false;
+        }
+        final Matrix other = (Matrix) o;
+        return rows == other.rows && columns == other.columns && Arrays.equals(values, other.values);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * (31 * rows + columns) + Arrays.hashCode(values);
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder("[");
+        for (int i = 0; i < rows; i++) {
+            sb.append(i == 0 ? "[" : ";[");
+            for (int j = 0; j < columns; j++) {
+                if (j > 0) {
+                    sb.append(';');
+                }
+                sb.append(get(i, j));
+            }
+            sb.append(']');
+        }
+        return sb.append(']').toString();
+    }
+
+    /**
+     * The LU decomposition with partial pivoting, P × A = L × U. L and U are stored in one array, the ones on the
+     * diagonal of L are implicit.
+     */
+    private static final class Decomposition {
+        private final int size;
+        private final double[] lu;
+        private final int[] pivot;
+        private final boolean singular;
+        private int sign = 1;
+
+        Decomposition(final Matrix matrix) {
+            if (!matrix.isSquare()) {
+                throw new IllegalArgumentException("Ungültiges Argument");
+            }
+            size = matrix.rows;
+            lu = matrix.values.clone();
+            pivot = new int[size];
+
+            double norm = 0;
+            for (final double value : lu) {
+                norm = Math.max(norm, Math.abs(value));
+            }
+            // Pivots below this are rounding errors of an exact zero
+            final double tolerance = size * Math.ulp(norm);
+            boolean zeroPivot = false;
+
+            for (int k = 0; k < size; k++) {
+                // Use the largest element of the column as the pivot to keep the rounding errors small
+                int p = k;
+                for (int i = k + 1; i < size; i++) {
+                    if (Math.abs(lu[i * size + k]) > Math.abs(lu[p * size + k])) {
+                        p = i;
+                    }
+                }
+                pivot[k] = p;
+                if (p != k) {
+                    swapRows(p, k);
+                    sign = -sign;
+                }
+
+                final double diagonal = lu[k * size + k];
+                if (Math.abs(diagonal) <= tolerance) {
+                    zeroPivot = true;
+                    continue;
+                }
+                for (int i = k + 1; i < size; i++) {
+                    final double factor = lu[i * size + k] / diagonal;
+                    lu[i * size + k] = factor;
+                    if (factor != 0) {
+                        for (int j = k + 1; j < size; j++) {
+                            lu[i * size + j] -= factor * lu[k * size + j];
+                        }
+                    }
+                }
+            }
+            singular = zeroPivot;
+        }
+
+        private void swapRows(final int a, final int b) {
+            for (int j = 0; j < size; j++) {
+                final double temp = lu[a * size + j];
+                lu[a * size + j] = lu[b * size + j];
+                lu[b * size + j] = temp;
+            }
+        }
+
+        double determinant() {
+            if (singular) {
+                return 0;
+            }
+            double result = sign;
+            for (int i = 0; i < size; i++) {
+                result *= lu[i * size + i];
+            }
+            return result;
+        }
+
+        Matrix solve(final Matrix b) {
+            if (singular) {
+                throw new ArithmeticException("Singuläre Matrix");
+            }
+            final int n = b.columns;
+            final double[] x = b.values.clone();
+            // Apply the row swaps in the order they were made
+            for (int k = 0; k < size; k++) {
+                if (pivot[k] != k) {
+                    for (int j = 0; j < n; j++) {
+                        final double temp = x[k * n + j];
+                        x[k * n + j] = x[pivot[k] * n + j];
+                        x[pivot[k] * n + j] = temp;
+                    }
+                }
+            }
+            // Forward substitution with L
+            for (int i = 0; i < size; i++) {
+                for (int k = 0; k < i; k++) {
+                    final double factor = lu[i * size + k];
+                    if (factor != 0) {
+                        for (int j = 0; j < n; j++) {
+                            x[i * n + j] -= factor * x[k * n + j];
+                        }
+                    }
+                }
+            }
+            // Backward substitution with U
+            for (int i = size - 1; i >= 0; i--) {
+                for (int k = i + 1; k < size; k++) {
+                    final double factor = lu[i * size + k];
+                    if (factor != 0) {
+                        for (int j = 0; j < n; j++) {
+                            x[i * n + j] -= factor * x[k * n + j];
+                        }
+                    }
+                }
+                final double diagonal = lu[i * size + i];
+                for (int j = 0; j < n; j++) {
+                    x[i * n + j] /= diagonal;
+                }
+            }
+            return new Matrix(size, n, x);
+        }
+    }
+}
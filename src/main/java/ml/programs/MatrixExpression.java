@@ -0,0 +1,344 @@
+package ml.programs;
+
+/*
+ * Copyright (c) 2024 by Max Lemberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Calculates expressions with matrices and vectors, e.g. "[[1;2];[3;4]] × [5;6]".
+ * <p>
+ * Matrices are written row by row, "[[1;2];[3;4]]" has the rows 1, 2 and 3, 4. A single list like "[5;6]" is a
+ * column vector. Every element can be any expression of the {@link CalculatorEngine}. Matrices are added, subtracted
+ * and multiplied with each other and with scalars, raised to integer powers ("^-1" is the inverse) and transposed with
+ * a postfix "ᵀ". The functions det(A), inv(A), transp(A) and linsolve(A; b) compute determinants, inverses,
+ * transposes and solutions of linear systems.
+ * <p>
+ * Operations on two scalars are passed on to {@link CalculatorEngine#applyOperator(BigDecimal, BigDecimal, String)},
+ * so they are calculated exactly like in any other expression.
+ *
+ * @author Max Lemberg
+ */
+public final class MatrixExpression {
+    private final String expression;
+    private int position;
+
+    private MatrixExpression(final String expression) {
+        this.expression = expression;
+    }
+
+    /**
+     * @param calc The expression as entered by the user.
+     * @return True if the expression contains a matrix.
+     */
+    public static boolean isMatrixExpression(final String calc) {
+        return calc.indexOf('[') >= 0;
+    }
+
+    /**
+     * Calculates an expression with matrices.
+     *
+     * @param calc The expression as entered by the user.
+     * @return The resulting matrix or scalar, formatted with decimal commas.
+     * @throws IllegalArgumentException If the expression is invalid or the dimensions do not match.
+     * @throws ArithmeticException      If a matrix that has to be inverted is singular.
+     */
+    public static String calculate(final String calc) {
+        final MatrixExpression parser = new MatrixExpression(calc.replace(" ", "").replace("=", ""));
+        final Object result = parser.parseSum();
+        if (parser.position != parser.expression.length()) {
+            throw new IllegalArgumentException("Syntax Fehler");
+        }
+        return format(result);
+    }
+
+    /**
+     * Formats a matrix or a scalar with decimal commas.
+     *
+     * @param value The matrix or the scalar.
+     * @return The formatted value.
+     */
+    static String format(final Object value) {
+        if (value instanceof BigDecimal) {
+            return ((BigDecimal) value).stripTrailingZeros().toPlainString().replace('.', ',');
+        }
+        final Matrix matrix = (Matrix) value;
+        final StringBuilder sb = new StringBuilder("[");
+        for (int i = 0; i < matrix.getRows(); i++) {
+            sb.append(i == 0 ? "[" : ";[");
+            for (int j = 0; j < matrix.getColumns(); j++) {
+                if (j > 0) {
+                    sb.append(';');
+                }
+                sb.append(SpecialForms.format(matrix.get(i, j)));
+            }
+            sb.append(']');
+        }
+        return sb.append(']').toString();
+    }
+
+    // sum := product (("+" | "-") product)*
+    private Object parseSum() {
+        Object result = parseProduct();
+        while (true) {
+            if (accept('+')) {
+                result = apply(result, parseProduct(), "+");
+            } else if (accept('-')) {
+                result = apply(result, parseProduct(), "-");
+            } else {
+                return result;
+            }
+        }
+    }
+
+    // product := unary (("×" | "*" | "÷" | "/") unary)*
+    private Object parseProduct() {
+        Object result = parseUnary();
+        while (true) {
+            if (accept('×') || accept('*')) {
+                result = apply(result, parseUnary(), "*");
+            } else if (accept('÷') || accept('/')) {
+                result = apply(result, parseUnary(), "/");
+            } else {
+                return result;
+            }
+        }
+    }
+
+    // unary := "-" unary | power
+    private Object parseUnary() {
+        if (accept('-')) {
+            final Object operand = parseUnary();
+            return operand instanceof Matrix ? ((Matrix) operand).multiply(-1) : ((BigDecimal) operand).negate();
+        }
+        return parsePower();
+    }
+
+    // power := postfix ("^" unary)?
+    private Object parsePower() {
+        final Object base = parsePostfix();
+        if (accept('^')) {
+            return apply(base, parseUnary(), "^");
+        }
+        return base;
+    }
+
+    // postfix := primary "ᵀ"*
+    private Object parsePostfix() {
+        Object result = parsePrimary();
+        while (accept('ᵀ')) {
+            result = toMatrix(result).transpose();
+        }
+        return result;
+    }
+
+    // primary := matrix | "(" sum ")" | function "(" arguments ")" | number
+    private Object parsePrimary() {
+        if (peek() == '[') {
+            return parseMatrix();
+        }
+        if (accept('(')) {
+            final Object result = parseSum();
+            expect(')');
+            return result;
+        }
+
+        final int start = position;
+        while (position < expression.length() && expression.charAt(position) >= 'a' && expression.charAt(position) <= 'z') {
+            position++;
+        }
+        if (position > start) {
+            return parseFunction(expression.substring(start, position));
+        }
+
+        while (position < expression.length() && isNumberChar(expression.charAt(position))) {
+            position++;
+        }
+        if (position == start) {
+            throw new IllegalArgumentException("Syntax Fehler");
+        }
+        return evaluateScalar(expression.substring(start, position));
+    }
+
+    private Object parseFunction(final String name) {
+        expect('(');
+        final Object argument = parseSum();
+        switch (name) {
+            case "det":
+                expect(')');
+                // Rounded to the digits a double can represent reliably, like the results of the special forms
+                return new BigDecimal(SpecialForms.format(toMatrix(argument).determinant()).replace(',', '.'));
+            case "inv":
+                expect(')');
+                return toMatrix(argument).inverse();
+            case "transp":
+                expect(')');
+                return toMatrix(argument).transpose();
+            case "linsolve":
+                expect(';');
+                final Object rightHandSide = parseSum();
+                expect(')');
+                return toMatrix(argument).solve(toMatrix(rightHandSide));
+            default:
+                throw new IllegalArgumentException("Unbekannte Funktion");
+        }
+    }
+
+    /**
+     * Parses "[[1;2];[3;4]]" as a matrix or "[1;2]" as a column vector.
+     */
+    private Matrix parseMatrix() {
+        expect('[');
+        final List<double[]> rows = new ArrayList<>();
+        if (peek() == '[') {
+            do {
+                expect('[');
+                rows.add(parseElements());
+                expect(']');
+            } while (accept(';'));
+        } else {
+            for (final double element : parseElements()) {
+                rows.add(new double[]{element});
+            }
+        }
+        expect(']');
+
+        final int columns = rows.get(0).length;
+        final double[] values = new double[rows.size() * columns];
+        for (int i = 0; i < rows.size(); i++) {
+            if (rows.get(i).length != columns) {
+                throw new IllegalArgumentException("Ungültiges Argument");
+            }
+            System.arraycopy(rows.get(i), 0, values, i * columns, columns);
+        }
+        return new Matrix(rows.size(), columns, values);
+    }
+
+    /**
+     * Parses the elements of a row up to the closing bracket, each of them is calculated by the engine.
+     */
+    private double[] parseElements() {
+        final List<Double> elements = new ArrayList<>();
+        int depth = 0;
+        int start = position;
+        for (; position < expression.length(); position++) {
+            final char c = expression.charAt(position);
+            if (c == '(') {
+                depth++;
+            } else if (c == ')') {
+                depth--;
+            } else if (depth == 0 && (c == ';' || c == ']')) {
+                elements.add(evaluateScalar(expression.substring(start, position)).doubleValue());
+                if (c == ']') {
+                    break;
+                }
+                start = position + 1;
+            } else if (c == '[') {
+                throw new IllegalArgumentException("Syntax Fehler");
+            }
+        }
+        final double[] result = new double[elements.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = elements.get(i);
+        }
+        return result;
+    }
+
+    /**
+     * Calculates a scalar with the engine.
+     */
+    private static BigDecimal evaluateScalar(final String calc) {
+        if (calc.isEmpty()) {
+            throw new IllegalArgumentException("Syntax Fehler");
+        }
+        final String result = CalculatorEngine.calculate(calc);
+        try {
+            return new BigDecimal(result.replace(',', '.'));
+        } catch (NumberFormatException e) {
+            // The engine returned an error message
+            throw new IllegalArgumentException(result);
+        }
+    }
+
+    /**
+     * Applies an operator to two matrices, two scalars or a matrix and a scalar.
+     */
+    private static Object apply(final Object left, final Object right, final String operator) {
+        if (left instanceof BigDecimal && right instanceof BigDecimal) {
+            return CalculatorEngine.applyOperator((BigDecimal) left, (BigDecimal) right, operator);
+        }
+        switch (operator) {
+            case "+":
+                return toMatrix(left).add(toMatrix(right));
+            case "-":
+                return toMatrix(left).subtract(toMatrix(right));
+            case "*":
+                if (left instanceof BigDecimal) {
+                    return toMatrix(right).multiply(((BigDecimal) left).doubleValue());
+                }
+                if (right instanceof BigDecimal) {
+                    return toMatrix(left).multiply(((BigDecimal) right).doubleValue());
+                }
+                return toMatrix(left).multiply(toMatrix(right));
+            case "/":
+                if (!(right instanceof BigDecimal)) {
+                    throw new IllegalArgumentException("Ungültiges Argument");
+                }
+                if (((BigDecimal) right).signum() == 0) {
+                    throw new ArithmeticException("Kein Teilen durch 0");
+                }
+                return toMatrix(left).multiply(1 / ((BigDecimal) right).doubleValue());
+            case "^":
+                if (!(right instanceof BigDecimal) || ((BigDecimal) right).stripTrailingZeros().scale() > 0) {
+                    throw new IllegalArgumentException("Ungültiges Argument");
+                }
+                return toMatrix(left).pow(((BigDecimal) right).intValue());
+            default:
+                throw new IllegalArgumentException("Unbekannter Operator");
+        }
+    }
+
+    private static Matrix toMatrix(final Object value) {
+        if (!(value instanceof Matrix)) {
+            throw new IllegalArgumentException("Ungültiges Argument");
+        }
+        return (Matrix) value;
+    }
+
+    private static boolean isNumberChar(final char c) {
+        return Character.isDigit(c) || c == ',' || c == '.' || c == 'π' || c == 'е';
+    }
+
+    private char peek() {
+        return position < expression.length() ? expression.charAt(position) : 0;
+    }
+
+    private boolean accept(final char c) {
+        if (peek() == c) {
+            position++;
+            return true;
+        }
+        return false;
+    }
+
+    private void expect(final char c) {
+        if (!accept(c)) {
+            throw new IllegalArgumentException("Syntax Fehler");
+        }
+    }
+}
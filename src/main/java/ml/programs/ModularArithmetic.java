@@ -0,0 +1,315 @@
+package ml.programs;
+
+/*
+ * Copyright (c) 2024 by Max Lemberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.RoundingMode;
+
+/**
+ * Integer and modular arithmetic for the operator "mod" and the functions gcd, lcm, modinv and powmod.
+ * <p>
+ * Moduli below 2^63 are computed with longs. Odd moduli use Montgomery multiplication, which replaces the division of
+ * every reduction by two multiplications with the 128-bit products of {@link Math#unsignedMultiplyHigh(long, long)}.
+ * Even moduli are split into a power of two, where the reduction is a bit mask, and an odd part, and the two results
+ * are combined by the Chinese remainder theorem. Larger moduli are left to {@link BigInteger#modPow(BigInteger,
+ * BigInteger)}, which uses Montgomery multiplication for odd moduli as well.
+ *
+ * @author Max Lemberg
+ */
+public class ModularArithmetic {
+    // Moduli below this are computed with longs
+    private static final int MAX_LONG_BITS = 63;
+
+    /**
+     * Converts an operand to an integer.
+     *
+     * @param value The operand.
+     * @return The operand as an integer.
+     * @throws IllegalArgumentException If the operand has a fractional part.
+     */
+    public static BigInteger toInteger(final BigDecimal value) {
+        try {
+            return value.toBigIntegerExact();
+        } catch (ArithmeticException e) {
+            throw new IllegalArgumentException("Ungültiges Argument");
+        }
+    }
+
+    /**
+     * Computes the remainder of a division rounded towards negative infinity, so the result has the sign of the
+     * divisor, e.g. -7 mod 3 = 2. Works for decimals as well, e.g. 7,5 mod 2 = 1,5.
+     *
+     * @param dividend The dividend.
+     * @param divisor  The divisor.
+     * @return The remainder.
+     * @throws ArithmeticException If the divisor is zero.
+     */
+    public static BigDecimal mod(final BigDecimal dividend, final BigDecimal divisor) {
+        if (divisor.signum() == 0) {
+            throw new ArithmeticException("Kein Teilen durch 0");
+        }
+        final BigDecimal quotient = dividend.divide(divisor, 0, RoundingMode.FLOOR);
+        return dividend.subtract(divisor.multiply(quotient));
+    }
+
+    /**
+     * @return The greatest common divisor of a and b, which is never negative.
+     */
+    public static BigInteger gcd(final BigInteger a, final BigInteger b) {
+        return a.gcd(b);
+    }
+
+    /**
+     * @return The least common multiple of a and b, which is never negative and zero if a or b is zero.
+     */
+    public static BigInteger lcm(final BigInteger a, final BigInteger b) {
+        if (a.signum() == 0 || b.signum() == 0) {
+            return BigInteger.ZERO;
+        }
+        return a.divide(a.gcd(b)).multiply(b).abs();
+    }
+
+    /**
+     * Computes the modular inverse x with a·x ≡ 1 (mod m).
+     *
+     * @param a The number to invert.
+     * @param m The modulus.
+     * @return The inverse between 0 and m - 1.
+     * @throws IllegalArgumentException If the modulus is not positive or a and m are not coprime.
+     */
+    public static BigInteger modInverse(final BigInteger a, final BigInteger m) {
+        if (m.signum() <= 0) {
+            throw new IllegalArgumentException("Ungültiges Argument");
+        }
+        if (m.bitLength() < MAX_LONG_BITS) {
+            return BigInteger.valueOf(modInverse(a.mod(m).longValue(), m.longValue()));
+        }
+        try {
+            return a.modInverse(m);
+        } catch (ArithmeticException e) {
+            throw new IllegalArgumentException("Nicht definiert");
+        }
+    }
+
+    /**
+     * Computes a^b mod m. A negative exponent raises the modular inverse of a.
+     *
+     * @param a The base.
+     * @param b The exponent.
+     * @param m The modulus.
+     * @return The power between 0 and m - 1.
+     * @throws IllegalArgumentException If the modulus is not positive or the exponent is negative and a is not
+     *                                  invertible.
+     */
+    public static BigInteger powMod(final BigInteger a, final BigInteger b, final BigInteger m) {
+        if (m.signum() <= 0) {
+            throw new IllegalArgumentException("Ungültiges Argument");
+        }
+        final BigInteger base = b.signum() < 0 ? modInverse(a, m) : a.mod(m);
+        final BigInteger exponent = b.abs();
+        if (m.bitLength() < MAX_LONG_BITS && exponent.bitLength() < 64) {
+            return BigInteger.valueOf(powMod(base.longValue(), exponent.longValue(), m.longValue()));
+        }
+        return base.modPow(exponent, m);
+    }
+
+    /**
+     * Computes a^b mod m with longs.
+     *
+     * @param a The base between 0 and m - 1.
+     * @param b The exponent, not negative.
+     * @param m The modulus between 1 and 2^63 - 1.
+     * @return The power between 0 and m - 1.
+     */
+    static long powMod(final long a, final long b, final long m) {
+        if (m == 1) {
+            return 0;
+        }
+        final int twos = Long.numberOfTrailingZeros(m);
+        final long odd = m >>> twos;
+        if (twos == 0) {
+            return montgomeryPowMod(a, b, m);
+        }
+        // a^b modulo the power of two is computed with wrapping multiplications, only the lowest bits are kept
+        final long mask = (1L << twos) - 1;
+        final long evenResult = wrappingPow(a, b) & mask;
+        if (odd == 1) {
+            return evenResult;
+        }
+        final long oddResult = montgomeryPowMod(a % odd, b, odd);
+        // x = oddResult + odd·t with odd·t ≡ evenResult - oddResult modulo the power of two
+        final long t = ((evenResult - oddResult) * inverseModWord(odd)) & mask;
+        return oddResult + odd * t;
+    }
+
+    /**
+     * Computes a^b mod m in Montgomery form.
+     *
+     * @param m An odd modulus below 2^63.
+     */
+    private static long montgomeryPowMod(final long a, final long b, final long m) {
+        if (m == 1) {
+            return 0;
+        }
+        final Montgomery montgomery = new Montgomery(m);
+        return montgomery.fromMontgomery(montgomery.pow(montgomery.toMontgomery(a), b));
+    }
+
+    /**
+     * @return The inverse of an odd number modulo 2^64, by Newton's iteration, which doubles the correct bits each step.
+     */
+    private static long inverseModWord(final long odd) {
+        // Correct to 3 bits, because odd·odd ≡ 1 (mod 8)
+        long inverse = odd;
+        for (int i = 0; i < 5; i++) {
+            inverse *= 2 - odd * inverse;
+        }
+        return inverse;
+    }
+
+    /**
+     * @return a^b modulo 2^64.
+     */
+    private static long wrappingPow(long a, long b) {
+        long result = 1;
+        while (b != 0) {
+            if ((b & 1) != 0) {
+                result *= a;
+            }
+            a *= a;
+            b >>>= 1;
+        }
+        return result;
+    }
+
+    /**
+     * Computes the modular inverse with the extended Euclidean algorithm.
+     *
+     * @param a The number between 0 and m - 1.
+     * @param m The modulus.
+     * @return The inverse between 0 and m - 1.
+     * @throws IllegalArgumentException If a and m are not coprime.
+     */
+    private static long modInverse(final long a, final long m) {
+        long oldR = a;
+        long r = m;
+        long oldS = 1;
+        long s = 0;
+        while (r != 0) {
+            final long quotient = oldR / r;
+            long temp = oldR - quotient * r;
+            oldR = r;
+            r = temp;
+            temp = oldS - quotient * s;
+            oldS = s;
+            s = temp;
+        }
+        if (oldR != 1) {
+            throw new IllegalArgumentException("Nicht definiert");
+        }
+        return oldS < 0 ? oldS + m : oldS;
+    }
+
+    /**
+     * Arithmetic modulo an odd modulus below 2^63 in Montgomery form with R = 2^64. A number x is represented by
+     * x·R mod m, so a product only needs multiplications and no division to be reduced.
+     */
+    static final class Montgomery {
+        private final long modulus;
+        private final long negativeInverse;
+        // R mod m, the Montgomery form of 1
+        private final long one;
+        private final long rSquared;
+
+        /**
+         * @param modulus An odd modulus between 3 and 2^63 - 1.
+         */
+        Montgomery(final long modulus) {
+            this.modulus = modulus;
+            this.negativeInverse = -inverseModWord(modulus);
+            // R mod m and R² mod m, computed by doubling, which cannot overflow for m < 2^63
+            final long belowR = Long.remainderUnsigned(-1L, modulus) + 1;
+            this.one = belowR == modulus ? 0 : belowR;
+            long r2 = one;
+            for (int i = 0; i < 64; i++) {
+                r2 <<= 1;
+                if (Long.compareUnsigned(r2, modulus) >= 0) {
+                    r2 -= modulus;
+                }
+            }
+            this.rSquared = r2;
+        }
+
+        long getOne() {
+            return one;
+        }
+
+        /**
+         * @param x A number between 0 and m - 1.
+         * @return Its Montgomery form.
+         */
+        long toMontgomery(final long x) {
+            return multiply(x, rSquared);
+        }
+
+        /**
+         * @param x A number in Montgomery form.
+         * @return The number itself.
+         */
+        long fromMontgomery(final long x) {
+            return multiply(x, 1);
+        }
+
+        /**
+         * Montgomery multiplication: computes a·b·R⁻¹ mod m for a, b below m.
+         */
+        long multiply(final long a, final long b) {
+            final long high = Math.unsignedMultiplyHigh(a, b);
+            final long low = a * b;
+            // q·m cancels the lower word of the product, so the sum is divisible by R
+            final long q = low * negativeInverse;
+            final long result = high + Math.unsignedMultiplyHigh(q, modulus) + (low != 0 ? 1 : 0);
+            return Long.compareUnsigned(result, modulus) >= 0 ? result - modulus : result;
+        }
+
+        /**
+         * @return The sum of two numbers below m, modulo m.
+         */
+        long add(final long a, final long b) {
+            final long sum = a + b;
+            return Long.compareUnsigned(sum, modulus) >= 0 ? sum - modulus : sum;
+        }
+
+        /**
+         * @param base     The base in Montgomery form.
+         * @param exponent The exponent, not negative.
+         * @return The power in Montgomery form.
+         */
+        long pow(long base, long exponent) {
+            long result = one;
+            while (exponent != 0) {
+                if ((exponent & 1) != 0) {
+                    result = multiply(result, base);
+                }
+                base = multiply(base, base);
+                exponent >>>= 1;
+            }
+            return result;
+        }
+    }
+}
@@ -0,0 +1,286 @@
+package ml.programs;
+
+/*
+ * Copyright (c) 2024 by Max Lemberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.stream.IntStream;
+
+/**
+ * Reads columns of numbers from text and computes their {@link StreamingStatistics}.
+ * <p>
+ * Every line is a row, its fields are separated by spaces, tabs or semicolons. The first field of every row is the
+ * value, the first two fields of rows with two or more fields are also a pair for the regression. Rows starting with
+ * something else than a number, e.g. headers, are skipped. Numbers may use a decimal point or a decimal comma, e.g.
+ * "3.5", "3,5" or "1.234,5", and an exponent like "1e-3".
+ * <p>
+ * Files are memory-mapped and split into chunks that are parsed in parallel, each into its own statistics, which are
+ * merged at the end. The bytes are parsed directly without creating strings, so memory use does not depend on the size
+ * of the file.
+ *
+ * @author Max Lemberg
+ */
+public class NumericData {
+    // Size of the parts of a file parsed by one task
+    private static final int CHUNK_SIZE = 1 << 23;
+    // A chunk maps this many bytes beyond its end to finish its last line
+    private static final int MAX_LINE_LENGTH = 1 << 16;
+    // Longer numbers are parsed by Double.parseDouble
+    private static final int MAX_FAST_DIGITS = 15;
+    private static final double[] POWERS_OF_TEN = new double[23];
+
+    static {
+        POWERS_OF_TEN[0] = 1;
+        for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+        }
+    }
+
+    /**
+     * Computes the statistics of a file.
+     *
+     * @param path The file.
+     * @return The statistics.
+     * @throws UncheckedIOException     If the file cannot be read.
+     * @throws IllegalArgumentException If a line is too long.
+     */
+    public static StreamingStatistics readFile(final Path path) {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            final long size = channel.size();
+            final int chunks = (int) Math.max(1, (size + CHUNK_SIZE - 1) / CHUNK_SIZE);
+            return IntStream.range(0, chunks).parallel()
+                    .mapToObj(chunk -> readChunk(channel, size, (long) chunk * CHUNK_SIZE, Math.min(size, (long) (chunk + 1) * CHUNK_SIZE)))
+                    .reduce(StreamingStatistics::merge)
+                    .orElseGet(StreamingStatistics::new);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Computes the statistics of text, e.g. a column pasted from a spreadsheet.
+     *
+     * @param text The text.
+     * @return The statistics.
+     */
+    public static StreamingStatistics parse(final String text) {
+        final byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        final StreamingStatistics statistics = new StreamingStatistics();
+        parseLines(ByteBuffer.wrap(bytes), 0, bytes.length, statistics);
+        return statistics;
+    }
+
+    /**
+     * Parses the lines starting in a range of a file. The line running into the range is left to the previous chunk.
+     */
+    private static StreamingStatistics readChunk(final FileChannel channel, final long size, final long start, final long end) {
+        final StreamingStatistics statistics = new StreamingStatistics();
+        try {
+            // Map the byte before the range to see whether a line starts at its beginning
+            final long mapStart = Math.max(0, start - 1);
+            final long mapEnd = Math.min(size, end + MAX_LINE_LENGTH);
+            final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, mapStart, mapEnd - mapStart);
+
+            int position = (int) (start - mapStart);
+            if (start > 0) {
+                while (position < buffer.limit() && buffer.get(position - 1) != '\n') {
+                    position++;
+                }
+            }
+            final int rangeEnd = (int) (end - mapStart);
+            final int lineEnd = parseLines(buffer, position, rangeEnd, statistics);
+            if (lineEnd > buffer.limit() && mapEnd < size) {
+                throw new IllegalArgumentException("Ungültige Eingabe");
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return statistics;
+    }
+
+    /**
+     * Parses all lines starting before the end of the range.
+     *
+     * @return The position after the last parsed line.
+     */
+    private static int parseLines(final ByteBuffer buffer, int position, final int end, final StreamingStatistics statistics) {
+        final int limit = buffer.limit();
+        final double[] fields = new double[2];
+        while (position < end) {
+            int lineEnd = position;
+            while (lineEnd < limit && buffer.get(lineEnd) != '\n') {
+                lineEnd++;
+            }
+            final int count = parseFields(buffer, position, lineEnd, fields);
+            if (count == 1) {
+                statistics.add(fields[0]);
+            } else if (count == 2) {
+                statistics.add(fields[0], fields[1]);
+            }
+            position = lineEnd + 1;
+        }
+        return position;
+    }
+
+    /**
+     * Parses up to two numbers of a line.
+     *
+     * @return The number of numbers parsed, 0 if the line does not start with a number.
+     */
+    private static int parseFields(final ByteBuffer buffer, int position, final int end, final double[] fields) {
+        int count = 0;
+        while (count < 2) {
+            while (position < end && isSeparator(buffer.get(position))) {
+                position++;
+            }
+            int fieldEnd = position;
+            while (fieldEnd < end && !isSeparator(buffer.get(fieldEnd))) {
+                fieldEnd++;
+            }
+            if (fieldEnd == position) {
+                break;
+            }
+            final double value = parseNumber(buffer, position, fieldEnd);
+            if (Double.isNaN(value)) {
+                break;
+            }
+            fields[count++] = value;
+            position = fieldEnd;
+        }
+        return count;
+    }
+
+    private static boolean isSeparator(final byte b) {
+        return b == ' ' || b == '\t' || b == ';' || b == '\r';
+    }
+
+    /**
+     * Parses a number. The last of several points and commas is the decimal separator, unless the same character
+     * appears several times, in which case it only groups thousands.
+     *
+     * @return The number, or NaN if the field is not a number.
+     */
+    static double parseNumber(final ByteBuffer buffer, final int start, final int end) {
+        int lastPoint = -1;
+        int lastComma = -1;
+        int points = 0;
+        int commas = 0;
+        int exponentStart = end;
+        for (int i = start; i < end; i++) {
+            final byte b = buffer.get(i);
+            if (b == '.') {
+                lastPoint = i;
+                points++;
+            } else if (b == ',') {
+                lastComma = i;
+                commas++;
+            } else if ((b == 'e' || b == 'E') && exponentStart == end) {
+                exponentStart = i;
+            }
+        }
+        int decimalSeparator = Math.max(lastPoint, lastComma);
+        if ((decimalSeparator == lastPoint && points > 1) || (decimalSeparator == lastComma && commas > 1)
+                || decimalSeparator > exponentStart) {
+            decimalSeparator = -1;
+        }
+
+        int i = start;
+        boolean negative = false;
+        if (i < exponentStart && (buffer.get(i) == '-' || buffer.get(i) == '+')) {
+            negative = buffer.get(i) == '-';
+            i++;
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int scale = 0;
+        boolean anyDigit = false;
+        for (; i < exponentStart; i++) {
+            final byte b = buffer.get(i);
+            if (b >= '0' && b <= '9') {
+                anyDigit = true;
+                if (mantissa != 0 || b != '0') {
+                    digits++;
+                }
+                if (digits > MAX_FAST_DIGITS) {
+                    return parseSlow(buffer, start, end, decimalSeparator);
+                }
+                mantissa = mantissa * 10 + (b - '0');
+                if (decimalSeparator >= 0 && i > decimalSeparator) {
+                    scale++;
+                }
+            } else if (b != '.' && b != ',') {
+                return Double.NaN;
+            }
+        }
+        if (!anyDigit) {
+            return Double.NaN;
+        }
+
+        int exponent = 0;
+        if (exponentStart < end) {
+            int j = exponentStart + 1;
+            boolean negativeExponent = false;
+            if (j < end && (buffer.get(j) == '-' || buffer.get(j) == '+')) {
+                negativeExponent = buffer.get(j) == '-';
+                j++;
+            }
+            if (j == end) {
+                return Double.NaN;
+            }
+            for (; j < end; j++) {
+                final byte b = buffer.get(j);
+                if (b < '0' || b > '9') {
+                    return Double.NaN;
+                }
+                exponent = Math.min(exponent * 10 + (b - '0'), 100_000);
+            }
+            if (negativeExponent) {
+                exponent = -exponent;
+            }
+        }
+
+        final int power = exponent - scale;
+        if (Math.abs(power) >= POWERS_OF_TEN.length) {
+            return parseSlow(buffer, start, end, decimalSeparator);
+        }
+        // Both the mantissa and the power of ten are exact doubles, so one operation rounds correctly
+        final double value = power >= 0 ? mantissa * POWERS_OF_TEN[power] : mantissa / POWERS_OF_TEN[-power];
+        return negative ? -value : value;
+    }
+
+    /**
+     * Parses a number that is too long or too large for the fast path with {@link Double#parseDouble(String)}.
+     */
+    private static double parseSlow(final ByteBuffer buffer, final int start, final int end, final int decimalSeparator) {
+        final StringBuilder sb = new StringBuilder(end - start);
+        for (int i = start; i < end; i++) {
+            final char c = (char) buffer.get(i);
+            if (i == decimalSeparator) {
+                sb.append('.');
+            } else if (c != '.' && c != ',') {
+                sb.append(c);
+            }
+        }
+        return Double.parseDouble(sb.toString());
+    }
+}
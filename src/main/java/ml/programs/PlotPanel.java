@@ -0,0 +1,279 @@
+package ml.programs;
+
+/*
+ * Copyright (c) 2024 by Max Lemberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.awt.event.MouseWheelEvent;
+import java.awt.geom.Path2D;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.List;
+import javax.swing.JComponent;
+
+/**
+ * Shows the graph of a function of x. The plot is moved by dragging it with the mouse and zoomed with the mouse wheel
+ * around the position of the mouse.
+ * <p>
+ * The curve is sampled by a {@link FunctionSampler} on every repaint. The sampler keeps the values of the previous
+ * frames, so moving and zooming only evaluates the function where it has not been sampled before.
+ *
+ * @author Max Lemberg
+ */
+public final class PlotPanel extends JComponent {
+    private static final long serialVersionUID = 1L;
+    // Zoom factor of one step of the mouse wheel
+    private static final double ZOOM_STEP = 1.1;
+    // The visible range stays at least this many ulps of its centre wide, below that neighbouring grid lines and pixels
+    // fall onto the same double
+    private static final double MIN_ULPS = 64;
+    // Upper bound for the grid lines in each direction, in case the range is still too small or too large for its step
+    private static final int MAX_GRID_LINES = 1000;
+
+    private transient FunctionSampler sampler;
+    private String error;
+
+    private double xMin = -10;
+    private double xMax = 10;
+    private double yMin = -10;
+    private double yMax = 10;
+
+    public PlotPanel() {
+        setBackground(Color.WHITE);
+        setOpaque(true);
+
+        final MouseAdapter mouse = new MouseAdapter() {
+            private int lastX;
+            private int lastY;
+
+            @Override
+            public void mousePressed(final MouseEvent e) {
+                lastX = e.getX();
+                lastY = e.getY();
+            }
+
+            @Override
+            public void mouseDragged(final MouseEvent e) {
+                final double dx = (e.getX() - lastX) * (xMax - xMin) / Math.max(1, getWidth());
+                final double dy = (e.getY() - lastY) * (yMax - yMin) / Math.max(1, getHeight());
+                xMin -= dx;
+                xMax -= dx;
+                yMin += dy;
+                yMax += dy;
+                lastX = e.getX();
+                lastY = e.getY();
+                repaint();
+            }
+
+            @Override
+            public void mouseWheelMoved(final MouseWheelEvent e) {
+                final double factor = Math.pow(ZOOM_STEP, e.getPreciseWheelRotation());
+                final double x = toX(e.getX());
+                final double y = toY(e.getY());
+                xMin = x + (xMin - x) * factor;
+                xMax = x + (xMax - x) * factor;
+                yMin = y + (yMin - y) * factor;
+                yMax = y + (yMax - y) * factor;
+                limitZoom();
+                repaint();
+            }
+        };
+        addMouseListener(mouse);
+        addMouseMotionListener(mouse);
+        addMouseWheelListener(mouse);
+    }
+
+    /**
+     * Sets the function to be plotted. The angle mode of the {@link CalculatorEngine} is applied at this point.
+     *
+     * @param expression The expression in x, e.g. "sin(x)".
+     */
+    public void setExpression(final String expression) {
+        try {
+            sampler = FunctionSampler.of(expression);
+            error = null;
+        } catch (RuntimeException e) {
+            sampler = null;
+            error = e.getMessage() != null ? e.getMessage() : "Syntax Fehler";
+        }
+        repaint();
+    }
+
+    /**
+     * Sets the visible range. A range narrower than a few ulps of its centre is widened around the centre.
+     *
+     * @param xMin The left edge.
+     * @param xMax The right edge.
+     * @param yMin The lower edge.
+     * @param yMax The upper edge.
+     */
+    public void setRange(final double xMin, final double xMax, final double yMin, final double yMax) {
+        this.xMin = xMin;
+        this.xMax = xMax;
+        this.yMin = yMin;
+        this.yMax = yMax;
+        limitZoom();
+        repaint();
+    }
+
+    @Override
+    protected void paintComponent(final Graphics graphics) {
+        final Graphics2D g = (Graphics2D) graphics.create();
+        try {
+            g.setColor(getBackground());
+            g.fillRect(0, 0, getWidth(), getHeight());
+            g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+
+            paintGrid(g);
+
+            if (error != null) {
+                g.setColor(Color.RED);
+                g.setFont(new Font("Serif", Font.PLAIN, 20));
+                g.drawString(error, 10, 30);
+                return;
+            }
+            if (sampler == null) {
+                return;
+            }
+
+            final List<double[]> parts = sampler.sample(xMin, xMax, yMin, yMax, getWidth(), getHeight());
+            final Path2D.Double path = new Path2D.Double();
+            for (final double[] part : parts) {
+                path.moveTo(toPixelX(part[0]), toPixelY(part[1]));
+                for (int i = 2; i < part.length; i += 2) {
+                    path.lineTo(toPixelX(part[i]), toPixelY(part[i + 1]));
+                }
+            }
+            g.setColor(new Color(0, 90, 200));
+            g.setStroke(new BasicStroke(2f));
+            g.draw(path);
+        } finally {
+            g.dispose();
+        }
+    }
+
+    private void paintGrid(final Graphics2D g) {
+        final double xStep = gridStep(xMax - xMin, getWidth());
+        final double yStep = gridStep(yMax - yMin, getHeight());
+        g.setFont(new Font("Serif", Font.PLAIN, 11));
+
+        // The lines are counted instead of adding up the step, which stops advancing once it is below the ulp of x
+        final long firstX = (long) Math.ceil(xMin / xStep);
+        for (long k = firstX; k * xStep <= xMax && k - firstX < MAX_GRID_LINES; k++) {
+            final double x = k * xStep;
+            final int px = (int) Math.round(toPixelX(x));
+            g.setColor(new Color(230, 230, 230));
+            g.drawLine(px, 0, px, getHeight());
+            g.setColor(new Color(90, 90, 90));
+            g.drawString(format(x, xStep), px + 2, getHeight() - 4);
+        }
+        final long firstY = (long) Math.ceil(yMin / yStep);
+        for (long k = firstY; k * yStep <= yMax && k - firstY < MAX_GRID_LINES; k++) {
+            final double y = k * yStep;
+            final int py = (int) Math.round(toPixelY(y));
+            g.setColor(new Color(230, 230, 230));
+            g.drawLine(0, py, getWidth(), py);
+            g.setColor(new Color(90, 90, 90));
+            g.drawString(format(y, yStep), 2, py - 2);
+        }
+
+        // Axes
+        g.setColor(Color.GRAY);
+        if (xMin <= 0 && xMax >= 0) {
+            final int px = (int) Math.round(toPixelX(0));
+            g.drawLine(px, 0, px, getHeight());
+        }
+        if (yMin <= 0 && yMax >= 0) {
+            final int py = (int) Math.round(toPixelY(0));
+            g.drawLine(0, py, getWidth(), py);
+        }
+    }
+
+    /**
+     * Keeps both ranges at least {@link #MIN_ULPS} ulps of their centre wide, but never narrower than the smallest
+     * normal double.
+     */
+    private void limitZoom() {
+        final double xCentre = xMin / 2 + xMax / 2;
+        final double xWidth = minimumWidth(xCentre);
+        if (!(xMax - xMin >= xWidth)) {
+            xMin = xCentre - xWidth / 2;
+            xMax = xCentre + xWidth / 2;
+        }
+        final double yCentre = yMin / 2 + yMax / 2;
+        final double yWidth = minimumWidth(yCentre);
+        if (!(yMax - yMin >= yWidth)) {
+            yMin = yCentre - yWidth / 2;
+            yMax = yCentre + yWidth / 2;
+        }
+    }
+
+    private static double minimumWidth(final double centre) {
+        return Math.max(MIN_ULPS * Math.ulp(centre), Double.MIN_NORMAL);
+    }
+
+    /**
+     * @return A step of 1, 2 or 5 times a power of ten, so that grid lines are roughly 80 pixels apart.
+     */
+    private static double gridStep(final double range, final int pixels) {
+        final double raw = range / Math.max(1, pixels / 80.0);
+        final double magnitude = Math.pow(10, Math.floor(Math.log10(raw)));
+        final double normalized = raw / magnitude;
+        if (normalized < 2) {
+            return magnitude;
+        } else if (normalized < 5) {
+            return 2 * magnitude;
+        }
+        return 5 * magnitude;
+    }
+
+    /**
+     * Formats a grid value with a decimal comma, rounded to the precision of the grid step.
+     */
+    private static String format(final double value, final double step) {
+        final int scale = Math.max(0, (int) -Math.floor(Math.log10(step)));
+        final BigDecimal rounded = new BigDecimal(value).setScale(scale, RoundingMode.HALF_UP);
+        if (rounded.signum() == 0) {
+            return "0";
+        }
+        return rounded.stripTrailingZeros().toPlainString().replace('.', ',');
+    }
+
+    private double toPixelX(final double x) {
+        return (x - xMin) / (xMax - xMin) * getWidth();
+    }
+
+    private double toPixelY(final double y) {
+        // Keep points far outside of the plot at a finite distance, so the line still leaves the plot in the right direction
+        final double py = getHeight() - (y - yMin) / (yMax - yMin) * getHeight();
+        return Math.max(-10.0 * getHeight(), Math.min(11.0 * getHeight(), py));
+    }
+
+    private double toX(final int px) {
+        return xMin + px * (xMax - xMin) / Math.max(1, getWidth());
+    }
+
+    private double toY(final int py) {
+        return yMax - py * (yMax - yMin) / Math.max(1, getHeight());
+    }
+}
@@ -0,0 +1,809 @@
+package ml.programs;
+
+/*
+ * Copyright (c) 2024 by Max Lemberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.MathContext;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.IntStream;
+
+/**
+ * Finds all real and complex roots of a polynomial for the form roots(p), e.g. "roots(x^3-2x+1)". A second argument
+ * names the variable, e.g. "roots(t^2+1; t)", and an equation like "roots(x^2 = 2)" is solved as the difference of
+ * both sides. The result lists the roots in brackets, e.g. "[-1,618033988749895;0,618033988749895;1]".
+ * <p>
+ * The polynomial is parsed with the tokenizer and the shunting-yard algorithm of the {@link CalculatorEngine}, its
+ * postfix tokens are then evaluated on coefficient arrays of BigDecimals. Sums and products of polynomials are exact,
+ * parts without the variable, e.g. "sin(30)" or "1/3", are calculated by the engine.
+ * <p>
+ * The roots are approximated with the Aberth–Ehrlich method in double arithmetic, starting on circles whose radii are
+ * taken from the Newton polygon of the coefficients. All roots are updated at once from the previous approximations,
+ * so the updates run in parallel. Values far from the origin are evaluated with the reversed polynomial, so no power
+ * overflows. Roots whose inclusion discs overlap, e.g. multiple roots, cannot be told apart in double precision. Such
+ * clusters are refined with BigDecimals and the exact coefficients, doubling the precision until the roots are accurate
+ * beyond the digits shown. A multiple root is found as a simple root of a derivative.
+ *
+ * @author Max Lemberg
+ */
+public class PolynomialRoots {
+    private static final Pattern ROOTS = Pattern.compile("\\s*roots\\((.*?)\\)?\\s*=?\\s*");
+    // Polynomials of higher degree are rejected, every iteration costs the square of the degree
+    private static final int MAX_DEGREE = 5000;
+    private static final int MAX_ITERATIONS = 500;
+    // Below this degree the roots are updated sequentially
+    private static final int PARALLEL_DEGREE = 64;
+    // The unit roundoff of doubles
+    private static final double EPSILON = Math.ulp(1.0) / 2;
+    // Rotates the starting points, so they are not symmetric to the real axis
+    private static final double START_ANGLE = 0.4;
+    // Precision of the first refinement of a cluster in digits, doubled while the roots are not accurate
+    private static final int INITIAL_PRECISION = 40;
+    private static final int MAX_PRECISION = 2560;
+    private static final int MAX_REFINEMENT_ITERATIONS = 100;
+    // Relative accuracy of refined roots, beyond the 15 digits shown
+    private static final int TARGET_DIGITS = 17;
+    private static final double TARGET_ACCURACY = 1e-17;
+    // Digits lost to rounding errors
+    private static final int GUARD_DIGITS = 20;
+    // Larger clusters are only refined if they are a multiple root, the Aberth–Ehrlich method would take too long
+    private static final int MAX_CLUSTER_SIZE = 64;
+
+    /**
+     * @param calc The expression as entered by the user.
+     * @return True if the whole expression is a form like "roots(x^2-2)".
+     */
+    public static boolean isRoots(final String calc) {
+        final Matcher matcher = ROOTS.matcher(calc);
+        // "roots(x^2-4)+1" is no form, the parenthesis of roots( must not close before the end
+        return matcher.matches() && SpecialForms.findClosingParenthesis(calc, calc.indexOf('(')) >= matcher.end(1);
+    }
+
+    /**
+     * Parses the polynomial of "roots(…)" and finds its roots.
+     *
+     * @param calc The expression, see {@link #isRoots(String)}.
+     * @return The roots in brackets, separated by semicolons.
+     * @throws IllegalArgumentException If the argument is not a polynomial of one variable or the zero polynomial.
+     * @throws ArithmeticException      If the polynomial is constant or its degree is too high.
+     */
+    public static String calculateRoots(final String calc) {
+        final Matcher matcher = ROOTS.matcher(calc);
+        if (!matcher.matches() || matcher.group(1).isBlank()) {
+            throw new IllegalArgumentException("Syntax Fehler");
+        }
+        final List<String> arguments = SpecialForms.splitArguments(matcher.group(1));
+        if (arguments.size() > 2) {
+            throw new IllegalArgumentException("Syntax Fehler");
+        }
+        final String variable = arguments.size() == 2 ? arguments.get(1).trim() : null;
+        if (variable != null && !CalculatorEngine.isVariable(variable)) {
+            throw new IllegalArgumentException("Syntax Fehler");
+        }
+        final double[][] roots = findRoots(parse(arguments.get(0), variable));
+        return format(roots[0], roots[1]);
+    }
+
+    /**
+     * Converts an expression to the coefficients of a polynomial.
+     *
+     * @param expression The polynomial in the calculator syntax, e.g. "3x^2-(x+1)^2".
+     * @param variable   The variable, or null to take the only variable of the expression.
+     * @return The coefficients, index k holds the coefficient of x^k.
+     * @throws IllegalArgumentException If the expression is not a polynomial of one variable.
+     */
+    public static BigDecimal[] parse(final String expression, final String variable) {
+        final List<String> tokens = CalculatorEngine.tokenize(CalculatorEngine.normalize(expression));
+        final List<String> postfixTokens = CalculatorEngine.infixToPostfix(tokens);
+        String name = variable;
+        final List<BigDecimal[]> stack = new ArrayList<>();
+
+        for (final String token : postfixTokens) {
+            if (CalculatorEngine.isNumber(token)) {
+                stack.add(new BigDecimal[]{new BigDecimal(token)});
+                continue;
+            }
+            if (CalculatorEngine.isVariable(token)) {
+                if (name == null) {
+                    name = token;
+                } else if (!name.equals(token)) {
+                    throw new IllegalArgumentException("Nicht definiert");
+                }
+                stack.add(new BigDecimal[]{BigDecimal.ZERO, BigDecimal.ONE});
+                continue;
+            }
+            if (token.startsWith(CalculatorEngine.JUMP_IF_ZERO) || token.startsWith(CalculatorEngine.JUMP)) {
+                throw new IllegalArgumentException("Syntax Fehler");
+            }
+
+            switch (token) {
+                case "+":
+                case "-":
+                case "*":
+                case "=": {
+                    // An equation is solved as the difference of both sides
+                    if (stack.size() < 2) {
+                        throw new IllegalArgumentException("Syntax Fehler");
+                    }
+                    final BigDecimal[] right = stack.remove(stack.size() - 1);
+                    final BigDecimal[] left = stack.remove(stack.size() - 1);
+                    stack.add(token.equals("*") ? multiply(left, right) : add(left, right, token.equals("+")));
+                    break;
+                }
+                case "/": {
+                    if (stack.size() < 2 || stack.get(stack.size() - 1).length > 1) {
+                        // Only division by a constant keeps a polynomial
+                        throw new IllegalArgumentException("Ungültiges Argument");
+                    }
+                    final BigDecimal divisor = stack.remove(stack.size() - 1)[0];
+                    if (divisor.signum() == 0) {
+                        throw new ArithmeticException("Kein Teilen durch 0");
+                    }
+                    final BigDecimal[] dividend = stack.get(stack.size() - 1);
+                    for (int i = 0; i < dividend.length; i++) {
+                        dividend[i] = dividend[i].divide(divisor, CalculatorEngine.MC);
+                    }
+                    break;
+                }
+                case "^": {
+                    if (stack.size() < 2 || stack.get(stack.size() - 1).length > 1) {
+                        throw new IllegalArgumentException("Ungültiges Argument");
+                    }
+                    if (stack.get(stack.size() - 2).length == 1) {
+                        applyConstant(token, 2, stack);
+                        break;
+                    }
+                    final BigInteger exponent = ModularArithmetic.toInteger(stack.remove(stack.size() - 1)[0]);
+                    final BigDecimal[] base = stack.remove(stack.size() - 1);
+                    if (exponent.signum() < 0) {
+                        throw new IllegalArgumentException("Ungültiges Argument");
+                    }
+                    if (exponent.compareTo(BigInteger.valueOf(MAX_DEGREE / (base.length - 1))) > 0) {
+                        throw new ArithmeticException("Wert zu groß");
+                    }
+                    stack.add(pow(base, exponent.intValue()));
+                    break;
+                }
+                default: {
+                    // Functions and the other operators are only defined for constants
+                    final int arity;
+                    if (token.equals("!") || token.equals(CalculatorEngine.ROOT) || token.equals(CalculatorEngine.THIRD_ROOT)) {
+                        arity = 1;
+                    } else if (CalculatorEngine.isFunction(token)) {
+                        arity = CalculatorEngine.functionArity(token);
+                    } else {
+                        arity = 2;
+                    }
+                    applyConstant(token, arity, stack);
+                    break;
+                }
+            }
+        }
+
+        if (stack.size() != 1) {
+            throw new IllegalArgumentException("Syntax Fehler");
+        }
+        return stack.get(0);
+    }
+
+    /**
+     * Applies an operator or function to constants with the engine.
+     */
+    private static void applyConstant(final String token, final int arity, final List<BigDecimal[]> stack) {
+        if (stack.size() < arity) {
+            throw new IllegalArgumentException("Syntax Fehler");
+        }
+        final List<BigDecimal> operands = new ArrayList<>(arity);
+        for (final BigDecimal[] operand : stack.subList(stack.size() - arity, stack.size())) {
+            if (operand.length > 1) {
+                throw new IllegalArgumentException("Ungültiges Argument");
+            }
+            operands.add(operand[0]);
+        }
+        stack.subList(stack.size() - arity, stack.size()).clear();
+        CalculatorEngine.applyToken(token, 0, operands);
+        stack.add(new BigDecimal[]{operands.get(0)});
+    }
+
+    private static BigDecimal[] add(final BigDecimal[] left, final BigDecimal[] right, final boolean plus) {
+        final BigDecimal[] result = new BigDecimal[Math.max(left.length, right.length)];
+        for (int i = 0; i < result.length; i++) {
+            final BigDecimal a = i < left.length ? left[i] : BigDecimal.ZERO;
+            final BigDecimal b = i < right.length ? right[i] : BigDecimal.ZERO;
+            result[i] = plus ? a.add(b) : a.subtract(b);
+        }
+        return trim(result);
+    }
+
+    private static BigDecimal[] multiply(final BigDecimal[] left, final BigDecimal[] right) {
+        if (left.length + right.length - 2 > MAX_DEGREE) {
+            throw new ArithmeticException("Wert zu groß");
+        }
+        final BigDecimal[] result = new BigDecimal[left.length + right.length - 1];
+        Arrays.fill(result, BigDecimal.ZERO);
+        for (int i = 0; i < left.length; i++) {
+            if (left[i].signum() == 0) {
+                continue;
+            }
+            for (int j = 0; j < right.length; j++) {
+                if (right[j].signum() != 0) {
+                    result[i + j] = result[i + j].add(left[i].multiply(right[j]));
+                }
+            }
+        }
+        return trim(result);
+    }
+
+    private static BigDecimal[] pow(BigDecimal[] base, int exponent) {
+        BigDecimal[] result = {BigDecimal.ONE};
+        while (exponent > 0) {
+            if ((exponent & 1) != 0) {
+                result = multiply(result, base);
+            }
+            exponent >>= 1;
+            if (exponent > 0) {
+                base = multiply(base, base);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return The coefficients without zeros at the highest powers, at least the constant.
+     */
+    private static BigDecimal[] trim(final BigDecimal[] coefficients) {
+        int length = coefficients.length;
+        while (length > 1 && coefficients[length - 1].signum() == 0) {
+            length--;
+        }
+        return length == coefficients.length ? coefficients : Arrays.copyOf(coefficients, length);
+    }
+
+    /**
+     * Finds all roots of a polynomial.
+     *
+     * @param coefficients The coefficients, index k holds the coefficient of x^k.
+     * @return The real parts of the roots at index 0 and the imaginary parts at index 1.
+     * @throws IllegalArgumentException If the polynomial is zero, so every number is a root.
+     * @throws ArithmeticException      If the polynomial is constant or a root is too large for a double.
+     */
+    public static double[][] findRoots(final BigDecimal[] coefficients) {
+        final BigDecimal[] trimmed = trim(coefficients);
+        if (trimmed.length == 1) {
+            if (trimmed[0].signum() == 0) {
+                throw new IllegalArgumentException("Ungültiges Argument");
+            }
+            throw new ArithmeticException("Keine Lösung");
+        }
+        // Zero coefficients at the lowest powers are roots at the origin
+        int zeros = 0;
+        while (trimmed[zeros].signum() == 0) {
+            zeros++;
+        }
+        final BigDecimal[] a = Arrays.copyOfRange(trimmed, zeros, trimmed.length);
+        final int n = a.length - 1;
+        final double[] re = new double[n + zeros];
+        final double[] im = new double[n + zeros];
+        if (n == 0) {
+            return new double[][]{re, im};
+        }
+
+        // Scale the coefficients to at most 1, so they fit into doubles
+        BigDecimal largest = BigDecimal.ZERO;
+        for (final BigDecimal coefficient : a) {
+            largest = largest.max(coefficient.abs());
+        }
+        final double[] scaled = new double[n + 1];
+        for (int k = 0; k <= n; k++) {
+            scaled[k] = a[k].divide(largest, MathContext.DECIMAL64).doubleValue();
+        }
+
+        startingPoints(a, re, im);
+        final double[] radii = new double[n];
+        final boolean[] converged = new boolean[n];
+        aberth(scaled, re, im, radii, converged);
+
+        for (final int[] cluster : clusters(re, im, radii, converged)) {
+            refine(a, re, im, cluster);
+        }
+        return new double[][]{re, im};
+    }
+
+    /**
+     * Places the starting points on circles whose radii are given by the upper convex hull of the points
+     * (k, log|a_k|), the Newton polygon. Every edge of the hull from k to j stands for j - k roots of about the same
+     * magnitude.
+     */
+    private static void startingPoints(final BigDecimal[] a, final double[] re, final double[] im) {
+        final int n = a.length - 1;
+        final double[] logs = new double[n + 1];
+        final int[] hull = new int[n + 1];
+        int size = 0;
+        for (int k = 0; k <= n; k++) {
+            logs[k] = log10(a[k]);
+            if (logs[k] == Double.NEGATIVE_INFINITY) {
+                continue;
+            }
+            // Remove points below the line from the second last point of the hull to this one
+            while (size >= 2 && (logs[hull[size - 1]] - logs[hull[size - 2]]) * (k - hull[size - 2])
+                    <= (logs[k] - logs[hull[size - 2]]) * (hull[size - 1] - hull[size - 2])) {
+                size--;
+            }
+            hull[size++] = k;
+        }
+
+        for (int edge = 0; edge + 1 < size; edge++) {
+            final int from = hull[edge];
+            final int to = hull[edge + 1];
+            final int count = to - from;
+            final double radius = Math.pow(10, (logs[from] - logs[to]) / count);
+            if (Double.isInfinite(radius)) {
+                throw new ArithmeticException("Wert zu groß");
+            }
+            for (int i = 0; i < count; i++) {
+                final double angle = 2 * Math.PI * i / count + 2 * Math.PI * from / n + START_ANGLE;
+                re[from + i] = Math.max(radius, Double.MIN_NORMAL) * Math.cos(angle);
+                im[from + i] = Math.max(radius, Double.MIN_NORMAL) * Math.sin(angle);
+            }
+        }
+    }
+
+    /**
+     * @return The common logarithm of the absolute value, also beyond the range of doubles.
+     */
+    private static double log10(final BigDecimal value) {
+        if (value.signum() == 0) {
+            return Double.NEGATIVE_INFINITY;
+        }
+        final BigDecimal rounded = value.abs().round(MathContext.DECIMAL64);
+        return Math.log10(rounded.unscaledValue().doubleValue()) - rounded.scale();
+    }
+
+    /**
+     * Iterates the Aberth–Ehrlich method until every approximation has converged. The corrections of an iteration are
+     * all computed from the previous approximations, so they are independent of each other.
+     *
+     * @param a         The scaled coefficients.
+     * @param re        The real parts of the approximations, updated in place.
+     * @param im        The imaginary parts of the approximations, updated in place.
+     * @param radii     Receives the radii of the inclusion discs, n times the Newton correction.
+     * @param converged Receives whether each approximation has converged.
+     */
+    private static void aberth(final double[] a, final double[] re, final double[] im, final double[] radii, final boolean[] converged) {
+        final int n = a.length - 1;
+        final double[] nextRe = new double[n];
+        final double[] nextIm = new double[n];
+        for (int iteration = 0; iteration < MAX_ITERATIONS; iteration++) {
+            IntStream range = IntStream.range(0, n);
+            if (n >= PARALLEL_DEGREE) {
+                range = range.parallel();
+            }
+            range.forEach(k -> {
+                nextRe[k] = re[k];
+                nextIm[k] = im[k];
+                if (!converged[k]) {
+                    aberthStep(a, re, im, k, nextRe, nextIm, radii, converged);
+                }
+            });
+            System.arraycopy(nextRe, 0, re, 0, n);
+            System.arraycopy(nextIm, 0, im, 0, n);
+
+            boolean done = true;
+            for (int k = 0; k < n && done; k++) {
+                done = converged[k];
+            }
+            if (done) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Computes the next approximation of root k: z - N / (1 - N·Σ 1/(z - z_j)) with the Newton correction N = p/p'.
+     */
+    private static void aberthStep(final double[] a, final double[] re, final double[] im, final int k,
+                                   final double[] nextRe, final double[] nextIm, final double[] radii, final boolean[] converged) {
+        final int n = a.length - 1;
+        final double zr = re[k];
+        final double zi = im[k];
+        final double[] newton = new double[3];
+        final boolean atRoundingLevel = newtonCorrection(a, zr, zi, newton);
+        // The disc contains a root even if |p(z)| is as large as its rounding errors
+        final double radius = n * Math.hypot(newton[0], newton[1]) * (1 + newton[2]);
+        radii[k] = Double.isNaN(radius) ? 0 : radius;
+        if (atRoundingLevel) {
+            converged[k] = true;
+            return;
+        }
+
+        double sumRe = 0;
+        double sumIm = 0;
+        for (int j = 0; j < n; j++) {
+            if (j != k) {
+                final double dr = zr - re[j];
+                final double di = zi - im[j];
+                final double norm = dr * dr + di * di;
+                if (norm != 0) {
+                    sumRe += dr / norm;
+                    sumIm -= di / norm;
+                }
+            }
+        }
+        // w = N / (1 - N·S)
+        final double denominatorRe = 1 - (newton[0] * sumRe - newton[1] * sumIm);
+        final double denominatorIm = -(newton[0] * sumIm + newton[1] * sumRe);
+        final double norm = denominatorRe * denominatorRe + denominatorIm * denominatorIm;
+        final double wr = (newton[0] * denominatorRe + newton[1] * denominatorIm) / norm;
+        final double wi = (newton[1] * denominatorRe - newton[0] * denominatorIm) / norm;
+        if (Double.isFinite(wr) && Double.isFinite(wi)) {
+            nextRe[k] = zr - wr;
+            nextIm[k] = zi - wi;
+        }
+        if (!(Math.hypot(wr, wi) > EPSILON * Math.hypot(zr, zi))) {
+            converged[k] = true;
+        }
+    }
+
+    /**
+     * Computes the Newton correction p(z)/p'(z). Inside the unit circle p is evaluated directly by Horner's method,
+     * outside the reversed polynomial r(w) = w^n·p(1/w) is evaluated at w = 1/z, where p/p' = z / (n - w·r'(w)/r(w)).
+     *
+     * @param result Receives the real and imaginary part of the correction and the bound of the rounding errors relative
+     *               to |p(z)|.
+     * @return True if |p(z)| is not larger than the rounding errors of its evaluation, so z cannot be improved.
+     */
+    private static boolean newtonCorrection(final double[] a, final double zr, final double zi, final double[] result) {
+        final int n = a.length - 1;
+        final double absZ = Math.hypot(zr, zi);
+        final boolean inside = absZ <= 1;
+        // Evaluate at z inside and at w = 1/z outside of the unit circle
+        final double xr = inside ? zr : zr / (absZ * absZ);
+        final double xi = inside ? zi : -zi / (absZ * absZ);
+        final double absX = inside ? absZ : 1 / absZ;
+
+        double pr = inside ? a[n] : a[0];
+        double pi = 0;
+        double dr = 0;
+        double di = 0;
+        double bound = Math.abs(pr);
+        for (int i = 1; i <= n; i++) {
+            final double coefficient = inside ? a[n - i] : a[i];
+            double t = dr * xr - di * xi + pr;
+            di = dr * xi + di * xr + pi;
+            dr = t;
+            t = pr * xr - pi * xi + coefficient;
+            pi = pr * xi + pi * xr;
+            pr = t;
+            bound = bound * absX + Math.abs(coefficient);
+        }
+
+        if (inside) {
+            divide(pr, pi, dr, di, result);
+        } else {
+            // q = w·r'/r, then p/p' = z / (n - q)
+            final double[] ratio = new double[2];
+            divide(dr, di, pr, pi, ratio);
+            final double qr = xr * ratio[0] - xi * ratio[1];
+            final double qi = xr * ratio[1] + xi * ratio[0];
+            divide(zr, zi, n - qr, -qi, result);
+        }
+        final double error = 4 * (n + 1) * EPSILON * bound;
+        result[2] = error / Math.hypot(pr, pi);
+        return Math.hypot(pr, pi) <= error;
+    }
+
+    private static void divide(final double ar, final double ai, final double br, final double bi, final double[] result) {
+        final double norm = br * br + bi * bi;
+        result[0] = (ar * br + ai * bi) / norm;
+        result[1] = (ai * br - ar * bi) / norm;
+    }
+
+    /**
+     * Groups the approximations whose inclusion discs overlap. Approximations that have not converged form a cluster
+     * of their own.
+     *
+     * @return The indices of the approximations of every cluster that needs refinement.
+     */
+    private static List<int[]> clusters(final double[] re, final double[] im, final double[] radii, final boolean[] converged) {
+        final int n = radii.length;
+        final int[] parent = new int[n];
+        for (int k = 0; k < n; k++) {
+            parent[k] = k;
+        }
+        for (int k = 0; k < n; k++) {
+            for (int j = k + 1; j < n; j++) {
+                if (Math.hypot(re[k] - re[j], im[k] - im[j]) <= radii[k] + radii[j]) {
+                    parent[find(parent, k)] = find(parent, j);
+                }
+            }
+        }
+
+        final List<List<Integer>> groups = new ArrayList<>();
+        final int[] group = new int[n];
+        Arrays.fill(group, -1);
+        for (int k = 0; k < n; k++) {
+            final int root = find(parent, k);
+            if (group[root] < 0) {
+                group[root] = groups.size();
+                groups.add(new ArrayList<>());
+            }
+            groups.get(group[root]).add(k);
+        }
+
+        final List<int[]> clusters = new ArrayList<>();
+        for (final List<Integer> members : groups) {
+            if (members.size() > 1 || !converged[members.get(0)]) {
+                clusters.add(members.stream().mapToInt(Integer::intValue).toArray());
+            }
+        }
+        return clusters;
+    }
+
+    private static int find(final int[] parent, int k) {
+        while (parent[k] != k) {
+            parent[k] = parent[parent[k]];
+            k = parent[k];
+        }
+        return k;
+    }
+
+    /**
+     * Refines the approximations of a cluster in BigDecimal arithmetic with the exact coefficients. The other
+     * approximations stay fixed. A cluster of m approximations is first tested for an m-fold root with m times the
+     * target digits. Otherwise the roots are distinct and the Aberth–Ehrlich method is iterated, doubling the precision
+     * as long as the roots are not accurate. Large clusters that are not a multiple root keep the accuracy of doubles.
+     */
+    private static void refine(final BigDecimal[] a, final double[] re, final double[] im, final int[] cluster) {
+        final int n = a.length - 1;
+        final BigDecimal[] zr = new BigDecimal[n];
+        final BigDecimal[] zi = new BigDecimal[n];
+        for (int k = 0; k < n; k++) {
+            zr[k] = new BigDecimal(re[k]);
+            zi[k] = new BigDecimal(im[k]);
+        }
+
+        // An m-fold root is only accurate to a m-th of the digits
+        final int multiplePrecision = cluster.length * TARGET_DIGITS + GUARD_DIGITS;
+        final boolean multiple = cluster.length > 1 && multiplePrecision <= MAX_PRECISION
+                && multipleRoot(a, zr, zi, cluster, new MathContext(multiplePrecision));
+        if (!multiple && cluster.length <= MAX_CLUSTER_SIZE) {
+            for (int precision = INITIAL_PRECISION; precision <= MAX_PRECISION; precision *= 2) {
+                if (aberth(a, zr, zi, cluster, new MathContext(precision))) {
+                    break;
+                }
+            }
+        }
+        for (final int k : cluster) {
+            re[k] = zr[k].doubleValue();
+            im[k] = zi[k].doubleValue();
+        }
+    }
+
+    /**
+     * Tests whether a cluster of m approximations is a single m-fold root. The root is a simple root of the (m-1)-th
+     * derivative, so Newton's method finds it with quadratic convergence, while the Aberth–Ehrlich method only converges
+     * linearly to a multiple root.
+     *
+     * @return True if p vanishes at the root of the derivative like at an m-fold root within the target accuracy, then
+     * all approximations of the cluster are set to it.
+     */
+    private static boolean multipleRoot(final BigDecimal[] a, final BigDecimal[] zr, final BigDecimal[] zi,
+                                        final int[] cluster, final MathContext mc) {
+        final int m = cluster.length;
+        final BigDecimal[] derivative = derivative(a, m - 1);
+        // Start at the center of the cluster
+        BigDecimal cr = BigDecimal.ZERO;
+        BigDecimal ci = BigDecimal.ZERO;
+        for (final int k : cluster) {
+            cr = cr.add(zr[k], mc);
+            ci = ci.add(zi[k], mc);
+        }
+        cr = cr.divide(BigDecimal.valueOf(m), mc);
+        ci = ci.divide(BigDecimal.valueOf(m), mc);
+
+        final BigDecimal tolerance = BigDecimal.ONE.movePointLeft(mc.getPrecision() - GUARD_DIGITS);
+        for (int iteration = 0; iteration < MAX_REFINEMENT_ITERATIONS; iteration++) {
+            final BigDecimal[] values = horner(derivative, cr, ci, mc);
+            if (values[0].signum() == 0 && values[1].signum() == 0) {
+                break;
+            }
+            final BigDecimal[] step = divide(values[0], values[1], values[2], values[3], mc);
+            cr = cr.subtract(step[0], mc);
+            ci = ci.subtract(step[1], mc);
+            if (step[0].abs().max(step[1].abs()).compareTo(tolerance.multiply(cr.abs().max(ci.abs()), mc)) <= 0) {
+                break;
+            }
+        }
+
+        // Near an m-fold root z, p(c) = p^(m)(c) / m!·(c - z)^m, so |c - z| <= target·|c| if
+        // (|p(c)|·m!)² <= |p^(m)(c)|²·(target²·|c|²)^m
+        final BigDecimal[] value = horner(a, cr, ci, mc);
+        final BigDecimal[] derivativeValue = horner(derivative, cr, ci, mc);
+        final BigDecimal factorial = new BigDecimal(factorial(m));
+        final BigDecimal lhs = norm(value[0], value[1], mc).multiply(factorial.pow(2), mc);
+        final BigDecimal target = BigDecimal.ONE.movePointLeft(2 * TARGET_DIGITS).multiply(norm(cr, ci, mc), mc);
+        final BigDecimal rhs = norm(derivativeValue[2], derivativeValue[3], mc).multiply(target.pow(m, mc), mc);
+        if (lhs.compareTo(rhs) > 0) {
+            return false;
+        }
+        for (final int k : cluster) {
+            zr[k] = cr;
+            zi[k] = ci;
+        }
+        return true;
+    }
+
+    /**
+     * Iterates the Aberth–Ehrlich method for the approximations of a cluster until they are accurate or the corrections
+     * stop decreasing, because they have reached the rounding errors of the precision.
+     *
+     * @return True if the approximations are accurate.
+     */
+    private static boolean aberth(final BigDecimal[] a, final BigDecimal[] zr, final BigDecimal[] zi,
+                                  final int[] cluster, final MathContext mc) {
+        double previous = Double.POSITIVE_INFINITY;
+        for (int iteration = 0; iteration < MAX_REFINEMENT_ITERATIONS; iteration++) {
+            final BigDecimal[][] corrections = new BigDecimal[cluster.length][];
+            IntStream.range(0, cluster.length).parallel()
+                    .forEach(m -> corrections[m] = aberthCorrection(a, zr, zi, cluster[m], mc));
+            double largest = 0;
+            for (int m = 0; m < cluster.length; m++) {
+                final int k = cluster[m];
+                zr[k] = zr[k].subtract(corrections[m][0], mc);
+                zi[k] = zi[k].subtract(corrections[m][1], mc);
+                final double correction = Math.hypot(corrections[m][0].doubleValue(), corrections[m][1].doubleValue());
+                final double magnitude = Math.hypot(zr[k].doubleValue(), zi[k].doubleValue());
+                largest = Math.max(largest, correction / Math.max(magnitude, Double.MIN_NORMAL));
+            }
+            if (largest <= TARGET_ACCURACY) {
+                return true;
+            }
+            if (largest >= previous) {
+                return false;
+            }
+            previous = largest;
+        }
+        return false;
+    }
+
+    /**
+     * @return The coefficients of the k-th derivative.
+     */
+    private static BigDecimal[] derivative(final BigDecimal[] a, final int k) {
+        final BigDecimal[] derivative = new BigDecimal[a.length - k];
+        // (i + k)! / i!
+        BigInteger factor = factorial(k);
+        for (int i = 0; i < derivative.length; i++) {
+            if (i > 0) {
+                factor = factor.multiply(BigInteger.valueOf(i + k)).divide(BigInteger.valueOf(i));
+            }
+            derivative[i] = a[i + k].multiply(new BigDecimal(factor));
+        }
+        return derivative;
+    }
+
+    private static BigInteger factorial(final int n) {
+        BigInteger result = BigInteger.ONE;
+        for (int i = 2; i <= n; i++) {
+            result = result.multiply(BigInteger.valueOf(i));
+        }
+        return result;
+    }
+
+    /**
+     * Evaluates a polynomial and its derivative at z by Horner's method.
+     *
+     * @return The real and imaginary parts of p(z) and p'(z).
+     */
+    private static BigDecimal[] horner(final BigDecimal[] a, final BigDecimal xr, final BigDecimal xi, final MathContext mc) {
+        final int n = a.length - 1;
+        BigDecimal pr = a[n];
+        BigDecimal pi = BigDecimal.ZERO;
+        BigDecimal dr = BigDecimal.ZERO;
+        BigDecimal di = BigDecimal.ZERO;
+        for (int i = n - 1; i >= 0; i--) {
+            BigDecimal t = dr.multiply(xr, mc).subtract(di.multiply(xi, mc), mc).add(pr, mc);
+            di = dr.multiply(xi, mc).add(di.multiply(xr, mc), mc).add(pi, mc);
+            dr = t;
+            t = pr.multiply(xr, mc).subtract(pi.multiply(xi, mc), mc).add(a[i], mc);
+            pi = pr.multiply(xi, mc).add(pi.multiply(xr, mc), mc);
+            pr = t;
+        }
+        return new BigDecimal[]{pr, pi, dr, di};
+    }
+
+    /**
+     * Computes the Aberth correction of root k in BigDecimal arithmetic.
+     *
+     * @return The real and imaginary part of the correction.
+     */
+    private static BigDecimal[] aberthCorrection(final BigDecimal[] a, final BigDecimal[] zr, final BigDecimal[] zi,
+                                                 final int k, final MathContext mc) {
+        final int n = a.length - 1;
+        final BigDecimal xr = zr[k];
+        final BigDecimal xi = zi[k];
+        final BigDecimal[] values = horner(a, xr, xi, mc);
+        if (values[0].signum() == 0 && values[1].signum() == 0) {
+            return new BigDecimal[]{BigDecimal.ZERO, BigDecimal.ZERO};
+        }
+        final BigDecimal[] newton = divide(values[0], values[1], values[2], values[3], mc);
+
+        BigDecimal sumRe = BigDecimal.ZERO;
+        BigDecimal sumIm = BigDecimal.ZERO;
+        for (int j = 0; j < n; j++) {
+            if (j != k) {
+                final BigDecimal[] reciprocal = divide(BigDecimal.ONE, BigDecimal.ZERO, xr.subtract(zr[j], mc), xi.subtract(zi[j], mc), mc);
+                sumRe = sumRe.add(reciprocal[0], mc);
+                sumIm = sumIm.add(reciprocal[1], mc);
+            }
+        }
+        final BigDecimal denominatorRe = BigDecimal.ONE.subtract(newton[0].multiply(sumRe, mc).subtract(newton[1].multiply(sumIm, mc), mc), mc);
+        final BigDecimal denominatorIm = newton[0].multiply(sumIm, mc).add(newton[1].multiply(sumRe, mc), mc).negate();
+        return divide(newton[0], newton[1], denominatorRe, denominatorIm, mc);
+    }
+
+    /**
+     * @return The squared absolute value of re + i·im.
+     */
+    private static BigDecimal norm(final BigDecimal re, final BigDecimal im, final MathContext mc) {
+        return re.multiply(re, mc).add(im.multiply(im, mc), mc);
+    }
+
+    /**
+     * @return (ar + i·ai) / (br + i·bi), or zero if the divisor is zero.
+     */
+    private static BigDecimal[] divide(final BigDecimal ar, final BigDecimal ai, final BigDecimal br, final BigDecimal bi, final MathContext mc) {
+        final BigDecimal norm = norm(br, bi, mc);
+        if (norm.signum() == 0) {
+            return new BigDecimal[]{BigDecimal.ZERO, BigDecimal.ZERO};
+        }
+        return new BigDecimal[]{
+                ar.multiply(br, mc).add(ai.multiply(bi, mc), mc).divide(norm, mc),
+                ai.multiply(br, mc).subtract(ar.multiply(bi, mc), mc).divide(norm, mc)};
+    }
+
+    /**
+     * Formats the roots sorted by real and imaginary part, e.g. "[-1;0,5-0,866025403784439i;0,5+0,866025403784439i]".
+     */
+    private static String format(final double[] re, final double[] im) {
+        final String[] formatted = new String[re.length];
+        final double[] sortRe = new double[re.length];
+        final double[] sortIm = new double[re.length];
+        final Integer[] order = new Integer[re.length];
+        for (int k = 0; k < re.length; k++) {
+            formatted[k] = ComplexExpression.format(re[k], im[k]);
+            // Parts dropped by the formatting, e.g. the rounding errors of the imaginary part of a real root, do not count
+            sortRe[k] = Math.abs(re[k]) <= ComplexExpression.NEGLIGIBLE * Math.abs(im[k]) ? 0 : re[k];
+            sortIm[k] = Math.abs(im[k]) <= ComplexExpression.NEGLIGIBLE * Math.abs(re[k]) ? 0 : im[k];
+            order[k] = k;
+        }
+        Arrays.sort(order, Comparator.<Integer>comparingDouble(k -> sortRe[k]).thenComparingDouble(k -> sortIm[k]));
+        final StringBuilder sb = new StringBuilder("[");
+        for (int k = 0; k < order.length; k++) {
+            if (k > 0) {
+                sb.append(';');
+            }
+            sb.append(formatted[order[k]]);
+        }
+        return sb.append(']').toString();
+    }
+}
@@ -0,0 +1,504 @@
+package ml.programs;
+
+/*
+ * Copyright (c) 2024 by Max Lemberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.IntStream;
+
+/**
+ * Primality tests and integer factorization for the function isprime(n) and the form factor(n).
+ * <p>
+ * Numbers below 2^63 are tested with the Miller–Rabin test for seven fixed bases, which is deterministic in that range,
+ * using the Montgomery arithmetic of {@link ModularArithmetic}. Larger numbers are tested with the Baillie–PSW test, a
+ * Miller–Rabin test to base 2 followed by a strong Lucas test, for which no counterexample is known.
+ * <p>
+ * Factorization first divides by the primes of a sieve that is computed once. The remaining composite factors are split
+ * with Pollard's rho method in Brent's variant. Several attempts with different polynomials run in parallel on the
+ * common fork/join pool, the first divisor found stops the others.
+ *
+ * @author Max Lemberg
+ */
+public class PrimeNumbers {
+    // The primes of the sieve are used for trial division
+    private static final int SIEVE_LIMIT = 1 << 16;
+    // Bases for which the Miller–Rabin test is deterministic below 2^64
+    private static final long[] MILLER_RABIN_BASES = {2, 325, 9375, 28178, 450775, 9780504, 1795265022};
+    // Products of differences multiplied before computing a gcd in Brent's method
+    private static final int BATCH_SIZE = 128;
+    // An attempt of Brent's method gives up after this many iterations
+    private static final long MAX_ITERATIONS = 1L << 26;
+    // Below this bit length Brent's method works with longs
+    private static final int MAX_LONG_BITS = 63;
+    private static final Pattern FACTOR = Pattern.compile("\\s*factor\\((.*?)\\)?\\s*=?\\s*");
+
+    /**
+     * The primes below {@link #SIEVE_LIMIT}, computed on first use.
+     */
+    private static final class Sieve {
+        static final int[] PRIMES = sieve(SIEVE_LIMIT);
+    }
+
+    /**
+     * @param calc The expression as entered by the user.
+     * @return True if the whole expression is a factorization like "factor(360)".
+     */
+    public static boolean isFactorization(final String calc) {
+        final Matcher matcher = FACTOR.matcher(calc);
+        // "factor(12)+1" is no factorization, the parenthesis of factor( must not close before the end
+        return matcher.matches() && SpecialForms.findClosingParenthesis(calc, calc.indexOf('(')) >= matcher.end(1);
+    }
+
+    /**
+     * Calculates the argument of "factor(…)" with the engine and factors it.
+     *
+     * @param calc The expression, see {@link #isFactorization(String)}.
+     * @return The factorization, e.g. "2^3×3^2×5".
+     * @throws IllegalArgumentException If the argument is not an integer.
+     * @throws ArithmeticException      If a factor is too large to be found.
+     */
+    public static String calculateFactorization(final String calc) {
+        final Matcher matcher = FACTOR.matcher(calc);
+        if (!matcher.matches() || matcher.group(1).isBlank()) {
+            throw new IllegalArgumentException("Syntax Fehler");
+        }
+        final String value = CalculatorEngine.calculate(matcher.group(1));
+        final BigDecimal number;
+        try {
+            number = new BigDecimal(value.replace(',', '.'));
+        } catch (NumberFormatException e) {
+            // The engine returned an error message
+            throw new IllegalArgumentException(value);
+        }
+        return format(factor(ModularArithmetic.toInteger(number)));
+    }
+
+    /**
+     * Formats a factorization with "^" for powers and "×" between the factors, so the engine can calculate it again.
+     *
+     * @param factors The prime factors and their exponents, -1 for negative numbers.
+     * @return The formatted factorization, "1" if there are no factors.
+     */
+    public static String format(final SortedMap<BigInteger, Integer> factors) {
+        final StringBuilder sb = new StringBuilder();
+        for (final Map.Entry<BigInteger, Integer> factor : factors.entrySet()) {
+            if (factor.getKey().signum() < 0) {
+                sb.append('-');
+                continue;
+            }
+            if (sb.length() > 0 && sb.charAt(sb.length() - 1) != '-') {
+                sb.append('×');
+            }
+            sb.append(factor.getKey());
+            if (factor.getValue() > 1) {
+                sb.append('^').append(factor.getValue());
+            }
+        }
+        if (sb.length() == 0 || sb.toString().equals("-")) {
+            sb.append('1');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Tests whether a number is prime.
+     *
+     * @param n The number.
+     * @return True if the number is prime. Below 2^63 the answer is certain, above it is a Baillie–PSW probable prime.
+     */
+    public static boolean isPrime(final BigInteger n) {
+        if (n.signum() <= 0 || n.equals(BigInteger.ONE)) {
+            return false;
+        }
+        if (n.bitLength() < MAX_LONG_BITS) {
+            return isPrime(n.longValue());
+        }
+        // Small factors are found faster by division
+        for (int i = 0; i < 100; i++) {
+            if (n.mod(BigInteger.valueOf(Sieve.PRIMES[i])).signum() == 0) {
+                return false;
+            }
+        }
+        return isStrongProbablePrime(n, BigInteger.TWO) && isStrongLucasProbablePrime(n);
+    }
+
+    /**
+     * Tests whether a number below 2^63 is prime with the deterministic Miller–Rabin test.
+     *
+     * @param n The number.
+     * @return True if the number is prime.
+     */
+    static boolean isPrime(final long n) {
+        if (n < 2) {
+            return false;
+        }
+        for (int i = 0; i < 12; i++) {
+            final int p = Sieve.PRIMES[i];
+            if (n % p == 0) {
+                return n == p;
+            }
+        }
+        if (n < 41L * 41) {
+            return true;
+        }
+
+        final int twos = Long.numberOfTrailingZeros(n - 1);
+        final long d = (n - 1) >>> twos;
+        final ModularArithmetic.Montgomery montgomery = new ModularArithmetic.Montgomery(n);
+        final long one = montgomery.getOne();
+        final long minusOne = n - one;
+        for (final long base : MILLER_RABIN_BASES) {
+            final long a = base % n;
+            if (a == 0) {
+                continue;
+            }
+            long x = montgomery.pow(montgomery.toMontgomery(a), d);
+            if (x == one || x == minusOne) {
+                continue;
+            }
+            boolean composite = true;
+            for (int r = 1; r < twos; r++) {
+                x = montgomery.multiply(x, x);
+                if (x == minusOne) {
+                    composite = false;
+                    break;
+                }
+            }
+            if (composite) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * The Miller–Rabin test for one base.
+     */
+    private static boolean isStrongProbablePrime(final BigInteger n, final BigInteger base) {
+        final BigInteger nMinusOne = n.subtract(BigInteger.ONE);
+        final int twos = nMinusOne.getLowestSetBit();
+        BigInteger x = base.modPow(nMinusOne.shiftRight(twos), n);
+        if (x.equals(BigInteger.ONE) || x.equals(nMinusOne)) {
+            return true;
+        }
+        for (int r = 1; r < twos; r++) {
+            x = x.multiply(x).mod(n);
+            if (x.equals(nMinusOne)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * The strong Lucas probable prime test with the parameters of Selfridge: D is the first of 5, -7, 9, -11, … with
+     * the Jacobi symbol (D/n) = -1, P = 1 and Q = (1 - D) / 4.
+     */
+    private static boolean isStrongLucasProbablePrime(final BigInteger n) {
+        // For squares there is no such D
+        final BigInteger root = n.sqrt();
+        if (root.multiply(root).equals(n)) {
+            return false;
+        }
+        long d = 5;
+        while (jacobi(BigInteger.valueOf(d), n) != -1) {
+            d = d > 0 ? -d - 2 : -d + 2;
+        }
+        final BigInteger bigD = BigInteger.valueOf(d);
+        final BigInteger q = BigInteger.valueOf((1 - d) / 4);
+
+        // n + 1 = k·2^s with odd k
+        final BigInteger nPlusOne = n.add(BigInteger.ONE);
+        final int twos = nPlusOne.getLowestSetBit();
+        final BigInteger k = nPlusOne.shiftRight(twos);
+
+        BigInteger u = BigInteger.ONE;
+        BigInteger v = BigInteger.ONE;
+        BigInteger qk = q.mod(n);
+        for (int bit = k.bitLength() - 2; bit >= 0; bit--) {
+            // Double the index: U_2j = U_j·V_j, V_2j = V_j² - 2Q^j
+            u = u.multiply(v).mod(n);
+            v = v.multiply(v).subtract(qk.shiftLeft(1)).mod(n);
+            qk = qk.multiply(qk).mod(n);
+            if (k.testBit(bit)) {
+                // Increment the index: U_j+1 = (P·U_j + V_j) / 2, V_j+1 = (D·U_j + P·V_j) / 2
+                final BigInteger nextU = half(u.add(v), n);
+                v = half(bigD.multiply(u).add(v), n);
+                u = nextU;
+                qk = qk.multiply(q).mod(n);
+            }
+        }
+        if (u.signum() == 0 || v.signum() == 0) {
+            return true;
+        }
+        for (int r = 1; r < twos; r++) {
+            v = v.multiply(v).subtract(qk.shiftLeft(1)).mod(n);
+            if (v.signum() == 0) {
+                return true;
+            }
+            qk = qk.multiply(qk).mod(n);
+        }
+        return false;
+    }
+
+    /**
+     * @return x / 2 modulo the odd number n.
+     */
+    private static BigInteger half(BigInteger x, final BigInteger n) {
+        x = x.mod(n);
+        if (x.testBit(0)) {
+            x = x.add(n);
+        }
+        return x.shiftRight(1);
+    }
+
+    /**
+     * @return The Jacobi symbol (a/n) for an odd positive n.
+     */
+    private static int jacobi(BigInteger a, BigInteger n) {
+        a = a.mod(n);
+        int result = 1;
+        while (a.signum() != 0) {
+            final int twos = a.getLowestSetBit();
+            a = a.shiftRight(twos);
+            final int nMod8 = n.intValue() & 7;
+            if ((twos & 1) != 0 && (nMod8 == 3 || nMod8 == 5)) {
+                result = -result;
+            }
+            // Quadratic reciprocity
+            if ((a.intValue() & 3) == 3 && (nMod8 & 3) == 3) {
+                result = -result;
+            }
+            final BigInteger t = a;
+            a = n.mod(t);
+            n = t;
+        }
+        return n.equals(BigInteger.ONE) ? result : 0;
+    }
+
+    /**
+     * Factors an integer into primes.
+     *
+     * @param n The integer, not zero.
+     * @return The prime factors in ascending order with their exponents. Negative numbers additionally have the factor -1.
+     * @throws IllegalArgumentException If n is zero.
+     * @throws ArithmeticException      If a factor could not be split, because it only has very large prime factors.
+     */
+    public static SortedMap<BigInteger, Integer> factor(BigInteger n) {
+        if (n.signum() == 0) {
+            throw new IllegalArgumentException("Ungültiges Argument");
+        }
+        final SortedMap<BigInteger, Integer> factors = new TreeMap<>();
+        if (n.signum() < 0) {
+            factors.put(BigInteger.ONE.negate(), 1);
+            n = n.negate();
+        }
+
+        // Trial division by the primes of the sieve
+        for (final int prime : Sieve.PRIMES) {
+            final BigInteger p = BigInteger.valueOf(prime);
+            if (p.multiply(p).compareTo(n) > 0) {
+                break;
+            }
+            BigInteger[] division = n.divideAndRemainder(p);
+            while (division[1].signum() == 0) {
+                factors.merge(p, 1, Integer::sum);
+                n = division[0];
+                division = n.divideAndRemainder(p);
+            }
+        }
+        if (!n.equals(BigInteger.ONE)) {
+            split(n, factors);
+        }
+        return factors;
+    }
+
+    /**
+     * Adds the prime factors of a number without small factors.
+     */
+    private static void split(final BigInteger n, final SortedMap<BigInteger, Integer> factors) {
+        if (isPrime(n)) {
+            factors.merge(n, 1, Integer::sum);
+            return;
+        }
+        final BigInteger divisor = findDivisor(n);
+        split(divisor, factors);
+        split(n.divide(divisor), factors);
+    }
+
+    /**
+     * Finds a proper divisor of a composite number by running Brent's method with different polynomials x² + c in
+     * parallel.
+     */
+    private static BigInteger findDivisor(final BigInteger n) {
+        // Squares of large primes make every polynomial cycle modulo n and p at the same time
+        final BigInteger root = n.sqrt();
+        if (root.multiply(root).equals(n)) {
+            return root;
+        }
+        final AtomicReference<BigInteger> found = new AtomicReference<>();
+        final int attempts = 2 * ForkJoinPool.getCommonPoolParallelism();
+        IntStream.rangeClosed(1, attempts).parallel().forEach(c -> {
+            if (found.get() == null) {
+                final BigInteger divisor = n.bitLength() < MAX_LONG_BITS
+                        ? BigInteger.valueOf(brent(n.longValue(), c, found))
+                        : brent(n, BigInteger.valueOf(c), found);
+                if (divisor.signum() > 0) {
+                    found.compareAndSet(null, divisor);
+                }
+            }
+        });
+        if (found.get() == null) {
+            throw new ArithmeticException("Wert zu groß");
+        }
+        return found.get();
+    }
+
+    /**
+     * Brent's variant of Pollard's rho method for an odd composite number below 2^63, in Montgomery form.
+     *
+     * @return A proper divisor, or 0 if the attempt failed or another attempt found a divisor first.
+     */
+    private static long brent(final long n, final long c, final AtomicReference<BigInteger> found) {
+        final ModularArithmetic.Montgomery montgomery = new ModularArithmetic.Montgomery(n);
+        final long cm = montgomery.toMontgomery(c % n);
+        long y = montgomery.toMontgomery(2);
+        long x = y;
+        long saved = y;
+        long product = montgomery.getOne();
+        long g = 1;
+        long iterations = 0;
+        for (long r = 1; g == 1 && iterations < MAX_ITERATIONS && found.get() == null; r <<= 1) {
+            x = y;
+            for (long i = 0; i < r; i++) {
+                y = montgomery.add(montgomery.multiply(y, y), cm);
+            }
+            for (long k = 0; k < r && g == 1; k += BATCH_SIZE) {
+                saved = y;
+                for (long i = 0; i < Math.min(BATCH_SIZE, r - k); i++) {
+                    y = montgomery.add(montgomery.multiply(y, y), cm);
+                    // The factors R of the Montgomery form are coprime to n and do not change the gcd
+                    product = montgomery.multiply(product, Math.abs(x - y));
+                }
+                g = gcd(product, n);
+                iterations += BATCH_SIZE;
+            }
+        }
+        if (g == n) {
+            // The batch overshot, repeat its steps one at a time
+            do {
+                saved = montgomery.add(montgomery.multiply(saved, saved), cm);
+                g = gcd(Math.abs(x - saved), n);
+            } while (g == 1);
+        }
+        return g == 1 || g == n ? 0 : g;
+    }
+
+    /**
+     * Brent's variant of Pollard's rho method for an odd composite number.
+     *
+     * @return A proper divisor, or 0 if the attempt failed or another attempt found a divisor first.
+     */
+    private static BigInteger brent(final BigInteger n, final BigInteger c, final AtomicReference<BigInteger> found) {
+        BigInteger y = BigInteger.TWO;
+        BigInteger x = y;
+        BigInteger saved = y;
+        BigInteger product = BigInteger.ONE;
+        BigInteger g = BigInteger.ONE;
+        long iterations = 0;
+        for (long r = 1; g.equals(BigInteger.ONE) && iterations < MAX_ITERATIONS && found.get() == null; r <<= 1) {
+            x = y;
+            for (long i = 0; i < r; i++) {
+                y = y.multiply(y).add(c).mod(n);
+            }
+            for (long k = 0; k < r && g.equals(BigInteger.ONE); k += BATCH_SIZE) {
+                saved = y;
+                for (long i = 0; i < Math.min(BATCH_SIZE, r - k); i++) {
+                    y = y.multiply(y).add(c).mod(n);
+                    product = product.multiply(x.subtract(y).abs()).mod(n);
+                }
+                g = product.gcd(n);
+                iterations += BATCH_SIZE;
+            }
+        }
+        if (g.equals(n)) {
+            // The batch overshot, repeat its steps one at a time
+            do {
+                saved = saved.multiply(saved).add(c).mod(n);
+                g = x.subtract(saved).gcd(n);
+            } while (g.equals(BigInteger.ONE));
+        }
+        return g.equals(BigInteger.ONE) || g.equals(n) ? BigInteger.ZERO : g;
+    }
+
+    /**
+     * Binary gcd of two numbers that are not negative.
+     */
+    private static long gcd(long a, long b) {
+        if (a == 0) {
+            return b;
+        }
+        if (b == 0) {
+            return a;
+        }
+        final int shift = Long.numberOfTrailingZeros(a | b);
+        a >>>= Long.numberOfTrailingZeros(a);
+        while (b != 0) {
+            b >>>= Long.numberOfTrailingZeros(b);
+            if (a > b) {
+                final long t = a;
+                a = b;
+                b = t;
+            }
+            b -= a;
+        }
+        return a << shift;
+    }
+
+    /**
+     * The sieve of Eratosthenes.
+     *
+     * @return The primes below the limit.
+     */
+    private static int[] sieve(final int limit) {
+        final boolean[] composite = new boolean[limit];
+        int count = 0;
+        for (int i = 2; i < limit; i++) {
+            if (!composite[i]) {
+                count++;
+                for (long j = (long) i * i; j < limit; j += i) {
+                    composite[(int) j] = true;
+                }
+            }
+        }
+        final int[] primes = new int[count];
+        count = 0;
+        for (int i = 2; i < limit; i++) {
+            if (!composite[i]) {
+                primes[count++] = i;
+            }
+        }
+        return primes;
+    }
+}
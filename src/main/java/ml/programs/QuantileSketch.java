@@ -0,0 +1,251 @@
+package ml.programs;
+
+/*
+ * Copyright (c) 2024 by Max Lemberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.Arrays;
+
+/**
+ * Estimates quantiles of a stream of values in constant memory.
+ * <p>
+ * The values are counted in buckets whose bounds grow geometrically by the factor γ = (1 + α) / (1 - α), like the
+ * DDSketch. Every value in a bucket is within the relative accuracy α of the bucket's representative value, so a
+ * quantile is estimated with a relative error of at most α, no matter how the values are distributed. Positive and
+ * negative values have their own buckets, values close to zero are counted separately.
+ * <p>
+ * The number of buckets is limited. If the values span a wider range, the buckets of the smallest magnitudes are
+ * merged, which only affects quantiles close to zero. Two sketches are merged by adding their buckets, so partial
+ * sketches of several threads give the same result as one sketch of all values.
+ * <p>
+ * As long as there are only a few values, they are kept as they are and the quantiles are exact, interpolated between
+ * the two closest values.
+ *
+ * @author Max Lemberg
+ */
+public final class QuantileSketch {
+    // Quantiles are accurate to 1 percent
+    private static final double RELATIVE_ACCURACY = 0.01;
+    private static final double GAMMA = (1 + RELATIVE_ACCURACY) / (1 - RELATIVE_ACCURACY);
+    private static final double LOG_GAMMA = Math.log(GAMMA);
+    // Values of smaller magnitude are counted as zero
+    private static final double MIN_MAGNITUDE = Double.MIN_NORMAL;
+    // 4096 buckets cover 17 orders of magnitude at 1 percent
+    private static final int MAX_BUCKETS = 4096;
+    // Up to this many values are kept exactly
+    private static final int MAX_EXACT = 1024;
+
+    private final Store positive = new Store();
+    private final Store negative = new Store();
+    private long zeroCount;
+    // The values as long as there are few of them, null afterwards
+    private double[] exact = new double[16];
+    private int exactCount;
+
+    /**
+     * Adds a value. NaN is ignored.
+     *
+     * @param value The value.
+     */
+    public void add(final double value) {
+        if (value != value) {
+            return;
+        }
+        if (exact != null) {
+            if (exactCount < MAX_EXACT) {
+                if (exactCount == exact.length) {
+                    exact = Arrays.copyOf(exact, exact.length * 2);
+                }
+                exact[exactCount++] = value;
+                return;
+            }
+            flushExact();
+        }
+        addToBuckets(value);
+    }
+
+    private void addToBuckets(final double value) {
+        if (value > MIN_MAGNITUDE) {
+            positive.add(index(value), 1);
+        } else if (value < -MIN_MAGNITUDE) {
+            negative.add(index(-value), 1);
+        } else {
+            zeroCount++;
+        }
+    }
+
+    /**
+     * Moves the exact values into the buckets.
+     */
+    private void flushExact() {
+        for (int i = 0; i < exactCount; i++) {
+            addToBuckets(exact[i]);
+        }
+        exact = null;
+        exactCount = 0;
+    }
+
+    /**
+     * Adds all values of another sketch.
+     *
+     * @param other The other sketch, which is not changed.
+     */
+    public void merge(final QuantileSketch other) {
+        if (other.exact != null) {
+            for (int i = 0; i < other.exactCount; i++) {
+                add(other.exact[i]);
+            }
+            return;
+        }
+        if (exact != null) {
+            flushExact();
+        }
+        positive.merge(other.positive);
+        negative.merge(other.negative);
+        zeroCount += other.zeroCount;
+    }
+
+    /**
+     * @return The number of values added.
+     */
+    public long getCount() {
+        return exactCount + positive.count + negative.count + zeroCount;
+    }
+
+    /**
+     * Estimates a quantile.
+     *
+     * @param q The quantile between 0 and 1, e.g. 0.5 for the median.
+     * @return The estimated value, or NaN if no values have been added.
+     * @throws IllegalArgumentException If q is not between 0 and 1.
+     */
+    public double getQuantile(final double q) {
+        if (!(q >= 0 && q <= 1)) {
+            throw new IllegalArgumentException("Ungültiges Argument");
+        }
+        final long count = getCount();
+        if (count == 0) {
+            return Double.NaN;
+        }
+        if (exact != null) {
+            final double[] sorted = Arrays.copyOf(exact, exactCount);
+            Arrays.sort(sorted);
+            final double position = q * (exactCount - 1);
+            final int lower = (int) position;
+            if (lower == exactCount - 1) {
+                return sorted[lower];
+            }
+            return sorted[lower] + (position - lower) * (sorted[lower + 1] - sorted[lower]);
+        }
+
+        // The rank of the value, counting from 0
+        final long rank = (long) (q * (count - 1));
+        if (rank < negative.count) {
+            // The largest magnitudes of the negative values come first
+            return -value(negative.findDescending(rank));
+        }
+        if (rank < negative.count + zeroCount) {
+            return 0;
+        }
+        return value(positive.findAscending(rank - negative.count - zeroCount));
+    }
+
+    private static int index(final double magnitude) {
+        return (int) Math.ceil(Math.log(magnitude) / LOG_GAMMA);
+    }
+
+    /**
+     * @return The value within the relative accuracy of all values of the bucket.
+     */
+    private static double value(final int index) {
+        return 2 * Math.pow(GAMMA, index) / (GAMMA + 1);
+    }
+
+    /**
+     * The counts of a window of consecutive buckets.
+     */
+    private static final class Store {
+        private final long[] counts = new long[MAX_BUCKETS];
+        // The index of the bucket counted in counts[0]
+        private int offset;
+        private int minIndex = Integer.MAX_VALUE;
+        private int maxIndex = Integer.MIN_VALUE;
+        private long count;
+
+        void add(int index, final long n) {
+            if (count == 0) {
+                offset = index - MAX_BUCKETS / 2;
+            } else if (index >= offset + MAX_BUCKETS) {
+                // Move the window up, the lowest buckets are merged if necessary
+                shiftTo(index - MAX_BUCKETS + 1);
+            } else if (index < offset) {
+                // Move the window down as far as the highest bucket allows, lower values go into the lowest bucket
+                final int newOffset = Math.max(index, maxIndex - MAX_BUCKETS + 1);
+                if (newOffset < offset) {
+                    shiftTo(newOffset);
+                }
+                index = Math.max(index, offset);
+            }
+            counts[index - offset] += n;
+            minIndex = Math.min(minIndex, index);
+            maxIndex = Math.max(maxIndex, index);
+            count += n;
+        }
+
+        private void shiftTo(final int newOffset) {
+            final long[] shifted = new long[MAX_BUCKETS];
+            for (int index = minIndex; index <= maxIndex; index++) {
+                final long n = counts[index - offset];
+                if (n != 0) {
+                    shifted[Math.max(index, newOffset) - newOffset] += n;
+                }
+            }
+            System.arraycopy(shifted, 0, counts, 0, MAX_BUCKETS);
+            offset = newOffset;
+            minIndex = Math.max(minIndex, newOffset);
+        }
+
+        void merge(final Store other) {
+            for (int index = other.minIndex; index <= other.maxIndex; index++) {
+                final long n = other.counts[index - other.offset];
+                if (n != 0) {
+                    add(index, n);
+                }
+            }
+        }
+
+        int findAscending(final long rank) {
+            long seen = 0;
+            for (int index = minIndex; index <= maxIndex; index++) {
+                seen += counts[index - offset];
+                if (seen > rank) {
+                    return index;
+                }
+            }
+            return maxIndex;
+        }
+
+        int findDescending(final long rank) {
+            long seen = 0;
+            for (int index = maxIndex; index >= minIndex; index--) {
+                seen += counts[index - offset];
+                if (seen > rank) {
+                    return index;
+                }
+            }
+            return minIndex;
+        }
+    }
+}
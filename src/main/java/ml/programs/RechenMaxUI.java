@@ -9,6 +9,7 @@ import java.awt.Toolkit;
 import java.awt.datatransfer.DataFlavor;
 import java.awt.datatransfer.StringSelection;
 import java.awt.event.ActionEvent;
+import java.nio.file.Path;
 import java.util.Objects;
 import javax.swing.AbstractAction;
 import javax.swing.ActionMap;
@@ -17,10 +18,14 @@ import javax.swing.BoxLayout;
 import javax.swing.ButtonModel;
 import javax.swing.InputMap;
 import javax.swing.JButton;
+import javax.swing.JFileChooser;
 import javax.swing.JComponent;
 import javax.swing.JFrame;
 import javax.swing.JLabel;
 import javax.swing.JPanel;
+import javax.swing.JScrollPane;
+import javax.swing.JTextArea;
+import javax.swing.JTextField;
 import javax.swing.KeyStroke;
 import javax.swing.SwingUtilities;
 import javax.swing.border.Border;
@@ -51,6 +56,11 @@ public class RechenMaxUI extends JComponent {
     }
 
     public static void main(final String[] args) {
+        if (SpecialForms.getDataDirectory() == null) {
+            // The desktop user may read their own files, the servers only get a data directory when it is given
+            SpecialForms.setDataDirectory(Path.of(System.getProperty("user.dir")));
+        }
+
         final JFrame jFrame = new JFrame();
         jFrame.setTitle("RechenMax");
 
@@ -480,6 +490,106 @@ public class RechenMaxUI extends JComponent {
         }
     }
     
+    protected class PlotAction extends MyOperationAction {
+
+        private static final long serialVersionUID = 1L;
+
+        public PlotAction(final String op, final KeyStroke... keyStrokes) {
+            super(op, keyStrokes);
+        }
+
+        @Override
+        public void actionPerformed(final ActionEvent e) {
+            final JFrame jFrame = new JFrame();
+            jFrame.setTitle("RechenMax - Plot");
+
+            final PlotPanel plotPanel = new PlotPanel();
+            final JTextField expressionField = new JTextField("sin(x)");
+            expressionField.setFont(new Font("Serif", 0, 20));
+            expressionField.addActionListener(event -> plotPanel.setExpression(expressionField.getText()));
+            plotPanel.setExpression(expressionField.getText());
+
+            jFrame.getContentPane().add(expressionField, "North");
+            jFrame.getContentPane().add(plotPanel, "Center");
+            jFrame.setDefaultCloseOperation(2);
+            jFrame.setSize(new Dimension(640, 480));
+            jFrame.setLocationRelativeTo(RechenMaxUI.this);
+
+            SwingUtilities.invokeLater(() -> jFrame.setVisible(true));
+        }
+    }
+
+    protected class StatisticsAction extends MyOperationAction {
+
+        private static final long serialVersionUID = 1L;
+
+        public StatisticsAction(final String op, final KeyStroke... keyStrokes) {
+            super(op, keyStrokes);
+        }
+
+        @Override
+        public void actionPerformed(final ActionEvent e) {
+            final JFrame jFrame = new JFrame();
+            jFrame.setTitle("RechenMax - Statistik");
+
+            final JTextArea dataArea = new JTextArea();
+            dataArea.setFont(new Font("Serif", 0, 16));
+            final JTextArea resultArea = new JTextArea(11, 24);
+            resultArea.setFont(new Font("Serif", 0, 16));
+            resultArea.setEditable(false);
+
+            // Pasted columns are not limited in length, unlike the input of the calculator
+            final JButton calculateButton = new JButton("Berechnen");
+            calculateButton.addActionListener(event -> resultArea.setText(summarize(NumericData.parse(dataArea.getText()))));
+
+            final JButton fileButton = new JButton("Datei öffnen");
+            fileButton.addActionListener(event -> {
+                final JFileChooser fileChooser = new JFileChooser();
+                if (fileChooser.showOpenDialog(jFrame) == JFileChooser.APPROVE_OPTION) {
+                    try {
+                        resultArea.setText(summarize(NumericData.readFile(fileChooser.getSelectedFile().toPath())));
+                    } catch (RuntimeException ex) {
+                        resultArea.setText("Datei nicht lesbar");
+                    }
+                }
+            });
+
+            final JPanel buttons = new JPanel(new GridLayout(1, 2));
+            buttons.add(calculateButton);
+            buttons.add(fileButton);
+
+            jFrame.getContentPane().add(new JScrollPane(dataArea), "Center");
+            jFrame.getContentPane().add(resultArea, "East");
+            jFrame.getContentPane().add(buttons, "South");
+            jFrame.setDefaultCloseOperation(2);
+            jFrame.setSize(new Dimension(640, 400));
+            jFrame.setLocationRelativeTo(RechenMaxUI.this);
+
+            SwingUtilities.invokeLater(() -> jFrame.setVisible(true));
+        }
+
+        private String summarize(final StreamingStatistics statistics) {
+            final StringBuilder sb = new StringBuilder();
+            sb.append("Anzahl: ").append(statistics.getCount()).append('\n');
+            appendLine(sb, "Summe", statistics.getSum());
+            appendLine(sb, "Mittelwert", statistics.getMean());
+            appendLine(sb, "Standardabw.", statistics.getStandardDeviation());
+            appendLine(sb, "Minimum", statistics.getMin());
+            appendLine(sb, "Median", statistics.getQuantile(0.5));
+            appendLine(sb, "Maximum", statistics.getMax());
+            if (statistics.getPairCount() > 1) {
+                appendLine(sb, "Steigung", statistics.getSlope());
+                appendLine(sb, "Achsenabschnitt", statistics.getIntercept());
+                appendLine(sb, "Korrelation", statistics.getCorrelation());
+            }
+            return sb.toString();
+        }
+
+        private void appendLine(final StringBuilder sb, final String name, final double value) {
+            sb.append(name).append(": ").append(Double.isFinite(value) ? SpecialForms.format(value) : "Nicht definiert").append('\n');
+        }
+    }
+
     protected JComponent createPanel1() {
         final JPanel jPanel = new JPanel(new BorderLayout());
 
@@ -499,7 +609,7 @@ public class RechenMaxUI extends JComponent {
     }
 
     protected JComponent createPanel3() {
-        final JPanel jPanel = new JPanel(new GridLayout(1, 3));
+        final JPanel jPanel = new JPanel(new GridLayout(1, 5));
 
         jPanel.add(this.createButton(new EmptyClipboard(
                 "MC", KeyStroke.getKeyStroke(76, 128)),
@@ -516,6 +626,16 @@ public class RechenMaxUI extends JComponent {
                 RechenMaxUI.SMALL_BUTTON_FONT, false)
         );
 
+        jPanel.add(this.createButton(new PlotAction(
+                "f(x)", KeyStroke.getKeyStroke(71, 128)),
+                RechenMaxUI.SMALL_BUTTON_FONT, false)
+        );
+
+        jPanel.add(this.createButton(new StatisticsAction(
+                "x\u0304", KeyStroke.getKeyStroke(68, 128)),
+                RechenMaxUI.SMALL_BUTTON_FONT, false)
+        );
+
         return jPanel;
     }
 
@@ -0,0 +1,272 @@
+package ml.programs;
+
+/*
+ * Copyright (c) 2024 by Max Lemberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Computes sums and products of an expression over a range of integers.
+ * <p>
+ * The range is split in halves on the common fork/join pool until the parts are small enough to be computed by one
+ * thread, so idle threads steal the remaining halves. Sums are computed with doubles: the terms of a part are
+ * evaluated block by block by the {@link ColumnEvaluator} and added with Neumaier's compensated summation, and the
+ * parts are combined pairwise. The rounding error therefore does not grow with the number of terms.
+ * <p>
+ * Products are computed exactly with {@link BigDecimal}, as long as the factors are not too long. They are multiplied
+ * as a balanced tree, so the partial products of the same size are multiplied with each other instead of multiplying
+ * a growing product with one short factor after the other, which would take quadratic time in the number of digits.
+ *
+ * @author Max Lemberg
+ */
+public class SeriesEvaluator {
+    // Number of terms computed by one thread without splitting the range further
+    private static final int SUM_THRESHOLD = 1 << 16;
+    private static final int PRODUCT_THRESHOLD = 1 << 10;
+    // Products are exact up to this many digits, longer ones are rounded to the working precision
+    private static final int EXACT_DIGITS = 1000;
+    private static final MathContext WORKING_PRECISION = new MathContext(CalculatorEngine.MC.getPrecision() + 10);
+    // Indices beyond this cannot be represented exactly as a double
+    private static final long MAX_INDEX = 1L << 53;
+
+    /**
+     * Computes the sum of an expression over a range of integers.
+     *
+     * @param term The term, with the index as its only variable.
+     * @param from The first index, inclusive.
+     * @param to   The last index, inclusive. The sum is zero if it is below the first index.
+     * @return The sum.
+     * @throws IllegalArgumentException If an index cannot be represented exactly.
+     */
+    public static double sum(final DoubleExpression term, final long from, final long to) {
+        checkRange(from, to);
+        if (to < from) {
+            return 0;
+        }
+        final AtomicBoolean cancelled = new AtomicBoolean();
+        final double[] sum = invoke(new SumTask(term, from, to + 1, cancelled), cancelled);
+        return sum[0] + sum[1];
+    }
+
+    /**
+     * Computes the product of an expression over a range of integers.
+     *
+     * @param postfixTokens The term in postfix notation, as produced by {@link CalculatorEngine#infixToPostfix(List)}.
+     * @param variable      The name of the index in the term.
+     * @param from          The first index, inclusive.
+     * @param to            The last index, inclusive. The product is one if it is below the first index.
+     * @return The product, rounded to the precision of the engine.
+     * @throws IllegalArgumentException If an index cannot be represented exactly.
+     */
+    public static BigDecimal product(final List<String> postfixTokens, final String variable, final long from, final long to) {
+        checkRange(from, to);
+        if (to < from) {
+            return BigDecimal.ONE;
+        }
+        final AtomicBoolean cancelled = new AtomicBoolean();
+        return invoke(new ProductTask(postfixTokens, variable, from, to + 1, cancelled), cancelled).round(CalculatorEngine.MC);
+    }
+
+    /**
+     * Runs a task in the common pool and waits for its result. Waiting can be interrupted, then the flag stops all
+     * parts of the task before they split their range or at their next block and the calculation is cancelled.
+     *
+     * @param task      The task to be run.
+     * @param cancelled The flag checked by the parts of the task.
+     * @return The result of the task.
+     * @throws CancellationException If the waiting thread is interrupted.
+     */
+    private static <T> T invoke(final ForkJoinTask<T> task, final AtomicBoolean cancelled) {
+        try {
+            return ForkJoinPool.commonPool().submit(task).get();
+        } catch (InterruptedException e) {
+            cancelled.set(true);
+            Thread.currentThread().interrupt();
+            throw new CancellationException("Abgebrochen");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            if (e.getCause() instanceof Error error) {
+                throw error;
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    private static void checkCancelled(final AtomicBoolean cancelled) {
+        if (cancelled.get()) {
+            throw new CancellationException("Abgebrochen");
+        }
+    }
+
+    private static void checkRange(final long from, final long to) {
+        if (Math.abs(from) > MAX_INDEX || Math.abs(to) > MAX_INDEX) {
+            throw new IllegalArgumentException("Ungültiges Argument");
+        }
+    }
+
+    /**
+     * Adds a value to a compensated sum. The compensation collects the low order bits lost by the addition.
+     *
+     * @param sum   The sum and its compensation, updated in place.
+     * @param value The value to be added.
+     */
+    static void add(final double[] sum, final double value) {
+        final double t = sum[0] + value;
+        if (Math.abs(sum[0]) >= Math.abs(value)) {
+            sum[1] += (sum[0] - t) + value;
+        } else {
+            sum[1] += (value - t) + sum[0];
+        }
+        sum[0] = t;
+    }
+
+    /**
+     * Multiplies two partial products, exactly while the result is short enough.
+     */
+    static BigDecimal multiply(final BigDecimal a, final BigDecimal b) {
+        if (a.precision() + b.precision() <= EXACT_DIGITS) {
+            return a.multiply(b);
+        }
+        return a.multiply(b, WORKING_PRECISION);
+    }
+
+    /**
+     * The compensated sum of the indices from inclusive to exclusive.
+     */
+    private static final class SumTask extends RecursiveTask<double[]> {
+        private static final long serialVersionUID = 1L;
+
+        private final transient DoubleExpression term;
+        private final long from;
+        private final long to;
+        // Set when the thread waiting for the sum is interrupted
+        private final transient AtomicBoolean cancelled;
+
+        SumTask(final DoubleExpression term, final long from, final long to, final AtomicBoolean cancelled) {
+            this.term = term;
+            this.from = from;
+            this.to = to;
+            this.cancelled = cancelled;
+        }
+
+        @Override
+        protected double[] compute() {
+            // A part that has been forked before the cancellation must not split its range any further
+            checkCancelled(cancelled);
+            if (to - from <= SUM_THRESHOLD) {
+                return computeDirectly();
+            }
+            final long middle = from + (to - from) / 2;
+            final SumTask left = new SumTask(term, from, middle, cancelled);
+            left.fork();
+            final double[] sum = new SumTask(term, middle, to, cancelled).compute();
+            final double[] leftSum = left.join();
+            add(sum, leftSum[0]);
+            add(sum, leftSum[1]);
+            return sum;
+        }
+
+        private double[] computeDirectly() {
+            final double[] sum = new double[2];
+            final int size = (int) Math.min(ColumnEvaluator.BLOCK_SIZE, to - from);
+            final double[][] indices = {new double[size]};
+            final double[] terms = new double[size];
+
+            for (long start = from; start < to; start += size) {
+                checkCancelled(cancelled);
+                final int length = (int) Math.min(size, to - start);
+                for (int i = 0; i < length; i++) {
+                    indices[0][i] = start + i;
+                }
+                ColumnEvaluator.evaluate(term, indices, terms, 0, length);
+                for (int i = 0; i < length; i++) {
+                    add(sum, terms[i]);
+                }
+            }
+            return sum;
+        }
+    }
+
+    /**
+     * The product of the indices from inclusive to exclusive.
+     */
+    private static final class ProductTask extends RecursiveTask<BigDecimal> {
+        private static final long serialVersionUID = 1L;
+
+        private final transient List<String> postfixTokens;
+        private final String variable;
+        private final long from;
+        private final long to;
+        private final transient AtomicBoolean cancelled;
+
+        ProductTask(final List<String> postfixTokens, final String variable, final long from, final long to, final AtomicBoolean cancelled) {
+            this.postfixTokens = postfixTokens;
+            this.variable = variable;
+            this.from = from;
+            this.to = to;
+            this.cancelled = cancelled;
+        }
+
+        @Override
+        protected BigDecimal compute() {
+            // A part that has been forked before the cancellation must not split its range any further
+            checkCancelled(cancelled);
+            if (to - from <= PRODUCT_THRESHOLD) {
+                return computeDirectly();
+            }
+            final long middle = from + (to - from) / 2;
+            final ProductTask left = new ProductTask(postfixTokens, variable, from, middle, cancelled);
+            left.fork();
+            final BigDecimal right = new ProductTask(postfixTokens, variable, middle, to, cancelled).compute();
+            return multiply(left.join(), right);
+        }
+
+        private BigDecimal computeDirectly() {
+            checkCancelled(cancelled);
+            final BigDecimal[] factors = new BigDecimal[(int) (to - from)];
+            final List<String> tokens = new ArrayList<>(postfixTokens);
+            for (int i = 0; i < factors.length; i++) {
+                // Bind the index by replacing its tokens with the number
+                final String index = Long.toString(from + i);
+                for (int j = 0; j < tokens.size(); j++) {
+                    if (postfixTokens.get(j).equals(variable)) {
+                        tokens.set(j, index);
+                    }
+                }
+                factors[i] = CalculatorEngine.evaluatePostfix(tokens);
+            }
+
+            // Multiply neighbours until one product is left
+            for (int width = 1; width < factors.length; width *= 2) {
+                for (int i = 0; i + width < factors.length; i += 2 * width) {
+                    factors[i] = multiply(factors[i], factors[i + width]);
+                }
+            }
+            return factors[0];
+        }
+    }
+}
@@ -0,0 +1,339 @@
+package ml.programs;
+
+/*
+ * Copyright (c) 2024 by Max Lemberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.SocketAddress;
+import java.net.UnixDomainSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Calculates large batches of expressions on several worker JVMs.
+ * <p>
+ * Every worker is a separate Java process running a {@link BinaryProtocolServer} on its own Unix domain socket, so each
+ * worker has its own heap and garbage collector. A batch is split into shards of a fixed size. Each worker takes the next
+ * shard from a shared queue as soon as it has finished the previous one. If a worker crashes, it is restarted and the
+ * shard it was working on is calculated again. An error the worker answers for a single expression, e.g. a timeout, is
+ * the result of that expression; only a failed connection restarts the worker. The results are merged in the order of
+ * the batch.
+ * <p>
+ * The coordinator only talks to the workers through their socket address, so remote workers only need a server
+ * reachable at another address. Local workers are started with the module options of the coordinator's JVM, e.g.
+ * {@code --add-modules jdk.incubator.vector}, followed by the given JVM options.
+ *
+ * @author Max Lemberg
+ */
+public class ShardCoordinator implements Closeable {
+    public static final int DEFAULT_SHARD_SIZE = 10_000;
+    // How often a shard is tried before the batch fails
+    public static final int MAX_ATTEMPTS = 3;
+    // How long a worker may take to create its socket after it has been started
+    private static final long STARTUP_TIMEOUT_MILLIS = 30_000;
+    // Options of this JVM that the workers need as well, because they run the same code
+    private static final List<String> MODULE_OPTIONS = List.of("--add-modules", "--add-exports", "--add-opens",
+            "--add-reads", "--enable-preview", "--enable-native-access", "--limit-modules");
+
+    private final Worker[] workers;
+    private final int shardSize;
+    private final ExecutorService executor;
+
+    /**
+     * Starts the given number of local worker processes.
+     *
+     * @param workerCount The number of worker processes.
+     * @param shardSize   The number of expressions sent to a worker at once.
+     * @param jvmOptions  Additional options for the worker JVMs, e.g. {@code -Xmx512m}.
+     * @throws IOException If a worker cannot be started.
+     */
+    public ShardCoordinator(final int workerCount, final int shardSize, final List<String> jvmOptions) throws IOException {
+        if (workerCount <= 0 || shardSize <= 0) {
+            throw new IllegalArgumentException("Ungültiger Wert");
+        }
+        this.shardSize = shardSize;
+        this.workers = new Worker[workerCount];
+        this.executor = Executors.newFixedThreadPool(workerCount);
+
+        final List<String> options = new ArrayList<>(moduleOptions());
+        options.addAll(jvmOptions);
+        try {
+            for (int i = 0; i < workerCount; i++) {
+                workers[i] = new Worker(i, options);
+                workers[i].start();
+            }
+        } catch (IOException e) {
+            stopWorkers();
+            throw e;
+        }
+    }
+
+    /**
+     * Starts the given number of local worker processes with the default shard size.
+     *
+     * @param workerCount The number of worker processes.
+     * @throws IOException If a worker cannot be started.
+     */
+    public ShardCoordinator(final int workerCount) throws IOException {
+        this(workerCount, DEFAULT_SHARD_SIZE, List.of());
+    }
+
+    /**
+     * Calculates all expressions on the workers.
+     *
+     * @param expressions The expressions to be calculated.
+     * @return The results in the order of the expressions.
+     * @throws IOException If a shard fails on {@link #MAX_ATTEMPTS} attempts.
+     */
+    public List<String> calculateAll(final List<String> expressions) throws IOException {
+        final String[] results = new String[expressions.size()];
+        final Queue<Shard> shards = new ConcurrentLinkedQueue<>();
+        for (int from = 0; from < expressions.size(); from += shardSize) {
+            shards.add(new Shard(from, Math.min(from + shardSize, expressions.size())));
+        }
+
+        final List<Future<?>> futures = new ArrayList<>(workers.length);
+        for (final Worker worker : workers) {
+            futures.add(executor.submit(() -> {
+                Shard shard;
+                while ((shard = shards.poll()) != null) {
+                    process(worker, shard, expressions, results);
+                }
+                return null;
+            }));
+        }
+
+        try {
+            for (final Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            // Stop the other workers from taking further shards of the failed batch
+            shards.clear();
+            throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+        }
+        return Arrays.asList(results);
+    }
+
+    /**
+     * Sends one shard to a worker and stores the results. A worker whose connection fails is restarted and the shard is
+     * tried again, error answers for single expressions are stored like any other result.
+     */
+    private static void process(final Worker worker, final Shard shard, final List<String> expressions, final String[] results) throws IOException {
+        for (int attempt = 1; ; attempt++) {
+            BinaryProtocolClient client = null;
+            try {
+                client = worker.getClient();
+                final List<String> shardResults = client.calculateAll(expressions.subList(shard.from, shard.to));
+                for (int i = 0; i < shardResults.size(); i++) {
+                    results[shard.from + i] = shardResults.get(i);
+                }
+                return;
+            } catch (IOException e) {
+                if (attempt == MAX_ATTEMPTS) {
+                    throw e;
+                }
+                worker.restart(client);
+            }
+        }
+    }
+
+    /**
+     * Stops all worker processes.
+     */
+    @Override
+    public void close() {
+        executor.shutdownNow();
+        stopWorkers();
+    }
+
+    private void stopWorkers() {
+        for (final Worker worker : workers) {
+            if (worker != null) {
+                worker.close();
+            }
+        }
+    }
+
+    /**
+     * @return The module options this JVM has been started with, e.g. {@code --add-modules=jdk.incubator.vector}.
+     */
+    private static List<String> moduleOptions() {
+        final List<String> options = new ArrayList<>();
+        for (final String argument : ManagementFactory.getRuntimeMXBean().getInputArguments()) {
+            for (final String option : MODULE_OPTIONS) {
+                if (argument.equals(option) || argument.startsWith(option + "=")) {
+                    options.add(argument);
+                }
+            }
+        }
+        return options;
+    }
+
+    /**
+     * A range of the batch, {@code from} inclusive and {@code to} exclusive.
+     */
+    private record Shard(int from, int to) {
+    }
+
+    /**
+     * One worker process and the connection to it. The process and the connection are replaced together, so they are
+     * guarded by the worker's lock.
+     */
+    private static final class Worker {
+        private final Path socketPath;
+        private final List<String> jvmOptions;
+        private Process process;
+        private BinaryProtocolClient client;
+        private boolean closed;
+
+        Worker(final int number, final List<String> jvmOptions) {
+            this.socketPath = Path.of(System.getProperty("java.io.tmpdir"),
+                    "rechenmax-" + ProcessHandle.current().pid() + "-" + number + ".sock");
+            this.jvmOptions = jvmOptions;
+        }
+
+        SocketAddress getAddress() {
+            return UnixDomainSocketAddress.of(socketPath);
+        }
+
+        /**
+         * @return The connection to the worker.
+         * @throws IOException If the worker has been closed.
+         */
+        synchronized BinaryProtocolClient getClient() throws IOException {
+            if (client == null) {
+                throw new IOException("Worker beendet");
+            }
+            return client;
+        }
+
+        /**
+         * Starts the worker process with the class path of this JVM and connects to it once its socket exists.
+         */
+        synchronized void start() throws IOException {
+            if (closed) {
+                throw new IOException("Worker beendet");
+            }
+            Files.deleteIfExists(socketPath);
+
+            final List<String> command = new ArrayList<>();
+            command.add(ProcessHandle.current().info().command().orElse("java"));
+            command.addAll(jvmOptions);
+            command.add("-cp");
+            command.add(System.getProperty("java.class.path"));
+            command.add(BinaryProtocolServer.class.getName());
+            command.add("--socket=" + socketPath);
+            command.add("--threads=1");
+            command.add("--exit-with-parent");
+
+            process = new ProcessBuilder(command)
+                    .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                    .redirectError(ProcessBuilder.Redirect.INHERIT)
+                    .start();
+
+            final long deadline = System.currentTimeMillis() + STARTUP_TIMEOUT_MILLIS;
+            while (true) {
+                if (!process.isAlive()) {
+                    throw new IOException("Worker konnte nicht gestartet werden");
+                }
+                if (Files.exists(socketPath)) {
+                    try {
+                        client = BinaryProtocolClient.connect(getAddress());
+                        return;
+                    } catch (IOException e) {
+                        // The socket file exists before the server accepts connections, try again
+                    }
+                }
+                if (System.currentTimeMillis() > deadline) {
+                    process.destroyForcibly();
+                    throw new IOException("Worker konnte nicht gestartet werden");
+                }
+                try {
+                    Thread.sleep(10);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException(e);
+                }
+            }
+        }
+
+        /**
+         * Restarts the worker after its connection has failed.
+         *
+         * @param failed The connection that failed, null if there was none. If the worker has already been restarted
+         *               by another thread since, the new connection is kept.
+         */
+        synchronized void restart(final BinaryProtocolClient failed) throws IOException {
+            if (client != failed && client != null) {
+                return;
+            }
+            stop();
+            start();
+        }
+
+        /**
+         * Stops the worker for good, it cannot be restarted afterwards.
+         */
+        synchronized void close() {
+            closed = true;
+            stop();
+        }
+
+        private void stop() {
+            if (client != null) {
+                try {
+                    client.close();
+                } catch (IOException e) {
+                    // The connection is closed either way
+                }
+                client = null;
+            }
+            if (process != null) {
+                process.destroy();
+                try {
+                    if (!process.waitFor(5, TimeUnit.SECONDS)) {
+                        process.destroyForcibly();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    process.destroyForcibly();
+                }
+                process = null;
+            }
+            try {
+                Files.deleteIfExists(socketPath);
+            } catch (IOException e) {
+                // A stale socket file is replaced on the next start
+            }
+        }
+    }
+}
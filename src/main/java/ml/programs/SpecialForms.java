@@ -0,0 +1,410 @@
+package ml.programs;
+
+/*
+ * Copyright (c) 2024 by Max Lemberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.math.RoundingMode;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Evaluates the special forms of an expression before it is calculated by the {@link CalculatorEngine}.
+ * <p>
+ * Special forms look like functions, but bind a variable in one of their arguments, which is why they cannot be
+ * evaluated by the shunting-yard algorithm. Every special form is replaced by its result in parentheses, so the rest
+ * of the expression is calculated as before. Because the comma is the decimal separator, the arguments are separated by
+ * semicolons:
+ * <ul>
+ *     <li>{@code solve(x^2 = 2; x)} solves an equation for a variable, starting at 1. A third argument sets the start
+ *     value, an equation without "=" is solved for zero.</li>
+ *     <li>{@code d/dx(x^3; 2)} is the derivative by x at the given point.</li>
+ *     <li>{@code Σ(i=1..100; 1/i^2)} is the sum over an integer range, {@code Π(i=1..20; i)} the product, see
+ *     {@link SeriesEvaluator}.</li>
+ *     <li>{@code ∫(0; 1; x^2)} is the integral of a function of x from the lower to the upper bound, a fourth argument
+ *     names another variable, see {@link Integrator}.</li>
+ *     <li>{@code mean({1;2;3})} and {@code mean("messwerte.txt")} are statistics of a pasted column or of a file, see
+ *     {@link NumericData}. The functions are count, sum, mean, var, stdev, min, max, median, quantile(data; q), and
+ *     slope, intercept and corr for the regression of the second column on the first. Files are only read from
+ *     the data directory, see {@link #setDataDirectory(Path)}.</li>
+ * </ul>
+ *
+ * @author Max Lemberg
+ */
+public class SpecialForms {
+    // Results are rounded to the digits a double can represent reliably
+    private static final MathContext RESULT_PRECISION = new MathContext(15);
+    private static final Pattern FORM = Pattern.compile("(?<![a-z])solve\\(|d/d([a-z])\\(|Σ\\(|Π\\(|∫\\("
+            + "|(?<![a-z])(?<data>count|sum|mean|var|stdev|min|max|median|quantile|slope|intercept|corr)\\((?=\\s*[{\"])");
+    // Statistics of recently read files, by path, size and modification time
+    private static final ConcurrentLruCache<String, StreamingStatistics> FILE_STATISTICS = new ConcurrentLruCache<>("data", 16);
+    // The only directory files are read from, null if file access is disabled
+    private static volatile Path dataDirectory = initialDataDirectory();
+
+    private static Path initialDataDirectory() {
+        final String directory = System.getProperty("rechenmax.dataDirectory");
+        return directory == null || directory.isBlank() ? null : Path.of(directory).toAbsolutePath().normalize();
+    }
+
+    /**
+     * Sets the directory the statistics may read files from. Relative paths are resolved against it, paths leading out
+     * of it are rejected. File access is disabled by default, unless the system property
+     * {@code rechenmax.dataDirectory} names a directory.
+     *
+     * @param directory The data directory, null disables file access.
+     */
+    public static void setDataDirectory(final Path directory) {
+        dataDirectory = directory == null ? null : directory.toAbsolutePath().normalize();
+    }
+
+    /**
+     * @return The data directory, null if file access is disabled.
+     */
+    public static Path getDataDirectory() {
+        return dataDirectory;
+    }
+
+    /**
+     * Replaces all special forms of an expression by their results. Expressions without special forms are returned
+     * unchanged.
+     *
+     * @param calc The expression as entered by the user.
+     * @return The expression without special forms.
+     * @throws IllegalArgumentException If a special form is invalid.
+     * @throws ArithmeticException      If a special form has no result.
+     */
+    public static String expand(final String calc) {
+        String expression = calc;
+        Matcher matcher = FORM.matcher(expression);
+        while (matcher.find()) {
+            final int open = matcher.end() - 1;
+            final int close = findClosingParenthesis(expression, open);
+            // Special forms inside the arguments are expanded first
+            final String inner = expand(expression.substring(open + 1, close));
+            final List<String> arguments = splitArguments(inner);
+
+            final String result;
+            if (matcher.group("data") != null) {
+                result = format(statistic(matcher.group("data"), arguments));
+            } else {
+                switch (matcher.group()) {
+                    case "solve(":
+                        result = format(solve(arguments));
+                        break;
+                    case "Σ(":
+                        result = format(sum(arguments));
+                        break;
+                    case "Π(":
+                        result = format(product(arguments));
+                        break;
+                    case "∫(":
+                        result = format(integrate(arguments));
+                        break;
+                    default:
+                        result = format(differentiate(matcher.group(1), arguments));
+                        break;
+                }
+            }
+
+            expression = expression.substring(0, matcher.start()) + "(" + result + ")"
+                    + (close < expression.length() ? expression.substring(close + 1) : "");
+            matcher = FORM.matcher(expression);
+        }
+        return expression;
+    }
+
+    /**
+     * Evaluates {@code solve(equation; variable; start)}.
+     */
+    private static double solve(final List<String> arguments) {
+        if (arguments.size() < 2 || arguments.size() > 3 || !CalculatorEngine.isVariable(arguments.get(1).trim())) {
+            throw new IllegalArgumentException("Syntax Fehler");
+        }
+        final String equation = arguments.get(0);
+        final int equals = equation.indexOf('=');
+        final String function;
+        if (equals < 0) {
+            function = equation;
+        } else if (equation.indexOf('=', equals + 1) < 0) {
+            function = "(" + equation.substring(0, equals) + ")-(" + equation.substring(equals + 1) + ")";
+        } else {
+            throw new IllegalArgumentException("Syntax Fehler");
+        }
+
+        final double start = arguments.size() == 3 ? evaluateConstant(arguments.get(2)) : 1;
+        return EquationSolver.solve(DoubleExpression.compile(function, arguments.get(1).trim()), start);
+    }
+
+    /**
+     * Evaluates {@code d/dx(expression; point)}.
+     */
+    private static double differentiate(final String variable, final List<String> arguments) {
+        if (arguments.size() != 2) {
+            throw new IllegalArgumentException("Syntax Fehler");
+        }
+        return EquationSolver.derivative(DoubleExpression.compile(arguments.get(0), variable), evaluateConstant(arguments.get(1)));
+    }
+
+    /**
+     * Evaluates {@code Σ(i=from..to; term)}.
+     */
+    private static double sum(final List<String> arguments) {
+        if (arguments.size() != 2) {
+            throw new IllegalArgumentException("Syntax Fehler");
+        }
+        final Range range = Range.parse(arguments.get(0));
+        return SeriesEvaluator.sum(DoubleExpression.compile(arguments.get(1), range.variable), range.from, range.to);
+    }
+
+    /**
+     * Evaluates {@code Π(i=from..to; term)}.
+     */
+    private static BigDecimal product(final List<String> arguments) {
+        if (arguments.size() != 2) {
+            throw new IllegalArgumentException("Syntax Fehler");
+        }
+        final Range range = Range.parse(arguments.get(0));
+        return SeriesEvaluator.product(DoubleExpression.toPostfix(arguments.get(1)), range.variable, range.from, range.to);
+    }
+
+    /**
+     * Evaluates {@code ∫(from; to; function; variable)}.
+     */
+    private static Integrator.Result integrate(final List<String> arguments) {
+        if (arguments.size() < 3 || arguments.size() > 4) {
+            throw new IllegalArgumentException("Syntax Fehler");
+        }
+        final String variable = arguments.size() == 4 ? arguments.get(3).trim() : "x";
+        if (!CalculatorEngine.isVariable(variable)) {
+            throw new IllegalArgumentException("Syntax Fehler");
+        }
+        return Integrator.integrate(DoubleExpression.compile(arguments.get(2), variable),
+                evaluateConstant(arguments.get(0)), evaluateConstant(arguments.get(1)));
+    }
+
+    /**
+     * Evaluates a statistic of a pasted column like {@code {1;2;3}} or a file like {@code "messwerte.txt"}.
+     */
+    private static double statistic(final String function, final List<String> arguments) {
+        if (arguments.size() != (function.equals("quantile") ? 2 : 1)) {
+            throw new IllegalArgumentException("Syntax Fehler");
+        }
+        final StreamingStatistics statistics = readData(arguments.get(0).trim());
+        switch (function) {
+            case "count":
+                return statistics.getCount();
+            case "sum":
+                return statistics.getSum();
+            case "mean":
+                return statistics.getMean();
+            case "var":
+                return statistics.getVariance();
+            case "stdev":
+                return statistics.getStandardDeviation();
+            case "min":
+                return statistics.getMin();
+            case "max":
+                return statistics.getMax();
+            case "median":
+                return statistics.getQuantile(0.5);
+            case "quantile":
+                return statistics.getQuantile(evaluateConstant(arguments.get(1)));
+            case "slope":
+                return statistics.getSlope();
+            case "intercept":
+                return statistics.getIntercept();
+            default:
+                return statistics.getCorrelation();
+        }
+    }
+
+    private static StreamingStatistics readData(final String data) {
+        if (data.startsWith("{") && data.endsWith("}")) {
+            // Rows are separated by semicolons, the fields of a row by spaces
+            return NumericData.parse(data.substring(1, data.length() - 1).replace(';', '\n'));
+        }
+        if (data.length() < 2 || !data.startsWith("\"") || !data.endsWith("\"")) {
+            throw new IllegalArgumentException("Syntax Fehler");
+        }
+
+        final Path directory = dataDirectory;
+        if (directory == null) {
+            throw new IllegalArgumentException("Dateizugriff nicht erlaubt");
+        }
+        try {
+            final Path path = directory.resolve(data.substring(1, data.length() - 1)).normalize();
+            // Symbolic links must not lead out of the directory either
+            if (!path.startsWith(directory) || !path.toRealPath().startsWith(directory.toRealPath())) {
+                throw new IllegalArgumentException("Dateizugriff nicht erlaubt");
+            }
+            final String key = path.toAbsolutePath() + "|" + Files.size(path) + "|" + Files.getLastModifiedTime(path).toMillis();
+            StreamingStatistics statistics = FILE_STATISTICS.get(key);
+            if (statistics == null) {
+                statistics = NumericData.readFile(path);
+                FILE_STATISTICS.put(key, statistics);
+            }
+            return statistics;
+        } catch (IOException | UncheckedIOException | InvalidPathException e) {
+            throw new IllegalArgumentException("Datei nicht lesbar");
+        }
+    }
+
+    /**
+     * Evaluates an argument without variables.
+     *
+     * @param argument The argument.
+     * @return Its value.
+     */
+    static double evaluateConstant(final String argument) {
+        final double value = DoubleExpression.compile(argument).evaluate();
+        if (!Double.isFinite(value)) {
+            throw new IllegalArgumentException("Ungültiger Wert");
+        }
+        return value;
+    }
+
+    /**
+     * Finds the parenthesis closing the one at the given index. A missing closing parenthesis is assumed at the end,
+     * just like the engine balances missing parentheses.
+     *
+     * @return The index of the closing parenthesis or the length of the expression.
+     */
+    static int findClosingParenthesis(final String expression, final int open) {
+        int depth = 0;
+        boolean quoted = false;
+        for (int i = open; i < expression.length(); i++) {
+            final char c = expression.charAt(i);
+            if (c == '"') {
+                quoted = !quoted;
+            } else if (quoted) {
+                continue;
+            } else if (c == '(') {
+                depth++;
+            } else if (c == ')' && --depth == 0) {
+                return i;
+            }
+        }
+        return expression.length();
+    }
+
+    /**
+     * Splits the arguments of a special form at the semicolons that are not inside parentheses, braces or quotes.
+     */
+    static List<String> splitArguments(final String arguments) {
+        final List<String> result = new ArrayList<>();
+        int depth = 0;
+        int start = 0;
+        boolean quoted = false;
+        for (int i = 0; i < arguments.length(); i++) {
+            final char c = arguments.charAt(i);
+            if (c == '"') {
+                quoted = !quoted;
+            } else if (quoted) {
+                continue;
+            } else if (c == '(' || c == '{') {
+                depth++;
+            } else if (c == ')' || c == '}') {
+                depth--;
+            } else if (c == ';' && depth == 0) {
+                result.add(arguments.substring(start, i));
+                start = i + 1;
+            }
+        }
+        result.add(arguments.substring(start));
+        return result;
+    }
+
+    /**
+     * Formats a result with a decimal comma, so it can be inserted into the expression.
+     *
+     * @param value The result.
+     * @return The formatted result.
+     * @throws ArithmeticException If the result is too large.
+     */
+    static String format(final BigDecimal value) {
+        if (Double.isInfinite(value.doubleValue())) {
+            throw new ArithmeticException("Wert zu groß");
+        }
+        return value.stripTrailingZeros().toPlainString().replace('.', ',');
+    }
+
+    /**
+     * Formats a result with a decimal comma, so it can be inserted into the expression.
+     *
+     * @param value The result.
+     * @return The formatted result.
+     * @throws ArithmeticException If the result is not a finite number.
+     */
+    static String format(final double value) {
+        if (Double.isNaN(value)) {
+            throw new ArithmeticException("Nicht definiert");
+        }
+        if (Double.isInfinite(value)) {
+            throw new ArithmeticException("Wert zu groß");
+        }
+        return new BigDecimal(value).round(RESULT_PRECISION).stripTrailingZeros().toPlainString().replace('.', ',');
+    }
+
+    /**
+     * Formats a result with a decimal comma, keeping only the digits above its estimated error.
+     *
+     * @param result The result and its error.
+     * @return The formatted result.
+     * @throws ArithmeticException If the result is not a finite number.
+     */
+    static String format(final Integrator.Result result) {
+        if (result.error() == 0 || !Double.isFinite(result.value())) {
+            return format(result.value());
+        }
+        final int scale = -(int) Math.floor(Math.log10(result.error()));
+        final BigDecimal value = new BigDecimal(result.value()).round(RESULT_PRECISION);
+        return format(value.setScale(Math.min(scale, value.scale()), RoundingMode.HALF_EVEN));
+    }
+
+    /**
+     * The integer range of a sum or a product, e.g. "i=1..100".
+     */
+    private record Range(String variable, long from, long to) {
+        static Range parse(final String range) {
+            final int equals = range.indexOf('=');
+            final int dots = range.indexOf("..");
+            if (equals < 0 || dots < equals) {
+                throw new IllegalArgumentException("Syntax Fehler");
+            }
+            final String variable = range.substring(0, equals).trim();
+            if (!CalculatorEngine.isVariable(variable)) {
+                throw new IllegalArgumentException("Syntax Fehler");
+            }
+            return new Range(variable, toIndex(range.substring(equals + 1, dots)), toIndex(range.substring(dots + 2)));
+        }
+
+        private static long toIndex(final String bound) {
+            final double value = evaluateConstant(bound);
+            if (value != Math.rint(value)) {
+                throw new IllegalArgumentException("Ungültiges Argument");
+            }
+            return (long) value;
+        }
+    }
+}
@@ -0,0 +1,202 @@
+package ml.programs;
+
+/*
+ * Copyright (c) 2024 by Max Lemberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * Statistics of a stream of values, computed in a single pass and in constant memory.
+ * <p>
+ * Mean and variance are updated with Welford's method, which does not lose precision when the values are large
+ * compared to their spread, unlike the textbook formula with the sum of squares. The sum is compensated. Quantiles are
+ * estimated by a {@link QuantileSketch}. Pairs of values additionally give the linear regression of y on x and the
+ * correlation, from the co-moment of both.
+ * <p>
+ * Instances are not thread-safe. Every thread collects its own statistics, which are then combined with
+ * {@link #merge(StreamingStatistics)} by the formulas of Chan et al., giving the same result as a single pass.
+ *
+ * @author Max Lemberg
+ */
+public final class StreamingStatistics {
+    private long count;
+    private double mean;
+    private double m2;
+    private final double[] sum = new double[2];
+    private double min = Double.POSITIVE_INFINITY;
+    private double max = Double.NEGATIVE_INFINITY;
+    private final QuantileSketch sketch = new QuantileSketch();
+
+    // Pairs for the regression
+    private long pairCount;
+    private double meanX;
+    private double meanY;
+    private double m2X;
+    private double m2Y;
+    private double coMoment;
+
+    /**
+     * Adds a value.
+     *
+     * @param value The value.
+     */
+    public void add(final double value) {
+        count++;
+        final double delta = value - mean;
+        mean += delta / count;
+        m2 += delta * (value - mean);
+        SeriesEvaluator.add(sum, value);
+        min = Math.min(min, value);
+        max = Math.max(max, value);
+        sketch.add(value);
+    }
+
+    /**
+     * Adds a pair of values for the regression. Only x is added to the other statistics.
+     *
+     * @param x The independent value.
+     * @param y The dependent value.
+     */
+    public void add(final double x, final double y) {
+        add(x);
+        pairCount++;
+        final double dx = x - meanX;
+        meanX += dx / pairCount;
+        final double dy = y - meanY;
+        meanY += dy / pairCount;
+        m2X += dx * (x - meanX);
+        m2Y += dy * (y - meanY);
+        coMoment += dx * (y - meanY);
+    }
+
+    /**
+     * Adds the values of other statistics.
+     *
+     * @param other The other statistics, which are not changed.
+     * @return These statistics.
+     */
+    public StreamingStatistics merge(final StreamingStatistics other) {
+        if (other.count > 0) {
+            final long n = count + other.count;
+            final double delta = other.mean - mean;
+            mean += delta * other.count / n;
+            m2 += other.m2 + delta * delta * ((double) count * other.count / n);
+            count = n;
+            SeriesEvaluator.add(sum, other.sum[0]);
+            SeriesEvaluator.add(sum, other.sum[1]);
+            min = Math.min(min, other.min);
+            max = Math.max(max, other.max);
+            sketch.merge(other.sketch);
+        }
+        if (other.pairCount > 0) {
+            final long n = pairCount + other.pairCount;
+            final double dx = other.meanX - meanX;
+            final double dy = other.meanY - meanY;
+            final double weight = (double) pairCount * other.pairCount / n;
+            meanX += dx * other.pairCount / n;
+            meanY += dy * other.pairCount / n;
+            m2X += other.m2X + dx * dx * weight;
+            m2Y += other.m2Y + dy * dy * weight;
+            coMoment += other.coMoment + dx * dy * weight;
+            pairCount = n;
+        }
+        return this;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public double getSum() {
+        return sum[0] + sum[1];
+    }
+
+    /**
+     * @return The mean, or NaN without values.
+     */
+    public double getMean() {
+        return count > 0 ? mean : Double.NaN;
+    }
+
+    /**
+     * @return The sample variance, or NaN with less than two values.
+     */
+    public double getVariance() {
+        return count > 1 ? m2 / (count - 1) : Double.NaN;
+    }
+
+    /**
+     * @return The sample standard deviation, or NaN with less than two values.
+     */
+    public double getStandardDeviation() {
+        return Math.sqrt(getVariance());
+    }
+
+    /**
+     * @return The smallest value, or NaN without values.
+     */
+    public double getMin() {
+        return count > 0 ? min : Double.NaN;
+    }
+
+    /**
+     * @return The largest value, or NaN without values.
+     */
+    public double getMax() {
+        return count > 0 ? max : Double.NaN;
+    }
+
+    /**
+     * Estimates a quantile with a relative error of at most one percent. The smallest and the largest value are exact.
+     *
+     * @param q The quantile between 0 and 1, e.g. 0.5 for the median.
+     * @return The estimated quantile, or NaN without values.
+     * @throws IllegalArgumentException If q is not between 0 and 1.
+     */
+    public double getQuantile(final double q) {
+        final double estimate = sketch.getQuantile(q);
+        if (count == 0) {
+            return Double.NaN;
+        }
+        return q == 0 ? min : q == 1 ? max : Math.max(min, Math.min(max, estimate));
+    }
+
+    /**
+     * @return The number of pairs.
+     */
+    public long getPairCount() {
+        return pairCount;
+    }
+
+    /**
+     * @return The slope of the regression line, or NaN with less than two different x values.
+     */
+    public double getSlope() {
+        return pairCount > 1 && m2X > 0 ? coMoment / m2X : Double.NaN;
+    }
+
+    /**
+     * @return The intercept of the regression line, or NaN with less than two different x values.
+     */
+    public double getIntercept() {
+        return meanY - getSlope() * meanX;
+    }
+
+    /**
+     * @return The correlation coefficient of x and y, or NaN if one of them is constant.
+     */
+    public double getCorrelation() {
+        return pairCount > 1 && m2X > 0 && m2Y > 0 ? coMoment / Math.sqrt(m2X * m2Y) : Double.NaN;
+    }
+}
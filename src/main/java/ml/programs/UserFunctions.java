@@ -0,0 +1,439 @@
+package ml.programs;
+
+/*
+ * Copyright (c) 2024 by Max Lemberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.math.BigDecimal;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Functions defined by the user, e.g. {@code f(n) = n<2 ? n : f(n-1)+f(n-2)}, which can be called from any expression
+ * afterwards, e.g. {@code f(30)+1}.
+ * <p>
+ * The name of a function consists of lowercase letters, its parameters are single letters separated by semicolons,
+ * e.g. {@code g(x;y) = x^2+y}. A definition is parsed once into postfix tokens and kept in a registry for the rest of
+ * the session, a new definition with the same name replaces the old one.
+ * <p>
+ * Calls are evaluated with an explicit stack of frames instead of Java recursion, so deep recursion like
+ * {@code f(100000)} does not overflow the thread's stack. Every function of the engine is deterministic, so the result
+ * of a call only depends on its arguments and the angle mode. The results are memoized in a bounded cache per
+ * function, which turns the exponential recursion of the Fibonacci example into a linear one. Every new definition
+ * clears the memos and the result cache of the engine, because a function may call the redefined one.
+ * <p>
+ * The special forms and plots evaluate with doubles and cannot call functions, so {@link #inline(List)} replaces every
+ * call by the body of the function for them. Recursive functions cannot be inlined and are rejected there.
+ *
+ * @author Max Lemberg
+ */
+public class UserFunctions {
+    private static final Pattern DEFINITION = Pattern.compile("\\s*([a-z]+)\\(\\s*([a-z](?:\\s*;\\s*[a-z])*)\\s*\\)\\s*=(?!=)(.+)");
+    // Results of calls kept per function
+    private static final int MEMO_SIZE = 10_000;
+    // Calls nested deeper than this are rejected, every frame needs memory on the heap
+    private static final int MAX_CALL_DEPTH = 1_000_000;
+    // Built-in functions, special forms and constants cannot be redefined
+    private static final Set<String> RESERVED_NAMES = reservedNames();
+
+    private static final Map<String, Definition> FUNCTIONS = new ConcurrentHashMap<>();
+
+    /**
+     * Checks if an expression defines a function, e.g. "f(x) = x^2".
+     *
+     * @param calc The expression as entered by the user.
+     * @return True if the expression is a definition.
+     */
+    public static boolean isDefinition(final String calc) {
+        return DEFINITION.matcher(calc).matches();
+    }
+
+    /**
+     * Parses a definition and adds the function to the registry.
+     *
+     * @param calc The definition, see {@link #isDefinition(String)}.
+     * @return The confirmation shown as result, e.g. "f(n) definiert".
+     * @throws IllegalArgumentException If the name is reserved, a parameter is repeated or the body is invalid.
+     */
+    public static String define(final String calc) {
+        final Matcher matcher = DEFINITION.matcher(calc);
+        if (!matcher.matches()) {
+            throw new IllegalArgumentException("Syntax Fehler");
+        }
+        final String name = matcher.group(1);
+        final List<String> parameters = Arrays.asList(matcher.group(2).replace(" ", "").split(";"));
+        if (RESERVED_NAMES.contains(name) || new HashSet<>(parameters).size() != parameters.size()
+                || !parameters.stream().allMatch(CalculatorEngine::isVariable)) {
+            throw new IllegalArgumentException("Ungültiger Name");
+        }
+
+        synchronized (FUNCTIONS) {
+            // The function may call itself and every function defined so far
+            final Set<String> names = new HashSet<>(FUNCTIONS.keySet());
+            names.add(name);
+            final String normalized = CalculatorEngine.normalize(matcher.group(3));
+            final List<String> tokens = resolveCalls(CalculatorEngine.tokenize(normalized), names);
+            // Letters that are neither a parameter nor the name of a function, e.g. a call of an undefined function
+            for (final String token : tokens) {
+                if (CalculatorEngine.isVariable(token) && !parameters.contains(token)) {
+                    throw new IllegalArgumentException("Nicht definiert");
+                }
+            }
+            final List<String> body = List.copyOf(CalculatorEngine.infixToPostfix(tokens));
+
+            for (final String token : body) {
+                if (isCall(token) && !names.contains(name(token))) {
+                    throw new IllegalArgumentException("Nicht definiert");
+                }
+            }
+
+            FUNCTIONS.put(name, new Definition(List.copyOf(parameters), List.copyOf(tokens), body));
+            for (final Definition definition : FUNCTIONS.values()) {
+                definition.memo.clear();
+            }
+        }
+        clearCaches();
+        return name + "(" + String.join(";", parameters) + ") definiert";
+    }
+
+    /**
+     * Removes all user-defined functions.
+     */
+    public static void clear() {
+        synchronized (FUNCTIONS) {
+            FUNCTIONS.clear();
+        }
+        clearCaches();
+    }
+
+    /**
+     * Clears the results and the compiled expressions of the engine, expressions calling a function are resolved
+     * differently once it is defined or removed.
+     */
+    private static void clearCaches() {
+        final ConcurrentLruCache<CalculatorEngine.ResultKey, String> resultCache = CalculatorEngine.getResultCache();
+        if (resultCache != null) {
+            resultCache.clear();
+        }
+        CalculatorEngine.getProgramCache().clear();
+    }
+
+    /**
+     * @return The names of the defined functions.
+     */
+    public static Set<String> getNames() {
+        return Set.copyOf(FUNCTIONS.keySet());
+    }
+
+    /**
+     * Checks if a token calls a user-defined function. The token consists of the name and the opening parenthesis,
+     * e.g. "f(". Only the form is checked, the function may not be defined (yet).
+     *
+     * @param token The token to be checked.
+     * @return True if the token calls a user-defined function.
+     */
+    public static boolean isCall(final String token) {
+        final int length = token.length();
+        if (length < 2 || token.charAt(length - 1) != '(') {
+            return false;
+        }
+        for (int i = 0; i < length - 1; i++) {
+            final char c = token.charAt(i);
+            if (c < 'a' || c > 'z') {
+                return false;
+            }
+        }
+        return !RESERVED_NAMES.contains(name(token));
+    }
+
+    /**
+     * @param token The token calling a user-defined function.
+     * @return The number of parameters of the function, 1 if it is not defined.
+     */
+    public static int arity(final String token) {
+        final Definition definition = FUNCTIONS.get(name(token));
+        return definition == null ? 1 : definition.parameters.size();
+    }
+
+    /**
+     * Joins the letters in front of an opening parenthesis into one token if they are the name of a user-defined
+     * function, e.g. "f", "i", "b", "(" becomes "fib(".
+     *
+     * @param tokens The tokens as split by {@link CalculatorEngine#tokenize(String)}.
+     * @return The tokens with the calls joined.
+     */
+    public static List<String> resolveCalls(final List<String> tokens) {
+        if (FUNCTIONS.isEmpty()) {
+            return tokens;
+        }
+        return resolveCalls(tokens, FUNCTIONS.keySet());
+    }
+
+    private static List<String> resolveCalls(final List<String> tokens, final Set<String> names) {
+        final List<String> result = new ArrayList<>(tokens.size());
+        for (final String token : tokens) {
+            if (token.equals("(")) {
+                int start = result.size();
+                while (start > 0 && isLetter(result.get(start - 1))) {
+                    start--;
+                }
+                final String name = String.join("", result.subList(start, result.size()));
+                if (names.contains(name)) {
+                    result.subList(start, result.size()).clear();
+                    result.add(name + "(");
+                    continue;
+                }
+            }
+            result.add(token);
+        }
+        return result;
+    }
+
+    /**
+     * Replaces every call of a user-defined function by the body of the function, with each parameter replaced by the
+     * argument in parentheses, e.g. "k(", "2", ")" becomes "(", "(", "2", ")", "+", "1", ")" for {@code k(x) = x+1}.
+     *
+     * @param tokens The tokens with the calls joined, see {@link #resolveCalls(List)}.
+     * @return The tokens without calls.
+     * @throws IllegalArgumentException If a function is not defined, is called with the wrong number of arguments or
+     *                                  calls itself.
+     */
+    public static List<String> inline(final List<String> tokens) {
+        if (FUNCTIONS.isEmpty()) {
+            return tokens;
+        }
+        return inline(tokens, new HashSet<>());
+    }
+
+    /**
+     * @param calling The functions whose body is being inlined, a call of one of them is a recursion.
+     */
+    private static List<String> inline(final List<String> tokens, final Set<String> calling) {
+        final List<String> result = new ArrayList<>(tokens.size());
+        int index = 0;
+        while (index < tokens.size()) {
+            final String token = tokens.get(index++);
+            if (!isCall(token)) {
+                result.add(token);
+                continue;
+            }
+            final String name = name(token);
+            final Definition definition = FUNCTIONS.get(name);
+            if (definition == null) {
+                throw new IllegalArgumentException("Nicht definiert");
+            }
+            if (calling.contains(name)) {
+                throw new IllegalArgumentException("Rekursion nicht unterstützt");
+            }
+
+            // Split the arguments at the semicolons outside of nested parentheses, up to the closing parenthesis
+            final List<List<String>> arguments = new ArrayList<>();
+            List<String> argument = new ArrayList<>();
+            int depth = 1;
+            while (true) {
+                if (index == tokens.size()) {
+                    throw new IllegalArgumentException("Syntax Fehler");
+                }
+                final String next = tokens.get(index++);
+                if (next.endsWith("(")) {
+                    depth++;
+                } else if (next.equals(")") && --depth == 0) {
+                    break;
+                }
+                if (depth == 1 && next.equals(";")) {
+                    arguments.add(inline(argument, calling));
+                    argument = new ArrayList<>();
+                } else {
+                    argument.add(next);
+                }
+            }
+            arguments.add(inline(argument, calling));
+            if (arguments.size() != definition.parameters.size()) {
+                throw new IllegalArgumentException("Syntax Fehler");
+            }
+
+            final List<String> body = new ArrayList<>();
+            body.add("(");
+            for (final String bodyToken : definition.infix) {
+                final int parameter = CalculatorEngine.isVariable(bodyToken) ? definition.parameters.indexOf(bodyToken) : -1;
+                if (parameter < 0) {
+                    body.add(bodyToken);
+                } else {
+                    body.add("(");
+                    body.addAll(arguments.get(parameter));
+                    body.add(")");
+                }
+            }
+            body.add(")");
+
+            calling.add(name);
+            result.addAll(inline(body, calling));
+            calling.remove(name);
+        }
+        return result;
+    }
+
+    /**
+     * Checks if a postfix expression calls a user-defined function.
+     *
+     * @param postfixTokens The list of tokens in postfix notation.
+     * @return True if one of the tokens calls a user-defined function.
+     */
+    public static boolean containsCall(final List<String> postfixTokens) {
+        if (FUNCTIONS.isEmpty()) {
+            return false;
+        }
+        for (final String token : postfixTokens) {
+            if (isCall(token)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Evaluates a postfix expression that calls user-defined functions. Every call that is not memoized pushes a frame
+     * with the body of the function and the arguments, the result of the frame replaces the call in the frame below.
+     *
+     * @param postfixTokens The list of tokens in postfix notation.
+     * @return The result of the expression.
+     * @throws IllegalArgumentException If a function is not defined, a call has too few arguments or the calls are
+     *                                  nested too deeply.
+     */
+    public static BigDecimal evaluate(final List<String> postfixTokens) {
+        final Deque<Frame> frames = new ArrayDeque<>();
+        Frame frame = new Frame(null, postfixTokens, null, null);
+        while (true) {
+            if (frame.position == frame.tokens.size()) {
+                if (frame.stack.size() != 1) {
+                    throw new IllegalArgumentException("Syntax Fehler");
+                }
+                final BigDecimal result = frame.stack.get(0);
+                if (frame.definition != null) {
+                    frame.definition.memo.put(frame.key, result);
+                }
+                if (frames.isEmpty()) {
+                    return result;
+                }
+                frame = frames.pop();
+                frame.stack.add(result);
+                continue;
+            }
+
+            final String token = frame.tokens.get(frame.position);
+            if (frame.definition != null && CalculatorEngine.isVariable(token)) {
+                frame.stack.add(frame.arguments[frame.definition.parameters.indexOf(token)]);
+                frame.position++;
+            } else if (isCall(token)) {
+                frame.position++;
+                final Definition definition = FUNCTIONS.get(name(token));
+                if (definition == null) {
+                    throw new IllegalArgumentException("Nicht definiert");
+                }
+                final int arity = definition.parameters.size();
+                if (frame.stack.size() < arity) {
+                    throw new IllegalArgumentException("Syntax Fehler");
+                }
+                final BigDecimal[] arguments = new BigDecimal[arity];
+                for (int i = arity - 1; i >= 0; i--) {
+                    // Equal arguments of different scale, e.g. 2 and 2,0, share the memoized result
+                    arguments[i] = frame.stack.remove(frame.stack.size() - 1).stripTrailingZeros();
+                }
+
+                final CallKey key = new CallKey(CalculatorEngine.MODE, List.of(arguments));
+                final BigDecimal memoized = definition.memo.get(key);
+                if (memoized != null) {
+                    frame.stack.add(memoized);
+                    continue;
+                }
+                if (frames.size() >= MAX_CALL_DEPTH) {
+                    throw new IllegalArgumentException("Rekursion zu tief");
+                }
+                CalculatorEngine.checkInterrupted();
+                frames.push(frame);
+                frame = new Frame(definition, definition.body, arguments, key);
+            } else {
+                frame.position = CalculatorEngine.applyToken(token, frame.position, frame.stack);
+            }
+        }
+    }
+
+    private static boolean isLetter(final String token) {
+        return token.length() == 1 && token.charAt(0) >= 'a' && token.charAt(0) <= 'z';
+    }
+
+    private static String name(final String call) {
+        return call.substring(0, call.length() - 1);
+    }
+
+    private static Set<String> reservedNames() {
+        final Set<String> names = new HashSet<>(CalculatorEngine.createMathFunctionsSet());
+        names.addAll(List.of("e", "i", "solve", "count", "sum", "mean", "var", "stdev", "median", "quantile",
+                "slope", "intercept", "corr"));
+        return Set.copyOf(names);
+    }
+
+    /**
+     * A parsed definition.
+     */
+    private static final class Definition {
+        private final List<String> parameters;
+        // The body in infix notation, for inlining
+        private final List<String> infix;
+        private final List<String> body;
+        private final ConcurrentLruCache<CallKey, BigDecimal> memo = new ConcurrentLruCache<>("function", MEMO_SIZE);
+
+        Definition(final List<String> parameters, final List<String> infix, final List<String> body) {
+            this.parameters = parameters;
+            this.infix = infix;
+            this.body = body;
+        }
+    }
+
+    /**
+     * The key of a memoized call. Trigonometric functions depend on the angle mode.
+     */
+    private record CallKey(String mode, List<BigDecimal> arguments) {
+    }
+
+    /**
+     * The evaluation of one call: the position in the body and the operands computed so far.
+     */
+    private static final class Frame {
+        private final Definition definition;
+        private final List<String> tokens;
+        private final BigDecimal[] arguments;
+        // The key the result is memoized under, null for the expression itself
+        private final CallKey key;
+        private final List<BigDecimal> stack = new ArrayList<>();
+        private int position;
+
+        Frame(final Definition definition, final List<String> tokens, final BigDecimal[] arguments, final CallKey key) {
+            this.definition = definition;
+            this.tokens = tokens;
+            this.arguments = arguments;
+            this.key = key;
+        }
+    }
+}
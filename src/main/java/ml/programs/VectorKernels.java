@@ -0,0 +1,169 @@
+package ml.programs;
+
+/*
+ * Copyright (c) 2024 by Max Lemberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Kernels of the {@link ColumnEvaluator} using the Vector API. Only loaded if the module {@code jdk.incubator.vector}
+ * is available.
+ * <p>
+ * The basic arithmetic, square roots and integer powers are computed lane by lane, the rows that do not fill a whole
+ * vector are computed by a scalar loop. Transcendental functions are left to the scalar kernels, the Vector API only
+ * computes them fast with the Intel short vector math library and would give slightly different results than
+ * {@link Math}.
+ *
+ * @author Max Lemberg
+ */
+class VectorKernels extends ColumnEvaluator.ScalarKernels {
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+    @Override
+    public void binary(final int operation, final double[] a, final int aOffset, final double[] b, final int bOffset,
+                       final double[] destination, final int length) {
+        if (!isSupported(operation)) {
+            super.binary(operation, a, aOffset, b, bOffset, destination, length);
+            return;
+        }
+
+        final int bound = SPECIES.loopBound(length);
+        int i = 0;
+        for (; i < bound; i += SPECIES.length()) {
+            apply(operation, DoubleVector.fromArray(SPECIES, a, aOffset + i), DoubleVector.fromArray(SPECIES, b, bOffset + i))
+                    .intoArray(destination, i);
+        }
+        for (; i < length; i++) {
+            destination[i] = DoubleExpression.applyBinary(operation, a[aOffset + i], b[bOffset + i]);
+        }
+    }
+
+    @Override
+    public void binaryScalar(final int operation, final double[] a, final int aOffset, final double b,
+                             final double[] destination, final int length) {
+        if (!isSupported(operation)) {
+            super.binaryScalar(operation, a, aOffset, b, destination, length);
+            return;
+        }
+
+        final DoubleVector right = DoubleVector.broadcast(SPECIES, b);
+        final int bound = SPECIES.loopBound(length);
+        int i = 0;
+        for (; i < bound; i += SPECIES.length()) {
+            apply(operation, DoubleVector.fromArray(SPECIES, a, aOffset + i), right).intoArray(destination, i);
+        }
+        for (; i < length; i++) {
+            destination[i] = DoubleExpression.applyBinary(operation, a[aOffset + i], b);
+        }
+    }
+
+    @Override
+    public void scalarBinary(final int operation, final double a, final double[] b, final int bOffset,
+                             final double[] destination, final int length) {
+        if (!isSupported(operation)) {
+            super.scalarBinary(operation, a, b, bOffset, destination, length);
+            return;
+        }
+
+        final DoubleVector left = DoubleVector.broadcast(SPECIES, a);
+        final int bound = SPECIES.loopBound(length);
+        int i = 0;
+        for (; i < bound; i += SPECIES.length()) {
+            apply(operation, left, DoubleVector.fromArray(SPECIES, b, bOffset + i)).intoArray(destination, i);
+        }
+        for (; i < length; i++) {
+            destination[i] = DoubleExpression.applyBinary(operation, a, b[bOffset + i]);
+        }
+    }
+
+    private static boolean isSupported(final int operation) {
+        return operation == DoubleExpression.ADD || operation == DoubleExpression.SUB
+                || operation == DoubleExpression.MUL || operation == DoubleExpression.DIV;
+    }
+
+    /**
+     * Applies a supported binary operation. The JIT only emits vector instructions for a constant operator, so every
+     * operator is called by its own method instead of passing it to {@link DoubleVector#lanewise}. The branch is the
+     * same for the whole loop and predicted correctly.
+     */
+    private static DoubleVector apply(final int operation, final DoubleVector left, final DoubleVector right) {
+        switch (operation) {
+            case DoubleExpression.ADD:
+                return left.add(right);
+            case DoubleExpression.SUB:
+                return left.sub(right);
+            case DoubleExpression.MUL:
+                return left.mul(right);
+            default:
+                return left.div(right);
+        }
+    }
+
+    @Override
+    public void unary(final int operation, final double operand, final double angleFactor, final double[] a,
+                      final int aOffset, final double[] destination, final int length) {
+        switch (operation) {
+            case DoubleExpression.SQRT:
+                sqrt(a, aOffset, destination, length);
+                break;
+            case DoubleExpression.POWI:
+                powi(a, aOffset, (int) operand, destination, length);
+                break;
+            default:
+                super.unary(operation, operand, angleFactor, a, aOffset, destination, length);
+                break;
+        }
+    }
+
+    private static void sqrt(final double[] a, final int aOffset, final double[] destination, final int length) {
+        final int bound = SPECIES.loopBound(length);
+        int i = 0;
+        for (; i < bound; i += SPECIES.length()) {
+            DoubleVector.fromArray(SPECIES, a, aOffset + i).lanewise(VectorOperators.SQRT).intoArray(destination, i);
+        }
+        for (; i < length; i++) {
+            destination[i] = Math.sqrt(a[aOffset + i]);
+        }
+    }
+
+    /**
+     * Integer powers by repeated squaring, in the same order as {@link DoubleExpression#powi(double, int)}.
+     */
+    private static void powi(final double[] a, final int aOffset, final int exponent, final double[] destination, final int length) {
+        final DoubleVector one = DoubleVector.broadcast(SPECIES, 1);
+        final int bound = SPECIES.loopBound(length);
+        int i = 0;
+        for (; i < bound; i += SPECIES.length()) {
+            DoubleVector base = DoubleVector.fromArray(SPECIES, a, aOffset + i);
+            DoubleVector result = one;
+            for (int n = Math.abs(exponent); n > 0; n >>= 1) {
+                if ((n & 1) != 0) {
+                    result = result.mul(base);
+                }
+                base = base.mul(base);
+            }
+            if (exponent < 0) {
+                result = one.div(result);
+            }
+            result.intoArray(destination, i);
+        }
+        for (; i < length; i++) {
+            destination[i] = DoubleExpression.powi(a[aOffset + i], exponent);
+        }
+    }
+}
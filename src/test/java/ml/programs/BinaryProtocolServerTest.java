@@ -0,0 +1,237 @@
+package ml.programs;
+
+/*
+ * Copyright (c) 2024 by Max Lemberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+
+/**
+ * Tests for the {@link BinaryProtocolServer} and the {@link BinaryProtocolClient}.
+ *
+ * @author Max Lemberg
+ */
+class BinaryProtocolServerTest {
+    @TempDir
+    Path directory;
+
+    private BinaryProtocolServer server;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        CalculatorEngine.DEBUG = false;
+        server = new BinaryProtocolServer(directory.resolve("rechenmax.sock"), 2);
+    }
+
+    @AfterEach
+    void tearDown() {
+        server.close();
+    }
+
+    @Test
+    void calculatesSingleExpressions() throws IOException {
+        try (BinaryProtocolClient client = BinaryProtocolClient.connect(server.getSocketPath())) {
+            assertEquals("14", client.calculate("2+3×4"));
+            assertEquals("Kein Teilen durch 0", client.calculate("1÷0"));
+        }
+    }
+
+    @Test
+    void pipelinesManyRequestsInOrder() throws IOException {
+        final List<String> expressions = new ArrayList<>();
+        final List<String> expected = new ArrayList<>();
+        for (int i = 0; i < 20_000; i++) {
+            expressions.add(i + "+1");
+            expected.add(Integer.toString(i + 1));
+        }
+        try (BinaryProtocolClient client = BinaryProtocolClient.connect(server.getSocketPath())) {
+            assertEquals(expected, client.calculateAll(expressions));
+        }
+    }
+
+    @Test
+    void failingCalculationDoesNotStopEventLoop() throws IOException {
+        server.close();
+        // A calculation throwing an Error, e.g. a StackOverflowError, instead of returning an error message
+        server = new BinaryProtocolServer(directory.resolve("failing.sock"), 2,
+                BinaryProtocolServer.DEFAULT_TIMEOUT_MILLIS, expression -> {
+            if (expression.equals("fail")) {
+                throw new StackOverflowError();
+            }
+            return CalculatorEngine.calculate(expression);
+        });
+        try (BinaryProtocolClient client = BinaryProtocolClient.connect(server.getSocketPath())) {
+            assertEquals("Syntax Fehler", client.calculate("fail"));
+            assertEquals("2", client.calculate("1+1"));
+        }
+        // Other connections of the same event loop are still served
+        for (int i = 0; i < 2; i++) {
+            try (BinaryProtocolClient client = BinaryProtocolClient.connect(server.getSocketPath())) {
+                assertEquals("4", client.calculate("2+2"));
+            }
+        }
+    }
+
+    @Test
+    void failureInPipelinedChunkIsResultOfItsExpression() throws IOException {
+        server.close();
+        server = new BinaryProtocolServer(directory.resolve("failing.sock"), 2,
+                BinaryProtocolServer.DEFAULT_TIMEOUT_MILLIS, expression -> {
+            if (expression.equals("fail")) {
+                throw new IllegalStateException();
+            }
+            return CalculatorEngine.calculate(expression);
+        });
+        try (BinaryProtocolClient client = BinaryProtocolClient.connect(server.getSocketPath())) {
+            assertEquals(List.of("2", "Syntax Fehler", "4"), client.calculateAll(List.of("1+1", "fail", "2+2")));
+            // The responses of the chunk have all been read, so the next call gets its own results
+            assertEquals(List.of("6"), client.calculateAll(List.of("3+3")));
+        }
+    }
+
+    @Test
+    void slowCalculationDoesNotBlockEventLoop() throws Exception {
+        server.close();
+        final CountDownLatch release = new CountDownLatch(1);
+        // A single event loop, so both connections are served by the same thread
+        server = new BinaryProtocolServer(directory.resolve("slow.sock"), 1, BinaryProtocolServer.DEFAULT_TIMEOUT_MILLIS, expression -> {
+            if (expression.equals("slow")) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new CancellationException("Abgebrochen");
+                }
+                return "langsam";
+            }
+            return CalculatorEngine.calculate(expression);
+        });
+        try (BinaryProtocolClient slow = BinaryProtocolClient.connect(server.getSocketPath());
+             BinaryProtocolClient fast = BinaryProtocolClient.connect(server.getSocketPath())) {
+            final CompletableFuture<String> waiting = CompletableFuture.supplyAsync(() -> {
+                try {
+                    return slow.calculate("slow");
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            assertTimeoutPreemptively(Duration.ofSeconds(1), () -> assertEquals("2", fast.calculate("1+1")));
+            release.countDown();
+            assertEquals("langsam", waiting.get(5, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    void calculationsTimeOut() throws IOException {
+        server.close();
+        server = new BinaryProtocolServer(directory.resolve("endless.sock"), 1, 200, expression -> {
+            if (expression.equals("endless")) {
+                try {
+                    Thread.sleep(Long.MAX_VALUE);
+                } catch (InterruptedException e) {
+                    throw new CancellationException("Abgebrochen");
+                }
+            }
+            return CalculatorEngine.calculate(expression);
+        });
+        try (BinaryProtocolClient client = BinaryProtocolClient.connect(server.getSocketPath())) {
+            assertEquals(List.of("2", "Zeitüberschreitung", "4"), client.calculateAll(List.of("1+1", "endless", "2+2")));
+        }
+    }
+
+    @Test
+    void connectionErrorMakesClientUnusable() throws Exception {
+        // A server that answers the first request with an error of the whole connection
+        final Path socketPath = directory.resolve("broken.sock");
+        try (ServerSocketChannel listener = ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+            listener.bind(UnixDomainSocketAddress.of(socketPath));
+            final Thread fake = new Thread(() -> {
+                try (SocketChannel channel = listener.accept()) {
+                    channel.read(ByteBuffer.allocate(1024));
+                    final ByteBuffer response = ByteBuffer.allocate(1024);
+                    BinaryProtocol.putResponse(response, 0, BinaryProtocol.STATUS_ERROR, BinaryProtocol.encode("Ungültige Anfrage"));
+                    response.flip();
+                    channel.write(response);
+                } catch (IOException e) {
+                    // The test fails on the client side
+                }
+            });
+            fake.start();
+
+            try (BinaryProtocolClient client = BinaryProtocolClient.connect(socketPath)) {
+                final IOException error = assertThrows(IOException.class, () -> client.calculate("1+1"));
+                assertEquals("Ungültige Anfrage", error.getMessage());
+                final IOException next = assertThrows(IOException.class, () -> client.calculate("1+1"));
+                assertEquals("Verbindung unterbrochen", next.getMessage());
+            }
+            fake.join();
+        }
+    }
+
+    @Test
+    void rejectsOversizedFrame() throws IOException {
+        try (SocketChannel channel = SocketChannel.open(StandardProtocolFamily.UNIX)) {
+            channel.connect(UnixDomainSocketAddress.of(server.getSocketPath()));
+            final ByteBuffer request = ByteBuffer.allocate(8);
+            request.putInt(BinaryProtocol.MAX_FRAME_LENGTH + 1).putInt(0).flip();
+            channel.write(request);
+
+            final ByteBuffer response = ByteBuffer.allocate(1024);
+            while (channel.read(response) >= 0) {
+                // Read until the server closes the connection
+            }
+            assertEquals(BinaryProtocol.STATUS_ERROR, response.get(BinaryProtocol.LENGTH_FIELD + 4));
+        }
+    }
+
+    @Test
+    void clientRejectsOversizedExpression() throws IOException {
+        try (BinaryProtocolClient client = BinaryProtocolClient.connect(server.getSocketPath())) {
+            assertEquals(List.of("2", "Ungültige Eingabe", "4"),
+                    client.calculateAll(List.of("1+1", "1".repeat(BinaryProtocol.MAX_FRAME_LENGTH), "2+2")));
+        }
+    }
+
+    @Test
+    void closeRemovesSocketFile() {
+        final Path socketPath = server.getSocketPath();
+        server.close();
+        assertFalse(Files.exists(socketPath));
+    }
+}
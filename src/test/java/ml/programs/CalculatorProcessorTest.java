@@ -0,0 +1,178 @@
+package ml.programs;
+
+/*
+ * Copyright (c) 2024 by Max Lemberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Tests for the {@link CalculatorProcessor}.
+ *
+ * @author Max Lemberg
+ */
+class CalculatorProcessorTest {
+
+    @BeforeEach
+    void setUp() {
+        CalculatorEngine.DEBUG = false;
+    }
+
+    @Test
+    void rejectsNonPositiveParallelism() {
+        final IllegalArgumentException exception = assertThrows(IllegalArgumentException.class, () -> new CalculatorProcessor(0));
+        assertEquals("Ungültiger Wert", exception.getMessage());
+    }
+
+    @Test
+    void deliversResultsInOrder() throws Exception {
+        final List<String> expressions = new ArrayList<>();
+        final List<String> expected = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            expressions.add(i + "×2");
+            expected.add(Integer.toString(i * 2));
+        }
+
+        final List<CalculatorProcessor.Result> results = process(new CalculatorProcessor(8), expressions);
+        final List<String> values = new ArrayList<>();
+        for (int i = 0; i < results.size(); i++) {
+            assertEquals(i, results.get(i).index());
+            assertEquals(expressions.get(i), results.get(i).expression());
+            values.add(results.get(i).value());
+        }
+        assertEquals(expected, values);
+    }
+
+    @Test
+    void deliversAllResultsUnordered() throws Exception {
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            final List<String> expressions = new ArrayList<>();
+            final Set<String> expected = new HashSet<>();
+            for (int i = 0; i < 500; i++) {
+                expressions.add(i + "+1");
+                expected.add(i + "+1=" + (i + 1));
+            }
+
+            final Set<String> actual = new HashSet<>();
+            for (final CalculatorProcessor.Result result : process(new CalculatorProcessor(8, false, executor), expressions)) {
+                actual.add(result.expression() + "=" + result.value());
+            }
+            assertEquals(expected, actual);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    void failingCalculationStillCompletesStream() throws Exception {
+        // The second calculation runs on an interrupted thread, so the engine throws a CancellationException instead of
+        // returning an error message
+        final AtomicInteger submitted = new AtomicInteger();
+        final Executor executor = task -> {
+            final boolean interrupted = submitted.getAndIncrement() == 1;
+            new Thread(() -> {
+                if (interrupted) {
+                    Thread.currentThread().interrupt();
+                }
+                task.run();
+            }).start();
+        };
+        final List<CalculatorProcessor.Result> results = process(new CalculatorProcessor(2, true, executor),
+                List.of("1+1", "1+2", "2+2"));
+
+        assertEquals(3, results.size());
+        assertEquals("2", results.get(0).value());
+        assertEquals("Syntax Fehler", results.get(1).value());
+        assertEquals("4", results.get(2).value());
+    }
+
+    @Test
+    void secondSubscriberIsRejected() throws Exception {
+        final CalculatorProcessor processor = new CalculatorProcessor(1);
+        processor.subscribe(new Collector(new CompletableFuture<>()));
+
+        final CompletableFuture<List<CalculatorProcessor.Result>> second = new CompletableFuture<>();
+        processor.subscribe(new Collector(second));
+        final Exception exception = assertThrows(Exception.class, () -> second.get(5, TimeUnit.SECONDS));
+        assertInstanceOf(IllegalStateException.class, exception.getCause());
+    }
+
+    private static List<CalculatorProcessor.Result> process(final CalculatorProcessor processor, final List<String> expressions)
+            throws Exception {
+        final CompletableFuture<List<CalculatorProcessor.Result>> results = new CompletableFuture<>();
+        try (SubmissionPublisher<String> publisher = new SubmissionPublisher<>()) {
+            publisher.subscribe(processor);
+            processor.subscribe(new Collector(results));
+            for (final String expression : expressions) {
+                publisher.submit(expression);
+            }
+        }
+        return results.get(30, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Requests one result after the other and collects them.
+     */
+    private static final class Collector implements Flow.Subscriber<CalculatorProcessor.Result> {
+        private final CompletableFuture<List<CalculatorProcessor.Result>> future;
+        private final List<CalculatorProcessor.Result> results = new ArrayList<>();
+        private Flow.Subscription subscription;
+
+        Collector(final CompletableFuture<List<CalculatorProcessor.Result>> future) {
+            this.future = future;
+        }
+
+        @Override
+        public void onSubscribe(final Flow.Subscription subscription) {
+            this.subscription = subscription;
+            subscription.request(1);
+        }
+
+        @Override
+        public void onNext(final CalculatorProcessor.Result item) {
+            results.add(item);
+            subscription.request(1);
+        }
+
+        @Override
+        public void onError(final Throwable throwable) {
+            future.completeExceptionally(throwable);
+        }
+
+        @Override
+        public void onComplete() {
+            future.complete(results);
+        }
+    }
+}
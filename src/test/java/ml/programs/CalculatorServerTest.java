@@ -0,0 +1,184 @@
+package ml.programs;
+
+/*
+ * Copyright (c) 2024 by Max Lemberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for the {@link CalculatorServer}.
+ *
+ * @author Max Lemberg
+ */
+class CalculatorServerTest {
+    // Stands for a calculation that takes far longer than any timeout of the tests, it only stops when interrupted
+    private static final String ENDLESS = "endless";
+
+    private final HttpClient client = HttpClient.newHttpClient();
+    private CalculatorServer server;
+
+    @BeforeEach
+    void setUp() {
+        CalculatorEngine.DEBUG = false;
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (server != null) {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    void calculatesQueryParameterAndBody() throws Exception {
+        start(2000, 10);
+
+        final HttpResponse<String> query = send(HttpRequest.newBuilder(uri("/calculate?expression="
+                + URLEncoder.encode("2+3×4", StandardCharsets.UTF_8))).build());
+        assertEquals(200, query.statusCode());
+        assertEquals("14", query.body());
+
+        final HttpResponse<String> body = send(HttpRequest.newBuilder(uri("/calculate"))
+                .POST(HttpRequest.BodyPublishers.ofString("1÷0")).build());
+        assertEquals(200, body.statusCode());
+        assertEquals("Kein Teilen durch 0", body.body());
+    }
+
+    @Test
+    void rejectsEmptyExpression() throws Exception {
+        start(2000, 10);
+        final HttpResponse<String> response = send(HttpRequest.newBuilder(uri("/calculate"))
+                .POST(HttpRequest.BodyPublishers.ofString(" ")).build());
+        assertEquals(400, response.statusCode());
+        assertEquals("Ungültige Eingabe", response.body());
+    }
+
+    @Test
+    void batchKeepsOrderOfLines() throws Exception {
+        start(2000, 2);
+        final StringBuilder body = new StringBuilder();
+        final StringBuilder expected = new StringBuilder();
+        for (int i = 1; i <= 50; i++) {
+            body.append(i).append("×2\n\n");
+            expected.append(i * 2).append('\n');
+        }
+        final HttpResponse<String> response = send(HttpRequest.newBuilder(uri("/batch"))
+                .POST(HttpRequest.BodyPublishers.ofString(body.toString())).build());
+        assertEquals(200, response.statusCode());
+        assertEquals(expected.toString(), response.body());
+    }
+
+    @Test
+    void timeoutReleasesSlot() throws Exception {
+        // A single slot, so the next request is only accepted if the cancelled calculation has really stopped
+        start(200, 1);
+        final HttpResponse<String> timeout = send(HttpRequest.newBuilder(uri("/calculate"))
+                .POST(HttpRequest.BodyPublishers.ofString(ENDLESS)).build());
+        assertEquals(504, timeout.statusCode());
+        assertEquals("Zeitüberschreitung", timeout.body());
+
+        HttpResponse<String> response = null;
+        for (int attempt = 0; attempt < 50; attempt++) {
+            response = send(HttpRequest.newBuilder(uri("/calculate?expression=1%2B1")).build());
+            if (response.statusCode() != 503) {
+                break;
+            }
+            Thread.sleep(100);
+        }
+        assertEquals(200, response.statusCode());
+        assertEquals("2", response.body());
+    }
+
+    @Test
+    void batchTimesOutSingleLines() throws Exception {
+        start(200, 1);
+        final HttpResponse<String> response = send(HttpRequest.newBuilder(uri("/batch"))
+                .POST(HttpRequest.BodyPublishers.ofString("1+1\n" + ENDLESS + "\n2+2\n")).build());
+        assertEquals("2\nZeitüberschreitung\n4\n", response.body());
+    }
+
+    @Test
+    void batchTimeoutCountsFromSubmission() throws Exception {
+        // All lines run at the same time, so they all time out together instead of one after the other
+        start(400, 10);
+        final String body = (ENDLESS + "\n").repeat(8);
+        final long start = System.nanoTime();
+        final HttpResponse<String> response = send(HttpRequest.newBuilder(uri("/batch"))
+                .POST(HttpRequest.BodyPublishers.ofString(body)).build());
+        final long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertEquals("Zeitüberschreitung\n".repeat(8), response.body());
+        assertTrue(elapsedMillis < 4 * 400, elapsedMillis + " ms");
+    }
+
+    @Test
+    void interruptStopsCalculation() {
+        Thread.currentThread().interrupt();
+        try {
+            assertThrows(CancellationException.class, () -> CalculatorEngine.calculate("1+1"));
+        } finally {
+            Thread.interrupted();
+        }
+    }
+
+    private void start(final long timeoutMillis, final int maxInFlight) throws IOException {
+        server = new CalculatorServer(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), timeoutMillis, maxInFlight,
+                CalculatorServerTest::calculate);
+        server.start();
+    }
+
+    /**
+     * Calculates an expression with the engine, except {@link #ENDLESS}, which blocks until its thread is interrupted
+     * and then stops like a calculation of the engine.
+     */
+    private static String calculate(final String expression) {
+        if (!ENDLESS.equals(expression)) {
+            return CalculatorEngine.calculate(expression);
+        }
+        try {
+            while (true) {
+                Thread.sleep(1000);
+            }
+        } catch (InterruptedException e) {
+            throw new CancellationException("Abgebrochen");
+        }
+    }
+
+    private URI uri(final String path) {
+        return URI.create("http://localhost:" + server.getAddress().getPort() + path);
+    }
+
+    private HttpResponse<String> send(final HttpRequest request) throws Exception {
+        return client.send(request, HttpResponse.BodyHandlers.ofString(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,141 @@
+package ml.programs;
+
+/*
+ * Copyright (c) 2024 by Max Lemberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for the {@link CellSheet}.
+ *
+ * @author Max Lemberg
+ */
+class CellSheetTest {
+
+    @BeforeEach
+    void setUp() {
+        CalculatorEngine.DEBUG = false;
+    }
+
+    @Test
+    void referencesAreReplacedByValues() {
+        final CellSheet sheet = new CellSheet();
+        sheet.set("A1", "2");
+        sheet.set("B1", "3");
+        assertEquals(Map.of("C1", "8"), sheet.set("C1", "A1×B1+2"));
+        assertEquals("8", sheet.get("C1"));
+        assertEquals("A1×B1+2", sheet.getExpression("C1"));
+        assertEquals(Set.of("A1", "B1", "C1"), sheet.getNames());
+        // Negative values are put into parentheses
+        sheet.set("A1", "-2");
+        assertEquals("-4", sheet.get("C1"));
+    }
+
+    @Test
+    void onlyDependentsAreRecalculatedInOrder() {
+        final CellSheet sheet = new CellSheet();
+        sheet.set("A1", "1");
+        sheet.set("B1", "A1+1");
+        sheet.set("C1", "B1×2");
+        sheet.set("D1", "A1+B1+C1");
+        sheet.set("X1", "100");
+
+        final Map<String, String> changed = sheet.set("A1", "5");
+        assertEquals(List.of("A1", "B1", "C1", "D1"), new ArrayList<>(changed.keySet()));
+        assertEquals(List.of("5", "6", "12", "23"), new ArrayList<>(changed.values()));
+        assertEquals(Map.of("D1", "24"), sheet.set("D1", "A1+B1+C1+1"));
+    }
+
+    @Test
+    void everyCellIsCalculatedOnce() {
+        final AtomicInteger calculations = new AtomicInteger();
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            final CellSheet sheet = new CellSheet(task -> {
+                calculations.incrementAndGet();
+                executor.execute(task);
+            });
+            sheet.set("A1", "1");
+            // Two independent branches that join again
+            for (int i = 1; i <= 20; i++) {
+                sheet.set("B" + i, "A1+" + i);
+                sheet.set("C" + i, "B" + i + "×2");
+            }
+            sheet.set("D1", "C1+C20");
+            calculations.set(0);
+
+            final Map<String, String> changed = sheet.set("A1", "2");
+            assertEquals(42, changed.size());
+            assertEquals(42, calculations.get());
+            assertEquals("50", sheet.get("D1"));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    void cyclesAreRejected() {
+        final CellSheet sheet = new CellSheet();
+        sheet.set("A1", "1");
+        sheet.set("B1", "A1+1");
+        sheet.set("C1", "B1+1");
+        final IllegalArgumentException exception = assertThrows(IllegalArgumentException.class,
+                () -> sheet.set("A1", "C1+1"));
+        assertEquals("Zirkelbezug", exception.getMessage());
+        assertThrows(IllegalArgumentException.class, () -> sheet.set("D1", "D1"));
+        // The sheet is unchanged
+        assertEquals("1", sheet.getExpression("A1"));
+        assertEquals("3", sheet.get("C1"));
+        assertThrows(IllegalArgumentException.class, () -> sheet.set("a1", "1"));
+    }
+
+    @Test
+    void errorsArePassedOn() {
+        final CellSheet sheet = new CellSheet();
+        assertEquals(Map.of("B1", "Nicht definiert"), sheet.set("B1", "A1+1"));
+        sheet.set("A1", "1÷0");
+        assertEquals("Kein Teilen durch 0", sheet.get("B1"));
+        sheet.set("A1", "4");
+        assertEquals("5", sheet.get("B1"));
+    }
+
+    @Test
+    void removedCellsBecomeUndefined() {
+        final CellSheet sheet = new CellSheet();
+        sheet.set("A1", "1");
+        sheet.set("B1", "A1+1");
+        assertEquals(Map.of("B1", "Nicht definiert"), sheet.remove("A1"));
+        assertNull(sheet.get("A1"));
+        assertNull(sheet.getExpression("A1"));
+        assertTrue(sheet.remove("A1").isEmpty());
+        sheet.set("A1", "2");
+        assertEquals("3", sheet.get("B1"));
+    }
+}
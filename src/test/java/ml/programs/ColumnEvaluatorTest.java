@@ -0,0 +1,99 @@
+package ml.programs;
+
+/*
+ * Copyright (c) 2024 by Max Lemberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for the {@link ColumnEvaluator}.
+ *
+ * @author Max Lemberg
+ */
+class ColumnEvaluatorTest {
+    private static final List<String> EXPRESSIONS = List.of("x+y", "x-y×2", "x÷y", "√(x×x+y×y)", "3x^2+2x+1", "x^5-y^3",
+            "2-x", "1÷x", "sin(x)+cos(y)", "ln(x)", "(x+1)×(y-1)÷(x+y)", "7");
+
+    @BeforeEach
+    void setUp() {
+        CalculatorEngine.DEBUG = false;
+        CalculatorEngine.MODE = "Deg";
+    }
+
+    @Test
+    void usesVectorApiWithModule() {
+        // The tests run with --add-modules jdk.incubator.vector, see the surefire configuration
+        assertTrue(ColumnEvaluator.isVectorized());
+    }
+
+    @Test
+    void matchesRowByRowEvaluation() {
+        // Lengths around the vector width and the block size exercise the scalar tails
+        for (final int rows : new int[]{0, 1, 3, 7, 8, 9, 1023, 1024, 1025, 3000}) {
+            final double[] x = new double[rows];
+            final double[] y = new double[rows];
+            final Random random = new Random(rows);
+            for (int i = 0; i < rows; i++) {
+                x[i] = random.nextDouble() * 20 - 10;
+                y[i] = random.nextDouble() * 20 - 10;
+            }
+
+            for (final String text : EXPRESSIONS) {
+                final DoubleExpression expression = DoubleExpression.compile(text, "x", "y");
+                final double[] expected = new double[rows];
+                for (int i = 0; i < rows; i++) {
+                    expected[i] = expression.evaluate(x[i], y[i]);
+                }
+                assertArrayEquals(expected, ColumnEvaluator.evaluate(expression, x, y), 1e-9, text + " with " + rows + " rows");
+            }
+        }
+    }
+
+    @Test
+    void undefinedRowsAreNaN() {
+        final DoubleExpression expression = DoubleExpression.compile("√(x)", "x");
+        final double[] result = ColumnEvaluator.evaluate(expression, new double[]{4, -1, 9});
+        assertEquals(2, result[0]);
+        assertTrue(Double.isNaN(result[1]));
+        assertEquals(3, result[2]);
+    }
+
+    @Test
+    void evaluatesRangeOfRows() {
+        final DoubleExpression expression = DoubleExpression.compile("x×10", "x");
+        final double[] result = new double[5];
+        ColumnEvaluator.evaluate(expression, new double[][]{{1, 2, 3, 4, 5}}, result, 1, 4);
+        assertArrayEquals(new double[]{0, 20, 30, 40, 0}, result);
+    }
+
+    @Test
+    void rejectsMismatchedColumns() {
+        final DoubleExpression expression = DoubleExpression.compile("x+y", "x", "y");
+        assertEquals("Ungültiges Argument", assertThrows(IllegalArgumentException.class,
+                () -> ColumnEvaluator.evaluate(expression, new double[3])).getMessage());
+        assertEquals("Ungültiges Argument", assertThrows(IllegalArgumentException.class,
+                () -> ColumnEvaluator.evaluate(expression, new double[3], new double[2])).getMessage());
+    }
+}
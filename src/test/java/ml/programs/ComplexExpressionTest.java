@@ -0,0 +1,92 @@
+package ml.programs;
+
+/*
+ * Copyright (c) 2024 by Max Lemberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Tests for the {@link ComplexExpression} and the complex mode of the {@link CalculatorEngine}.
+ *
+ * @author Max Lemberg
+ */
+class ComplexExpressionTest {
+
+    @BeforeEach
+    void setUp() {
+        CalculatorEngine.DEBUG = false;
+        CalculatorEngine.COMPLEX = true;
+    }
+
+    @AfterEach
+    void tearDown() {
+        CalculatorEngine.COMPLEX = false;
+        CalculatorEngine.MODE = "Deg";
+    }
+
+    @Test
+    void realResultsOutsideTheRealDomain() {
+        assertEquals("2i", CalculatorEngine.calculate("√(-4)"));
+        assertEquals("1,4142135623731i", CalculatorEngine.calculate("√(-2)"));
+        assertEquals("3,14159265358979i", CalculatorEngine.calculate("ln(-1)"));
+        assertEquals("5i", CalculatorEngine.calculate("√(-4)+√(-9)"));
+        assertEquals("1+1,73205080756888i", CalculatorEngine.calculate("(-8)^(1÷3)"));
+        assertEquals("6", CalculatorEngine.calculate("2×3"));
+    }
+
+    @Test
+    void arithmetic() {
+        assertEquals("5+5i", CalculatorEngine.calculate("(1+2i)×(3-i)"));
+        assertEquals("3+2i", CalculatorEngine.calculate("2i+3"));
+        assertEquals("-1", CalculatorEngine.calculate("i^2"));
+        assertEquals("i", CalculatorEngine.calculate("(1+i)÷(1-i)"));
+        assertEquals("-i", CalculatorEngine.calculate("1÷i"));
+        assertEquals("2+11i", CalculatorEngine.calculate("(2+i)^3"));
+        assertEquals("Nicht definiert", CalculatorEngine.calculate("i÷0"));
+    }
+
+    @Test
+    void trigonometry() {
+        CalculatorEngine.MODE = "Rad";
+        assertEquals("1,1752011936438i", CalculatorEngine.calculate("sin(i)"));
+        assertEquals("1,54308063481524", CalculatorEngine.calculate("cos(i)"));
+    }
+
+    @Test
+    void realModeIsUnchanged() {
+        CalculatorEngine.COMPLEX = false;
+        assertEquals("Nur reelle Zahlen", CalculatorEngine.calculate("√(-4)"));
+        assertEquals("Nicht definiert", CalculatorEngine.calculate("ln(-1)"));
+    }
+
+    @Test
+    void compiledExpressions() {
+        final ComplexExpression expression = ComplexExpression.compile("√(x-4)×i+x", "x");
+        final double[] result = new double[2];
+        expression.evaluate(result, 0);
+        assertEquals(-2, result[0], 1e-15);
+        assertEquals(0, result[1], 1e-15);
+        expression.evaluate(result, 8);
+        assertEquals(8, result[0], 1e-15);
+        assertEquals(2, result[1], 1e-15);
+        assertEquals("1,5-2i", ComplexExpression.format(1.5, -2));
+        assertEquals("2", ComplexExpression.format(2, 1e-17));
+    }
+}
@@ -0,0 +1,124 @@
+package ml.programs;
+
+/*
+ * Copyright (c) 2024 by Max Lemberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for {@link ConcurrentLruCache}.
+ *
+ * @author Max Lemberg
+ */
+class ConcurrentLruCacheTest {
+
+    @Test
+    void rejectsNonPositiveSize() {
+        final IllegalArgumentException exception = assertThrows(IllegalArgumentException.class, () -> new ConcurrentLruCache<String, String>(0));
+        assertEquals("Ungültiger Wert", exception.getMessage());
+    }
+
+    @Test
+    void evictsLeastRecentlyUsedEntry() {
+        // Three entries are split into two segments holding two and one entries, multiples of 64 all land in the first
+        final ConcurrentLruCache<Integer, String> cache = new ConcurrentLruCache<>(3);
+        cache.put(0, "a");
+        cache.put(64, "b");
+        assertEquals("a", cache.get(0));
+
+        cache.put(128, "c");
+        assertNull(cache.get(64));
+        assertEquals("a", cache.get(0));
+        assertEquals("c", cache.get(128));
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.getEvictionCount());
+    }
+
+    @Test
+    void neverHoldsMoreThanMaximumSize() {
+        final ConcurrentLruCache<Integer, Integer> cache = new ConcurrentLruCache<>(10);
+        for (int i = 0; i < 1000; i++) {
+            cache.put(i, i);
+        }
+        assertEquals(10, cache.size());
+        assertEquals(990, cache.getEvictionCount());
+    }
+
+    @Test
+    void countsHitsAndMisses() {
+        final ConcurrentLruCache<String, Integer> cache = new ConcurrentLruCache<>("test", 3);
+        cache.put("a", 1);
+        cache.get("a");
+        cache.get("a");
+        cache.get("b");
+
+        assertEquals(2, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+        assertEquals("test", cache.getName());
+        assertEquals(3, cache.getMaximumSize());
+    }
+
+    @Test
+    void clearKeepsCounters() {
+        final ConcurrentLruCache<String, Integer> cache = new ConcurrentLruCache<>(3);
+        cache.put("a", 1);
+        cache.get("a");
+        cache.clear();
+
+        assertEquals(0, cache.size());
+        assertNull(cache.get("a"));
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+    }
+
+    @Test
+    void staysBoundedUnderConcurrentWrites() throws Exception {
+        final ConcurrentLruCache<Integer, Integer> cache = new ConcurrentLruCache<>(100);
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            final List<Future<?>> futures = new ArrayList<>();
+            for (int thread = 0; thread < 4; thread++) {
+                final int offset = thread * 10_000;
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < 10_000; i++) {
+                        cache.put(offset + i, i);
+                        cache.get(offset + i / 2);
+                    }
+                }));
+            }
+            for (final Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        assertTrue(cache.size() <= 100);
+        assertEquals(40_000 - cache.size(), cache.getEvictionCount());
+        assertEquals(40_000, cache.getHitCount() + cache.getMissCount());
+    }
+}
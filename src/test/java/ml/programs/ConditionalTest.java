@@ -0,0 +1,85 @@
+package ml.programs;
+
+/*
+ * Copyright (c) 2024 by Max Lemberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+
+/**
+ * Tests for the comparisons, the conditionals and min( and max(.
+ *
+ * @author Max Lemberg
+ */
+class ConditionalTest {
+
+    @BeforeEach
+    void setUp() {
+        CalculatorEngine.DEBUG = false;
+    }
+
+    @Test
+    void comparisons() {
+        assertEquals("1", CalculatorEngine.calculate("3<5"));
+        assertEquals("0", CalculatorEngine.calculate("3>5"));
+        assertEquals("1", CalculatorEngine.calculate("2≤2"));
+        assertEquals("0", CalculatorEngine.calculate("2≥3"));
+        assertEquals("1", CalculatorEngine.calculate("2=2"));
+        assertEquals("0", CalculatorEngine.calculate("2≠2"));
+        assertEquals("1", CalculatorEngine.calculate("3<=5"));
+        assertEquals("1", CalculatorEngine.calculate("2==2"));
+        assertEquals("1", CalculatorEngine.calculate("1<>2"));
+        // Weaker than + and -
+        assertEquals("1", CalculatorEngine.calculate("1+2<2+2"));
+        // Only a trailing "=" is stripped
+        assertEquals("5", CalculatorEngine.calculate("5="));
+    }
+
+    @Test
+    void conditionals() {
+        assertEquals("6", CalculatorEngine.calculate("if(0;5;6)"));
+        assertEquals("7", CalculatorEngine.calculate("2×if(2>1;3;4)+1"));
+        assertEquals("10", CalculatorEngine.calculate("2<3 ? 10 : 20"));
+        assertEquals("2", CalculatorEngine.calculate("1 ? 2 : 3 ? 4 : 5"));
+        assertEquals("5", CalculatorEngine.calculate("0 ? 2 : 0 ? 4 : 5"));
+        assertEquals("Kein Teilen durch 0", CalculatorEngine.calculate("0 ? 1 : 1÷0"));
+        assertEquals("Syntax Fehler", CalculatorEngine.calculate("if(1;2)"));
+    }
+
+    @Test
+    void onlyTheTakenBranchIsEvaluated() {
+        assertTimeoutPreemptively(Duration.ofSeconds(5),
+                () -> assertEquals("5", CalculatorEngine.calculate("if(1;5;10^999999999!)")));
+    }
+
+    @Test
+    void minAndMax() {
+        assertEquals("3", CalculatorEngine.calculate("min(3;7)"));
+        assertEquals("7", CalculatorEngine.calculate("max(3;7)"));
+        assertEquals("-5", CalculatorEngine.calculate("min(-2;-5)"));
+    }
+
+    @Test
+    void nestedParenthesesInFunctions() {
+        assertEquals("1", CalculatorEngine.calculate("sin((30)+60)"));
+        assertEquals("2", CalculatorEngine.calculate("log(sin(90)×100)"));
+    }
+}
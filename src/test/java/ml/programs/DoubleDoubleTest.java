@@ -0,0 +1,111 @@
+package ml.programs;
+
+/*
+ * Copyright (c) 2024 by Max Lemberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for the {@link DoubleDouble} and the evaluation in {@link CalculatorEngine.Arithmetic#DOUBLE_DOUBLE}.
+ *
+ * @author Max Lemberg
+ */
+class DoubleDoubleTest {
+
+    @BeforeEach
+    void setUp() {
+        CalculatorEngine.DEBUG = false;
+    }
+
+    @AfterEach
+    void tearDown() {
+        CalculatorEngine.MODE = "Deg";
+    }
+
+    @Test
+    void basicArithmetic() {
+        assertEquals("1", calculate("1÷3×3"));
+        assertEquals("0,3", calculate("0,1+0,2"));
+        assertEquals("1267650600228229401496703205376", calculate("2^100"));
+        assertEquals("-0,125", calculate("(-2)^-3"));
+    }
+
+    @Test
+    void underflowIsNotTooLarge() {
+        // Before this the inverse of an infinite power was NaN and reported as "Wert zu groß"
+        assertEquals(new BigDecimal("1E-310"), parse(calculate("10^-310")));
+        assertEquals(new BigDecimal("4.9E-324"), parse(calculate("2^-1074")));
+        assertEquals("0", calculate("2^-1075"));
+        assertEquals("0", calculate("1÷2^1100"));
+        assertEquals("Wert zu groß", calculate("2^1100"));
+    }
+
+    @Test
+    void divisionByInfinity() {
+        final DoubleDouble infinity = new DoubleDouble(Double.POSITIVE_INFINITY, 0);
+        assertEquals(DoubleDouble.ZERO, DoubleDouble.ONE.divide(infinity));
+        assertEquals(0, DoubleDouble.ONE.divide(infinity.negate()).signum());
+    }
+
+    @Test
+    void subnormalsHaveFewerDigits() {
+        assertEquals(new BigDecimal("1.0E-310"), new DoubleDouble(1e-310, 0).toBigDecimal());
+        // 75 bits above the smallest double
+        assertEquals(new BigDecimal("9.332636185032188789901E-302"), DoubleDouble.ONE.multiply(0x1p-1000).toBigDecimal());
+        assertEquals(31, new DoubleDouble(0x1p-900, 0).toBigDecimal().precision());
+    }
+
+    @Test
+    void largeAnglesInRadians() {
+        // Reduced with exact multiples of π/2 and beyond 2^52 with π/2 as a BigDecimal
+        assertSin("0.8268795405320025602558874291092181", 1e3);
+        assertSin("0.8582727931702358355238863908484066", 1e15);
+        assertSin("0.7796880066069787502355279540333621", 1e16);
+        assertSin("-0.3806377310050286660718709233321073", 1e100);
+        assertSin("-0.8178819121159085970458852827554262", 1e300);
+    }
+
+    @Test
+    void largeAnglesInDegrees() {
+        // 2^60 mod 360 = 136 and 10^20 mod 360 = 280
+        assertEquals(calculate("sin(136)"), calculate("sin(2^60)"));
+        assertEquals(calculate("sin(280)"), calculate("sin(10^20)"));
+        assertEquals("0", calculate("sin(10^20+80)"));
+    }
+
+    /**
+     * Checks a sine to 30 digits, the last of the 31 digits of a double-double may be off by one.
+     */
+    private static void assertSin(final String expected, final double x) {
+        final BigDecimal sin = new DoubleDouble(x, 0).sin().toBigDecimal();
+        assertTrue(sin.subtract(new BigDecimal(expected)).abs().compareTo(new BigDecimal("1E-30")) < 0,
+                () -> "sin(" + x + ") = " + sin);
+    }
+
+    private static String calculate(final String expression) {
+        return CalculatorEngine.calculate(expression, CalculatorEngine.Arithmetic.DOUBLE_DOUBLE);
+    }
+
+    private static BigDecimal parse(final String result) {
+        return new BigDecimal(result.replace(',', '.'));
+    }
+}
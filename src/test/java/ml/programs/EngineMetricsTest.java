@@ -0,0 +1,138 @@
+package ml.programs;
+
+/*
+ * Copyright (c) 2024 by Max Lemberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for the {@link EngineMetrics}.
+ *
+ * @author Max Lemberg
+ */
+class EngineMetricsTest {
+    private final EngineMetrics metrics = EngineMetrics.INSTANCE;
+
+    @BeforeEach
+    void setUp() {
+        CalculatorEngine.DEBUG = false;
+        metrics.setEnabled(true);
+        metrics.setSlowThresholdMillis(10);
+        metrics.reset();
+    }
+
+    @AfterEach
+    void tearDown() {
+        metrics.setEnabled(false);
+        metrics.setSlowThresholdMillis(10);
+        metrics.reset();
+        UserFunctions.clear();
+    }
+
+    @Test
+    void countsCallsAndErrors() {
+        CalculatorEngine.calculate("1+1");
+        CalculatorEngine.calculate("1÷0");
+        CalculatorEngine.calculate("1÷0");
+
+        CalculatorEngine.calculate("1+");
+        CalculatorEngine.calculate("2+");
+
+        assertEquals(5, metrics.getCallCount());
+        assertEquals(4, metrics.getErrorCount());
+        // Keyed by the exception type, so different inputs with the same kind of error share one entry
+        assertEquals(Map.of("ArithmeticException", 2L, "SyntaxException", 2L), metrics.getErrorCounts());
+    }
+
+    @Test
+    void recordsRegularStages() {
+        CalculatorEngine.calculate("2×3+4");
+
+        final Map<String, Long> p50 = metrics.getLatencyP50Nanos();
+        for (final String stage : List.of("total", "normalize", "tokenize", "evaluatePostfix", "format")) {
+            assertTrue(p50.get(stage) > 0, stage);
+        }
+        assertEquals(0, p50.get("factorize"));
+    }
+
+    @Test
+    void recordsStagesOfEarlyResults() {
+        assertEquals("f(x) definiert", CalculatorEngine.calculate("f(x)=x+1"));
+        assertEquals("-2", CalculatorEngine.calculate("det([[1;2];[3;4]])"));
+        assertEquals("2^3×3^2×5", CalculatorEngine.calculate("factor(360)"));
+        assertEquals("[-1;1]", CalculatorEngine.calculate("roots(x^2-1)"));
+
+        final Map<String, Long> p50 = metrics.getLatencyP50Nanos();
+        for (final String stage : List.of("define", "matrix", "factorize", "roots")) {
+            assertTrue(p50.get(stage) > 0, stage);
+        }
+    }
+
+    @Test
+    void resetStartsSlowLogAgain() {
+        metrics.setSlowThresholdMillis(0);
+        for (int i = 0; i < 100; i++) {
+            CalculatorEngine.calculate(i + "+1");
+        }
+        assertEquals(64, metrics.getSlowExpressions().size());
+
+        metrics.reset();
+        assertEquals(List.of(), metrics.getSlowExpressions());
+
+        CalculatorEngine.calculate("1+2");
+        CalculatorEngine.calculate("3+4");
+        final List<String> entries = metrics.getSlowExpressions();
+        assertEquals(2, entries.size());
+        assertTrue(entries.get(0).contains(" 1+2 ["), entries.get(0));
+        assertTrue(entries.get(1).contains(" 3+4 ["), entries.get(1));
+    }
+
+    @Test
+    void disabledMetricsRecordNothing() {
+        metrics.setEnabled(false);
+        CalculatorEngine.calculate("1+1");
+        assertEquals(0, metrics.getCallCount());
+    }
+
+    @Test
+    void histogramBucketsContainTheirMiddle() {
+        for (long value = 0; value < 1_000_000; value = value * 3 / 2 + 1) {
+            final int index = EngineMetrics.LatencyHistogram.index(value);
+            assertEquals(index, EngineMetrics.LatencyHistogram.index(EngineMetrics.LatencyHistogram.middle(index)));
+        }
+        assertTrue(EngineMetrics.LatencyHistogram.index(Long.MAX_VALUE) < (63 - 3 + 1) * 8);
+    }
+
+    @Test
+    void percentileOfHistogram() {
+        final EngineMetrics.LatencyHistogram histogram = new EngineMetrics.LatencyHistogram();
+        assertEquals(0, histogram.percentile(0.5));
+        for (int i = 1; i <= 100; i++) {
+            histogram.record(i * 1000L);
+        }
+        // Buckets are an eighth of a power of two wide, so the percentile is within about 12 percent
+        assertEquals(50_000, histogram.percentile(0.5), 50_000 * 0.125);
+        assertEquals(99_000, histogram.percentile(0.99), 99_000 * 0.125);
+    }
+}
@@ -0,0 +1,87 @@
+package ml.programs;
+
+/*
+ * Copyright (c) 2024 by Max Lemberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Tests for the {@link EquationSolver} and the forms solve( and d/dx(.
+ *
+ * @author Max Lemberg
+ */
+class EquationSolverTest {
+
+    @BeforeEach
+    void setUp() {
+        CalculatorEngine.DEBUG = false;
+        CalculatorEngine.MODE = "Rad";
+    }
+
+    @AfterEach
+    void tearDown() {
+        CalculatorEngine.MODE = "Deg";
+    }
+
+    @Test
+    void derivativesAreExact() {
+        assertEquals(12, EquationSolver.derivative(DoubleExpression.compile("x^3", "x"), 2));
+        assertEquals(1, EquationSolver.derivative(DoubleExpression.compile("sin(x)", "x"), 0));
+        assertEquals(Math.exp(1), EquationSolver.derivative(DoubleExpression.compile("е^x", "x"), 1), 1e-15);
+        assertEquals(0.5, EquationSolver.derivative(DoubleExpression.compile("ln(2x)", "x"), 2), 1e-16);
+        // d/dx x^x = x^x (ln x + 1)
+        assertEquals(4 * (Math.log(2) + 1), EquationSolver.derivative(DoubleExpression.compile("x^x", "x"), 2), 1e-14);
+    }
+
+    @Test
+    void newtonFindsRoots() {
+        assertEquals(Math.sqrt(2), EquationSolver.solve(DoubleExpression.compile("x^2-2", "x"), 1), 1e-15);
+        assertEquals(2.0945514815423265, EquationSolver.solve(DoubleExpression.compile("x^3-2x-5", "x"), 2), 1e-15);
+    }
+
+    @Test
+    void brentFindsRootsWhereNewtonFails() {
+        // Newton's method diverges on the arcus tangent from start values beyond 1,39, the bracketing still finds the root
+        assertEquals(0, EquationSolver.solve(DoubleExpression.compile("tan⁻¹(x)", "x"), 3), 1e-12);
+        assertEquals(0, EquationSolver.solve(DoubleExpression.compile("³√(x)", "x"), 1), 1e-12);
+    }
+
+    @Test
+    void noRootIsAnError() {
+        assertThrows(ArithmeticException.class, () -> EquationSolver.solve(DoubleExpression.compile("x^2+1", "x"), 1));
+        assertEquals("Keine Lösung", CalculatorEngine.calculate("solve(x^2+1; x)"));
+    }
+
+    @Test
+    void specialForms() {
+        assertEquals("1,41421356237309", CalculatorEngine.calculate("solve(x^2 = 2; x)"));
+        assertEquals("2,71828182845905", CalculatorEngine.calculate("solve(ln(x)=1; x)"));
+        assertEquals("-1,41421356237309", CalculatorEngine.calculate("solve(x^2 = 2; x; -1)"));
+        assertEquals("12", CalculatorEngine.calculate("d/dx(x^3; 2)"));
+        assertEquals("Nicht definiert", CalculatorEngine.calculate("solve(x; y)"));
+    }
+
+    @Test
+    void degreesScaleDerivatives() {
+        CalculatorEngine.MODE = "Deg";
+        assertEquals("0,0174532925199433", CalculatorEngine.calculate("d/dx(sin(x); 0)"));
+    }
+}
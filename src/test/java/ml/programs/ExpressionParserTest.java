@@ -0,0 +1,111 @@
+package ml.programs;
+
+/*
+ * Copyright (c) 2024 by Max Lemberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for the {@link ExpressionParser} and the classification of the tokens.
+ *
+ * @author Max Lemberg
+ */
+class ExpressionParserTest {
+
+    @BeforeEach
+    void setUp() {
+        CalculatorEngine.DEBUG = false;
+    }
+
+    @Test
+    void unaryMinusBindsWeakerThanPowers() {
+        assertEquals("-4", CalculatorEngine.calculate("-2^2"));
+        assertEquals("-4", CalculatorEngine.calculate("(-2^2)"));
+        assertEquals("-12", CalculatorEngine.calculate("3×-2^2"));
+        assertEquals("0,0625", CalculatorEngine.calculate("2^-2^2"));
+        assertEquals("4", CalculatorEngine.calculate("(-2)^2"));
+    }
+
+    @Test
+    void unaryMinusEverywhere() {
+        assertEquals("5", CalculatorEngine.calculate("2--3"));
+        assertEquals("6", CalculatorEngine.calculate("-2×-3"));
+        assertEquals("-5", CalculatorEngine.calculate("-(2+3)"));
+        assertEquals("-6", CalculatorEngine.calculate("-3!"));
+        // Before this the whole expression was prefixed with "0" and this was "0-(7 mod 3)"
+        assertEquals("2", CalculatorEngine.calculate("-7 mod 3"));
+        assertEquals("0", CalculatorEngine.calculate("2<-1"));
+        assertEquals("-2", CalculatorEngine.calculate("1 ? -2 : 3"));
+        assertEquals("[-2;2]", CalculatorEngine.calculate("roots(-x^2+4)"));
+    }
+
+    @Test
+    void minusIsAlwaysItsOwnToken() {
+        assertEquals(List.of("2", "-", "3"), CalculatorEngine.tokenize("2-3"));
+        assertEquals(List.of("-", "2", "^", "2"), CalculatorEngine.tokenize("-2^2"));
+    }
+
+    @Test
+    void deepNestingIsASyntaxError() {
+        final int depth = ExpressionParser.MAX_NESTING - 1;
+        assertEquals("1", CalculatorEngine.calculate("(".repeat(depth) + "1" + ")".repeat(depth)));
+        // Before this was a StackOverflowError
+        assertEquals("Syntax Fehler", CalculatorEngine.calculate("(".repeat(20_000) + "1" + ")".repeat(20_000)));
+        assertEquals("Syntax Fehler", CalculatorEngine.calculate("-".repeat(20_000) + "1"));
+    }
+
+    @Test
+    void longChainsAreNotLimited() {
+        assertEquals("20000", CalculatorEngine.calculate("1" + "+1".repeat(19_999)));
+        assertEquals("-20000", CalculatorEngine.calculate("-1" + "-1".repeat(19_999)));
+    }
+
+    @Test
+    void syntaxErrorPosition() {
+        final ExpressionParser.SyntaxException missingOperand = assertThrows(ExpressionParser.SyntaxException.class,
+                () -> ExpressionParser.parse(CalculatorEngine.tokenize("1+×2")));
+        assertEquals(2, missingOperand.getPosition());
+        final ExpressionParser.SyntaxException endedEarly = assertThrows(ExpressionParser.SyntaxException.class,
+                () -> ExpressionParser.parse(CalculatorEngine.tokenize("1+")));
+        assertEquals(2, endedEarly.getPosition());
+    }
+
+    @Test
+    void tokenClassification() {
+        assertTrue(CalculatorEngine.isNumber("2.5"));
+        assertTrue(CalculatorEngine.isNumber("-3"));
+        assertTrue(CalculatorEngine.isNumber(".5"));
+        assertTrue(CalculatorEngine.isNumber("1E+5"));
+        assertFalse(CalculatorEngine.isNumber("-"));
+        assertFalse(CalculatorEngine.isNumber("."));
+        assertFalse(CalculatorEngine.isNumber("1.2.3"));
+        assertFalse(CalculatorEngine.isNumber("1E"));
+        assertFalse(CalculatorEngine.isNumber("1E9999999999"));
+        assertFalse(CalculatorEngine.isNumber("sin("));
+        assertTrue(CalculatorEngine.isFunction("sin("));
+        assertTrue(CalculatorEngine.isFunction("log₂("));
+        assertFalse(CalculatorEngine.isFunction("("));
+        assertFalse(CalculatorEngine.isFunction("x"));
+    }
+}
@@ -0,0 +1,138 @@
+package ml.programs;
+
+/*
+ * Copyright (c) 2024 by Max Lemberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for the flight recorder events of the {@link CalculatorEngine}.
+ *
+ * @author Max Lemberg
+ */
+class FlightRecorderEventsTest {
+    @TempDir
+    Path directory;
+
+    @BeforeEach
+    void setUp() {
+        CalculatorEngine.DEBUG = false;
+    }
+
+    @AfterEach
+    void tearDown() {
+        CalculatorEngine.disableResultCache();
+    }
+
+    @Test
+    void recordsEvaluation() throws Exception {
+        final List<RecordedEvent> events = record(() -> CalculatorEngine.calculate("12345×(2+3)"));
+
+        final RecordedEvent evaluation = single(events, "ml.programs.Evaluation");
+        assertEquals(11, evaluation.getInt("expressionLength"));
+        assertEquals(7, evaluation.getInt("tokenCount"));
+        assertEquals(3, evaluation.getInt("stackDepth"));
+        assertEquals(5, evaluation.getInt("maxOperandDigits"));
+        assertEquals(EvaluationEvent.PATH_BIG_DECIMAL, evaluation.getString("path"));
+        assertNull(evaluation.getString("error"));
+
+        final RecordedEvent compile = single(events, "ml.programs.Compile");
+        assertEquals(7, compile.getInt("tokenCount"));
+        assertEquals(5, compile.getInt("postfixLength"));
+    }
+
+    @Test
+    void recordsErrorsAndCacheHits() throws Exception {
+        CalculatorEngine.enableResultCache(10);
+        final List<RecordedEvent> events = record(() -> {
+            CalculatorEngine.calculate("1÷0");
+            CalculatorEngine.calculate("1÷0");
+        });
+
+        final List<RecordedEvent> evaluations = all(events, "ml.programs.Evaluation");
+        assertEquals(2, evaluations.size());
+        assertEquals("Kein Teilen durch 0", evaluations.get(0).getString("error"));
+        assertEquals(EvaluationEvent.PATH_CACHE, evaluations.get(1).getString("path"));
+
+        final List<String> actions = all(events, "ml.programs.Cache").stream()
+                .filter(event -> "result".equals(event.getString("cache")))
+                .map(event -> event.getString("action")).toList();
+        assertEquals(List.of(CacheEvent.MISS, CacheEvent.HIT), actions);
+    }
+
+    @Test
+    void recordsPathsOfSpecialCalculations() throws Exception {
+        final List<RecordedEvent> events = record(() -> {
+            CalculatorEngine.calculate("h(x) = x+1");
+            CalculatorEngine.calculate("[[1;2];[3;4]]×[5;6]");
+            CalculatorEngine.calculate("factor(360)");
+            CalculatorEngine.calculate("roots(x^2-4)");
+        });
+        UserFunctions.clear();
+
+        // The elements of the matrices and the argument of the factorization are nested calculations of their own
+        final List<String> paths = all(events, "ml.programs.Evaluation").stream()
+                .map(event -> event.getString("path"))
+                .filter(path -> !path.equals(EvaluationEvent.PATH_BIG_DECIMAL)).toList();
+        assertEquals(List.of(EvaluationEvent.PATH_DEFINE, EvaluationEvent.PATH_MATRIX, EvaluationEvent.PATH_FACTORIZE,
+                EvaluationEvent.PATH_ROOTS), paths);
+    }
+
+    @Test
+    void recordsNothingWhenDisabled() throws Exception {
+        final List<RecordedEvent> events = record(() -> {
+        });
+        assertTrue(all(events, "ml.programs.Evaluation").isEmpty());
+    }
+
+    private List<RecordedEvent> record(final Runnable calculations) throws Exception {
+        final Path file = directory.resolve("recording.jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable("ml.programs.Evaluation").withThreshold(Duration.ZERO);
+            recording.enable("ml.programs.Compile").withThreshold(Duration.ZERO);
+            recording.enable("ml.programs.Cache");
+            recording.start();
+            calculations.run();
+            recording.stop();
+            recording.dump(file);
+        }
+        return RecordingFile.readAllEvents(file);
+    }
+
+    private static List<RecordedEvent> all(final List<RecordedEvent> events, final String name) {
+        return events.stream().filter(event -> event.getEventType().getName().equals(name)).toList();
+    }
+
+    private static RecordedEvent single(final List<RecordedEvent> events, final String name) {
+        final List<RecordedEvent> matching = all(events, name);
+        assertEquals(1, matching.size(), name);
+        return matching.get(0);
+    }
+}
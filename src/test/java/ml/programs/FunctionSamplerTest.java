@@ -0,0 +1,105 @@
+package ml.programs;
+
+/*
+ * Copyright (c) 2024 by Max Lemberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for the {@link FunctionSampler}.
+ *
+ * @author Max Lemberg
+ */
+class FunctionSamplerTest {
+
+    @BeforeEach
+    void setUp() {
+        CalculatorEngine.DEBUG = false;
+        CalculatorEngine.MODE = "Rad";
+    }
+
+    @AfterEach
+    void tearDown() {
+        CalculatorEngine.MODE = "Deg";
+    }
+
+    @Test
+    void rejectsOtherVariables() {
+        assertThrows(IllegalArgumentException.class, () -> new FunctionSampler(DoubleExpression.compile("x+y", "x", "y")));
+    }
+
+    @Test
+    void emptyPlotHasNoParts() {
+        final FunctionSampler sampler = FunctionSampler.of("x");
+        assertEquals(List.of(), sampler.sample(-10, 10, -10, 10, 0, 100));
+        assertEquals(List.of(), sampler.sample(10, -10, -10, 10, 100, 100));
+    }
+
+    @Test
+    void straightLineIsOnePartWithFewPoints() {
+        final List<double[]> parts = FunctionSampler.of("2x+1").sample(-10, 10, -10, 10, 800, 600);
+        assertEquals(1, parts.size());
+
+        final double[] points = parts.get(0);
+        assertTrue(points[0] <= -10 && points[points.length - 2] >= 10);
+        // A straight line is never subdivided below the coarse grid, so it needs fewer points than pixels
+        assertTrue(points.length / 2 < 800 / 2, Integer.toString(points.length / 2));
+        for (int i = 0; i < points.length; i += 2) {
+            assertEquals(2 * points[i] + 1, points[i + 1], 1e-12);
+        }
+    }
+
+    @Test
+    void polesInterruptTheCurve() {
+        // tan has poles at ±π/2, ±3π/2 and ±5π/2 within ±10
+        final List<double[]> parts = FunctionSampler.of("tan(x)").sample(-10, 10, -10, 10, 800, 600);
+        assertEquals(7, parts.size());
+        for (int i = 1; i < parts.size(); i++) {
+            final double[] previous = parts.get(i - 1);
+            final double pole = Math.PI / 2 + Math.PI * Math.round((previous[previous.length - 2] - Math.PI / 2) / Math.PI);
+            assertEquals(pole, previous[previous.length - 2], 0.05);
+            assertEquals(pole, parts.get(i)[0], 0.05);
+        }
+    }
+
+    @Test
+    void domainBoundaryIsFound() {
+        final List<double[]> parts = FunctionSampler.of("√(x)").sample(-10, 10, -10, 10, 800, 600);
+        assertEquals(1, parts.size());
+        // Searched for down to 1/16 of a pixel
+        assertEquals(0, parts.get(0)[0], 20.0 / 800 / 16 * 2);
+    }
+
+    @Test
+    void panningReusesCachedSamples() {
+        final FunctionSampler sampler = FunctionSampler.of("sin(x)");
+        sampler.sample(-10, 10, -2, 2, 800, 600);
+        final long misses = sampler.getCache().getMissCount();
+
+        sampler.sample(-9, 11, -2, 2, 800, 600);
+        // Only the newly visible twentieth of the range is evaluated
+        assertTrue(sampler.getCache().getMissCount() - misses < misses / 5,
+                (sampler.getCache().getMissCount() - misses) + " of " + misses);
+    }
+}
@@ -0,0 +1,91 @@
+package ml.programs;
+
+/*
+ * Copyright (c) 2024 by Max Lemberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for the {@link Integrator} and the form ∫(.
+ *
+ * @author Max Lemberg
+ */
+class IntegratorTest {
+
+    @BeforeEach
+    void setUp() {
+        CalculatorEngine.DEBUG = false;
+    }
+
+    @AfterEach
+    void tearDown() {
+        CalculatorEngine.MODE = "Deg";
+    }
+
+    @Test
+    void smoothFunctions() {
+        assertEquals("0,333333333333333", CalculatorEngine.calculate("∫(0;1;x^2)"));
+        assertEquals("-0,333333333333333", CalculatorEngine.calculate("∫(1;0;x^2)"));
+        assertEquals("0,69314718055994", CalculatorEngine.calculate("∫(1;2;1÷t;t)"));
+        CalculatorEngine.MODE = "Rad";
+        assertEquals("2", CalculatorEngine.calculate("∫(0;π;sin(x))"));
+    }
+
+    @Test
+    void errorIsEstimated() {
+        final Integrator.Result result = Integrator.integrate(DoubleExpression.compile("x^2", "x"), 0, 1);
+        assertEquals(1.0 / 3, result.value(), 1e-15);
+        assertTrue(result.error() < 1e-13);
+        assertTrue(Math.abs(result.value() - 1.0 / 3) <= result.error());
+    }
+
+    @Test
+    void singularityAtTheBound() {
+        // Before, the halving stopped near 0 and 1,99999999863868 was printed with all digits
+        assertEquals("2", CalculatorEngine.calculate("∫(0;1;1÷√(x))"));
+        final Integrator.Result result = Integrator.integrate(DoubleExpression.compile("1÷√(x)", "x"), 0, 1);
+        assertEquals(2, result.value(), result.error());
+    }
+
+    @Test
+    void divergentIntegralsAreNotDefined() {
+        // Before, the estimate at the maximum depth was accepted as 41,68…
+        assertEquals("Nicht definiert", CalculatorEngine.calculate("∫(0;1;1÷x)"));
+        assertEquals("Nicht definiert", CalculatorEngine.calculate("∫(-1;1;1÷x)"));
+        assertThrows(ArithmeticException.class,
+                () -> Integrator.integrate(DoubleExpression.compile("1÷x", "x"), 0, 1));
+    }
+
+    @Test
+    void cancellationIsRoundedAway() {
+        assertEquals("0", CalculatorEngine.calculate("∫(-1;1;x)"));
+        assertEquals("0", CalculatorEngine.calculate("∫(1;1;x)"));
+    }
+
+    @Test
+    void boundsMustBeFinite() {
+        final DoubleExpression function = DoubleExpression.compile("x", "x");
+        assertThrows(IllegalArgumentException.class,
+                () -> Integrator.integrate(function, 0, Double.POSITIVE_INFINITY));
+        assertThrows(IllegalArgumentException.class, () -> Integrator.integrate(function, Double.NaN, 1));
+    }
+}
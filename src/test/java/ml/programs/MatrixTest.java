@@ -0,0 +1,111 @@
+package ml.programs;
+
+/*
+ * Copyright (c) 2024 by Max Lemberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Tests for the {@link Matrix} and the {@link MatrixExpression}.
+ *
+ * @author Max Lemberg
+ */
+class MatrixTest {
+
+    @BeforeEach
+    void setUp() {
+        CalculatorEngine.DEBUG = false;
+    }
+
+    @Test
+    void arithmetic() {
+        assertEquals("[[17];[39]]", CalculatorEngine.calculate("[[1;2];[3;4]]×[5;6]"));
+        assertEquals("[[2;3];[4;5]]", CalculatorEngine.calculate("[[1;2];[3;4]]+[[1;1];[1;1]]"));
+        assertEquals("[[2];[4]]", CalculatorEngine.calculate("2×[1;2]"));
+        assertEquals("[[7;10];[15;22]]", CalculatorEngine.calculate("[[1;2];[3;4]]^2"));
+        assertEquals("[[11]]", CalculatorEngine.calculate("[1;2]ᵀ×[3;4]"));
+    }
+
+    @Test
+    void functions() {
+        assertEquals("-2", CalculatorEngine.calculate("det([[1;2];[3;4]])"));
+        assertEquals("[[-2;1];[1,5;-0,5]]", CalculatorEngine.calculate("inv([[1;2];[3;4]])"));
+        assertEquals("[[-2;1];[1,5;-0,5]]", CalculatorEngine.calculate("[[1;2];[3;4]]^-1"));
+        assertEquals("[[1;3];[2;4]]", CalculatorEngine.calculate("[[1;2];[3;4]]ᵀ"));
+        assertEquals("[[1;2;3]]", CalculatorEngine.calculate("transp([1;2;3])"));
+        assertEquals("[[0,8];[1,4]]", CalculatorEngine.calculate("linsolve([[2;1];[1;3]];[3;5])"));
+    }
+
+    @Test
+    void invalidMatrices() {
+        assertEquals("Ungültiges Argument", CalculatorEngine.calculate("[1;2]+[1;2;3]"));
+        assertEquals("Ungültiges Argument", CalculatorEngine.calculate("[[1;2];[3]]"));
+        assertEquals("Singuläre Matrix", CalculatorEngine.calculate("inv([[1;2];[2;4]])"));
+        assertThrows(IllegalArgumentException.class, () -> new Matrix(2, 2, new double[3]));
+    }
+
+    @Test
+    void blockedProductMatchesTheDefinition() {
+        // Large enough for several blocks and the parallel path, with dimensions that are no multiples of the blocks
+        final Random random = new Random(42);
+        final Matrix a = random(random, 150, 70);
+        final Matrix b = random(random, 70, 130);
+        final Matrix product = a.multiply(b);
+        assertEquals(150, product.getRows());
+        assertEquals(130, product.getColumns());
+        for (int i = 0; i < 150; i += 7) {
+            for (int j = 0; j < 130; j += 5) {
+                double expected = 0;
+                for (int k = 0; k < 70; k++) {
+                    expected += a.get(i, k) * b.get(k, j);
+                }
+                assertEquals(expected, product.get(i, j), 1e-12);
+            }
+        }
+        assertEquals(a.transpose().multiply(a), a.transpose().multiply(a).transpose());
+    }
+
+    @Test
+    void inverseAndSolve() {
+        final Random random = new Random(7);
+        final Matrix a = random(random, 100, 100).add(Matrix.identity(100).multiply(100));
+        final Matrix product = a.multiply(a.inverse());
+        final Matrix b = random(random, 100, 1);
+        final Matrix residual = a.multiply(a.solve(b)).subtract(b);
+        for (int i = 0; i < 100; i++) {
+            for (int j = 0; j < 100; j++) {
+                assertEquals(i == j ? 1 : 0, product.get(i, j), 1e-12);
+            }
+            assertEquals(0, residual.get(i, 0), 1e-12);
+        }
+        assertEquals(-2, new Matrix(2, 2, new double[]{1, 2, 3, 4}).determinant(), 1e-15);
+        assertThrows(ArithmeticException.class, () -> new Matrix(2, 2, new double[]{1, 2, 2, 4}).inverse());
+    }
+
+    private static Matrix random(final Random random, final int rows, final int columns) {
+        final double[] values = new double[rows * columns];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = random.nextDouble() * 2 - 1;
+        }
+        return new Matrix(rows, columns, values);
+    }
+}
@@ -0,0 +1,90 @@
+package ml.programs;
+
+/*
+ * Copyright (c) 2024 by Max Lemberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigInteger;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Tests for the {@link ModularArithmetic} and the operators and functions using it.
+ *
+ * @author Max Lemberg
+ */
+class ModularArithmeticTest {
+
+    @BeforeEach
+    void setUp() {
+        CalculatorEngine.DEBUG = false;
+    }
+
+    @Test
+    void modIsFloored() {
+        assertEquals("2", CalculatorEngine.calculate("17 mod 5"));
+        assertEquals("2", CalculatorEngine.calculate("(-7) mod 3"));
+        assertEquals("-2", CalculatorEngine.calculate("7 mod (-3)"));
+        assertEquals("1,5", CalculatorEngine.calculate("7,5 mod 2"));
+        // Same precedence as ×
+        assertEquals("3", CalculatorEngine.calculate("2+10 mod 3"));
+        assertEquals("Kein Teilen durch 0", CalculatorEngine.calculate("5 mod 0"));
+    }
+
+    @Test
+    void functions() {
+        assertEquals("6", CalculatorEngine.calculate("gcd(12;18)"));
+        assertEquals("12", CalculatorEngine.calculate("lcm(4;6)"));
+        assertEquals("4", CalculatorEngine.calculate("modinv(3;11)"));
+        assertEquals("Nicht definiert", CalculatorEngine.calculate("modinv(2;4)"));
+        assertEquals("Ungültiges Argument", CalculatorEngine.calculate("gcd(2,5;5)"));
+    }
+
+    @Test
+    void powMod() {
+        assertEquals("24", CalculatorEngine.calculate("powmod(2;10;1000)"));
+        assertEquals("136318165", CalculatorEngine.calculate("powmod(3;200;1000000007)"));
+        assertEquals("0", CalculatorEngine.calculate("powmod(2;100;2^80)"));
+        // A negative exponent uses the inverse
+        assertEquals("4", CalculatorEngine.calculate("powmod(2;-1;7)"));
+        assertEquals("1675099231495398762",
+                CalculatorEngine.calculate("powmod(12345678901234567;98765432109876543;9223372036854775783)"));
+        assertEquals("87962138197267997672718864155213642025", CalculatorEngine.calculate(
+                "powmod(12345678901234567;98765432109876543;100000000000000000000000000000000000007)"));
+    }
+
+    @Test
+    void longPathMatchesBigInteger() {
+        final Random random = new Random(11);
+        for (int i = 0; i < 2000; i++) {
+            // Odd and even moduli of all sizes below 2^63
+            final long m = Math.max(2, random.nextLong() >>> (1 + random.nextInt(62)));
+            final long a = Math.floorMod(random.nextLong(), m);
+            final long b = random.nextLong() >>> 1;
+            final long expected = BigInteger.valueOf(a).modPow(BigInteger.valueOf(b), BigInteger.valueOf(m))
+                    .longValueExact();
+            assertEquals(expected, ModularArithmetic.powMod(a, b, m), a + "^" + b + " mod " + m);
+        }
+    }
+
+    @Test
+    void largeIntegerPowers() {
+        assertEquals("1267650600228229401496703205376", CalculatorEngine.calculate("2^100"));
+    }
+}
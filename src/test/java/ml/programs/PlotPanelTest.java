@@ -0,0 +1,141 @@
+package ml.programs;
+
+/*
+ * Copyright (c) 2024 by Max Lemberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.event.MouseEvent;
+import java.awt.event.MouseWheelEvent;
+import java.awt.image.BufferedImage;
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for the {@link PlotPanel}, painted into an image without a window.
+ *
+ * @author Max Lemberg
+ */
+class PlotPanelTest {
+    private static final int SIZE = 200;
+
+    @BeforeAll
+    static void headless() {
+        System.setProperty("java.awt.headless", "true");
+    }
+
+    @BeforeEach
+    void setUp() {
+        CalculatorEngine.DEBUG = false;
+    }
+
+    @Test
+    void paintsCurveThroughItsPoints() {
+        final PlotPanel panel = new PlotPanel();
+        panel.setExpression("x");
+        panel.setRange(-10, 10, -10, 10);
+        final BufferedImage image = paint(panel);
+
+        // The diagonal from the lower left to the upper right corner
+        for (final int x : new int[]{20, 60, 140, 180}) {
+            assertTrue(isCurve(image, x, SIZE - x), "no curve at " + x);
+        }
+        assertTrue(!isCurve(image, 20, 20));
+    }
+
+    @Test
+    void paintsErrorInsteadOfCurve() {
+        final PlotPanel panel = new PlotPanel();
+        panel.setExpression("x+y");
+        final BufferedImage image = paint(panel);
+
+        boolean red = false;
+        for (int x = 0; x < SIZE && !red; x++) {
+            for (int y = 0; y < 40 && !red; y++) {
+                final Color color = new Color(image.getRGB(x, y));
+                red = color.getRed() > 200 && color.getGreen() < 80 && color.getBlue() < 80;
+            }
+        }
+        assertTrue(red);
+    }
+
+    @Test
+    void emptyPanelOnlyPaintsGrid() {
+        final BufferedImage image = paint(new PlotPanel());
+        assertEquals(Color.WHITE.getRGB(), image.getRGB(SIZE / 2 + 5, SIZE / 2 + 5));
+    }
+
+    @Test
+    void rangesNarrowerThanDoublesArePainted() {
+        final PlotPanel panel = new PlotPanel();
+        panel.setExpression("x");
+        // The grid step is below the ulp of 5, adding it up would never reach the right edge
+        panel.setRange(5, 5 + 1e-15, -1, 1);
+        assertTimeoutPreemptively(Duration.ofSeconds(5), () -> paint(panel));
+        panel.setRange(1, 1, 0, 0);
+        assertTimeoutPreemptively(Duration.ofSeconds(5), () -> paint(panel));
+    }
+
+    @Test
+    void deepZoomStopsAtTheResolutionOfDoubles() {
+        final PlotPanel panel = new PlotPanel();
+        panel.setExpression("x");
+        panel.setSize(SIZE, SIZE);
+        // Zoom into the point (-5, -5) of the curve, far beyond the precision of doubles
+        for (int i = 0; i < 1000; i++) {
+            panel.dispatchEvent(new MouseWheelEvent(panel, MouseEvent.MOUSE_WHEEL, 0, 0, SIZE / 4, SIZE * 3 / 4, 0,
+                    false, MouseWheelEvent.WHEEL_UNIT_SCROLL, 1, -1));
+        }
+        final BufferedImage image = assertTimeoutPreemptively(Duration.ofSeconds(5), () -> paint(panel));
+
+        boolean curve = false;
+        for (int x = 4; x < SIZE - 4 && !curve; x += 4) {
+            curve = isCurve(image, x, SIZE - x);
+        }
+        assertTrue(curve);
+    }
+
+    private static BufferedImage paint(final PlotPanel panel) {
+        panel.setSize(SIZE, SIZE);
+        final BufferedImage image = new BufferedImage(SIZE, SIZE, BufferedImage.TYPE_INT_RGB);
+        final Graphics2D graphics = image.createGraphics();
+        panel.paint(graphics);
+        graphics.dispose();
+        return image;
+    }
+
+    /**
+     * @return True if the pixel or one of its neighbours has the blue color of the curve.
+     */
+    private static boolean isCurve(final BufferedImage image, final int x, final int y) {
+        for (int dx = -2; dx <= 2; dx++) {
+            for (int dy = -2; dy <= 2; dy++) {
+                final Color color = new Color(image.getRGB(x + dx, y + dy));
+                if (color.getBlue() > 150 && color.getRed() < 100) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+}
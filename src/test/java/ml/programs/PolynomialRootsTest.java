@@ -0,0 +1,105 @@
+package ml.programs;
+
+/*
+ * Copyright (c) 2024 by Max Lemberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Tests for the {@link PolynomialRoots} and the form roots(.
+ *
+ * @author Max Lemberg
+ */
+class PolynomialRootsTest {
+
+    @BeforeEach
+    void setUp() {
+        CalculatorEngine.DEBUG = false;
+    }
+
+    @Test
+    void lowDegrees() {
+        assertEquals("[-1,5]", CalculatorEngine.calculate("roots(2x+3)"));
+        assertEquals("[-2;2]", CalculatorEngine.calculate("roots(x^2-4)"));
+        assertEquals("[-i;i]", CalculatorEngine.calculate("roots(x^2+1)"));
+        assertEquals("[1;2;3]", CalculatorEngine.calculate("roots(x^3-6x^2+11x-6)"));
+        assertEquals("[-1;-i;i;1]", CalculatorEngine.calculate("roots(x^4-1)"));
+        assertEquals("[-3;3]", CalculatorEngine.calculate("roots(t^2-9;t)"));
+    }
+
+    @Test
+    void multipleRoots() {
+        assertEquals("[1;1]", CalculatorEngine.calculate("roots(x^2-2x+1)"));
+        assertEquals("[1;1;1]", CalculatorEngine.calculate("roots((x-1)^3)"));
+        // The cluster needs a higher precision
+        assertEquals("[1;1;1;1;1;1;1;1;1;1]", CalculatorEngine.calculate("roots((x-1)^10)"));
+    }
+
+    @Test
+    void wilkinsonPolynomial() {
+        final StringBuilder polynomial = new StringBuilder("roots(");
+        final StringBuilder expected = new StringBuilder("[");
+        for (int k = 1; k <= 20; k++) {
+            polynomial.append(k > 1 ? "×" : "").append("(x-").append(k).append(')');
+            expected.append(k > 1 ? ";" : "").append(k);
+        }
+        assertEquals(expected.append(']').toString(), CalculatorEngine.calculate(polynomial.append(')').toString()));
+    }
+
+    @Test
+    void rootsOfUnity() {
+        final BigDecimal[] coefficients = new BigDecimal[21];
+        Arrays.fill(coefficients, BigDecimal.ZERO);
+        coefficients[0] = BigDecimal.ONE.negate();
+        coefficients[20] = BigDecimal.ONE;
+        final double[][] roots = PolynomialRoots.findRoots(coefficients);
+        assertEquals(20, roots[0].length);
+        final double[] angles = new double[20];
+        for (int k = 0; k < 20; k++) {
+            assertEquals(1, Math.hypot(roots[0][k], roots[1][k]), 1e-14);
+            angles[k] = Math.floorMod(Math.round(Math.atan2(roots[1][k], roots[0][k]) / (Math.PI / 10)), 20);
+        }
+        Arrays.sort(angles);
+        for (int k = 0; k < 20; k++) {
+            assertEquals(k, angles[k]);
+        }
+    }
+
+    @Test
+    void parsing() {
+        assertArrayEquals(new BigDecimal[]{new BigDecimal(-1), BigDecimal.ZERO, new BigDecimal(2)},
+                Arrays.stream(PolynomialRoots.parse("3x^2-(x+1)^2+2x", "x"))
+                        .map(BigDecimal::stripTrailingZeros).toArray(BigDecimal[]::new));
+        assertThrows(IllegalArgumentException.class, () -> PolynomialRoots.parse("sin(x)", "x"));
+    }
+
+    @Test
+    void invalidPolynomials() {
+        assertEquals("Keine Lösung", CalculatorEngine.calculate("roots(5)"));
+        assertEquals("Ungültiges Argument", CalculatorEngine.calculate("roots(0)"));
+        assertEquals("Ungültiges Argument", CalculatorEngine.calculate("roots(sin(x))"));
+        // Only the whole expression is a form, before this was the polynomial x^2-3
+        assertEquals("Syntax Fehler", CalculatorEngine.calculate("roots(x^2-4)+1"));
+    }
+}
@@ -0,0 +1,110 @@
+package ml.programs;
+
+/*
+ * Copyright (c) 2024 by Max Lemberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigInteger;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for the {@link PrimeNumbers} and the functions isprime( and factor(.
+ *
+ * @author Max Lemberg
+ */
+class PrimeNumbersTest {
+
+    @BeforeEach
+    void setUp() {
+        CalculatorEngine.DEBUG = false;
+    }
+
+    @Test
+    void primality() {
+        assertEquals("1", CalculatorEngine.calculate("isprime(97)"));
+        assertEquals("0", CalculatorEngine.calculate("isprime(91)"));
+        assertEquals("0", CalculatorEngine.calculate("isprime(1)"));
+        assertEquals("0", CalculatorEngine.calculate("isprime(-7)"));
+        assertEquals("1", CalculatorEngine.calculate("isprime(2^61-1)"));
+        // Above 2^63 the Baillie–PSW test is used
+        assertEquals("1", CalculatorEngine.calculate("isprime(2^89-1)"));
+        assertEquals("3", CalculatorEngine.calculate("2+isprime(5)"));
+    }
+
+    @Test
+    void millerRabinMatchesTrialDivision() {
+        for (long n = -2; n < 100_000; n++) {
+            assertEquals(isPrimeByDivision(n), PrimeNumbers.isPrime(n), Long.toString(n));
+        }
+        // Strong pseudoprimes to several small bases and Carmichael numbers
+        for (final long n : new long[]{561, 3215031751L, 3474749660383L, 3825123056546413051L}) {
+            assertFalse(PrimeNumbers.isPrime(n), Long.toString(n));
+        }
+        assertTrue(PrimeNumbers.isPrime(Long.MAX_VALUE - 24));
+        assertFalse(PrimeNumbers.isPrime(BigInteger.TWO.pow(64).add(BigInteger.ONE)));
+        assertTrue(PrimeNumbers.isPrime(BigInteger.TWO.pow(127).subtract(BigInteger.ONE)));
+    }
+
+    @Test
+    void factorization() {
+        assertEquals("2^3×3^2×5", CalculatorEngine.calculate("factor(360)"));
+        assertEquals("97", CalculatorEngine.calculate("factor(97)"));
+        assertEquals("1", CalculatorEngine.calculate("factor(1)"));
+        assertEquals("-2^2×3", CalculatorEngine.calculate("factor(-12)"));
+        assertEquals("998244353×1000000007", CalculatorEngine.calculate("factor(1000000007×998244353)"));
+        assertEquals("274177×67280421310721", CalculatorEngine.calculate("factor(2^64+1)"));
+        assertEquals("Ungültiges Argument", CalculatorEngine.calculate("factor(0)"));
+        assertEquals("Ungültiges Argument", CalculatorEngine.calculate("factor(2,5)"));
+        // Only the whole expression is factored, before this was the factorization of 13
+        assertEquals("Syntax Fehler", CalculatorEngine.calculate("factor(12)+1"));
+        assertEquals("2^2×3", CalculatorEngine.calculate("factor(12"));
+    }
+
+    @Test
+    void factorsMultiplyToTheNumber() {
+        final SortedMap<BigInteger, Integer> factors = PrimeNumbers.factor(BigInteger.valueOf(600_851_475_143L));
+        assertEquals(new TreeMap<>(Map.of(BigInteger.valueOf(71), 1, BigInteger.valueOf(839), 1,
+                BigInteger.valueOf(1471), 1, BigInteger.valueOf(6857), 1)), factors);
+
+        final BigInteger n = BigInteger.valueOf(2_147_483_647L).pow(2).multiply(BigInteger.valueOf(65_537));
+        BigInteger product = BigInteger.ONE;
+        for (final Map.Entry<BigInteger, Integer> factor : PrimeNumbers.factor(n).entrySet()) {
+            assertTrue(PrimeNumbers.isPrime(factor.getKey()));
+            product = product.multiply(factor.getKey().pow(factor.getValue()));
+        }
+        assertEquals(n, product);
+    }
+
+    private static boolean isPrimeByDivision(final long n) {
+        if (n < 2) {
+            return false;
+        }
+        for (long d = 2; d * d <= n; d++) {
+            if (n % d == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
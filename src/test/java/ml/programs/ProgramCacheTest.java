@@ -0,0 +1,87 @@
+package ml.programs;
+
+/*
+ * Copyright (c) 2024 by Max Lemberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+/**
+ * Tests for the cache of the compiled expressions of the {@link CalculatorEngine}.
+ *
+ * @author Max Lemberg
+ */
+class ProgramCacheTest {
+
+    @BeforeEach
+    void setUp() {
+        CalculatorEngine.DEBUG = false;
+        CalculatorEngine.getProgramCache().clear();
+    }
+
+    @AfterEach
+    void tearDown() {
+        CalculatorEngine.MODE = "Deg";
+        UserFunctions.clear();
+    }
+
+    @Test
+    void reusesCompiledExpression() {
+        final ConcurrentLruCache<String, CalculatorEngine.CompiledExpression> cache = CalculatorEngine.getProgramCache();
+        assertEquals("7", CalculatorEngine.calculate("1+2×3"));
+        final CalculatorEngine.CompiledExpression compiled = cache.get("1+2*3");
+        assertNotNull(compiled);
+        assertNotNull(compiled.program());
+
+        assertEquals("7", CalculatorEngine.calculate("1+2×3"));
+        assertSame(compiled, cache.get("1+2*3"));
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    void programIsIndependentOfTheMode() {
+        assertEquals("-1", CalculatorEngine.calculate("cos(180)"));
+        CalculatorEngine.MODE = "Rad";
+        assertEquals("-0,5984600690578581", CalculatorEngine.calculate("cos(180)"));
+        assertEquals(1, CalculatorEngine.getProgramCache().size());
+    }
+
+    @Test
+    void errorsAreNotCached() {
+        assertEquals("Syntax Fehler", CalculatorEngine.calculate("2+×3"));
+        assertEquals(0, CalculatorEngine.getProgramCache().size());
+    }
+
+    @Test
+    void definitionsClearTheCache() {
+        assertEquals("f(x) definiert", CalculatorEngine.calculate("f(x)=x×2"));
+        assertEquals("8", CalculatorEngine.calculate("f(4)"));
+        // Calls of user-defined functions are cached without a program
+        assertNull(CalculatorEngine.getProgramCache().get("f(4)").program());
+
+        CalculatorEngine.calculate("f(x)=x×3");
+        assertEquals(0, CalculatorEngine.getProgramCache().size());
+        assertEquals("12", CalculatorEngine.calculate("f(4)"));
+        UserFunctions.clear();
+        assertEquals(0, CalculatorEngine.getProgramCache().size());
+        assertEquals("Syntax Fehler", CalculatorEngine.calculate("f(4)"));
+    }
+}
@@ -0,0 +1,91 @@
+package ml.programs;
+
+/*
+ * Copyright (c) 2024 by Max Lemberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * Tests for the result cache of the {@link CalculatorEngine}.
+ *
+ * @author Max Lemberg
+ */
+class ResultCacheTest {
+
+    @BeforeEach
+    void setUp() {
+        CalculatorEngine.DEBUG = false;
+        CalculatorEngine.MODE = "Deg";
+        CalculatorEngine.enableResultCache(100);
+    }
+
+    @AfterEach
+    void tearDown() {
+        CalculatorEngine.disableResultCache();
+        CalculatorEngine.MODE = "Deg";
+        UserFunctions.clear();
+    }
+
+    @Test
+    void reusesCachedResult() {
+        final ConcurrentLruCache<CalculatorEngine.ResultKey, String> cache = CalculatorEngine.getResultCache();
+        assertEquals("5", CalculatorEngine.calculate("2+3"));
+        assertEquals("5", CalculatorEngine.calculate("2+3"));
+
+        assertEquals(1, cache.size());
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+    }
+
+    @Test
+    void cachesErrors() {
+        assertEquals("Kein Teilen durch 0", CalculatorEngine.calculate("1÷0"));
+        assertEquals("Kein Teilen durch 0", CalculatorEngine.calculate("1÷0"));
+        assertEquals(1, CalculatorEngine.getResultCache().getHitCount());
+    }
+
+    @Test
+    void keyContainsAngleMode() {
+        final String degrees = CalculatorEngine.calculate("cos(180)");
+        CalculatorEngine.MODE = "Rad";
+        final String radians = CalculatorEngine.calculate("cos(180)");
+
+        assertEquals("-1", degrees);
+        assertEquals(CalculatorEngine.calculate("cos(180)"), radians);
+        assertEquals(2, CalculatorEngine.getResultCache().size());
+        assertEquals(1, CalculatorEngine.getResultCache().getHitCount());
+    }
+
+    @Test
+    void definitionClearsCache() {
+        assertEquals("f(x) definiert", CalculatorEngine.calculate("f(x)=x×2"));
+        assertEquals("8", CalculatorEngine.calculate("f(4)"));
+        assertEquals("f(x) definiert", CalculatorEngine.calculate("f(x)=x×3"));
+        assertEquals("12", CalculatorEngine.calculate("f(4)"));
+    }
+
+    @Test
+    void disabledCache() {
+        CalculatorEngine.disableResultCache();
+        assertNull(CalculatorEngine.getResultCache());
+        assertEquals("5", CalculatorEngine.calculate("2+3"));
+    }
+}
@@ -0,0 +1,100 @@
+package ml.programs;
+
+/*
+ * Copyright (c) 2024 by Max Lemberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for the {@link SeriesEvaluator} and the forms Σ( and Π(.
+ *
+ * @author Max Lemberg
+ */
+class SeriesEvaluatorTest {
+
+    @BeforeEach
+    void setUp() {
+        CalculatorEngine.DEBUG = false;
+    }
+
+    @Test
+    void sumsAreExactForIntegers() {
+        assertEquals("5050", CalculatorEngine.calculate("Σ(i=1..100; i)"));
+        assertEquals("385", CalculatorEngine.calculate("Σ(i=1..10; i^2)"));
+        assertEquals("0", CalculatorEngine.calculate("Σ(i=-3..3; i)"));
+        // A million terms are split over several tasks
+        assertEquals(500_000_500_000.0, SeriesEvaluator.sum(DoubleExpression.compile("i", "i"), 1, 1_000_000));
+    }
+
+    @Test
+    void compensatedSumOfManyTerms() {
+        // The tail of the Basel series beyond 10^8 is about 10^-8
+        final double sum = SeriesEvaluator.sum(DoubleExpression.compile("1÷i^2", "i"), 1, 100_000_000);
+        assertEquals(Math.PI * Math.PI / 6 - 1e-8, sum, 1e-15);
+    }
+
+    @Test
+    void emptyRanges() {
+        assertEquals("0", CalculatorEngine.calculate("Σ(i=5..1; i)"));
+        assertEquals("1", CalculatorEngine.calculate("Π(i=5..1; i)"));
+    }
+
+    @Test
+    void productsAreExact() {
+        assertEquals("15511210043330985984000000", CalculatorEngine.calculate("Π(i=1..25; i)"));
+
+        // 1000! has 2568 digits, beyond the exact limit it is rounded to the precision of the engine
+        BigInteger factorial = BigInteger.ONE;
+        for (int i = 2; i <= 1000; i++) {
+            factorial = factorial.multiply(BigInteger.valueOf(i));
+        }
+        final BigDecimal product = SeriesEvaluator.product(CalculatorEngine.infixToPostfix(
+                CalculatorEngine.tokenize(CalculatorEngine.normalize("i"))), "i", 1, 1000);
+        assertEquals(new BigDecimal(factorial).round(CalculatorEngine.MC), product);
+    }
+
+    @Test
+    void rejectsIndicesBeyondDoublePrecision() {
+        assertEquals("Ungültiges Argument", CalculatorEngine.calculate("Σ(i=1..10000000000000000000; i)"));
+        assertThrows(IllegalArgumentException.class,
+                () -> SeriesEvaluator.sum(DoubleExpression.compile("i", "i"), 0, (1L << 53) + 1));
+    }
+
+    @Test
+    void interruptStopsSum() throws Exception {
+        final CompletableFuture<Thread> thread = new CompletableFuture<>();
+        final CompletableFuture<String> result = CompletableFuture.supplyAsync(() -> {
+            thread.complete(Thread.currentThread());
+            return CalculatorEngine.calculate("Σ(i=1..1000000000000000; 1÷i^2)");
+        });
+        Thread.sleep(100);
+        thread.get().interrupt();
+
+        final Exception exception = assertThrows(Exception.class, () -> result.get(5, TimeUnit.SECONDS));
+        assertTrue(exception.getCause() instanceof CancellationException, exception.toString());
+    }
+}
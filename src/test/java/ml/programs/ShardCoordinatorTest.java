@@ -0,0 +1,120 @@
+package ml.programs;
+
+/*
+ * Copyright (c) 2024 by Max Lemberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for the {@link ShardCoordinator} with local worker processes.
+ *
+ * @author Max Lemberg
+ */
+class ShardCoordinatorTest {
+
+    @BeforeEach
+    void setUp() {
+        CalculatorEngine.DEBUG = false;
+    }
+
+    @Test
+    void rejectsInvalidArguments() {
+        assertThrows(IllegalArgumentException.class, () -> new ShardCoordinator(0));
+        assertThrows(IllegalArgumentException.class, () -> new ShardCoordinator(1, 0, List.of()));
+    }
+
+    @Test
+    void mergesShardsInOrder() throws IOException {
+        final List<String> expressions = new ArrayList<>();
+        final List<String> expected = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            expressions.add(i + "×3");
+            expected.add(Integer.toString(i * 3));
+        }
+        expressions.add("100×101÷2");
+        expected.add("5050");
+
+        try (ShardCoordinator coordinator = new ShardCoordinator(2, 64, List.of("-Xmx128m"))) {
+            assertEquals(expected, coordinator.calculateAll(expressions));
+        }
+    }
+
+    @Test
+    void restartsCrashedWorkers() throws Exception {
+        try (ShardCoordinator coordinator = new ShardCoordinator(2, 10, List.of())) {
+            assertEquals(List.of("2", "4"), coordinator.calculateAll(List.of("1+1", "2+2")));
+
+            for (final ProcessHandle worker : ProcessHandle.current().children().toList()) {
+                worker.destroyForcibly();
+                worker.onExit().get(10, TimeUnit.SECONDS);
+            }
+
+            final List<String> expressions = new ArrayList<>();
+            final List<String> expected = new ArrayList<>();
+            for (int i = 0; i < 100; i++) {
+                expressions.add(i + "-1");
+                expected.add(Integer.toString(i - 1));
+            }
+            assertEquals(expected, coordinator.calculateAll(expressions));
+        }
+    }
+
+    @Test
+    void errorAnswersDoNotRestartWorkers() throws IOException {
+        try (ShardCoordinator coordinator = new ShardCoordinator(1, 10, List.of())) {
+            final List<Long> workers = ProcessHandle.current().children().map(ProcessHandle::pid).toList();
+            // Runs into the worker's default timeout, which is answered as the result of this expression
+            assertEquals(List.of("Zeitüberschreitung", "2"),
+                    coordinator.calculateAll(List.of("Σ(i=1..1000000000000000; 1÷i^2)", "1+1")));
+            assertEquals(workers, ProcessHandle.current().children().map(ProcessHandle::pid).toList());
+        }
+    }
+
+    @Test
+    void workersGetModuleOptions() throws IOException {
+        // The tests run with --add-modules jdk.incubator.vector, see the surefire configuration
+        try (ShardCoordinator coordinator = new ShardCoordinator(1, 10, List.of("-Xmx128m"))) {
+            final List<String> arguments = List.of(ProcessHandle.current().children().findFirst().orElseThrow()
+                    .info().arguments().orElseThrow());
+            assertTrue(arguments.contains("--add-modules=jdk.incubator.vector"), arguments.toString());
+            assertTrue(arguments.indexOf("--add-modules=jdk.incubator.vector") < arguments.indexOf("-Xmx128m"));
+            assertEquals(List.of("5050"), coordinator.calculateAll(List.of("100×101÷2")));
+        }
+    }
+
+    @Test
+    void closeStopsWorkers() throws IOException {
+        final List<ProcessHandle> workers;
+        try (ShardCoordinator coordinator = new ShardCoordinator(2, 10, List.of())) {
+            workers = ProcessHandle.current().children().toList();
+            assertEquals(2, workers.size());
+        }
+        for (final ProcessHandle worker : workers) {
+            assertFalse(worker.isAlive());
+        }
+    }
+}
@@ -0,0 +1,179 @@
+package ml.programs;
+
+/*
+ * Copyright (c) 2024 by Max Lemberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for the {@link StreamingStatistics}, the {@link QuantileSketch}, the {@link NumericData} and the statistic
+ * forms.
+ *
+ * @author Max Lemberg
+ */
+class StreamingStatisticsTest {
+
+    @TempDir
+    Path directory;
+
+    @BeforeEach
+    void setUp() {
+        CalculatorEngine.DEBUG = false;
+        SpecialForms.setDataDirectory(directory);
+    }
+
+    @AfterEach
+    void tearDown() {
+        SpecialForms.setDataDirectory(null);
+    }
+
+    @Test
+    void pastedColumns() {
+        assertEquals("4", CalculatorEngine.calculate("count({1;2;3;4})"));
+        assertEquals("10", CalculatorEngine.calculate("sum({1;2;3;4})"));
+        assertEquals("2,5", CalculatorEngine.calculate("mean({1;2;3;4})"));
+        assertEquals("1,66666666666667", CalculatorEngine.calculate("var({1;2;3;4})"));
+        assertEquals("2,1380899352994", CalculatorEngine.calculate("stdev({2;4;4;4;5;5;7;9})"));
+        assertEquals("-1", CalculatorEngine.calculate("min({3;-1;2})"));
+        assertEquals("3", CalculatorEngine.calculate("max({3;-1;2})"));
+        assertEquals("2,5", CalculatorEngine.calculate("median({1;2;3;4})"));
+        assertEquals("3", CalculatorEngine.calculate("median({5;1;3})"));
+        assertEquals("2", CalculatorEngine.calculate("quantile({1;2;3;4;5};0,25)"));
+        assertEquals("4", CalculatorEngine.calculate("2×mean({1;2;3})"));
+    }
+
+    @Test
+    void regression() {
+        assertEquals("2", CalculatorEngine.calculate("slope({1 2;2 4;3 6})"));
+        assertEquals("1", CalculatorEngine.calculate("intercept({1 3;2 5;3 7})"));
+        assertEquals("1", CalculatorEngine.calculate("corr({1 2;2 4;3 6})"));
+    }
+
+    @Test
+    void invalidData() {
+        assertEquals("Nicht definiert", CalculatorEngine.calculate("mean({})"));
+        assertEquals("Ungültiges Argument", CalculatorEngine.calculate("quantile({1;2};2)"));
+        assertEquals("Datei nicht lesbar",
+                CalculatorEngine.calculate("mean(\"" + directory.resolve("fehlt.txt") + "\")"));
+    }
+
+    @Test
+    void files() throws IOException {
+        final Path file = directory.resolve("messwerte.txt");
+        Files.writeString(file, "1 2\n2 4\n3 6,5\n4 8\n");
+        assertEquals("2,5", CalculatorEngine.calculate("mean(\"" + file + "\")"));
+        assertEquals("2,05", CalculatorEngine.calculate("slope(\"" + file + "\")"));
+        // Relative to the data directory
+        assertEquals("2,5", CalculatorEngine.calculate("mean(\"messwerte.txt\")"));
+    }
+
+    @Test
+    void filesOutsideTheDataDirectoryAreRejected() throws IOException {
+        final Path data = Files.createDirectory(directory.resolve("daten"));
+        Files.writeString(directory.resolve("geheim.txt"), "1\n2\n");
+        Files.createSymbolicLink(data.resolve("link.txt"), directory.resolve("geheim.txt"));
+        SpecialForms.setDataDirectory(data);
+        assertEquals("Dateizugriff nicht erlaubt", CalculatorEngine.calculate("mean(\"../geheim.txt\")"));
+        assertEquals("Dateizugriff nicht erlaubt", CalculatorEngine.calculate("mean(\"" + directory.resolve("geheim.txt") + "\")"));
+        assertEquals("Dateizugriff nicht erlaubt", CalculatorEngine.calculate("mean(\"link.txt\")"));
+
+        SpecialForms.setDataDirectory(null);
+        assertEquals("Dateizugriff nicht erlaubt", CalculatorEngine.calculate("mean(\"geheim.txt\")"));
+    }
+
+    @Test
+    void largeFilesAreReadInChunks() throws IOException {
+        // About 11 MB, so the file is split into two chunks and a line crosses the border
+        final Path file = directory.resolve("gross.txt");
+        final int rows = 1_000_000;
+        try (Writer writer = Files.newBufferedWriter(file, StandardCharsets.US_ASCII)) {
+            for (int i = 1; i <= rows; i++) {
+                writer.write(i + ",25\n");
+            }
+        }
+        final StreamingStatistics statistics = NumericData.readFile(file);
+        assertEquals(rows, statistics.getCount());
+        assertEquals((rows + 1) / 2.0 + 0.25, statistics.getMean(), 1e-9);
+        assertEquals(1.25, statistics.getMin());
+        assertEquals(rows + 0.25, statistics.getMax());
+        assertEquals((double) rows * (rows + 1) / 2 + rows * 0.25, statistics.getSum());
+    }
+
+    @Test
+    void mergedStatisticsMatchSequentialOnes() {
+        final Random random = new Random(3);
+        final StreamingStatistics all = new StreamingStatistics();
+        final StreamingStatistics first = new StreamingStatistics();
+        final StreamingStatistics second = new StreamingStatistics();
+        for (int i = 0; i < 10_000; i++) {
+            final double x = random.nextGaussian() * 10 + 1e6;
+            final double y = 3 * x + random.nextGaussian();
+            all.add(x, y);
+            (i < 3000 ? first : second).add(x, y);
+        }
+        first.merge(second);
+        assertEquals(all.getCount(), first.getCount());
+        assertEquals(all.getMean(), first.getMean(), 1e-8);
+        assertEquals(all.getVariance(), first.getVariance(), 1e-9);
+        assertEquals(all.getSlope(), first.getSlope(), 1e-9);
+        assertEquals(all.getCorrelation(), first.getCorrelation(), 1e-12);
+        // Welford's algorithm keeps the variance accurate despite the large mean
+        assertEquals(100, all.getVariance(), 5);
+    }
+
+    @Test
+    void sketchIsExactForFewValues() {
+        final QuantileSketch sketch = new QuantileSketch();
+        for (int i = 100; i >= 1; i--) {
+            sketch.add(i);
+        }
+        sketch.add(Double.NaN);
+        assertEquals(100, sketch.getCount());
+        assertEquals(1, sketch.getQuantile(0));
+        assertEquals(100, sketch.getQuantile(1));
+        assertEquals(50.5, sketch.getQuantile(0.5));
+    }
+
+    @Test
+    void sketchHasOnePercentAccuracy() {
+        final QuantileSketch left = new QuantileSketch();
+        final QuantileSketch right = new QuantileSketch();
+        for (int i = 1; i <= 100_000; i++) {
+            (i % 2 == 0 ? left : right).add(i);
+            (i % 2 == 0 ? left : right).add(-i);
+        }
+        left.merge(right);
+        assertEquals(200_000, left.getCount());
+        for (final double q : new double[]{0.05, 0.25, 0.75, 0.99}) {
+            final double expected = (2 * q - 1) * 100_000;
+            final double actual = left.getQuantile(q);
+            assertTrue(Math.abs(actual - expected) <= 0.011 * Math.abs(expected) + 1, q + ": " + actual);
+        }
+    }
+}
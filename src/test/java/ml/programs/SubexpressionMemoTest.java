@@ -0,0 +1,103 @@
+package ml.programs;
+
+/*
+ * Copyright (c) 2024 by Max Lemberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Tests for the subexpression memo of the {@link CalculatorEngine}.
+ *
+ * @author Max Lemberg
+ */
+class SubexpressionMemoTest {
+    private static final List<String> EXPRESSIONS = List.of("sin(37)+1", "sin(37)×2", "ln(2)+√2", "25!÷24!", "2^10+2^10",
+            "√(2)×√(2)", "3√(27)", "cos(60)", "tan(45)", "ln(0)", "√(-4)", "1÷0", "(2+3)×4");
+
+    @BeforeEach
+    void setUp() {
+        CalculatorEngine.DEBUG = false;
+        CalculatorEngine.MODE = "Deg";
+    }
+
+    @AfterEach
+    void tearDown() {
+        CalculatorEngine.disableSubexpressionMemo();
+        CalculatorEngine.MODE = "Deg";
+    }
+
+    @Test
+    void resultsMatchEvaluationWithoutMemo() {
+        final List<String> expected = calculateAll();
+        CalculatorEngine.enableSubexpressionMemo(1000);
+        assertEquals(expected, calculateAll());
+        // The second run is served from the memo
+        assertEquals(expected, calculateAll());
+    }
+
+    @Test
+    void sharesSubtermsAcrossExpressions() {
+        CalculatorEngine.enableSubexpressionMemo(1000);
+        final ConcurrentLruCache<CalculatorEngine.SubexpressionKey, BigDecimal> memo = CalculatorEngine.getSubexpressionMemo();
+        CalculatorEngine.calculate("sin(37)+1");
+        final long hits = memo.getHitCount();
+        CalculatorEngine.calculate("sin(37)×2");
+        assertEquals(hits + 1, memo.getHitCount());
+    }
+
+    @Test
+    void keyContainsAngleMode() {
+        CalculatorEngine.enableSubexpressionMemo(1000);
+        final String degrees = CalculatorEngine.calculate("cos(180)");
+        CalculatorEngine.MODE = "Rad";
+        final String radians = CalculatorEngine.calculate("cos(180)");
+        CalculatorEngine.disableSubexpressionMemo();
+
+        assertEquals("-1", degrees);
+        assertEquals(CalculatorEngine.calculate("cos(180)"), radians);
+    }
+
+    @Test
+    void cheapOperatorsAreNotMemoized() {
+        CalculatorEngine.enableSubexpressionMemo(1000);
+        CalculatorEngine.calculate("1+2×3-4");
+        assertEquals(0, CalculatorEngine.getSubexpressionMemo().size());
+    }
+
+    @Test
+    void errorsAreNotMemoized() {
+        CalculatorEngine.enableSubexpressionMemo(1000);
+        assertEquals("Nicht definiert", CalculatorEngine.calculate("ln(0)"));
+        assertEquals("Nicht definiert", CalculatorEngine.calculate("ln(0)"));
+        assertEquals(0, CalculatorEngine.getSubexpressionMemo().size());
+    }
+
+    private static List<String> calculateAll() {
+        final List<String> results = new ArrayList<>();
+        for (final String expression : EXPRESSIONS) {
+            results.add(CalculatorEngine.calculate(expression));
+        }
+        return results;
+    }
+}
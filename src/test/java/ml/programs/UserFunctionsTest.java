@@ -0,0 +1,122 @@
+package ml.programs;
+
+/*
+ * Copyright (c) 2024 by Max Lemberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for the {@link UserFunctions}.
+ *
+ * @author Max Lemberg
+ */
+class UserFunctionsTest {
+
+    @BeforeEach
+    void setUp() {
+        CalculatorEngine.DEBUG = false;
+    }
+
+    @AfterEach
+    void tearDown() {
+        UserFunctions.clear();
+        CalculatorEngine.MODE = "Deg";
+    }
+
+    @Test
+    void definitionsAndCalls() {
+        assertTrue(UserFunctions.isDefinition("g(x;y) = x^2+y"));
+        assertFalse(UserFunctions.isDefinition("g(3)==4"));
+        assertEquals("g(x;y) definiert", CalculatorEngine.calculate("g(x;y) = x^2+y"));
+        assertEquals("13", CalculatorEngine.calculate("g(3;4)"));
+        assertEquals("Syntax Fehler", CalculatorEngine.calculate("g(1)"));
+        assertEquals("k(x) definiert", CalculatorEngine.calculate("k(x)=x+1"));
+        assertEquals("4", CalculatorEngine.calculate("k(k(2))"));
+        assertEquals(Set.of("g", "k"), UserFunctions.getNames());
+        assertEquals("Syntax Fehler", CalculatorEngine.calculate("u(3)"));
+    }
+
+    @Test
+    void builtInNamesAreReserved() {
+        assertEquals("Ungültiger Name", CalculatorEngine.calculate("sin(x) = x"));
+        assertEquals("0", CalculatorEngine.calculate("sin(0)"));
+    }
+
+    @Test
+    void specialFormsAndPlotsInlineFunctions() {
+        CalculatorEngine.calculate("g(x;y) = x^2+y");
+        CalculatorEngine.calculate("k(x) = g(x;1)-1");
+        assertEquals("3", CalculatorEngine.calculate("solve(g(x;1)=10; x)"));
+        assertEquals("6", CalculatorEngine.calculate("d/dx(k(x); 3)"));
+        assertEquals("14", CalculatorEngine.calculate("Σ(i=1..3; k(i))"));
+        assertEquals("9", CalculatorEngine.calculate("∫(0; 3; k(x))"));
+        assertEquals(16, FunctionSampler.of("k(x)+g(2;3)-7").getFunction().evaluate(4), 1e-12);
+        assertEquals("Syntax Fehler", CalculatorEngine.calculate("Σ(i=1..3; g(i))"));
+    }
+
+    @Test
+    void recursiveFunctionsCannotBeInlined() {
+        CalculatorEngine.calculate("f(n) = n<2 ? n : f(n-1)+f(n-2)");
+        assertEquals("Rekursion nicht unterstützt", CalculatorEngine.calculate("Σ(i=1..3; f(i))"));
+        assertEquals("Rekursion nicht unterstützt", CalculatorEngine.calculate("solve(f(x)=5; x)"));
+    }
+
+    @Test
+    void recursionIsMemoized() {
+        CalculatorEngine.calculate("f(n) = n<2 ? n : f(n-1)+f(n-2)");
+        assertEquals("832041", CalculatorEngine.calculate("f(30)+1"));
+        // Without the memo this would take 2^90 calls
+        assertTimeoutPreemptively(Duration.ofSeconds(10),
+                () -> assertEquals("2880067194370816120", CalculatorEngine.calculate("f(90)")));
+    }
+
+    @Test
+    void deepRecursionNeedsNoThreadStack() {
+        CalculatorEngine.calculate("s(n) = n<1 ? 0 : n+s(n-1)");
+        assertEquals("5000050000", CalculatorEngine.calculate("s(100000)"));
+        CalculatorEngine.calculate("h(x) = h(x)");
+        assertEquals("Rekursion zu tief", CalculatorEngine.calculate("h(1)"));
+    }
+
+    @Test
+    void redefinitionClearsTheMemos() {
+        CalculatorEngine.calculate("f(x) = x");
+        CalculatorEngine.calculate("g(x) = f(x)+1");
+        assertEquals("2", CalculatorEngine.calculate("g(1)"));
+        CalculatorEngine.calculate("f(x) = 2×x");
+        assertEquals("3", CalculatorEngine.calculate("g(1)"));
+        UserFunctions.clear();
+        assertEquals("Syntax Fehler", CalculatorEngine.calculate("g(1)"));
+    }
+
+    @Test
+    void memoDependsOnTheAngleMode() {
+        CalculatorEngine.calculate("d(x) = sin(x)");
+        assertEquals("1", CalculatorEngine.calculate("d(90)"));
+        CalculatorEngine.MODE = "Rad";
+        assertEquals("0,8939966636005579", CalculatorEngine.calculate("d(90)"));
+    }
+}